@@ -29,6 +29,16 @@ public class ApplicationPropertiesConstants {
 
     public static final String __SPRING_MAIL_LOGGING_STRATEGY = __SPRING_MAIL_LOGGING + DOT + "strategy";
 
+    public static final String __SPRING_MAIL_TRANSPORT_POOL = "spring.mail.transportPool";
+
+    public static final String __SPRING_MAIL_RELAY_GROUP = "spring.mail.relayGroup";
+
+    public static final String __SPRING_MAIL_TIMEOUT = "spring.mail.timeout";
+
+    public static final String __SPRING_MAIL_INLINE_PICTURE_CACHE = "spring.mail.inlinePictureCache";
+
+    public static final String __SPRING_MAIL_ENCODED_PART_CACHE = "spring.mail.encodedPartCache";
+
     public static final String SPRING_MAIL_HOST = "spring.mail.host";
 
     public static final String SPRING_MAIL_PORT = "spring.mail.port";
@@ -43,10 +53,44 @@ public class ApplicationPropertiesConstants {
 
     public static final String SPRING_MAIL_PROPERTIES_MAIL_SMTP_STARTTLS_REQUIRED = "spring.mail.properties.mail.smtp.starttls.required";
 
+    public static final String SPRING_MAIL_TRANSPORT_POOL_ENABLED = __SPRING_MAIL_TRANSPORT_POOL + DOT + "enabled";
+
+    public static final String SPRING_MAIL_TRANSPORT_POOL_MAX_SIZE = __SPRING_MAIL_TRANSPORT_POOL + DOT + "maxSize";
+
+    public static final String SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS = __SPRING_MAIL_TRANSPORT_POOL + DOT + "idleTimeoutMillis";
+
+    public static final String SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS = __SPRING_MAIL_TRANSPORT_POOL + DOT + "validationIntervalMillis";
+
+    public static final String SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION = __SPRING_MAIL_TRANSPORT_POOL + DOT + "maxMessagesPerConnection";
+
+    public static final String SPRING_MAIL_RELAY_GROUP_ENABLED = __SPRING_MAIL_RELAY_GROUP + DOT + "enabled";
+
+    public static final String SPRING_MAIL_TIMEOUT_CONNECT_MILLIS = __SPRING_MAIL_TIMEOUT + DOT + "connectMillis";
+
+    public static final String SPRING_MAIL_TIMEOUT_READ_MILLIS = __SPRING_MAIL_TIMEOUT + DOT + "readMillis";
+
+    public static final String SPRING_MAIL_INLINE_PICTURE_CACHE_ENABLED = __SPRING_MAIL_INLINE_PICTURE_CACHE + DOT + "enabled";
+
+    public static final String SPRING_MAIL_INLINE_PICTURE_CACHE_MAX_BYTES = __SPRING_MAIL_INLINE_PICTURE_CACHE + DOT + "maxBytes";
+
+    public static final String SPRING_MAIL_ENCODED_PART_CACHE_ENABLED = __SPRING_MAIL_ENCODED_PART_CACHE + DOT + "enabled";
+
+    public static final String SPRING_MAIL_ENCODED_PART_CACHE_MAX_BYTES = __SPRING_MAIL_ENCODED_PART_CACHE + DOT + "maxBytes";
+
     public static final String SPRING_MAIL_SCHEDULER_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "enabled";
 
     public static final String SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS = __SPRING_MAIL_SCHEDULER + DOT + "priorityLevels";
 
+    public static final String SPRING_MAIL_SCHEDULER_SEND_BATCH_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "sendBatchSize";
+
+    public static final String SPRING_MAIL_SCHEDULER_SEND_TIMEOUT_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "sendTimeoutMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_SEND_MAX_THREADS = __SPRING_MAIL_SCHEDULER + DOT + "sendMaxThreads";
+
+    public static final String SPRING_MAIL_SCHEDULER_SEND_MAX_ATTEMPTS = __SPRING_MAIL_SCHEDULER + DOT + "sendMaxAttempts";
+
+    public static final String SPRING_MAIL_SCHEDULER_SEND_RETRY_BACKOFF_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "sendRetryBackoffMillis";
+
     public static final String SPRING_MAIL_PERSISTENCE_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.enabled";
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DESIRED_BATCH_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.desiredBatchSize";
@@ -55,6 +99,52 @@ public class ApplicationPropertiesConstants {
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_MAX_KEPT_IN_MEMORY = __SPRING_MAIL_SCHEDULER + DOT + "persistence.maxKeptInMemory";
 
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CLAIM_BATCHES = __SPRING_MAIL_SCHEDULER + DOT + "persistence.claimBatches";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.writeBehind.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_BATCH_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.writeBehind.batchSize";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_FLUSH_INTERVAL_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.writeBehind.flushIntervalMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_BUFFER_CAPACITY = __SPRING_MAIL_SCHEDULER + DOT + "persistence.writeBehind.bufferCapacity";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_DURABILITY = __SPRING_MAIL_SCHEDULER + DOT + "persistence.writeBehind.durability";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.deletionBuffer.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_BATCH_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.deletionBuffer.batchSize";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_FLUSH_INTERVAL_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.deletionBuffer.flushIntervalMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_FAILURE_THRESHOLD = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.failureThreshold";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_CALL_TIMEOUT_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.callTimeoutMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.openDurationMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_SPILL_FILE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.spillFile";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_SPILL_MAX_BYTES = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.spillMaxBytes";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_REPLAY_BATCH_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.circuitBreaker.replayBatchSize";
+
+    public static final String SPRING_MAIL_SCHEDULER_SNAPSHOT_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "snapshot.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_SNAPSHOT_FILE = __SPRING_MAIL_SCHEDULER + DOT + "snapshot.file";
+
+    public static final String SPRING_MAIL_SCHEDULER_SENT_HISTORY_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "sentHistory.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_SENT_HISTORY_STORE = __SPRING_MAIL_SCHEDULER + DOT + "sentHistory.store";
+
+    public static final String SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "sentHistory.ttlMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_SENT_HISTORY_MAX_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "sentHistory.maxSize";
+
+    public static final String SPRING_MAIL_SCHEDULER_CONCURRENCY_ADAPTIVE = __SPRING_MAIL_SCHEDULER + DOT + "concurrency.adaptive";
+
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.enabled";
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.embedded";
@@ -63,8 +153,38 @@ public class ApplicationPropertiesConstants {
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.port";
 
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CLIENT = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.client";
+
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.settings";
 
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.compression";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.compressionThreshold";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_DEDUPLICATE_ATTACHMENTS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.deduplicateAttachments";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.namespace";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PARTITIONS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.partitions";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CACHE_MAX_BYTES = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.cacheMaxBytes";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.streams.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_CONSUMER_GROUP = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.streams.consumerGroup";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.jdbc.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_TABLE_NAME = __SPRING_MAIL_SCHEDULER + DOT + "persistence.jdbc.tableName";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_INITIALIZE_SCHEMA = __SPRING_MAIL_SCHEDULER + DOT + "persistence.jdbc.initializeSchema";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.journal.enabled";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_DIRECTORY = __SPRING_MAIL_SCHEDULER + DOT + "persistence.journal.directory";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_SEGMENT_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "persistence.journal.segmentSize";
+
     public static final String SPRING_MAIL_LOGGING_ENABLED = __SPRING_MAIL_LOGGING + DOT + "enabled";
 
     public static final String SPRING_MAIL_LOGGING_STRATEGY_FROM = __SPRING_MAIL_LOGGING_STRATEGY + DOT + "from";
@@ -17,17 +17,18 @@
 package it.ozimov.springboot.mail.configuration;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
-import redis.clients.jedis.JedisShardInfo;
 
 import javax.annotation.PreDestroy;
 import java.util.List;
 
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CLIENT;
 import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT;
 import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS;
 import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_EMBEDDED_REDIS;
@@ -42,21 +43,29 @@ public class EmailEmbeddedRedisConfiguration {
 
     private static final String REDIS_SETTINGS = "#{'${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS + ":appendonly yes,appendfsync everysec}'.split(',')}";
 
+    private static final String REDIS_CLIENT = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CLIENT + ":JEDIS}";
+
     private EmailEmbeddedRedis emailEmbeddedRedis;
-    private JedisConnectionFactory connectionFactory;
+    private RedisClientType redisClientType;
+    private int redisPort;
+    private RedisConnectionFactory connectionFactory;
+
+    public EmailEmbeddedRedisConfiguration(final int redisPort, final List<String> redisSettings) {
+        this(redisPort, redisSettings, RedisClientType.JEDIS);
+    }
 
+    @Autowired
     public EmailEmbeddedRedisConfiguration(@Value(REDIS_PORT) final int redisPort,
-                                           @Value(REDIS_SETTINGS) final List<String> redisSettings) {
+                                           @Value(REDIS_SETTINGS) final List<String> redisSettings,
+                                           @Value(REDIS_CLIENT) final RedisClientType redisClientType) {
 
         emailEmbeddedRedis =
                 new EmailEmbeddedRedis(redisPort, redisSettings.stream().map(s -> s.trim()).collect(toSet()))
                         .start();
 
-        JedisShardInfo shardInfo = new JedisShardInfo("localhost", redisPort);
-        connectionFactory = new JedisConnectionFactory();
-        connectionFactory.setShardInfo(shardInfo);
-        connectionFactory.setUsePool(true);
-        connectionFactory.getPoolConfig().setMaxTotal(10_000);
+        this.redisClientType = redisClientType;
+        this.redisPort = redisPort;
+        connectionFactory = redisClientType.createConnectionFactory("localhost", redisPort);
     }
 
 
@@ -75,10 +84,14 @@ public class EmailEmbeddedRedisConfiguration {
     public void preDestroy() {
         //Stopping REDIS
         emailEmbeddedRedis.stopRedis();
-        //Stopping Jedis Connection Factory
-        log.info("Destroying Jedis connection factory on host {} and port {}.", connectionFactory.getHostName(), connectionFactory.getPort());
-        connectionFactory.destroy();
-        log.info("Destroyed Jedis connection factory on host {} and port {}.", connectionFactory.getHostName(), connectionFactory.getPort());
+        //Stopping REDIS Connection Factory
+        log.info("Destroying {} connection factory on host localhost and port {}.", redisClientType, redisPort);
+        try {
+            ((DisposableBean) connectionFactory).destroy();
+        } catch (Exception e) {
+            log.warn("Cannot destroy {} connection factory on host localhost and port {}.", redisClientType, redisPort, e);
+        }
+        log.info("Destroyed {} connection factory on host localhost and port {}.", redisClientType, redisPort);
     }
 
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_HOST;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_LETTUCE_REDIS;
+
+/**
+ * Connection to an external REDIS server through a single Lettuce connection shared by all the threads. Without this
+ * configuration the connection to an external REDIS server is the one configured by Spring Boot.
+ */
+@Configuration
+@ConditionalOnExpression(PERSISTENCE_IS_ENABLED_WITH_LETTUCE_REDIS)
+@Slf4j
+public class EmailLettuceRedisConfiguration {
+
+    private static final String REDIS_HOST = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_HOST + ":localhost}";
+
+    private static final String REDIS_PORT = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT + ":6379}";
+
+    private final String redisHost;
+    private final int redisPort;
+
+    public EmailLettuceRedisConfiguration(@Value(REDIS_HOST) final String redisHost,
+                                          @Value(REDIS_PORT) final int redisPort) {
+        this.redisHost = redisHost;
+        this.redisPort = redisPort;
+    }
+
+    @Bean
+    public RedisConnectionFactory redisConnectionFactory() {
+        log.info("Connecting to REDIS on host {} and port {} with a shared Lettuce connection.", redisHost, redisPort);
+        return RedisClientType.LETTUCE.createConnectionFactory(redisHost, redisPort);
+    }
+
+}
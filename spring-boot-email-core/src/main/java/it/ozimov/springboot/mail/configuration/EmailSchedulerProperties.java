@@ -24,7 +24,9 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 
 import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_SCHEDULER;
+import static com.google.common.base.Strings.isNullOrEmpty;
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 @Builder
 @Data
@@ -40,9 +42,33 @@ public class EmailSchedulerProperties {
     // spring.mail.scheduler.priorityLevels
     private Integer priorityLevels = 10;
 
+    // spring.mail.scheduler.sendBatchSize
+    private Integer sendBatchSize = 1;
+
+    // spring.mail.scheduler.sendTimeoutMillis
+    private Long sendTimeoutMillis = 120_000L;
+
+    // spring.mail.scheduler.sendMaxThreads
+    private Integer sendMaxThreads = 16;
+
+    // spring.mail.scheduler.sendMaxAttempts
+    private Integer sendMaxAttempts = 5;
+
+    // spring.mail.scheduler.sendRetryBackoffMillis
+    private Long sendRetryBackoffMillis = 1_000L;
+
     // spring.mail.scheduler.persistence.*
     private Persistence persistence = new Persistence();
 
+    // spring.mail.scheduler.snapshot.*
+    private Snapshot snapshot;
+
+    // spring.mail.scheduler.sentHistory.*
+    private SentHistory sentHistory;
+
+    // spring.mail.scheduler.concurrency.*
+    private Concurrency concurrency;
+
     @Builder
     @Data
     @NoArgsConstructor
@@ -58,6 +84,169 @@ public class EmailSchedulerProperties {
         // spring.mail.scheduler.persistence.maxKeptInMemory
         private int maxKeptInMemory = 2000;
 
+        // spring.mail.scheduler.persistence.claimBatches
+        private boolean claimBatches = false;
+
+        // spring.mail.scheduler.persistence.writeBehind.*
+        private WriteBehind writeBehind;
+
+        // spring.mail.scheduler.persistence.deletionBuffer.*
+        private DeletionBuffer deletionBuffer;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.*
+        private CircuitBreaker circuitBreaker;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class WriteBehind {
+
+        // spring.mail.scheduler.persistence.writeBehind.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.persistence.writeBehind.batchSize
+        private int batchSize = 100;
+
+        // spring.mail.scheduler.persistence.writeBehind.flushIntervalMillis
+        private long flushIntervalMillis = 100;
+
+        // spring.mail.scheduler.persistence.writeBehind.bufferCapacity
+        private int bufferCapacity = 10_000;
+
+        // spring.mail.scheduler.persistence.writeBehind.durability
+        private Durability durability = Durability.BUFFERED;
+
+        public enum Durability {
+            /**
+             * Scheduling returns once the email is in the write-behind buffer.
+             */
+            BUFFERED,
+            /**
+             * Scheduling returns once the batch containing the email is written to the persistence layer.
+             */
+            FLUSHED
+        }
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DeletionBuffer {
+
+        // spring.mail.scheduler.persistence.deletionBuffer.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.persistence.deletionBuffer.batchSize
+        private int batchSize = 100;
+
+        // spring.mail.scheduler.persistence.deletionBuffer.flushIntervalMillis
+        private long flushIntervalMillis = 100;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CircuitBreaker {
+
+        // spring.mail.scheduler.persistence.circuitBreaker.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.failureThreshold
+        private int failureThreshold = 5;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.callTimeoutMillis
+        private long callTimeoutMillis = 1_000;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.openDurationMillis
+        private long openDurationMillis = 10_000;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.spillFile
+        private String spillFile = "email-persistence.spill";
+
+        // spring.mail.scheduler.persistence.circuitBreaker.spillMaxBytes
+        private long spillMaxBytes = 67_108_864;
+
+        // spring.mail.scheduler.persistence.circuitBreaker.replayBatchSize
+        private int replayBatchSize = 100;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Snapshot {
+
+        // spring.mail.scheduler.snapshot.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.snapshot.file
+        private String file = "email-scheduler.snapshot";
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SentHistory {
+
+        // spring.mail.scheduler.sentHistory.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.sentHistory.store
+        private Store store = Store.MEMORY;
+
+        // spring.mail.scheduler.sentHistory.ttlMillis
+        private long ttlMillis = 86_400_000;
+
+        // spring.mail.scheduler.sentHistory.maxSize
+        private long maxSize = 100_000;
+
+        public enum Store {
+            /**
+             * The keys are kept in a bounded in-memory cache, lost on restart.
+             */
+            MEMORY,
+            /**
+             * The keys are kept in REDIS, hence shared across restarts and instances. Requires the REDIS persistence.
+             */
+            REDIS
+        }
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Concurrency {
+
+        // spring.mail.scheduler.concurrency.adaptive
+        private boolean adaptive = false;
+
+        // spring.mail.scheduler.concurrency.initialLimit
+        private int initialLimit = 1;
+
+        // spring.mail.scheduler.concurrency.minLimit
+        private int minLimit = 1;
+
+        // spring.mail.scheduler.concurrency.maxLimit
+        private int maxLimit = 16;
+
+        // spring.mail.scheduler.concurrency.latencyThresholdMillis
+        private long latencyThresholdMillis = 2_000;
+
+        // spring.mail.scheduler.concurrency.backoffRatio
+        private double backoffRatio = 0.5;
+
     }
 
     @PostConstruct
@@ -74,6 +263,21 @@ public class EmailSchedulerProperties {
         Preconditions.checkState(emailSchedulerProperties.getPriorityLevels() > 0,
                 "Expected at least one priority level. Review property 'spring.mail.scheduler.priorityLevels'.");
 
+        Preconditions.checkState(isNull(emailSchedulerProperties.getSendBatchSize()) || emailSchedulerProperties.getSendBatchSize() > 0,
+                "Expected at least one email sent per batch. Review property 'spring.mail.scheduler.sendBatchSize'.");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getSendTimeoutMillis()) || emailSchedulerProperties.getSendTimeoutMillis() >= 0,
+                "Expected a non negative send timeout. Review property 'spring.mail.scheduler.sendTimeoutMillis'.");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getSendMaxThreads()) || emailSchedulerProperties.getSendMaxThreads() > 0,
+                "Expected at least one send thread. Review property 'spring.mail.scheduler.sendMaxThreads'.");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getSendMaxAttempts()) || emailSchedulerProperties.getSendMaxAttempts() > 0,
+                "Expected at least one send attempt. Review property 'spring.mail.scheduler.sendMaxAttempts'.");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getSendRetryBackoffMillis()) || emailSchedulerProperties.getSendRetryBackoffMillis() > 0,
+                "Expected a positive send retry backoff. Review property 'spring.mail.scheduler.sendRetryBackoffMillis'.");
+
         Preconditions.checkState(isNull(emailSchedulerProperties.getPersistence()) || emailSchedulerProperties.getPersistence().getDesiredBatchSize() > 0,
                 "Expected at least a batch of size one, otherwise the persistence layer will not work. Review property 'spring.mail.scheduler.persistence.desiredBatchSize'.");
 
@@ -92,11 +296,100 @@ public class EmailSchedulerProperties {
                         (emailSchedulerProperties.getPersistence().getMaxKeptInMemory() >= emailSchedulerProperties.getPersistence().getDesiredBatchSize()),
                 "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
                 "spring.mail.scheduler.persistence.maxKeptInMemory", "spring.mail.scheduler.persistence.desiredBatchSize");
+
+        final WriteBehind writeBehind = isNull(emailSchedulerProperties.getPersistence()) ? null : emailSchedulerProperties.getPersistence().getWriteBehind();
+        if (nonNull(writeBehind) && writeBehind.isEnabled()) {
+            Preconditions.checkState(writeBehind.getBatchSize() > 0,
+                    "Expected a positive write-behind batch size. Review property 'spring.mail.scheduler.persistence.writeBehind.batchSize'.");
+
+            Preconditions.checkState(writeBehind.getFlushIntervalMillis() > 0,
+                    "Expected a positive write-behind flush interval. Review property 'spring.mail.scheduler.persistence.writeBehind.flushIntervalMillis'.");
+
+            Preconditions.checkState(writeBehind.getBufferCapacity() >= writeBehind.getBatchSize(),
+                    "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.persistence.writeBehind.bufferCapacity", "spring.mail.scheduler.persistence.writeBehind.batchSize");
+
+            Preconditions.checkState(nonNull(writeBehind.getDurability()),
+                    "Expected a write-behind durability. Review property 'spring.mail.scheduler.persistence.writeBehind.durability'.");
+        }
+
+        final DeletionBuffer deletionBuffer = isNull(emailSchedulerProperties.getPersistence()) ? null : emailSchedulerProperties.getPersistence().getDeletionBuffer();
+        if (nonNull(deletionBuffer) && deletionBuffer.isEnabled()) {
+            Preconditions.checkState(deletionBuffer.getBatchSize() > 0,
+                    "Expected a positive deletion buffer batch size. Review property 'spring.mail.scheduler.persistence.deletionBuffer.batchSize'.");
+
+            Preconditions.checkState(deletionBuffer.getFlushIntervalMillis() > 0,
+                    "Expected a positive deletion buffer flush interval. Review property 'spring.mail.scheduler.persistence.deletionBuffer.flushIntervalMillis'.");
+        }
+
+        final CircuitBreaker circuitBreaker = isNull(emailSchedulerProperties.getPersistence()) ? null : emailSchedulerProperties.getPersistence().getCircuitBreaker();
+        if (nonNull(circuitBreaker) && circuitBreaker.isEnabled()) {
+            Preconditions.checkState(circuitBreaker.getFailureThreshold() > 0,
+                    "Expected a positive circuit breaker failure threshold. Review property 'spring.mail.scheduler.persistence.circuitBreaker.failureThreshold'.");
+
+            Preconditions.checkState(circuitBreaker.getCallTimeoutMillis() > 0,
+                    "Expected a positive circuit breaker call timeout. Review property 'spring.mail.scheduler.persistence.circuitBreaker.callTimeoutMillis'.");
+
+            Preconditions.checkState(circuitBreaker.getOpenDurationMillis() > 0,
+                    "Expected a positive circuit breaker open duration. Review property 'spring.mail.scheduler.persistence.circuitBreaker.openDurationMillis'.");
+
+            Preconditions.checkState(!isNullOrEmpty(circuitBreaker.getSpillFile()),
+                    "Expected a spill file. Review property 'spring.mail.scheduler.persistence.circuitBreaker.spillFile'.");
+
+            Preconditions.checkState(circuitBreaker.getSpillMaxBytes() > 0,
+                    "Expected a positive spill size. Review property 'spring.mail.scheduler.persistence.circuitBreaker.spillMaxBytes'.");
+
+            Preconditions.checkState(circuitBreaker.getReplayBatchSize() > 0,
+                    "Expected a positive replay batch size. Review property 'spring.mail.scheduler.persistence.circuitBreaker.replayBatchSize'.");
+        }
+
+        final Snapshot snapshot = emailSchedulerProperties.getSnapshot();
+        Preconditions.checkState(isNull(snapshot) || !snapshot.isEnabled() || !isNullOrEmpty(snapshot.getFile()),
+                "Expected a snapshot file. Review property 'spring.mail.scheduler.snapshot.file'.");
+
+        final SentHistory sentHistory = emailSchedulerProperties.getSentHistory();
+        if (nonNull(sentHistory) && sentHistory.isEnabled()) {
+            Preconditions.checkState(nonNull(sentHistory.getStore()),
+                    "Expected a sent-history store. Review property 'spring.mail.scheduler.sentHistory.store'.");
+
+            Preconditions.checkState(sentHistory.getTtlMillis() > 0,
+                    "Expected a positive sent-history time to live. Review property 'spring.mail.scheduler.sentHistory.ttlMillis'.");
+
+            Preconditions.checkState(sentHistory.getMaxSize() > 0,
+                    "Expected a positive sent-history size. Review property 'spring.mail.scheduler.sentHistory.maxSize'.");
+        }
+
+        final Concurrency concurrency = emailSchedulerProperties.getConcurrency();
+        if (nonNull(concurrency) && concurrency.isAdaptive()) {
+            Preconditions.checkState(concurrency.getMinLimit() > 0,
+                    "Expected a positive minimum send concurrency. Review property 'spring.mail.scheduler.concurrency.minLimit'.");
+
+            Preconditions.checkState(concurrency.getMaxLimit() >= concurrency.getMinLimit(),
+                    "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.concurrency.maxLimit", "spring.mail.scheduler.concurrency.minLimit");
+
+            Preconditions.checkState(concurrency.getInitialLimit() >= concurrency.getMinLimit() && concurrency.getInitialLimit() <= concurrency.getMaxLimit(),
+                    "Expected an initial send concurrency between the minimum and the maximum. Review property 'spring.mail.scheduler.concurrency.initialLimit'.");
+
+            Preconditions.checkState(concurrency.getLatencyThresholdMillis() > 0,
+                    "Expected a positive latency threshold. Review property 'spring.mail.scheduler.concurrency.latencyThresholdMillis'.");
+
+            Preconditions.checkState(concurrency.getBackoffRatio() > 0 && concurrency.getBackoffRatio() < 1,
+                    "Expected a backoff ratio between 0 and 1. Review property 'spring.mail.scheduler.concurrency.backoffRatio'.");
+        }
     }
 
     private void setValuesToNull() {
         priorityLevels = null;
+        sendBatchSize = null;
+        sendTimeoutMillis = null;
+        sendMaxThreads = null;
+        sendMaxAttempts = null;
+        sendRetryBackoffMillis = null;
         persistence = null;
+        snapshot = null;
+        sentHistory = null;
+        concurrency = null;
     }
 
 }
\ No newline at end of file
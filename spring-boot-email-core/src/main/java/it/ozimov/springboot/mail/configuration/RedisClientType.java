@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.configuration;
+
+import lombok.NonNull;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * Clients available to connect to the REDIS server used by the persistence layer.
+ */
+public enum RedisClientType {
+
+    /**
+     * Pool of blocking Jedis connections, one borrowed by every thread accessing REDIS.
+     */
+    JEDIS {
+        @Override
+        public RedisConnectionFactory createConnectionFactory(@NonNull final String host, final int port) {
+            final JedisConnectionFactory connectionFactory = new JedisConnectionFactory();
+            connectionFactory.setShardInfo(new JedisShardInfo(host, port));
+            connectionFactory.setUsePool(true);
+            connectionFactory.getPoolConfig().setMaxTotal(10_000);
+            return connectionFactory;
+        }
+    },
+
+    /**
+     * Single Lettuce connection shared by all the threads, with the commands multiplexed on it. The calls of the
+     * scheduler supported by {@linkplain it.ozimov.springboot.mail.service.AsyncPersistenceService} do not wait for
+     * the reply, the others block until it. Requires {@code biz.paluch.redis:lettuce} in the classpath.
+     */
+    LETTUCE {
+        @Override
+        public RedisConnectionFactory createConnectionFactory(@NonNull final String host, final int port) {
+            final LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(host, port);
+            connectionFactory.setShareNativeConnection(true);
+            return connectionFactory;
+        }
+    };
+
+    /**
+     * Create a connection factory for the REDIS server with the given host and port. The returned factory
+     * still has to be initialized, either by the Spring context or by calling
+     * {@linkplain org.springframework.beans.factory.InitializingBean#afterPropertiesSet()}.
+     *
+     * @param host the host of the REDIS server.
+     * @param port the port of the REDIS server.
+     * @return the connection factory.
+     */
+    public abstract RedisConnectionFactory createConnectionFactory(String host, int port);
+
+}
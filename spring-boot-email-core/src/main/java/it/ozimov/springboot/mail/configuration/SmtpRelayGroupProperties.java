@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_RELAY_GROUP;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = __SPRING_MAIL_RELAY_GROUP)
+public class SmtpRelayGroupProperties {
+
+    // spring.mail.relayGroup.enabled
+    private boolean enabled = false;
+
+    // spring.mail.relayGroup.balancing
+    private Balancing balancing = Balancing.WEIGHTED_ROUND_ROBIN;
+
+    // spring.mail.relayGroup.healthCheckIntervalMillis
+    private long healthCheckIntervalMillis = 10_000;
+
+    // spring.mail.relayGroup.relays[*].*
+    private List<Relay> relays = new ArrayList<>();
+
+    public enum Balancing {
+        /**
+         * The relays are picked in turn, each one in proportion to its weight.
+         */
+        WEIGHTED_ROUND_ROBIN,
+        /**
+         * The relay with the fewest messages being sent, in proportion to its weight, is picked.
+         */
+        LEAST_IN_FLIGHT
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Relay {
+
+        // spring.mail.relayGroup.relays[*].host
+        private String host;
+
+        // spring.mail.relayGroup.relays[*].port
+        private int port = 25;
+
+        // spring.mail.relayGroup.relays[*].username
+        private String username;
+
+        // spring.mail.relayGroup.relays[*].password
+        private String password;
+
+        // spring.mail.relayGroup.relays[*].protocol
+        private String protocol = "smtp";
+
+        // spring.mail.relayGroup.relays[*].properties.*
+        private Map<String, String> properties = new HashMap<>();
+
+        // spring.mail.relayGroup.relays[*].weight
+        private int weight = 1;
+
+        // spring.mail.relayGroup.relays[*].maxConnections
+        private int maxConnections = 4;
+
+        // spring.mail.relayGroup.relays[*].maxMessagesPerSecond
+        private double maxMessagesPerSecond = 0;
+
+    }
+
+}
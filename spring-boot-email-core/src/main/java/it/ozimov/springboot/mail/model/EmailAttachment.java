@@ -17,6 +17,7 @@
 package it.ozimov.springboot.mail.model;
 
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.http.MediaType;
 
 import java.io.IOException;
@@ -34,4 +35,24 @@ public interface EmailAttachment extends Serializable {
         return new ByteArrayResource(getAttachmentData());
     }
 
+    /**
+     * Return the source of the content of the attachment, read when the email is sent. Every call to the source
+     * opens a new stream. By default, the content is read from {@linkplain #getAttachmentData()}.
+     *
+     * @return the source of the content.
+     */
+    default InputStreamSource getContentSource() {
+        return getInputStream();
+    }
+
+    /**
+     * Return whether the content of the attachment is meant to be streamed from its source when the email is sent,
+     * rather than kept in memory. A streamed attachment is never cached.
+     *
+     * @return {@code true} if the content is streamed. By default, {@code false}.
+     */
+    default boolean isStreamed() {
+        return false;
+    }
+
 }
\ No newline at end of file
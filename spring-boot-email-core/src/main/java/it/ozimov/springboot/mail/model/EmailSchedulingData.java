@@ -28,6 +28,17 @@ public interface EmailSchedulingData extends Comparable<EmailSchedulingData>, Se
 
     Email getEmail();
 
+    /**
+     * Return the key given by the caller to identify the email across retries of the scheduling, or {@code null}
+     * if no key was given. Emails sharing the same key are scheduled and sent at most once within the time to live
+     * of the sent-history, if enabled.
+     *
+     * @return the idempotency key of the email, if any; otherwise {@code null}.
+     */
+    default String getIdempotencyKey() {
+        return null;
+    }
+
     default int getDesiredPriority() {
         return 1;
     }
@@ -31,7 +31,8 @@ import static com.google.common.base.Preconditions.checkArgument;
 @ToString(of = {
         "id",
         "scheduledDateTime",
-        "assignedPriority"
+        "assignedPriority",
+        "idempotencyKey"
 })
 public class DefaultEmailSchedulingData implements EmailSchedulingData {
 
@@ -42,18 +43,28 @@ public class DefaultEmailSchedulingData implements EmailSchedulingData {
     protected final OffsetDateTime scheduledDateTime;
     protected final int assignedPriority;
     protected final int desiredPriority;
+    protected final String idempotencyKey;
 
-    @Builder(builderMethodName = "defaultEmailSchedulingDataBuilder")
     public DefaultEmailSchedulingData(@NonNull final Email email,
                                       @NonNull final OffsetDateTime scheduledDateTime,
                                       final int desiredPriority,
                                       final int assignedPriority) {
+        this(email, scheduledDateTime, desiredPriority, assignedPriority, null);
+    }
+
+    @Builder(builderMethodName = "defaultEmailSchedulingDataBuilder")
+    public DefaultEmailSchedulingData(@NonNull final Email email,
+                                      @NonNull final OffsetDateTime scheduledDateTime,
+                                      final int desiredPriority,
+                                      final int assignedPriority,
+                                      final String idempotencyKey) {
         checkArgument(assignedPriority > 0, "Priority cannot be less than 1");
 
         this.email = email;
         this.scheduledDateTime = scheduledDateTime;
         this.desiredPriority = desiredPriority;
         this.assignedPriority = assignedPriority;
+        this.idempotencyKey = idempotencyKey;
     }
 
     public static class DefaultEmailSchedulingDataBuilder {
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.model.defaultimpl;
+
+import com.google.common.io.ByteStreams;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import it.ozimov.springboot.mail.utils.TikaDetector;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Email attachment whose content is streamed into the MIME message when the email is sent, instead of being kept in
+ * memory. The content is read either from a file or from a source of streams, e.g. a Spring
+ * {@linkplain Resource} or a lambda opening a new {@linkplain InputStream} on every call.
+ * <p>
+ * An attachment read from a file is serialized with the path of the file, which must still exist when the email is
+ * sent. The other sources cannot be serialized, hence their content is read when the attachment is serialized, e.g.
+ * to persist a scheduled email, and the attachment is replaced with a {@linkplain DefaultEmailAttachment}.
+ * </p>
+ */
+@ToString(of = {"attachmentName", "file", "mediaType"})
+@Slf4j
+public class StreamingEmailAttachment implements EmailAttachment {
+
+    private static final long serialVersionUID = 6160413728519236417L;
+
+    @Getter
+    private final String attachmentName;
+
+    @Getter
+    private final File file;
+
+    private final MediaType mediaType;
+
+    private transient InputStreamSource contentSource;
+
+    @Builder
+    private StreamingEmailAttachment(@NonNull final String attachmentName,
+                                     final File file,
+                                     final InputStreamSource contentSource,
+                                     final MediaType mediaType) {
+        checkArgument(isNull(file) != isNull(contentSource),
+                "Exactly one between the file and the content source should be given");
+        checkArgument(!(contentSource instanceof Resource) || !((Resource) contentSource).isOpen(),
+                "The content source should open a new stream on every call, while an open resource was given");
+        this.attachmentName = attachmentName;
+        this.file = file;
+        this.mediaType = mediaType;
+        this.contentSource = nonNull(file) ? new FileSystemResource(file) : contentSource;
+    }
+
+    @Override
+    public InputStreamSource getContentSource() {
+        return contentSource;
+    }
+
+    @Override
+    public boolean isStreamed() {
+        return true;
+    }
+
+    /**
+     * Read the whole content of the attachment in memory, which is avoided when the email is sent.
+     *
+     * @return the content of the attachment.
+     */
+    @Override
+    public byte[] getAttachmentData() {
+        try (final InputStream inputStream = contentSource.getInputStream()) {
+            return ByteStreams.toByteArray(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the content of attachment " + attachmentName, e);
+        }
+    }
+
+    @Override
+    public MediaType getContentType() throws IOException {
+        if (nonNull(mediaType)) {
+            return mediaType;
+        }
+        //Only the beginning of the content is read to detect its type
+        try (final InputStream inputStream = contentSource.getInputStream()) {
+            return TikaDetector.tikaDetector().detect(inputStream, attachmentName);
+        } catch (IOException e) {
+            log.error("The MimeType is not set. Tried to guess it but something went wrong.", e);
+            throw e;
+        }
+    }
+
+    private Object writeReplace() {
+        if (nonNull(file)) {
+            return this;
+        }
+        return new DefaultEmailAttachment(attachmentName, getAttachmentData(), mediaType);
+    }
+
+    private void readObject(final ObjectInputStream objectInputStream) throws IOException, ClassNotFoundException {
+        objectInputStream.defaultReadObject();
+        contentSource = new FileSystemResource(file);
+    }
+
+}
@@ -38,7 +38,6 @@ public class TemplateEmailSchedulingData extends DefaultEmailSchedulingData {
     private final Map<String, Object> modelObject;
     private final InlinePicture[] inlinePictures;
 
-    @Builder(builderMethodName = "templateEmailSchedulingDataBuilder")
     public TemplateEmailSchedulingData(@NonNull final Email email,
                                        @NonNull final OffsetDateTime scheduledDateTime,
                                        final int desiredPriority,
@@ -46,7 +45,19 @@ public class TemplateEmailSchedulingData extends DefaultEmailSchedulingData {
                                        @NonNull final String template,
                                        @NonNull final Map<String, Object> modelObject,
                                        @NonNull final InlinePicture[] inlinePictures) {
-        super(email, scheduledDateTime, desiredPriority, assignedPriority);
+        this(email, scheduledDateTime, desiredPriority, assignedPriority, template, modelObject, inlinePictures, null);
+    }
+
+    @Builder(builderMethodName = "templateEmailSchedulingDataBuilder")
+    public TemplateEmailSchedulingData(@NonNull final Email email,
+                                       @NonNull final OffsetDateTime scheduledDateTime,
+                                       final int desiredPriority,
+                                       final int assignedPriority,
+                                       @NonNull final String template,
+                                       @NonNull final Map<String, Object> modelObject,
+                                       @NonNull final InlinePicture[] inlinePictures,
+                                       final String idempotencyKey) {
+        super(email, scheduledDateTime, desiredPriority, assignedPriority, idempotencyKey);
         this.template = template;
         this.modelObject = modelObject;
         this.inlinePictures = inlinePictures;
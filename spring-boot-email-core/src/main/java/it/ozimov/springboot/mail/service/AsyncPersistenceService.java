@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@linkplain ClaimingPersistenceService} whose writes and claims can be issued without waiting for the reply of the
+ * persistence layer, so that the scheduler threads do not block on every round trip.
+ * <p>
+ * The returned futures complete once the persistence layer replied, exceptionally if the call failed. Calls issued by
+ * the same thread reach the persistence layer in the same order, hence an email removed after being added is not
+ * added back.
+ * </p>
+ */
+public interface AsyncPersistenceService extends ClaimingPersistenceService {
+
+    /**
+     * Return whether the asynchronous calls are issued without blocking the calling thread. If not, they run as the
+     * synchronous ones and return a future already completed.
+     *
+     * @return {@code true} if the calls do not block the calling thread.
+     */
+    boolean isNonBlocking();
+
+    /**
+     * Asynchronous version of {@linkplain #add(EmailSchedulingData)}.
+     *
+     * @param emailSchedulingData the data to be stored.
+     * @return a future completed once the data is stored.
+     */
+    CompletableFuture<Void> addAsync(EmailSchedulingData emailSchedulingData);
+
+    /**
+     * Asynchronous version of {@linkplain #remove(String)}.
+     *
+     * @param id the id of stored {@linkplain EmailSchedulingData}.
+     * @return a future completed with {@code true} if the id existed and the value was removed.
+     */
+    CompletableFuture<Boolean> removeAsync(String id);
+
+    /**
+     * Asynchronous version of {@linkplain #claimNextBatch(OffsetDateTime, int, Duration)}.
+     *
+     * @param dueBefore    the latest scheduled date time of the claimed data.
+     * @param batchMaxSize the desired size of the batch.
+     * @param claimTimeout the time after which the claim expires if not acknowledged.
+     * @return a future completed with a batch of claimed {@linkplain EmailSchedulingData}.
+     */
+    CompletableFuture<Collection<EmailSchedulingData>> claimNextBatchAsync(OffsetDateTime dueBefore, int batchMaxSize, Duration claimTimeout);
+
+    /**
+     * Asynchronous version of {@linkplain #ack(Collection)}.
+     *
+     * @param ids a collection of ids of stored {@linkplain EmailSchedulingData}.
+     * @return a future completed once the data is removed.
+     */
+    CompletableFuture<Void> ackAsync(Collection<String> ids);
+
+}
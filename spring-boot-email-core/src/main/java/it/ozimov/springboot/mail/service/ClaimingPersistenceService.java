@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+
+/**
+ * A {@linkplain PersistenceService} able to hand out batches of {@linkplain EmailSchedulingData} to a single
+ * consumer at a time.
+ * <p>
+ * A claimed {@linkplain EmailSchedulingData} is not returned by other claims until it is acknowledged, when it is
+ * removed from the persistence layer, or until its claim expires, when it becomes claimable again.
+ * </p>
+ */
+public interface ClaimingPersistenceService extends PersistenceService {
+
+    /**
+     * Atomically claim up to {@code batchMaxSize} instances of {@linkplain EmailSchedulingData} scheduled not after
+     * the given date time, starting from the highest priority level. Claims expired before the call are released
+     * first.
+     * <p>
+     * If no data is claimable, an empty collection is returned.
+     * </p>
+     *
+     * @param dueBefore    the latest scheduled date time of the claimed data.
+     * @param batchMaxSize the desired size of the batch.
+     * @param claimTimeout the time after which the claim expires if not acknowledged.
+     * @return a batch of claimed {@linkplain EmailSchedulingData}.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    Collection<EmailSchedulingData> claimNextBatch(OffsetDateTime dueBefore, int batchMaxSize, Duration claimTimeout);
+
+    /**
+     * Remove all the {@linkplain EmailSchedulingData} associated to the ids in the given collection, whether
+     * claimed or not. If for a specific id no key or value was found in the persistence layer, then the
+     * acknowledgement for that id is simply skipped.
+     *
+     * @param ids a collection of ids of stored {@linkplain EmailSchedulingData}.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    void ack(Collection<String> ids);
+
+}
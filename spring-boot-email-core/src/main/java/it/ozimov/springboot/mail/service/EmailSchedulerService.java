@@ -82,6 +82,44 @@ public interface EmailSchedulerService {
                   String template, Map<String, Object> modelObject,
                   InlinePicture... inlinePictures) throws CannotSendEmailException;
 
+    /**
+     * Schedules the sending of an email message identified by the given idempotency key. If the sent-history is
+     * enabled, the email is discarded when an email with the same key was already scheduled or sent within the time
+     * to live of the history, so that the scheduling can be safely retried.
+     *
+     * @param idempotencyKey       the key identifying the email across retries, or {@code null} for no key
+     * @param mimeEmail            an email to be sent
+     * @param scheduledDateTime    the date-time at which the email should be sent
+     * @param desiredPriorityLevel the desiredPriority level for the email:
+     *                             the emails with scheduledTime<=now are sent according to an order depending
+     *                             on their desiredPriority level
+     */
+    @Async
+    default void schedule(String idempotencyKey, Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel) {
+        throw new UnsupportedOperationException("Idempotency keys are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Schedules the sending of an email message identified by the given idempotency key. If the sent-history is
+     * enabled, the email is discarded when an email with the same key was already scheduled or sent within the time
+     * to live of the history, so that the scheduling can be safely retried.
+     *
+     * @param idempotencyKey       the key identifying the email across retries, or {@code null} for no key
+     * @param mimeEmail            an email to be sent
+     * @param scheduledDateTime    the date-time at which the email should be sent
+     * @param desiredPriorityLevel the desiredPriority level for the email:
+     *                             the emails with scheduledTime<=now are sent according to an order depending
+     *                             on their desiredPriority level
+     * @param template             the reference to the template file
+     * @param modelObject          the model object to be used for the template engine, it may be null
+     * @param inlinePictures       list of pictures to be rendered inline in the template
+     */
+    @Async
+    default void schedule(String idempotencyKey, Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel,
+                          String template, Map<String, Object> modelObject,
+                          InlinePicture... inlinePictures) throws CannotSendEmailException {
+        throw new UnsupportedOperationException("Idempotency keys are not supported by " + getClass().getName());
+    }
 
     default ServiceStatus status() {
         return ServiceStatus.CLOSED;
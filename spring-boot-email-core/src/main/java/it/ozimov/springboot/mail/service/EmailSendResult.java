@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service;
+
+import it.ozimov.springboot.mail.model.Email;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import javax.mail.internet.MimeMessage;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Result of sending one of the emails given to {@linkplain EmailService#sendAll}: either the sent message or the
+ * exception that prevented the email from being sent.
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class EmailSendResult {
+
+    private final Email email;
+
+    private final MimeMessage mimeMessage;
+
+    private final Exception exception;
+
+    public static EmailSendResult sent(@NonNull final Email email, @NonNull final MimeMessage mimeMessage) {
+        return new EmailSendResult(email, mimeMessage, null);
+    }
+
+    public static EmailSendResult failed(@NonNull final Email email, @NonNull final Exception exception) {
+        return new EmailSendResult(email, null, exception);
+    }
+
+    public boolean isSent() {
+        return isNull(exception);
+    }
+
+}
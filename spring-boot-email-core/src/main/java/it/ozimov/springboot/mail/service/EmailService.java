@@ -21,6 +21,9 @@ import it.ozimov.springboot.mail.model.InlinePicture;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
 
 import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 public interface EmailService {
@@ -49,4 +52,53 @@ public interface EmailService {
                      String template, Map<String, Object> modelObject,
                      InlinePicture... inlinePictures) throws CannotSendEmailException;
 
+    /**
+     * Send the given email messages, through a single connection when the implementation allows it.
+     * <p>
+     * The failure of an email does not prevent the others from being sent.
+     * The send date is set or overridden if any is present.
+     *
+     * @param mimeEmails the emails to be sent
+     * @return the result of every email, in the order of the given emails
+     */
+    default List<EmailSendResult> sendAll(final Collection<Email> mimeEmails) {
+        final List<EmailSendResult> results = new ArrayList<>(mimeEmails.size());
+        for (final Email mimeEmail : mimeEmails) {
+            try {
+                results.add(EmailSendResult.sent(mimeEmail, send(mimeEmail)));
+            } catch (RuntimeException e) {
+                results.add(EmailSendResult.failed(mimeEmail, e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Send the given email messages, all with the given template, through a single connection when the
+     * implementation allows it.
+     * <p>
+     * The failure of an email does not prevent the others from being sent.
+     * The body is ignored if present.
+     * The send date is set or overridden if any is present.
+     *
+     * @param mimeEmails     the emails to be sent
+     * @param template       the reference to the template file
+     * @param modelObject    the model object to be used for the template engine, it may be null
+     * @param inlinePictures list of pictures to be rendered inline in the template
+     * @return the result of every email, in the order of the given emails
+     */
+    default List<EmailSendResult> sendAll(final Collection<Email> mimeEmails,
+                                          final String template, final Map<String, Object> modelObject,
+                                          final InlinePicture... inlinePictures) {
+        final List<EmailSendResult> results = new ArrayList<>(mimeEmails.size());
+        for (final Email mimeEmail : mimeEmails) {
+            try {
+                results.add(EmailSendResult.sent(mimeEmail, send(mimeEmail, template, modelObject, inlinePictures)));
+            } catch (CannotSendEmailException | RuntimeException e) {
+                results.add(EmailSendResult.failed(mimeEmail, e));
+            }
+        }
+        return results;
+    }
+
 }
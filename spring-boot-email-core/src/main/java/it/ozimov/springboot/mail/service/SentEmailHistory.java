@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service;
+
+/**
+ * Bounded history of the keys of the emails scheduled and sent recently, used by the scheduler to prevent
+ * duplicate sends. A key is retained for a limited time to live, after which the same key is accepted again.
+ * <p>
+ * A key goes through two states: it is <em>admitted</em> when an email carrying it is scheduled, so that retries
+ * of the same scheduling are discarded, and it is <em>sent</em> once the email is delivered to the SMTP server,
+ * so that an email loaded again from the persistence layer after a crash is not delivered twice.
+ * </p>
+ */
+public interface SentEmailHistory {
+
+    /**
+     * Admit the given key, returning {@code true} if the key was not already admitted or sent within the time
+     * to live, {@code false} otherwise.
+     *
+     * @param key the idempotency key of an email being scheduled.
+     * @return {@code true} if the email can be scheduled; {@code false} if it is a duplicate.
+     */
+    boolean admit(String key);
+
+    /**
+     * Return whether an email with the given key was already sent within the time to live.
+     *
+     * @param key the key of an email about to be sent.
+     * @return {@code true} if the email was already sent; {@code false} otherwise.
+     */
+    boolean isSent(String key);
+
+    /**
+     * Record that an email with the given key was sent.
+     *
+     * @param key the key of the sent email.
+     */
+    void markSent(String key);
+
+}
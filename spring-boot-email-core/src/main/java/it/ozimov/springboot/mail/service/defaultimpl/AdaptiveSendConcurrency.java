@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SEND_CONCURRENCY_IS_ADAPTIVE;
+
+/**
+ * Limit of the emails sent at the same time by the scheduler, adjusted by additive increase and multiplicative
+ * decrease.
+ * <p>
+ * The limit grows by one once as many emails as the limit are sent within the latency threshold, while it is
+ * multiplied by the backoff ratio when the SMTP server answers with a transient {@code 4xx} error or a send times out.
+ * Sends started before a decrease do not decrease the limit again, so that a single burst of errors backs off only
+ * once. The limit, its bounds and the counters are exposed through JMX.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression(SEND_CONCURRENCY_IS_ADAPTIVE)
+@ManagedResource(description = "Adaptive limit of the emails sent at the same time by the scheduler")
+@Slf4j
+public class AdaptiveSendConcurrency {
+
+    public enum Outcome {
+        SENT, OVERLOADED, FAILED
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    //Guarded by this
+    private int limit;
+    private int inFlight;
+    private int sentWithinLatencyThreshold;
+    private long generation;
+    private long sent;
+    private long overloaded;
+    private long failed;
+
+    @Autowired
+    public AdaptiveSendConcurrency(@NonNull final EmailSchedulerProperties emailSchedulerProperties) {
+        this(emailSchedulerProperties.getConcurrency().getInitialLimit(),
+                emailSchedulerProperties.getConcurrency().getMinLimit(),
+                emailSchedulerProperties.getConcurrency().getMaxLimit(),
+                emailSchedulerProperties.getConcurrency().getLatencyThresholdMillis(),
+                emailSchedulerProperties.getConcurrency().getBackoffRatio());
+    }
+
+    public AdaptiveSendConcurrency(final int initialLimit,
+                                   final int minLimit,
+                                   final int maxLimit,
+                                   final long latencyThresholdMillis,
+                                   final double backoffRatio) {
+        Preconditions.checkArgument(minLimit > 0, "Minimum limit should be a positive number, while %s was given", minLimit);
+        Preconditions.checkArgument(maxLimit >= minLimit, "Maximum limit should not be smaller than %s, while %s was given", minLimit, maxLimit);
+        Preconditions.checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit,
+                "Initial limit should be between %s and %s, while %s was given", minLimit, maxLimit, initialLimit);
+        Preconditions.checkArgument(latencyThresholdMillis > 0, "Latency threshold should be a positive number, while %s was given", latencyThresholdMillis);
+        Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio should be between 0 and 1, while %s was given", backoffRatio);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Wait until fewer emails than the limit are being sent.
+     */
+    public synchronized void awaitCapacity() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+    }
+
+    /**
+     * Take a permit for the emails about to be sent, without waiting, since the capacity was already awaited.
+     *
+     * @return the permit to be given back with {@link #release(Permit, Outcome, long)}.
+     */
+    public synchronized Permit acquire() {
+        inFlight++;
+        return new Permit(generation);
+    }
+
+    /**
+     * Give back a permit once the emails were sent, adjusting the limit by the outcome.
+     *
+     * @param permit       the permit given by {@link #acquire()}.
+     * @param outcome      the outcome of the send.
+     * @param latencyNanos the time taken by every email sent.
+     */
+    public synchronized void release(@NonNull final Permit permit, @NonNull final Outcome outcome, final long latencyNanos) {
+        inFlight--;
+        switch (outcome) {
+            case SENT:
+                sent++;
+                if (latencyNanos <= latencyThresholdNanos) {
+                    if (++sentWithinLatencyThreshold >= limit) {
+                        sentWithinLatencyThreshold = 0;
+                        if (limit < maxLimit) {
+                            limit++;
+                            log.debug("Increased send concurrency to {}.", limit);
+                        }
+                    }
+                } else {
+                    sentWithinLatencyThreshold = 0;
+                }
+                break;
+            case OVERLOADED:
+                overloaded++;
+                sentWithinLatencyThreshold = 0;
+                if (permit.generation == generation) {
+                    generation++;
+                    limit = Math.max(minLimit, (int) (limit * backoffRatio));
+                    log.info("Decreased send concurrency to {}, since the SMTP server is overloaded.", limit);
+                }
+                break;
+            default:
+                failed++;
+                sentWithinLatencyThreshold = 0;
+        }
+        notifyAll();
+    }
+
+    /**
+     * The outcome of a send given the exceptions of the emails that failed, {@link Outcome#OVERLOADED} when any of them
+     * is a transient {@code 4xx} SMTP error or a timeout.
+     */
+    public static Outcome outcomeOf(@NonNull final Collection<? extends Throwable> failures) {
+        if (failures.isEmpty()) {
+            return Outcome.SENT;
+        }
+        return failures.stream().anyMatch(AdaptiveSendConcurrency::isOverloaded) ? Outcome.OVERLOADED : Outcome.FAILED;
+    }
+
+    private static boolean isOverloaded(final Throwable failure) {
+        for (final Throwable cause : Throwables.getCausalChain(failure)) {
+            if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException) {
+                return true;
+            }
+            final int returnCode;
+            if (cause instanceof SMTPSendFailedException) {
+                returnCode = ((SMTPSendFailedException) cause).getReturnCode();
+            } else if (cause instanceof SMTPAddressFailedException) {
+                returnCode = ((SMTPAddressFailedException) cause).getReturnCode();
+            } else if (cause instanceof SMTPSenderFailedException) {
+                returnCode = ((SMTPSenderFailedException) cause).getReturnCode();
+            } else {
+                continue;
+            }
+            if (returnCode >= 400 && returnCode < 500) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @ManagedAttribute(description = "Current limit of the emails sent at the same time")
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @ManagedAttribute(description = "Minimum limit of the emails sent at the same time")
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    @ManagedAttribute(description = "Maximum limit of the emails sent at the same time")
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @ManagedAttribute(description = "Emails being sent")
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @ManagedAttribute(description = "Sends completed without errors")
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    @ManagedAttribute(description = "Sends failed with a transient error or a timeout")
+    public synchronized long getOverloaded() {
+        return overloaded;
+    }
+
+    @ManagedAttribute(description = "Sends failed with any other error")
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public static final class Permit {
+
+        private final long generation;
+
+        private Permit(final long generation) {
+            this.generation = generation;
+        }
+
+    }
+
+}
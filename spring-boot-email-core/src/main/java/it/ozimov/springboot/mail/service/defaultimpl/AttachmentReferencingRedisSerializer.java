@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import lombok.NonNull;
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.http.MediaType;
+
+import java.io.*;
+
+import static java.util.Objects.isNull;
+
+/**
+ * A {@linkplain RedisSerializer} using the JDK serialization, where every {@linkplain EmailAttachment} is
+ * replaced with a {@linkplain ReferencedEmailAttachment} pointing to its content in a
+ * {@linkplain RedisAttachmentStore}. Deserialized references load their content lazily from the same store.
+ * <p>
+ * The serializer does not store the attachments content, which must be retained in the store beforehand. The
+ * attachments streamed from a file are serialized as they are, with the path of the file.
+ * </p>
+ */
+public class AttachmentReferencingRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private final RedisAttachmentStore attachmentStore;
+
+    public AttachmentReferencingRedisSerializer(@NonNull final RedisAttachmentStore attachmentStore) {
+        this.attachmentStore = attachmentStore;
+    }
+
+    @Override
+    public byte[] serialize(final Object object) throws SerializationException {
+        if (isNull(object)) {
+            return EMPTY_ARRAY;
+        }
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
+        try (final ObjectOutputStream objectOutputStream = new AttachmentReferencingObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeObject(object);
+        } catch (IOException e) {
+            throw new SerializationException("Cannot serialize", e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(final byte[] bytes) throws SerializationException {
+        if (isNull(bytes) || bytes.length == 0) {
+            return null;
+        }
+        try (final ObjectInputStream objectInputStream = new AttachmentResolvingObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectInputStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException("Cannot deserialize", e);
+        }
+    }
+
+    private ReferencedEmailAttachment toReference(final EmailAttachment emailAttachment) {
+        MediaType mediaType;
+        try {
+            mediaType = emailAttachment.getContentType();
+        } catch (IOException e) {
+            //The content type will be detected again when the email is sent
+            mediaType = null;
+        }
+        return new ReferencedEmailAttachment(attachmentStore.contentHash(emailAttachment.getAttachmentData()),
+                emailAttachment.getAttachmentName(), mediaType, null, null);
+    }
+
+    private class AttachmentReferencingObjectOutputStream extends ObjectOutputStream {
+
+        AttachmentReferencingObjectOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object object) throws IOException {
+            if (object instanceof EmailAttachment && !(object instanceof ReferencedEmailAttachment)
+                    && !RedisAttachmentStore.isPersistedByPath((EmailAttachment) object)) {
+                return toReference((EmailAttachment) object);
+            }
+            return object;
+        }
+    }
+
+    private class AttachmentResolvingObjectInputStream extends ConfigurableObjectInputStream {
+
+        AttachmentResolvingObjectInputStream(final InputStream in) throws IOException {
+            super(in, null);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(final Object object) throws IOException {
+            if (object instanceof ReferencedEmailAttachment) {
+                ((ReferencedEmailAttachment) object).setContentLoader(attachmentStore::load);
+            }
+            return object;
+        }
+    }
+
+}
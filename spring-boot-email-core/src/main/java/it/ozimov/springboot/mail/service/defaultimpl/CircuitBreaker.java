@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+
+import java.time.Duration;
+
+/**
+ * Minimal circuit breaker. The circuit opens after the given number of consecutive failures and rejects every call
+ * until the open duration elapses. Then a single trial call is let through: the circuit closes again if the trial
+ * succeeds, otherwise it opens for another open duration.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+
+    //Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(final int failureThreshold, @NonNull final Duration openDuration) {
+        Preconditions.checkArgument(failureThreshold > 0, "Failure threshold should be a positive number, while %s was given", failureThreshold);
+        Preconditions.checkArgument(!openDuration.isNegative() && !openDuration.isZero(), "Open duration should be positive, while %s was given", openDuration);
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDuration.toMillis();
+    }
+
+    /**
+     * Return whether a call can be made, moving an open circuit to half-open once the open duration elapsed. Every
+     * permitted call must be followed by one of {@linkplain #onSuccess()}, {@linkplain #onFailure()} and
+     * {@linkplain #release()}.
+     *
+     * @return {@code true} if the call can be made; {@code false} if it must be rejected.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDurationMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                //Only the trial call is let through while half-open
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Release a permitted call whose outcome is unknown, e.g. because it was interrupted, so that another trial call
+     * can be made if the circuit is half-open.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.ClaimingPersistenceService;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * {@linkplain PersistenceService} decorator protecting the callers from an unavailable persistence layer.
+ * <p>
+ * Every call to the decorated service is bounded by a timeout and guarded by a {@linkplain CircuitBreaker}: timeouts
+ * and data access failures count as failures, while any other exception is thrown to the caller as usual. While the
+ * circuit is open, the changes are appended to a {@linkplain PersistenceSpill} instead, and the reads return no
+ * email, so that the scheduler keeps sending the emails in memory. A background replayer applies the spilled changes
+ * in batches once the circuit lets a call through again. Changes are spilled as long as the spill is not empty, so
+ * that they are never applied out of order.
+ * </p>
+ * <p>
+ * The emails whose removal is still in the spill, either by id or with their priority level, are filtered out of the
+ * reads, since they were already sent or removed.
+ * </p>
+ * <p>
+ * A spilled change that cannot be deserialized, or that the decorated service rejects with an exception other than a
+ * failure of the persistence layer, is moved to the dead-letter file of the spill, so that the later changes are still
+ * replayed.
+ * </p>
+ */
+@Slf4j
+public class CircuitBreakingPersistenceService implements ClaimingPersistenceService, Closeable {
+
+    private static final int CALL_THREADS = 4;
+
+    private static final long REPLAY_INTERVAL_MILLIS = 1_000;
+
+    private final PersistenceService persistenceService;
+    private final CircuitBreaker circuitBreaker;
+    private final PersistenceSpill spill;
+    private final long callTimeoutMillis;
+    private final int replayBatchSize;
+
+    private final ExecutorService callExecutor;
+
+    //Held while replaying, so that the replayer and close() do not replay the same records
+    private final Lock replayLock = new ReentrantLock();
+
+    //Guarded by this
+    private boolean closed;
+
+    private final Thread replayer;
+
+    public CircuitBreakingPersistenceService(@NonNull final PersistenceService persistenceService,
+                                             @NonNull final CircuitBreaker circuitBreaker,
+                                             @NonNull final PersistenceSpill spill,
+                                             @NonNull final Duration callTimeout,
+                                             final int replayBatchSize) {
+        Preconditions.checkArgument(!callTimeout.isNegative() && !callTimeout.isZero(), "Call timeout should be positive, while %s was given", callTimeout);
+        Preconditions.checkArgument(replayBatchSize > 0, "Replay batch size should be a positive number, while %s was given", replayBatchSize);
+        this.persistenceService = persistenceService;
+        this.circuitBreaker = circuitBreaker;
+        this.spill = spill;
+        this.callTimeoutMillis = callTimeout.toMillis();
+        this.replayBatchSize = replayBatchSize;
+
+        callExecutor = Executors.newFixedThreadPool(CALL_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat(CircuitBreakingPersistenceService.class.getSimpleName() + " -- Call %d")
+                .setDaemon(true)
+                .build());
+        replayer = new Thread(this::runReplayer, CircuitBreakingPersistenceService.class.getSimpleName() + " -- Replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    public boolean isClaiming() {
+        return persistenceService instanceof ClaimingPersistenceService;
+    }
+
+    public CircuitBreaker.State circuitState() {
+        return circuitBreaker.getState();
+    }
+
+    @Override
+    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        write(() -> {
+            persistenceService.add(emailSchedulingData);
+            return true;
+        }, () -> spill.add(singletonList(emailSchedulingData)));
+    }
+
+    @Override
+    public void addAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataList) {
+        if (emailSchedulingDataList.isEmpty()) {
+            return;
+        }
+        write(() -> {
+            persistenceService.addAll(emailSchedulingDataList);
+            return true;
+        }, () -> spill.add(emailSchedulingDataList));
+    }
+
+    @Override
+    public Optional<EmailSchedulingData> get(@NonNull final String id) {
+        if (spill.isPendingRemoval(id)) {
+            return Optional.empty();
+        }
+        return call(() -> persistenceService.get(id))
+                .orElse(Optional.empty())
+                .filter(emailSchedulingData -> !spill.isPendingRemoval(emailSchedulingData));
+    }
+
+    /**
+     * Remove the email with the given id. If the removal is spilled, {@code true} is returned, since the removal
+     * will be applied later.
+     */
+    @Override
+    public boolean remove(@NonNull final String id) {
+        return write(() -> persistenceService.remove(id),
+                () -> spill.remove(PersistenceSpill.Operation.REMOVE, singletonList(id)))
+                .orElse(true);
+    }
+
+    @Override
+    public void removeAll(@NonNull final Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        write(() -> {
+            persistenceService.removeAll(ids);
+            return true;
+        }, () -> spill.remove(PersistenceSpill.Operation.REMOVE, ids));
+    }
+
+    @Override
+    public void ack(@NonNull final Collection<String> ids) {
+        final ClaimingPersistenceService claimingPersistenceService = claimingPersistenceService();
+        if (ids.isEmpty()) {
+            return;
+        }
+        write(() -> {
+            claimingPersistenceService.ack(ids);
+            return true;
+        }, () -> spill.remove(PersistenceSpill.Operation.ACK, ids));
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
+        return call(() -> persistenceService.getNextBatch(priorityLevel, batchMaxSize))
+                .map(this::withoutPendingRemovals)
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
+        return call(() -> persistenceService.getNextBatch(batchMaxSize))
+                .map(this::withoutPendingRemovals)
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> claimNextBatch(@NonNull final OffsetDateTime dueBefore, final int batchMaxSize,
+                                                          @NonNull final Duration claimTimeout) {
+        final ClaimingPersistenceService claimingPersistenceService = claimingPersistenceService();
+        return call(() -> claimingPersistenceService.claimNextBatch(dueBefore, batchMaxSize, claimTimeout))
+                .map(this::withoutPendingRemovals)
+                .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Remove all the emails from the decorated service and the spill. Not guarded by the circuit breaker.
+     */
+    @Override
+    public void removeAll() {
+        spill.clear();
+        persistenceService.removeAll();
+    }
+
+    /**
+     * Remove all the emails with the given priority level. The removal is spilled like the other changes, so that the
+     * additions of the level still in the spill are replayed before it.
+     */
+    @Override
+    public void removeAll(final int priorityLevel) {
+        write(() -> {
+            persistenceService.removeAll(priorityLevel);
+            return true;
+        }, () -> spill.removePriorityLevel(priorityLevel));
+    }
+
+    /**
+     * Apply the spilled changes to the decorated service, in batches, as long as the circuit lets the calls through.
+     *
+     * @return {@code true} if the spill is empty; {@code false} otherwise.
+     */
+    public boolean replay() {
+        replayLock.lock();
+        try {
+            int replayed = 0;
+            List<PersistenceSpill.Record> records;
+            while (!(records = spill.read(replayBatchSize)).isEmpty()) {
+                int from = 0;
+                while (from < records.size()) {
+                    if (records.get(from).isUndecodable()) {
+                        log.error("Cannot decode a change of the persistence spill {}, it is moved to {}.", spill.getPath(), spill.getDeadLetterPath());
+                        spill.quarantine(records.get(from++));
+                        continue;
+                    }
+                    //Consecutive records of the same operation are applied in bulk
+                    final PersistenceSpill.Operation operation = records.get(from).getOperation();
+                    int to = from + 1;
+                    while (to < records.size() && records.get(to).getOperation() == operation && !records.get(to).isUndecodable()) {
+                        to++;
+                    }
+                    final List<PersistenceSpill.Record> group = records.subList(from, to);
+                    if (!replay(operation, group)) {
+                        log.debug("Replayed {} changes from the persistence spill, {} left.", replayed, spill.size());
+                        return false;
+                    }
+                    replayed += group.size();
+                    from = to;
+                }
+            }
+            if (replayed > 0) {
+                log.info("Replayed {} changes from the persistence spill.", replayed);
+            }
+            return true;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the replayer, after a last attempt to replay the spill. Spilled changes not replayed are kept in the spill.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            replayer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (!replay()) {
+                log.warn("{} changes left in the persistence spill {}, to be replayed on the next start.", spill.size(), spill.getPath());
+            }
+        } catch (RuntimeException e) {
+            log.error("Cannot replay the persistence spill {}, the changes left are replayed on the next start.", spill.getPath(), e);
+        }
+        callExecutor.shutdownNow();
+        spill.close();
+    }
+
+    private <T> Optional<T> write(final Callable<T> write, final BooleanSupplier spilledWrite) {
+        if (spill.isEmpty()) {
+            final Optional<T> result = call(write);
+            if (result.isPresent()) {
+                return result;
+            }
+        }
+        if (!spilledWrite.getAsBoolean()) {
+            log.error("The persistence spill {} is full, a change to the persistence layer is lost.", spill.getPath());
+        }
+        return Optional.empty();
+    }
+
+    // Returns an empty optional if the persistence layer is not available
+    private <T> Optional<T> call(final Callable<T> operation) {
+        if (!circuitBreaker.tryAcquire()) {
+            return Optional.empty();
+        }
+        final Future<T> future;
+        try {
+            future = callExecutor.submit(operation);
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.release();
+            return Optional.empty();
+        }
+        try {
+            final T result = future.get(callTimeoutMillis, TimeUnit.MILLISECONDS);
+            circuitBreaker.onSuccess();
+            return Optional.of(result);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            circuitBreaker.onFailure();
+            log.warn("The persistence layer did not answer within {} ms, circuit is {}.", callTimeoutMillis, circuitBreaker.getState());
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof DataAccessException || cause instanceof UncheckedIOException) {
+                circuitBreaker.onFailure();
+                log.warn("The persistence layer is not available, circuit is {}.", circuitBreaker.getState(), cause);
+                return Optional.empty();
+            }
+            //The persistence layer answered, it is the call to be wrong
+            circuitBreaker.onSuccess();
+            Throwables.throwIfUnchecked(cause);
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            circuitBreaker.release();
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    // Returns false if the persistence layer is not available
+    private boolean replay(final PersistenceSpill.Operation operation, final List<PersistenceSpill.Record> records) {
+        try {
+            if (!call(() -> apply(operation, records)).isPresent()) {
+                return false;
+            }
+            spill.commit(records);
+            return true;
+        } catch (RuntimeException e) {
+            if (records.size() == 1) {
+                //Keeping a change that is always rejected would block all the later ones
+                log.error("Cannot replay a change of the persistence spill {}, it is moved to {}.", spill.getPath(), spill.getDeadLetterPath(), e);
+                spill.quarantine(records.get(0));
+                return true;
+            }
+            log.warn("Cannot replay {} changes of the persistence spill in bulk, they are replayed one by one.", records.size(), e);
+        }
+        for (final PersistenceSpill.Record record : records) {
+            if (!replay(operation, singletonList(record))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean apply(final PersistenceSpill.Operation operation, final List<PersistenceSpill.Record> records) {
+        switch (operation) {
+            case ADD:
+                persistenceService.addAll(records.stream()
+                        .map(PersistenceSpill.Record::getEmailSchedulingData)
+                        .collect(Collectors.toList()));
+                break;
+            case REMOVE_PRIORITY_LEVEL:
+                //There is no bulk removal of several priority levels
+                records.forEach(record -> persistenceService.removeAll(record.getPriorityLevel()));
+                break;
+            case ACK:
+                if (isClaiming()) {
+                    ((ClaimingPersistenceService) persistenceService).ack(ids(records));
+                    break;
+                }
+                persistenceService.removeAll(ids(records));
+                break;
+            default:
+                persistenceService.removeAll(ids(records));
+        }
+        return true;
+    }
+
+    private static List<String> ids(final List<PersistenceSpill.Record> records) {
+        return records.stream().map(PersistenceSpill.Record::getId).collect(Collectors.toList());
+    }
+
+    private Collection<EmailSchedulingData> withoutPendingRemovals(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
+        return emailSchedulingDataCollection.stream()
+                .filter(emailSchedulingData -> !spill.isPendingRemoval(emailSchedulingData))
+                .collect(Collectors.toList());
+    }
+
+    private ClaimingPersistenceService claimingPersistenceService() {
+        if (!isClaiming()) {
+            throw new UnsupportedOperationException(persistenceService.getClass().getName() + " cannot claim emails");
+        }
+        return (ClaimingPersistenceService) persistenceService;
+    }
+
+    private void runReplayer() {
+        while (true) {
+            synchronized (this) {
+                if (!closed) {
+                    try {
+                        wait(REPLAY_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (closed) {
+                    //The last replay is run by close()
+                    return;
+                }
+            }
+            try {
+                if (!spill.isEmpty()) {
+                    replay();
+                }
+            } catch (RuntimeException e) {
+                log.error("Cannot replay the persistence spill {}, retrying in {} ms.", spill.getPath(), REPLAY_INTERVAL_MILLIS, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.NonNull;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.util.Objects.isNull;
+
+/**
+ * A {@linkplain RedisSerializer} that compresses the payloads of a JDK serialization based serializer
+ * whose serialized size reaches a given threshold.
+ * <p>
+ * A compressed payload starts with a header made of a marker byte, the id of the {@linkplain PayloadCompression}
+ * used and the size of the uncompressed payload. A JDK serialization stream always starts with the
+ * {@code 0xACED} magic number, so any payload without the header, e.g. those persisted before enabling
+ * the compression, is still deserialized as a plain JDK serialization stream.
+ * </p>
+ */
+public class CompressingRedisSerializer implements RedisSerializer<Object> {
+
+    static final byte HEADER_MARKER = 0x1F;
+
+    static final int HEADER_LENGTH = 2 + Integer.BYTES;
+
+    //DEFLATE cannot compress by more than 1032:1, so a larger declared length means a corrupted header
+    static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final RedisSerializer<Object> delegate;
+
+    @Getter
+    private final PayloadCompression compression;
+
+    @Getter
+    private final int threshold;
+
+    public CompressingRedisSerializer(@NonNull final PayloadCompression compression, final int threshold) {
+        this(new JdkSerializationRedisSerializer(), compression, threshold);
+    }
+
+    public CompressingRedisSerializer(@NonNull final RedisSerializer<Object> delegate,
+                                      @NonNull final PayloadCompression compression, final int threshold) {
+        Preconditions.checkArgument(threshold >= 0, "Compression threshold should be a non negative number, while %s was given", threshold);
+        this.delegate = delegate;
+        this.compression = compression;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] serialize(final Object object) throws SerializationException {
+        final byte[] serialized = delegate.serialize(object);
+        if (compression == PayloadCompression.NONE || serialized.length == 0 || serialized.length < threshold) {
+            return serialized;
+        }
+
+        final byte[] compressed = compress(serialized);
+        //Compression does not pay off on payloads with high entropy, so we keep the smallest representation
+        return compressed.length < serialized.length ? compressed : serialized;
+    }
+
+    @Override
+    public Object deserialize(final byte[] bytes) throws SerializationException {
+        if (isNull(bytes) || bytes.length == 0 || bytes[0] != HEADER_MARKER) {
+            return delegate.deserialize(bytes);
+        }
+        return delegate.deserialize(decompress(bytes));
+    }
+
+    private byte[] compress(final byte[] serialized) {
+        final Deflater deflater = new Deflater(compression.getLevel());
+        try {
+            deflater.setInput(serialized);
+            deflater.finish();
+
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(serialized.length / 2 + HEADER_LENGTH);
+            outputStream.write(HEADER_MARKER);
+            outputStream.write(compression.getId());
+            outputStream.write(ByteBuffer.allocate(Integer.BYTES).putInt(serialized.length).array(), 0, Integer.BYTES);
+
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                final int length = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] decompress(final byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            throw new SerializationException("Cannot deserialize a compressed payload with a truncated header");
+        }
+        //Fails on payloads written with a codec unknown to this version
+        try {
+            PayloadCompression.fromId(bytes[1]);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Cannot deserialize a compressed payload", e);
+        }
+
+        //The length is checked before allocating, since a corrupted header could ask for any amount of memory
+        final int uncompressedLength = ByteBuffer.wrap(bytes, 2, Integer.BYTES).getInt();
+        final long maxUncompressedLength = (long) (bytes.length - HEADER_LENGTH) * MAX_DEFLATE_RATIO;
+        if (uncompressedLength < 0 || uncompressedLength > maxUncompressedLength) {
+            throw new SerializationException("Cannot deserialize a compressed payload of " +
+                    (bytes.length - HEADER_LENGTH) + " bytes declaring " + uncompressedLength + " uncompressed bytes");
+        }
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            final byte[] uncompressed = new byte[uncompressedLength];
+            int offset = 0;
+            while (offset < uncompressedLength && !inflater.finished()) {
+                final int length = inflater.inflate(uncompressed, offset, uncompressedLength - offset);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += length;
+            }
+            if (offset != uncompressedLength) {
+                throw new SerializationException("Cannot deserialize a compressed payload: expected " +
+                        uncompressedLength + " bytes, while " + offset + " were found");
+            }
+            return uncompressed;
+        } catch (DataFormatException e) {
+            throw new SerializationException("Cannot deserialize a corrupted compressed payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -31,11 +31,58 @@ public class ConditionalExpression {
             PERSISTENCE_IS_ENABLED +
                     " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED + ":false}' == 'true'";
 
+    public static final String PERSISTENCE_IS_ENABLED_WITH_JDBC =
+            PERSISTENCE_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_ENABLED + ":false}' == 'true'";
+
+    public static final String PERSISTENCE_IS_ENABLED_WITH_JOURNAL =
+            PERSISTENCE_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_ENABLED + ":false}' == 'true'";
+
+    public static final String PERSISTENCE_IS_ENABLED_WITH_DEFAULT_BACKEND =
+            PERSISTENCE_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_ENABLED + ":false}' != 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_ENABLED + ":false}' != 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED + ":false}' != 'true'";
+
+    public static final String PERSISTENCE_IS_ENABLED_WITH_REDIS_STREAMS =
+            PERSISTENCE_IS_ENABLED_WITH_REDIS +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED + ":false}' == 'true'";
+
     public static final String PERSISTENCE_IS_ENABLED_WITH_EMBEDDED_REDIS =
             PERSISTENCE_IS_ENABLED +
                     " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED + ":false}' == 'true'" +
                     " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED + ":false}' == 'true'";
 
+    public static final String PERSISTENCE_IS_ENABLED_WITH_LETTUCE_REDIS =
+            PERSISTENCE_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED + ":false}' == 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED + ":false}' != 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CLIENT + ":JEDIS}' == 'LETTUCE'";
+
+    public static final String SENT_HISTORY_IS_ENABLED_IN_MEMORY =
+            SCHEDULER_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_ENABLED + ":false}' == 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_STORE + ":MEMORY}' == 'MEMORY'";
+
+    public static final String SENT_HISTORY_IS_ENABLED_WITH_REDIS =
+            PERSISTENCE_IS_ENABLED_WITH_REDIS +
+                    " && '${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_ENABLED + ":false}' == 'true'" +
+                    " && '${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_STORE + ":MEMORY}' == 'REDIS'";
+
+    public static final String SEND_CONCURRENCY_IS_ADAPTIVE =
+            SCHEDULER_IS_ENABLED +
+                    " && '${" + SPRING_MAIL_SCHEDULER_CONCURRENCY_ADAPTIVE + ":false}' == 'true'";
+
+    public static final String RELAY_GROUP_IS_ENABLED = "'${" + SPRING_MAIL_RELAY_GROUP_ENABLED + ":false}' == 'true'";
+
+    //Every relay of a group has its own pool of connections
+    public static final String TRANSPORT_POOL_IS_ENABLED = "'${" + SPRING_MAIL_TRANSPORT_POOL_ENABLED + ":false}' == 'true'" +
+            " && '${" + SPRING_MAIL_RELAY_GROUP_ENABLED + ":false}' != 'true'";
+
+    public static final String INLINE_PICTURE_CACHE_IS_ENABLED = "'${" + SPRING_MAIL_INLINE_PICTURE_CACHE_ENABLED + ":true}' == 'true'";
+
+    public static final String ENCODED_PART_CACHE_IS_ENABLED = "'${" + SPRING_MAIL_ENCODED_PART_CACHE_ENABLED + ":false}' == 'true'";
 
     public static final String EMAIL_LOGGING_RENDERER_IS_ENABLED = "'${" + SPRING_MAIL_LOGGING_ENABLED + ":true}' == 'true'";
 
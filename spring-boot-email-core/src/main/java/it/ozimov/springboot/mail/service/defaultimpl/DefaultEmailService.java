@@ -21,11 +21,13 @@ import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
 import it.ozimov.springboot.mail.model.EmailAttachment;
 import it.ozimov.springboot.mail.model.InlinePicture;
+import it.ozimov.springboot.mail.service.EmailSendResult;
 import it.ozimov.springboot.mail.service.EmailService;
 import it.ozimov.springboot.mail.service.TemplateService;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
 import it.ozimov.springboot.mail.service.exception.TemplateException;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessage;
+import it.ozimov.springboot.mail.utils.EncodedPartCache;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
@@ -33,24 +35,35 @@ import lombok.experimental.Accessors;
 import lombok.experimental.Delegate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import javax.activation.DataHandler;
-import javax.activation.DataSource;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
-import javax.mail.internet.MimeUtility;
 import javax.mail.util.ByteArrayDataSource;
 import javax.validation.constraints.NotNull;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static com.google.common.base.Optional.fromNullable;
+import static it.ozimov.springboot.mail.utils.MimeBodyParts.streamedAttachmentPart;
+import static it.ozimov.springboot.mail.utils.StringUtils.replaceEach;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 @Service
 @Slf4j
@@ -64,6 +77,34 @@ public class DefaultEmailService implements EmailService {
 
     private EmailLogRenderer emailLogRenderer;
 
+    private SmtpTransportPool smtpTransportPool;
+
+    private SmtpRelayGroup smtpRelayGroup;
+
+    private InlinePictureCache inlinePictureCache;
+
+    private EncodedPartCache encodedPartCache;
+
+    @Autowired(required = false)
+    public DefaultEmailService(final @NonNull JavaMailSender javaMailSender,
+                               final TemplateService templateService,
+                               final @NonNull EmailToMimeMessage emailToMimeMessage,
+                               final @NonNull EmailLogRenderer emailLogRenderer,
+                               final @NonNull SmtpRelayGroup smtpRelayGroup) {
+        this(javaMailSender, templateService, emailToMimeMessage, emailLogRenderer);
+        this.smtpRelayGroup = smtpRelayGroup;
+    }
+
+    @Autowired(required = false)
+    public DefaultEmailService(final @NonNull JavaMailSender javaMailSender,
+                               final TemplateService templateService,
+                               final @NonNull EmailToMimeMessage emailToMimeMessage,
+                               final @NonNull EmailLogRenderer emailLogRenderer,
+                               final @NonNull SmtpTransportPool smtpTransportPool) {
+        this(javaMailSender, templateService, emailToMimeMessage, emailLogRenderer);
+        this.smtpTransportPool = smtpTransportPool;
+    }
+
     @Autowired(required = false)
     public DefaultEmailService(final @NonNull JavaMailSender javaMailSender,
                                final TemplateService templateService,
@@ -82,11 +123,21 @@ public class DefaultEmailService implements EmailService {
         this(javaMailSender, null, emailToMimeMessage, emailLogRenderer);
     }
 
+    @Autowired(required = false)
+    public void setInlinePictureCache(final InlinePictureCache inlinePictureCache) {
+        this.inlinePictureCache = inlinePictureCache;
+    }
+
+    @Autowired(required = false)
+    public void setEncodedPartCache(final EncodedPartCache encodedPartCache) {
+        this.encodedPartCache = encodedPartCache;
+    }
+
     @Override
     public MimeMessage send(final @NonNull Email email) {
         email.setSentAt(new Date());
         final MimeMessage mimeMessage = toMimeMessage(email);
-        javaMailSender.send(mimeMessage);
+        sendMimeMessage(mimeMessage);
         emailLogRenderer.info("Sent email {}.", email);
         return mimeMessage;
     }
@@ -96,22 +147,112 @@ public class DefaultEmailService implements EmailService {
                             final Map<String, Object> modelObject,
                             final @NonNull InlinePicture... inlinePictures) throws CannotSendEmailException {
         email.setSentAt(new Date());
-        final MimeMessage mimeMessage = toMimeMessage(email);
-        try {
-            final MimeMultipart content = new MimeMultipart("mixed");
+        final MimeMultipart content = new MimeMultipart("mixed");
+        final String text = setTemplateContent(content, email, template, modelObject, inlinePictures);
+        final MimeMessage mimeMessage = toMimeMessage(email, content);
+        sendMimeMessage(mimeMessage);
+        emailLogRenderer.info("Sent email {}.", emailWithCompiledBody(email, text));
+        return mimeMessage;
+    }
+
+    @Override
+    public List<EmailSendResult> sendAll(final @NonNull Collection<Email> emails) {
+        final List<PreparedEmail> preparedEmails = new ArrayList<>(emails.size());
+        for (final Email email : emails) {
+            email.setSentAt(new Date());
+            try {
+                preparedEmails.add(new PreparedEmail(email, email, toMimeMessage(email), null));
+            } catch (RuntimeException e) {
+                preparedEmails.add(new PreparedEmail(email, email, null, e));
+            }
+        }
+        return sendAll(preparedEmails);
+    }
+
+    @Override
+    public List<EmailSendResult> sendAll(final @NonNull Collection<Email> emails,
+                                         final @NonNull String template,
+                                         final Map<String, Object> modelObject,
+                                         final @NonNull InlinePicture... inlinePictures) {
+        final List<PreparedEmail> preparedEmails = new ArrayList<>(emails.size());
+        for (final Email email : emails) {
+            email.setSentAt(new Date());
+            try {
+                final MimeMultipart content = new MimeMultipart("mixed");
+                final String text = setTemplateContent(content, email, template, modelObject, inlinePictures);
+                final MimeMessage mimeMessage = toMimeMessage(email, content);
+                preparedEmails.add(new PreparedEmail(email, emailWithCompiledBody(email, text), mimeMessage, null));
+            } catch (CannotSendEmailException | RuntimeException e) {
+                preparedEmails.add(new PreparedEmail(email, email, null, e));
+            }
+        }
+        return sendAll(preparedEmails);
+    }
+
+    //All the prepared messages are handed over in a single call, hence through a single connection
+    private List<EmailSendResult> sendAll(final List<PreparedEmail> preparedEmails) {
+        final MimeMessage[] mimeMessages = preparedEmails.stream()
+                .filter(preparedEmail -> isNull(preparedEmail.exception))
+                .map(preparedEmail -> preparedEmail.mimeMessage)
+                .toArray(MimeMessage[]::new);
+        MailException failure = null;
+        Map<Object, Exception> failedMessages = Collections.emptyMap();
+        if (mimeMessages.length > 0) {
+            try {
+                sendMimeMessages(mimeMessages);
+            } catch (MailSendException e) {
+                failure = e;
+                failedMessages = e.getFailedMessages();
+            } catch (MailException e) {
+                failure = e;
+            }
+        }
 
-            String text = templateService.mergeTemplateIntoString(template,
+        final List<EmailSendResult> results = new ArrayList<>(preparedEmails.size());
+        for (final PreparedEmail preparedEmail : preparedEmails) {
+            Exception exception = preparedEmail.exception;
+            if (isNull(exception) && nonNull(failure)) {
+                //Without failed messages, the failure affects all of them
+                exception = failedMessages.isEmpty() ? failure : failedMessages.get(preparedEmail.mimeMessage);
+            }
+            if (isNull(exception)) {
+                emailLogRenderer.info("Sent email {}.", preparedEmail.loggedEmail);
+                results.add(EmailSendResult.sent(preparedEmail.email, preparedEmail.mimeMessage));
+            } else {
+                log.error("The email cannot be sent", exception);
+                results.add(EmailSendResult.failed(preparedEmail.email, exception));
+            }
+        }
+        return results;
+    }
+
+    //The content is built once and then set as is into the MIME message, returning the compiled text
+    private String setTemplateContent(final MimeMultipart content,
+                                      final Email email,
+                                      final String template,
+                                      final Map<String, Object> modelObject,
+                                      final InlinePicture... inlinePictures) throws CannotSendEmailException {
+        try {
+            final String mergedText = templateService.mergeTemplateIntoString(template,
                     fromNullable(modelObject).or(ImmutableMap.of()));
 
+            final Map<String, String> cids = new HashMap<>();
             for (final InlinePicture inlinePicture : inlinePictures) {
-                final String cid = UUID.randomUUID().toString();
+                final String cid = randomCid();
 
-                //Set the cid in the template
-                text = text.replace(inlinePicture.getTemplateName(), "cid:" + cid);
+                //Collect the cid to be set in the template
+                cids.putIfAbsent(inlinePicture.getTemplateName(), "cid:" + cid);
 
                 //Set the image part
                 final MimeBodyPart imagePart = new MimeBodyPart();
-                imagePart.attachFile(inlinePicture.getFile());
+                if (nonNull(inlinePictureCache)) {
+                    final File file = inlinePicture.getFile();
+                    imagePart.setDataHandler(new DataHandler(new ByteArrayDataSource(inlinePictureCache.getContent(file),
+                            inlinePicture.getImageType().getContentType())));
+                    imagePart.setFileName(file.getName());
+                } else {
+                    imagePart.attachFile(inlinePicture.getFile());
+                }
                 imagePart.setContentID('<' + cid + '>');
                 imagePart.setDisposition(MimeBodyPart.INLINE);
                 imagePart.setHeader("Content-Type", inlinePicture.getImageType().getContentType());
@@ -119,24 +260,23 @@ public class DefaultEmailService implements EmailService {
             }
 
             for (final EmailAttachment emailAttachment : email.getAttachments()) {
-                //Set the image part
-                final MimeBodyPart attachmentPart = new MimeBodyPart();
-                DataSource source = new ByteArrayDataSource(emailAttachment.getAttachmentData(),
-                        emailAttachment.getContentType().toString());
-                attachmentPart.setDataHandler(new DataHandler(source));
-                attachmentPart.setFileName(MimeUtility.encodeText(emailAttachment.getAttachmentName()));
-                content.addBodyPart(attachmentPart);
+                //Set the attachment part
+                if (nonNull(encodedPartCache)) {
+                    content.addBodyPart(encodedPartCache.attachmentPart(emailAttachment));
+                } else {
+                    //The content is streamed from its source when the message is written
+                    content.addBodyPart(streamedAttachmentPart(emailAttachment));
+                }
             }
 
+            //Set all the cids in the template at once
+            final String text = replaceEach(mergedText, cids);
+
             //Set the HTML text part
             final MimeBodyPart textPart = new MimeBodyPart();
             textPart.setText(text, email.getEncoding(), "html");
             content.addBodyPart(textPart);
-
-            mimeMessage.setContent(content);
-            mimeMessage.saveChanges();
-            javaMailSender.send(mimeMessage);
-            emailLogRenderer.info("Sent email {}.", emailWithCompiledBody(email, text));
+            return text;
         } catch (IOException e) {
             log.error("The template file cannot be read", e);
             throw new CannotSendEmailException("Error while sending the email due to problems with the template file.", e);
@@ -147,13 +287,42 @@ public class DefaultEmailService implements EmailService {
             log.error("The mime message cannot be created", e);
             throw new CannotSendEmailException("Error while sending the email due to problems with the mime content.", e);
         }
-        return mimeMessage;
+    }
+
+    //The cid has only to be unique within the email, hence it does not need a secure random generator
+    private static String randomCid() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private void sendMimeMessage(final MimeMessage mimeMessage) {
+        if (nonNull(smtpRelayGroup)) {
+            smtpRelayGroup.send(mimeMessage);
+        } else if (nonNull(smtpTransportPool)) {
+            smtpTransportPool.send(mimeMessage);
+        } else {
+            javaMailSender.send(mimeMessage);
+        }
+    }
+
+    private void sendMimeMessages(final MimeMessage... mimeMessages) {
+        if (nonNull(smtpRelayGroup)) {
+            smtpRelayGroup.send(mimeMessages);
+        } else if (nonNull(smtpTransportPool)) {
+            smtpTransportPool.send(mimeMessages);
+        } else {
+            javaMailSender.send(mimeMessages);
+        }
     }
 
     private MimeMessage toMimeMessage(@NotNull Email email) {
         return emailToMimeMessage.apply(email);
     }
 
+    private MimeMessage toMimeMessage(@NotNull Email email, @NotNull MimeMultipart content) {
+        return emailToMimeMessage.apply(email, content);
+    }
+
     private Email emailWithCompiledBody(Email email, String body) {
         return new EmailFromTemplate(email).body(body);
     }
@@ -170,4 +339,16 @@ public class DefaultEmailService implements EmailService {
 
     }
 
+    @RequiredArgsConstructor
+    private static class PreparedEmail {
+        private final Email email;
+
+        //The email as logged once sent, i.e. with the compiled body when sent with a template
+        private final Email loggedEmail;
+
+        private final MimeMessage mimeMessage;
+
+        private final Exception exception;
+    }
+
 }
\ No newline at end of file
@@ -17,86 +17,319 @@
 package it.ozimov.springboot.mail.service.defaultimpl;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailAttachment;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
-import it.ozimov.springboot.mail.service.PersistenceService;
+import it.ozimov.springboot.mail.service.AsyncPersistenceService;
 import lombok.NonNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.BoundValueOperations;
 import org.springframework.data.redis.core.BoundZSetOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
+import org.springframework.util.ClassUtils;
 
-import java.math.BigDecimal;
-import java.time.temporal.ChronoField;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-
-import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED;
-import static java.lang.Math.max;
-import static java.lang.Math.min;
+import java.util.stream.Stream;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CACHE_MAX_BYTES;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_DEDUPLICATE_ATTACHMENTS;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PARTITIONS;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_DEFAULT_BACKEND;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
 @Service("defaultEmailPersistenceService")
-@ConditionalOnExpression(PERSISTENCE_IS_ENABLED)
-public class DefaultPersistenceService implements PersistenceService {
-
-    private static final String MATCH_ALL = "*";
+@ConditionalOnExpression(PERSISTENCE_IS_ENABLED_WITH_DEFAULT_BACKEND)
+public class DefaultPersistenceService implements AsyncPersistenceService {
+
+    private static final String REDIS_COMPRESSION = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION + ":NONE}";
+
+    private static final String REDIS_COMPRESSION_THRESHOLD = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD + ":1024}";
+
+    private static final String REDIS_DEDUPLICATE_ATTACHMENTS = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_DEDUPLICATE_ATTACHMENTS + ":false}";
+
+    private static final String REDIS_NAMESPACE = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE + ":}";
+
+    private static final String REDIS_PARTITIONS = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PARTITIONS + ":0}";
+
+    private static final String REDIS_CACHE_MAX_BYTES = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CACHE_MAX_BYTES + ":0}";
+
+    private static final String PRIORITY_LEVELS = "${" + SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS + ":10}";
+
+    private static final int DEFAULT_PRIORITY_LEVELS = 10;
+
+    private static final int BULK_DELETE_CHUNK_SIZE = 1_000;
+
+    private static final int BULK_DELETE_THREADS = 2;
+
+    private static final int ENQUEUE_CHUNK_SIZE = 500;
+
+    private static final String LETTUCE_CLIENT_CLASS = "com.lambdaworks.redis.RedisClient";
+
+    //Estimated size of the fields of a cached email other than its subject, body and attachments
+    private static final int CACHED_EMAIL_BASE_WEIGHT = 1024;
+
+    //Payloads beyond this size are split across scripts, not to block REDIS on a single huge script
+    static final int ENQUEUE_CHUNK_MAX_BYTES = 4 * 1024 * 1024;
+
+    //Every key accessed by the scripts is passed in KEYS, as required by the REDIS scripting contract
+
+    // KEYS: ordering keys by priority, then value key of every email; ARGV: number of priority levels, then priority level, score, id and payload of every email
+    private static final byte[] ENQUEUE_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local count = 0 " +
+            "for k = 2, #ARGV, 4 do " +
+            "  count = count + 1 " +
+            "  redis.call('ZADD', KEYS[tonumber(ARGV[k])], ARGV[k + 1], ARGV[k + 2]) " +
+            "  redis.call('SET', KEYS[levels + count], ARGV[k + 3]) " +
+            "end " +
+            "return count").getBytes(StandardCharsets.UTF_8);
+
+    // KEYS: in-flight set, in-flight origins, ordering keys by priority; ARGV: now, due before, batch size
+    // Expired claims are put back into their ordering set, then the priority level and id of the due emails are returned
+    private static final byte[] DUE_SCRIPT = ("" +
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1]) " +
+            "for _, id in ipairs(expired) do " +
+            "  local origin = redis.call('HGET', KEYS[2], id) " +
+            "  if origin then " +
+            "    local separator = string.find(origin, ' ', 1, true) " +
+            "    local level = tonumber(string.sub(origin, separator + 1)) " +
+            "    if level and KEYS[level + 2] then " +
+            "      redis.call('ZADD', KEYS[level + 2], string.sub(origin, 1, separator - 1), id) " +
+            "    end " +
+            "    redis.call('HDEL', KEYS[2], id) " +
+            "  end " +
+            "  redis.call('ZREM', KEYS[1], id) " +
+            "end " +
+            "local due = {} " +
+            "local remaining = tonumber(ARGV[3]) " +
+            "for i = 3, #KEYS do " +
+            "  if remaining <= 0 then break end " +
+            "  local ids = redis.call('ZRANGEBYSCORE', KEYS[i], '-inf', ARGV[2], 'LIMIT', 0, remaining) " +
+            "  for _, id in ipairs(ids) do " +
+            "    due[#due + 1] = tostring(i - 2) " +
+            "    due[#due + 1] = id " +
+            "  end " +
+            "  remaining = remaining - #ids " +
+            "end " +
+            "return due").getBytes(StandardCharsets.UTF_8);
+
+    // KEYS: in-flight set, in-flight origins, ordering keys by priority, then value key of every email; ARGV: number of priority levels, claim deadline, then priority level and id of every email
+    // An email is claimed only if still in its ordering set, since another node may have claimed it meanwhile
+    private static final byte[] CLAIM_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local payloads = {} " +
+            "local count = 0 " +
+            "for k = 3, #ARGV, 2 do " +
+            "  count = count + 1 " +
+            "  local orderingKey = KEYS[tonumber(ARGV[k]) + 2] " +
+            "  local id = ARGV[k + 1] " +
+            "  local score = redis.call('ZSCORE', orderingKey, id) " +
+            "  if score then " +
+            "    redis.call('ZREM', orderingKey, id) " +
+            "    local payload = redis.call('GET', KEYS[levels + 2 + count]) " +
+            "    if payload then " +
+            "      redis.call('ZADD', KEYS[1], ARGV[2], id) " +
+            "      redis.call('HSET', KEYS[2], id, score .. ' ' .. ARGV[k]) " +
+            "      payloads[#payloads + 1] = payload " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return payloads").getBytes(StandardCharsets.UTF_8);
+
+    // KEYS: in-flight set, in-flight origins, ordering keys by priority, then value key of every id; ARGV: number of priority levels, then ids
+    private static final byte[] ACK_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local removed = 0 " +
+            "for k = 2, #ARGV do " +
+            "  local id = ARGV[k] " +
+            "  redis.call('ZREM', KEYS[1], id) " +
+            "  redis.call('HDEL', KEYS[2], id) " +
+            "  for i = 3, levels + 2 do " +
+            "    redis.call('ZREM', KEYS[i], id) " +
+            "  end " +
+            "  removed = removed + redis.call('DEL', KEYS[levels + k + 1]) " +
+            "end " +
+            "return removed").getBytes(StandardCharsets.UTF_8);
 
     private final StringRedisTemplate orderingTemplate;
     private final RedisTemplate<String, EmailSchedulingData> valueTemplate;
+    private final RedisAttachmentStore attachmentStore;
+    private final RedisKeyLayout keyLayout;
+    private final int priorityLevels;
+
+    //Deserialized emails by id, weighted by their estimated size, null when caching is disabled
+    private final Cache<String, EmailSchedulingData> cache;
+    private final long cacheMaxBytes;
+
+    //Evaluates the scripts without blocking, null unless connected through Lettuce without deduplicated attachments
+    private final LettuceAsyncScripts lettuceScripts;
+
+    //Partition from which the next claim starts, so that no partition is starved
+    private final AtomicInteger nextClaimedPartition = new AtomicInteger();
+
+    //Bulk deletes do not run on the common pool, so purging large amounts of emails does not starve parallel streams
+    private final ExecutorService bulkDeleteExecutor = Executors.newFixedThreadPool(BULK_DELETE_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("email-persistence-bulk-delete-%d").setDaemon(true).build());
+
+    public DefaultPersistenceService(@NonNull final StringRedisTemplate orderingTemplate,
+                                     @NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate) {
+        this(orderingTemplate, valueTemplate, PayloadCompression.NONE, 0, false, DEFAULT_PRIORITY_LEVELS, "", 0, 0);
+    }
 
     @Autowired
     public DefaultPersistenceService(@Qualifier("orderingTemplate") @NonNull final StringRedisTemplate orderingTemplate,
-                                     @Qualifier("valueTemplate") @NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate) {
+                                     @Qualifier("valueTemplate") @NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate,
+                                     @Value(REDIS_COMPRESSION) @NonNull final PayloadCompression compression,
+                                     @Value(REDIS_COMPRESSION_THRESHOLD) final int compressionThreshold,
+                                     @Value(REDIS_DEDUPLICATE_ATTACHMENTS) final boolean deduplicateAttachments,
+                                     @Value(PRIORITY_LEVELS) final int priorityLevels,
+                                     @Value(REDIS_NAMESPACE) final String namespace,
+                                     @Value(REDIS_PARTITIONS) final int partitions,
+                                     @Value(REDIS_CACHE_MAX_BYTES) final long cacheMaxBytes) {
+        Preconditions.checkArgument(priorityLevels > 0, "Number of priority levels should be a positive number, while %s was given", priorityLevels);
+        Preconditions.checkArgument(cacheMaxBytes >= 0, "Cache maximum bytes should not be negative, while %s was given", cacheMaxBytes);
+        this.priorityLevels = priorityLevels;
+        this.keyLayout = new RedisKeyLayout(namespace, partitions);
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.cache = cacheMaxBytes > 0 ? CacheBuilder.newBuilder()
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String id, EmailSchedulingData emailSchedulingData) -> weight(emailSchedulingData))
+                .build() : null;
+
         this.orderingTemplate = orderingTemplate;
         this.orderingTemplate.setEnableTransactionSupport(true);
 
         this.valueTemplate = valueTemplate;
         RedisSerializer<String> stringSerializer = new StringRedisSerializer();
-        JdkSerializationRedisSerializer jdkSerializationRedisSerializer = new JdkSerializationRedisSerializer();
+        this.attachmentStore = deduplicateAttachments ? new RedisAttachmentStore(valueTemplate, keyLayout) : null;
+        RedisSerializer<Object> valueSerializer = deduplicateAttachments ?
+                new CompressingRedisSerializer(new AttachmentReferencingRedisSerializer(attachmentStore), compression, compressionThreshold) :
+                new CompressingRedisSerializer(compression, compressionThreshold);
         this.valueTemplate.setKeySerializer(stringSerializer);
-        this.valueTemplate.setValueSerializer(jdkSerializationRedisSerializer);
+        this.valueTemplate.setValueSerializer(valueSerializer);
         this.valueTemplate.setHashKeySerializer(stringSerializer);
         this.valueTemplate.setHashValueSerializer(stringSerializer);
         this.valueTemplate.setEnableTransactionSupport(true);
         this.valueTemplate.afterPropertiesSet();
+
+        //The attachment store reads and writes through the template, hence its calls would block anyway
+        this.lettuceScripts = !deduplicateAttachments && ClassUtils.isPresent(LETTUCE_CLIENT_CLASS, getClass().getClassLoader())
+                && valueTemplate.getConnectionFactory() instanceof LettuceConnectionFactory ?
+                new LettuceAsyncScripts((LettuceConnectionFactory) valueTemplate.getConnectionFactory()) : null;
     }
 
+    /**
+     * Return whether the asynchronous calls are issued without blocking, that is when connected through Lettuce and
+     * the attachments are not deduplicated.
+     */
     @Override
-    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
-        addOps(emailSchedulingData);
+    public boolean isNonBlocking() {
+        return nonNull(lettuceScripts);
     }
 
-    protected void addOps(final EmailSchedulingData emailSchedulingData) {
-        final String orderingKey = orderingKey(emailSchedulingData);
-        final String valueKey = emailSchedulingData.getId();
+    @Override
+    public CompletableFuture<Void> addAsync(@NonNull final EmailSchedulingData emailSchedulingData) {
+        return async(() -> enqueueAll(Collections.singletonList(emailSchedulingData), lettuceScripts::eval),
+                () -> {
+                    add(emailSchedulingData);
+                    return null;
+                });
+    }
 
-        final double score = calculateScore(emailSchedulingData);
+    @Override
+    public CompletableFuture<Boolean> removeAsync(@NonNull final String id) {
+        return async(() -> {
+                    invalidate(Collections.singletonList(id));
+                    return evalAck(keyLayout.partition(id), Collections.singletonList(id), lettuceScripts::eval)
+                            .thenApply(removed -> nonNull(removed) && removed > 0);
+                },
+                () -> remove(id));
+    }
+
+    @Override
+    public CompletableFuture<Collection<EmailSchedulingData>> claimNextBatchAsync(@NonNull final OffsetDateTime dueBefore,
+                                                                               final int batchMaxSize,
+                                                                               @NonNull final Duration claimTimeout) {
+        return async(() -> claimAll(dueBefore, batchMaxSize, claimTimeout, lettuceScripts::eval)
+                        .<Collection<EmailSchedulingData>>thenApply(claimed -> claimed),
+                () -> claimNextBatch(dueBefore, batchMaxSize, claimTimeout));
+    }
+
+    @Override
+    public CompletableFuture<Void> ackAsync(@NonNull final Collection<String> ids) {
+        return async(() -> ackAll(ids, lettuceScripts::eval),
+                () -> {
+                    ack(ids);
+                    return null;
+                });
+    }
 
-        BoundZSetOperations<String, String> orderingZSetOps = orderingTemplate.boundZSetOps(orderingKey);
-        orderingZSetOps.add(valueKey, score);
-        orderingZSetOps.persist();
+    @Override
+    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        addOps(emailSchedulingData);
+    }
 
-        BoundValueOperations<String, EmailSchedulingData> valueValueOps = valueTemplate.boundValueOps(valueKey);
-        valueValueOps.set(emailSchedulingData);
-        valueValueOps.persist();
+    protected void addOps(final EmailSchedulingData emailSchedulingData) {
+        addAllOps(Collections.singletonList(emailSchedulingData));
     }
 
+    /**
+     * Return the email with the given id. When caching is enabled, an email already added, read or claimed by this
+     * node is returned without reading and deserializing its payload, as long as its value key still exists in REDIS,
+     * since another node may have removed it meanwhile.
+     */
     @Override
     public Optional<EmailSchedulingData> get(@NonNull final String id) {
-        return Optional.ofNullable(getOps(id));
+        final EmailSchedulingData cached = cached(id);
+        if (nonNull(cached)) {
+            if (Boolean.TRUE.equals(valueTemplate.hasKey(keyLayout.valueKey(id)))) {
+                return Optional.of(cached);
+            }
+            invalidate(Collections.singletonList(id));
+            return Optional.empty();
+        }
+        final EmailSchedulingData emailSchedulingData = getOps(id);
+        cache(emailSchedulingData);
+        return Optional.ofNullable(emailSchedulingData);
     }
 
     protected EmailSchedulingData getOps(final String id) {
-        //valueTemplate.
-        BoundValueOperations<String, EmailSchedulingData> boundValueOps = valueTemplate.boundValueOps(id);
+        BoundValueOperations<String, EmailSchedulingData> boundValueOps = valueTemplate.boundValueOps(keyLayout.valueKey(id));
         EmailSchedulingData emailSchedulingData = boundValueOps.get();
         return emailSchedulingData;
     }
@@ -107,15 +340,16 @@ public class DefaultPersistenceService implements PersistenceService {
     }
 
     protected boolean removeOps(final String id) {
-        final EmailSchedulingData emailSchedulingData = getOps(id);
+        invalidate(Collections.singletonList(id));
+        //The payload is only needed to release its attachments
+        final EmailSchedulingData emailSchedulingData = nonNull(attachmentStore) ? getOps(id) : null;
+
+        //The email is removed from all the ordering sets and from the claimed ones in one call
+        final Long removed = await(evalAck(keyLayout.partition(id), Collections.singletonList(id), this::evalBlocking));
         if (nonNull(emailSchedulingData)) {
-            valueTemplate.delete(id);
-            final String orderingKey = orderingKey(emailSchedulingData);
-            orderingTemplate.boundZSetOps(orderingKey).remove(id);
-            return true;
+            attachmentStore.release(emailSchedulingData);
         }
-
-        return false;
+        return nonNull(removed) && removed > 0;
     }
 
     @Override
@@ -124,97 +358,460 @@ public class DefaultPersistenceService implements PersistenceService {
     }
 
     protected void addAllOps(final Collection<EmailSchedulingData> emailSchedulingDataList) {
-        for (EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
-            addOps(emailSchedulingData);
+        await(enqueueAll(emailSchedulingDataList, this::evalBlocking));
+    }
+
+    private CompletableFuture<Void> enqueueAll(final Collection<EmailSchedulingData> emailSchedulingDataList,
+                                               final ScriptEvaluation evaluation) {
+        emailSchedulingDataList.forEach(emailSchedulingData ->
+                Preconditions.checkArgument(emailSchedulingData.getAssignedPriority() >= 1 && emailSchedulingData.getAssignedPriority() <= priorityLevels,
+                        "Assigned priority should be between 1 and %s, while %s was given", priorityLevels, emailSchedulingData.getAssignedPriority()));
+        if (nonNull(attachmentStore)) {
+            emailSchedulingDataList.forEach(attachmentStore::retain);
+        }
+        //Ordering set and value of every email are written by a script, with a single round trip per chunk
+        final List<CompletableFuture<Long>> chunks = new ArrayList<>();
+        emailSchedulingDataList.stream()
+                .collect(Collectors.groupingBy(emailSchedulingData -> keyLayout.partition(emailSchedulingData.getId())))
+                .forEach((partition, partitionList) -> enqueue(partition, partitionList, evaluation, chunks));
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[chunks.size()]))
+                .thenRun(() -> emailSchedulingDataList.forEach(this::cache));
+    }
+
+    private void enqueue(final int partition, final List<EmailSchedulingData> emailSchedulingDataList,
+                         final ScriptEvaluation evaluation, final List<CompletableFuture<Long>> chunks) {
+        @SuppressWarnings("unchecked")
+        final RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) valueTemplate.getValueSerializer();
+        //Chunks are bounded both by number of emails and by size of the payloads, a single larger email is sent alone
+        final List<byte[]> chunkArgs = new ArrayList<>();
+        long chunkBytes = 0;
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+            final byte[] payload = valueSerializer.serialize(emailSchedulingData);
+            final int chunkSize = chunkArgs.size() / 4;
+            if (chunkSize == ENQUEUE_CHUNK_SIZE || (chunkSize > 0 && chunkBytes + payload.length > ENQUEUE_CHUNK_MAX_BYTES)) {
+                chunks.add(enqueueChunk(partition, chunkArgs, evaluation));
+                chunkArgs.clear();
+                chunkBytes = 0;
+            }
+            chunkArgs.add(bytes(String.valueOf(emailSchedulingData.getAssignedPriority())));
+            chunkArgs.add(bytes(String.valueOf(calculateScore(emailSchedulingData))));
+            chunkArgs.add(bytes(emailSchedulingData.getId()));
+            chunkArgs.add(payload);
+            chunkBytes += payload.length;
         }
+        if (!chunkArgs.isEmpty()) {
+            chunks.add(enqueueChunk(partition, chunkArgs, evaluation));
+        }
+    }
+
+    private CompletableFuture<Long> enqueueChunk(final int partition, final List<byte[]> emailArgs,
+                                                 final ScriptEvaluation evaluation) {
+        final List<byte[]> keys = new ArrayList<>();
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            keys.add(bytes(keyLayout.orderingKey(partition, priorityLevel)));
+        }
+        final List<byte[]> args = new ArrayList<>();
+        args.add(bytes(String.valueOf(priorityLevels)));
+        for (int i = 0; i < emailArgs.size(); i += 4) {
+            keys.add(bytes(keyLayout.valueKeyPrefix(partition) + new String(emailArgs.get(i + 2), StandardCharsets.UTF_8)));
+        }
+        args.addAll(emailArgs);
+        return evaluation.eval(ENQUEUE_SCRIPT, ReturnType.INTEGER, keys, args);
     }
 
     @Override
     public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
         Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer.");
 
-        final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(priorityLevel);
-        return getNextBatchOps(orderingKey, batchMaxSize);
+        if (!keyLayout.isHashTagged()) {
+            return getNextBatchOps(keyLayout.orderingKey(0, priorityLevel), batchMaxSize);
+        }
+        return firstOf(keyLayout.partitionIndexes()
+                .mapToObj(partition -> keyLayout.orderingKey(partition, priorityLevel)), batchMaxSize);
     }
 
     protected Collection<EmailSchedulingData> getNextBatchOps(final String orderingKey, final int batchMaxSize) {
         Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer.");
 
-        final BoundZSetOperations<String, String> boundZSetOperations = orderingTemplate.boundZSetOps(orderingKey);
-        final long amount = boundZSetOperations.size();
-        final Set<String> valueIds = boundZSetOperations.range(0, max(0, min(amount, batchMaxSize) - 1));
-        return valueIds.stream()
-                .map(id -> getOps(id))
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+        final Set<String> valueIds = orderingTemplate.boundZSetOps(orderingKey).range(0, batchMaxSize - 1);
+        if (isNull(valueIds) || valueIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        //Only the emails not in the cache are read and deserialized
+        final Set<EmailSchedulingData> emailSchedulingDataSet = new HashSet<>();
+        final List<String> missingValueKeys = new ArrayList<>();
+        for (final String id : valueIds) {
+            final EmailSchedulingData cached = cached(id);
+            if (nonNull(cached)) {
+                emailSchedulingDataSet.add(cached);
+            } else {
+                missingValueKeys.add(keyLayout.valueKey(id));
+            }
+        }
+        if (!missingValueKeys.isEmpty()) {
+            valueTemplate.opsForValue().multiGet(missingValueKeys).stream()
+                    .filter(Objects::nonNull)
+                    .forEach(emailSchedulingData -> {
+                        cache(emailSchedulingData);
+                        emailSchedulingDataSet.add(emailSchedulingData);
+                    });
+        }
+        return emailSchedulingDataSet;
     }
 
     @Override
     public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
         Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
 
-        final Set<String> keys = new TreeSet<>(orderingTemplate.keys(RedisBasedPersistenceServiceConstants.orderingKeyPrefix() + MATCH_ALL));
+        //The ordering keys are known from the layout, so there is no need to scan the key space
+        return firstOf(keyLayout.partitionIndexes().boxed()
+                .flatMap(partition -> IntStream.rangeClosed(1, priorityLevels)
+                        .mapToObj(priorityLevel -> keyLayout.orderingKey(partition, priorityLevel))), batchMaxSize);
+    }
 
+    private List<EmailSchedulingData> firstOf(final Stream<String> orderingKeys, final int batchMaxSize) {
         final Set<EmailSchedulingData> emailSchedulingDataSet = new TreeSet<>(EmailSchedulingData.DEFAULT_COMPARATOR);
 
-        for (String key : keys) {
-            emailSchedulingDataSet.addAll(getNextBatchOps(key, batchMaxSize));
-        }
+        orderingKeys.forEach(orderingKey -> emailSchedulingDataSet.addAll(getNextBatchOps(orderingKey, batchMaxSize)));
 
         return emailSchedulingDataSet.stream()
-                .limit(min(batchMaxSize, emailSchedulingDataSet.size()))
+                .limit(batchMaxSize)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public Collection<EmailSchedulingData> claimNextBatch(@NonNull final OffsetDateTime dueBefore, final int batchMaxSize,
+                                                          @NonNull final Duration claimTimeout) {
+        return await(claimAll(dueBefore, batchMaxSize, claimTimeout, this::evalBlocking));
+    }
+
+    private CompletableFuture<List<EmailSchedulingData>> claimAll(final OffsetDateTime dueBefore, final int batchMaxSize,
+                                                                  final Duration claimTimeout, final ScriptEvaluation evaluation) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+        Preconditions.checkArgument(!claimTimeout.isNegative() && !claimTimeout.isZero(), "Claim timeout should be positive, while %s given.", claimTimeout);
+
+        final int partitions = (int) keyLayout.partitionIndexes().count();
+        final int firstPartition = Math.floorMod(nextClaimedPartition.getAndIncrement(), partitions);
+
+        //Partitions are claimed one after the other, until the batch is full
+        CompletableFuture<List<EmailSchedulingData>> claimed = CompletableFuture.completedFuture(new ArrayList<>());
+        for (int i = 0; i < partitions; i++) {
+            final int partition = (firstPartition + i) % partitions;
+            claimed = claimed.thenCompose(batch -> batch.size() >= batchMaxSize ? CompletableFuture.completedFuture(batch) :
+                    claimNextBatch(partition, dueBefore, batchMaxSize - batch.size(), claimTimeout, evaluation)
+                            .thenApply(partitionBatch -> {
+                                batch.addAll(partitionBatch);
+                                return batch;
+                            }));
+        }
+        return claimed;
+    }
+
+    private CompletableFuture<List<EmailSchedulingData>> claimNextBatch(final int partition, final OffsetDateTime dueBefore,
+                                                                        final int batchMaxSize, final Duration claimTimeout,
+                                                                        final ScriptEvaluation evaluation) {
+        //The value keys of the due emails are only known once read, hence they are claimed by a second script
+        final List<byte[]> keys = scriptKeys(partition);
+        final long now = Instant.now().toEpochMilli();
+        final CompletableFuture<List<byte[]>> due = evaluation.eval(DUE_SCRIPT, ReturnType.MULTI, keys, Arrays.asList(
+                bytes(String.valueOf(now)), bytes(String.valueOf(score(dueBefore))), bytes(String.valueOf(batchMaxSize))));
+        return due.thenCompose(dueIds -> {
+            if (isNull(dueIds) || dueIds.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            return claim(partition, now + claimTimeout.toMillis(), keys, dueIds, evaluation);
+        });
+    }
+
+    private CompletableFuture<List<EmailSchedulingData>> claim(final int partition, final long claimDeadline,
+                                                               final List<byte[]> keys, final List<byte[]> due,
+                                                               final ScriptEvaluation evaluation) {
+        final List<byte[]> args = new ArrayList<>();
+        args.add(bytes(String.valueOf(priorityLevels)));
+        args.add(bytes(String.valueOf(claimDeadline)));
+        for (int i = 0; i < due.size(); i += 2) {
+            keys.add(bytes(keyLayout.valueKeyPrefix(partition) + new String(due.get(i + 1), StandardCharsets.UTF_8)));
+            args.add(due.get(i));
+            args.add(due.get(i + 1));
+        }
+        final CompletableFuture<List<byte[]>> payloads = evaluation.eval(CLAIM_SCRIPT, ReturnType.MULTI, keys, args);
+        return payloads.thenApply(this::deserializeClaimed);
+    }
+
+    private List<EmailSchedulingData> deserializeClaimed(final List<byte[]> payloads) {
+        if (isNull(payloads)) {
+            return Collections.emptyList();
+        }
+        final RedisSerializer<?> valueSerializer = valueTemplate.getValueSerializer();
+        final List<EmailSchedulingData> claimed = payloads.stream()
+                .map(payload -> (EmailSchedulingData) valueSerializer.deserialize(payload))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        claimed.forEach(this::cache);
+        return claimed;
+    }
+
+    @Override
+    public void ack(@NonNull final Collection<String> ids) {
+        await(ackAll(ids, this::evalBlocking));
+    }
+
+    private CompletableFuture<Void> ackAll(final Collection<String> ids, final ScriptEvaluation evaluation) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final List<String> idList = new ArrayList<>(ids);
+        invalidate(idList);
+        final List<EmailSchedulingData> acknowledged = nonNull(attachmentStore) ?
+                valueTemplate.opsForValue().multiGet(idList.stream().map(keyLayout::valueKey).collect(Collectors.toList())) :
+                Collections.emptyList();
+
+        final CompletableFuture<?>[] acks = idList.stream()
+                .collect(Collectors.groupingBy(keyLayout::partition))
+                .entrySet().stream()
+                .map(partitionIds -> evalAck(partitionIds.getKey(), partitionIds.getValue(), evaluation))
+                .toArray(CompletableFuture<?>[]::new);
+
+        return CompletableFuture.allOf(acks).thenRun(() -> {
+            if (nonNull(attachmentStore) && nonNull(acknowledged)) {
+                acknowledged.stream()
+                        .filter(Objects::nonNull)
+                        .forEach(attachmentStore::release);
+            }
+        });
+    }
+
+    private CompletableFuture<Long> evalAck(final int partition, final List<String> partitionIds,
+                                            final ScriptEvaluation evaluation) {
+        final List<byte[]> keys = scriptKeys(partition);
+        final List<byte[]> args = new ArrayList<>();
+        args.add(bytes(String.valueOf(priorityLevels)));
+        for (final String id : partitionIds) {
+            keys.add(bytes(keyLayout.valueKeyPrefix(partition) + id));
+            args.add(bytes(id));
+        }
+        return evaluation.eval(ACK_SCRIPT, ReturnType.INTEGER, keys, args);
+    }
+
     @Override
     public void removeAll() {
-        orderingTemplate.delete(MATCH_ALL);
-        valueTemplate.delete(MATCH_ALL);
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            removeAll(priorityLevel);
+        }
+        keyLayout.partitionIndexes().forEach(partition -> {
+            final Set<String> claimedIds = orderingTemplate.boundZSetOps(keyLayout.inFlightKey(partition)).range(0, -1);
+            if (nonNull(claimedIds) && !claimedIds.isEmpty()) {
+                removeAll(claimedIds);
+            }
+            orderingTemplate.delete(Arrays.asList(keyLayout.inFlightKey(partition), keyLayout.inFlightOriginKey(partition)));
+        });
+        if (nonNull(attachmentStore)) {
+            attachmentStore.releaseAll();
+        }
+        if (nonNull(cache)) {
+            cache.invalidateAll();
+        }
     }
 
     @Override
     public void removeAll(final int priorityLevel) {
-        final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(priorityLevel);
+        keyLayout.partitionIndexes().forEach(partition -> {
+            final String orderingKey = keyLayout.orderingKey(partition, priorityLevel);
+
+            final BoundZSetOperations<String, String> boundZSetOperations = orderingTemplate.boundZSetOps(orderingKey);
+            final Long amount = boundZSetOperations.size();
+            if (nonNull(amount) && amount > 0) {
+                //The ordering set is deleted only at the end, so the ranges of the chunks are stable
+                final int chunks = (int) ((amount + BULK_DELETE_CHUNK_SIZE - 1) / BULK_DELETE_CHUNK_SIZE);
+                runOnBulkDeleteExecutor(IntStream.range(0, chunks)
+                        .mapToObj(i -> (Runnable) () -> {
+                            final long start = (long) i * BULK_DELETE_CHUNK_SIZE;
+                            final Set<String> valueIds = boundZSetOperations.range(start, start + BULK_DELETE_CHUNK_SIZE - 1);
+                            deleteChunk(new ArrayList<>(valueIds), false);
+                        })
+                        .collect(Collectors.toList()));
+            }
+
+            orderingTemplate.delete(orderingKey);
+        });
+    }
 
-        BoundZSetOperations<String, String> boundZSetOperations = orderingTemplate.boundZSetOps(orderingKey);
-        long amount = boundZSetOperations.size();
+    @Override
+    public void removeAll(@NonNull final Collection<String> ids) {
+        runOnBulkDeleteExecutor(Lists.partition(new ArrayList<>(ids), BULK_DELETE_CHUNK_SIZE).stream()
+                .map(chunk -> (Runnable) () -> deleteChunk(chunk, true))
+                .collect(Collectors.toList()));
+    }
 
-        final int offset = 2_000;
+    private void deleteChunk(final List<String> ids, final boolean removeFromOrderingSets) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        invalidate(ids);
+        //Payloads are only needed to release their attachments
+        final List<EmailSchedulingData> emailSchedulingDataList = nonNull(attachmentStore) ?
+                valueTemplate.opsForValue().multiGet(ids.stream().map(keyLayout::valueKey).collect(Collectors.toList())) :
+                Collections.emptyList();
+
+        //Multi-key commands only involve keys of the same partition, hence of the same hash slot
+        final Map<Integer, List<String>> idsByPartition = ids.stream().collect(Collectors.groupingBy(keyLayout::partition));
+        final RedisCallback<Object> deletion = connection -> {
+            idsByPartition.forEach((partition, partitionIds) -> {
+                final byte[][] idsAsBytes = partitionIds.stream().map(DefaultPersistenceService::bytes).toArray(byte[][]::new);
+                connection.del(partitionIds.stream().map(id -> bytes(keyLayout.valueKey(id))).toArray(byte[][]::new));
+                connection.zRem(bytes(keyLayout.inFlightKey(partition)), idsAsBytes);
+                connection.hDel(bytes(keyLayout.inFlightOriginKey(partition)), idsAsBytes);
+                if (removeFromOrderingSets) {
+                    //Removing from the ordering set of every priority level saves reading the payloads
+                    for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+                        connection.zRem(bytes(keyLayout.orderingKey(partition, priorityLevel)), idsAsBytes);
+                    }
+                }
+            });
+            return null;
+        };
+        //Pipelines are not available on REDIS Cluster connections
+        if (keyLayout.isHashTagged()) {
+            valueTemplate.execute(deletion);
+        } else {
+            valueTemplate.executePipelined(deletion);
+        }
 
-        IntStream.range(0, (int) Math.ceil(amount / offset))
-                .parallel()
-                .forEach(i -> {
-                    long start = i * offset;
-                    long end = min(amount, start + offset);
-                    Set<String> valueIds = boundZSetOperations.range(start, end);
-                    valueTemplate.delete(valueIds);
+        if (nonNull(attachmentStore) && nonNull(emailSchedulingDataList)) {
+            emailSchedulingDataList.stream()
+                    .filter(Objects::nonNull)
+                    .forEach(attachmentStore::release);
+        }
+    }
 
-                });
+    private void runOnBulkDeleteExecutor(final List<Runnable> tasks) {
+        final List<Future<?>> futures = tasks.stream()
+                .map(bulkDeleteExecutor::submit)
+                .collect(Collectors.toList());
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while deleting emails from the persistence layer", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException("Cannot delete emails from the persistence layer", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    protected void cleanUp() {
+        bulkDeleteExecutor.shutdownNow();
+        if (nonNull(lettuceScripts)) {
+            lettuceScripts.close();
+        }
+    }
 
-        orderingTemplate.delete(orderingKey);
+    private EmailSchedulingData cached(final String id) {
+        return nonNull(cache) ? cache.getIfPresent(id) : null;
     }
 
-    @Override
-    public void removeAll(@NonNull final Collection<String> ids) {
-        ids.parallelStream().forEach(id -> removeOps(id));
+    private void cache(final EmailSchedulingData emailSchedulingData) {
+        //An email larger than the whole cache would only evict the others
+        if (nonNull(cache) && nonNull(emailSchedulingData) && weight(emailSchedulingData) <= cacheMaxBytes) {
+            cache.put(emailSchedulingData.getId(), emailSchedulingData);
+        }
+    }
+
+    // Estimated size of the payload of the email, dominated by its body and the content of its attachments
+    private static int weight(final EmailSchedulingData emailSchedulingData) {
+        final Email email = emailSchedulingData.getEmail();
+        long weight = CACHED_EMAIL_BASE_WEIGHT;
+        if (nonNull(email)) {
+            weight += length(email.getSubject()) + length(email.getBody());
+            if (nonNull(email.getAttachments())) {
+                for (final EmailAttachment attachment : email.getAttachments()) {
+                    final byte[] data = attachment.isStreamed() ? null : attachment.getAttachmentData();
+                    weight += nonNull(data) ? data.length : 0;
+                }
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
     }
 
-    private String orderingKey(final EmailSchedulingData emailSchedulingData) {
-        return RedisBasedPersistenceServiceConstants.orderingKey(emailSchedulingData.getAssignedPriority());
+    private static long length(final String value) {
+        //Characters are serialized as UTF-8, hence mostly one byte each
+        return nonNull(value) ? value.length() : 0;
+    }
+
+    private void invalidate(final Collection<String> ids) {
+        if (nonNull(cache)) {
+            cache.invalidateAll(ids);
+        }
+    }
+
+    private List<byte[]> scriptKeys(final int partition) {
+        final List<byte[]> keys = new ArrayList<>();
+        keys.add(bytes(keyLayout.inFlightKey(partition)));
+        keys.add(bytes(keyLayout.inFlightOriginKey(partition)));
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            keys.add(bytes(keyLayout.orderingKey(partition, priorityLevel)));
+        }
+        return keys;
+    }
+
+    private <T> CompletableFuture<T> evalBlocking(final byte[] script, final ReturnType returnType, final List<byte[]> keys,
+                                                  final List<byte[]> args) {
+        final byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i);
+        }
+        for (int i = 0; i < args.size(); i++) {
+            keysAndArgs[keys.size() + i] = args.get(i);
+        }
+        return CompletableFuture.completedFuture(valueTemplate.execute((RedisCallback<T>) connection ->
+                connection.eval(script, returnType, keys.size(), keysAndArgs)));
+    }
+
+    //Failures of the blocking calls are thrown as they are, not wrapped into the ones of the futures
+    private static <T> T await(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> async(final Supplier<CompletableFuture<T>> nonBlocking, final Supplier<T> blocking) {
+        try {
+            return isNonBlocking() ? nonBlocking.get() : CompletableFuture.completedFuture(blocking.get());
+        } catch (RuntimeException e) {
+            final CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
     }
 
     private double calculateScore(final EmailSchedulingData emailSchedulingData) {
-        final long nanos = emailSchedulingData.getScheduledDateTime().getLong(ChronoField.NANO_OF_SECOND);
-        final int desiredPriority = emailSchedulingData.getDesiredPriority();
+        return score(emailSchedulingData.getScheduledDateTime());
+    }
+
+    //Milliseconds from epoch, with the fraction keeping emails scheduled within the same millisecond ordered
+    private static double score(final OffsetDateTime dateTime) {
+        final Instant instant = dateTime.toInstant();
+        return instant.getEpochSecond() * 1_000D + instant.getNano() / 1_000_000D;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //Evaluates a script either through the template, completing once evaluated, or through the asynchronous commands
+    @FunctionalInterface
+    private interface ScriptEvaluation {
+
+        <T> CompletableFuture<T> eval(byte[] script, ReturnType returnType, List<byte[]> keys, List<byte[]> args);
 
-        final String scoreStringValue = new StringBuilder()
-                .append(nanos)
-                .append(".")
-                .append(desiredPriority)
-                .append(Math.abs(emailSchedulingData.getId().hashCode()))
-                .toString();
-        final double score = new BigDecimal(scoreStringValue).doubleValue();
-        return score;
     }
 
-}
\ No newline at end of file
+}
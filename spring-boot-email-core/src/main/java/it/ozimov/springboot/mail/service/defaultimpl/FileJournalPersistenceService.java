@@ -0,0 +1,692 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_DIRECTORY;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_SEGMENT_SIZE;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_JOURNAL;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * {@linkplain PersistenceService} backed by an append-only journal in a local directory, so that the scheduled emails
+ * survive a restart without any external process.
+ * <p>
+ * Every change is appended to the active segment of the journal as a record protected by a CRC32 checksum, and the
+ * segment is rolled once it reaches the configured size. Concurrent writers are group committed: the first writer
+ * waiting for its records flushes and forces the records of all the other waiting writers as well. Only the position of
+ * each persisted email is kept in memory, together with its scheduled time and priority, so that the index can be
+ * rebuilt by replaying the journal on startup, truncating an incomplete record at the end of a segment.
+ * </p>
+ * <p>
+ * Every segment but the active one is compacted in background once most of its records are obsolete: the live records
+ * are appended again to the journal and the segment is deleted. The removals recorded in the oldest segment are dropped,
+ * since no older segment exists, while those recorded in a newer segment are appended again unless the email is live,
+ * as they may still shadow the records of an older segment. A segment clearing the journal is only compacted once it
+ * is the oldest one.
+ * </p>
+ */
+@Service("journalEmailPersistenceService")
+@ConditionalOnExpression(PERSISTENCE_IS_ENABLED_WITH_JOURNAL)
+@Slf4j
+public class FileJournalPersistenceService implements PersistenceService {
+
+    private static final String JOURNAL_DIRECTORY = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_DIRECTORY + ":email-journal}";
+
+    private static final String JOURNAL_SEGMENT_SIZE = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_SEGMENT_SIZE + ":67108864}";
+
+    private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("journal-(\\d{20})\\.log");
+
+    // Length of the body followed by the CRC32 of the body
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+
+    private static final long COMPACTION_PERIOD_SECONDS = 30;
+
+    private static final double COMPACTION_MAX_LIVE_RATIO = 0.5;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private final NavigableSet<IndexKey> ordering = new ConcurrentSkipListSet<>();
+    private final Map<Integer, NavigableSet<IndexKey>> orderingByPriority = new ConcurrentHashMap<>();
+
+    private final SerializingConverter serializingConverter = new SerializingConverter();
+    private final DeserializingConverter deserializingConverter = new DeserializingConverter();
+
+    //Appends and changes of the index are ordered by this lock, so the index always reflects the order of the journal
+    private final Object lock = new Object();
+    private Segment activeSegment;
+    private List<PendingWrite> pendingWrites = new ArrayList<>();
+    private long enqueuedSequence;
+    private long durableSequence;
+    private boolean flushing;
+    private IOException failure;
+
+    private final ScheduledExecutorService compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("email-journal-compaction-%d").setDaemon(true).build());
+
+    @Autowired
+    public FileJournalPersistenceService(@Value(JOURNAL_DIRECTORY) @NonNull final String directory,
+                                         @Value(JOURNAL_SEGMENT_SIZE) final long segmentSize) throws IOException {
+        Preconditions.checkArgument(segmentSize > 0, "Segment size should be a positive number, while %s was given", segmentSize);
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.segmentSize = segmentSize;
+
+        recover();
+        activeSegment = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+        log.info("Email journal in {} recovered with {} emails in {} segments.", this.directory, locations.size(), segments.size());
+
+        compactionExecutor.scheduleWithFixedDelay(this::compact, COMPACTION_PERIOD_SECONDS, COMPACTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        addAll(Collections.singletonList(emailSchedulingData));
+    }
+
+    @Override
+    public Optional<EmailSchedulingData> get(@NonNull final String id) {
+        return read(id);
+    }
+
+    @Override
+    public boolean remove(@NonNull final String id) {
+        final long sequence;
+        synchronized (lock) {
+            if (!locations.containsKey(id)) {
+                return false;
+            }
+            sequence = enqueue(deleteBody(id)).sequence;
+            unindex(id);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public void addAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataList) {
+        final List<IndexKey> keys = new ArrayList<>(emailSchedulingDataList.size());
+        final List<byte[]> bodies = new ArrayList<>(emailSchedulingDataList.size());
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+            final IndexKey key = new IndexKey(emailSchedulingData.getScheduledDateTime().toInstant(),
+                    emailSchedulingData.getAssignedPriority(), emailSchedulingData.getId());
+            keys.add(key);
+            bodies.add(putBody(key, serializingConverter.convert(emailSchedulingData)));
+        }
+
+        long sequence = 0;
+        synchronized (lock) {
+            for (int i = 0; i < keys.size(); i++) {
+                final Location location = enqueue(bodies.get(i)).withKey(keys.get(i));
+                index(location);
+                sequence = location.sequence;
+            }
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer.");
+
+        return readFirst(orderingByPriority.getOrDefault(priorityLevel, Collections.emptyNavigableSet()), batchMaxSize);
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+
+        return readFirst(ordering, batchMaxSize);
+    }
+
+    @Override
+    public void removeAll() {
+        final long sequence;
+        synchronized (lock) {
+            sequence = enqueue(new byte[]{CLEAR}).sequence;
+            locations.clear();
+            ordering.clear();
+            orderingByPriority.clear();
+            segments.values().forEach(segment -> segment.liveBytes.set(0));
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void removeAll(final int priorityLevel) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+
+        removeAll(orderingByPriority.getOrDefault(priorityLevel, Collections.emptyNavigableSet()).stream()
+                .map(IndexKey::getId)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void removeAll(@NonNull final Collection<String> ids) {
+        long sequence = 0;
+        synchronized (lock) {
+            for (final String id : ids) {
+                if (locations.containsKey(id)) {
+                    sequence = enqueue(deleteBody(id)).sequence;
+                    unindex(id);
+                }
+            }
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Compact the segments of the journal, but the active one, whose records are mostly obsolete.
+     */
+    protected void compact() {
+        try {
+            for (final Segment segment : new ArrayList<>(segments.values())) {
+                synchronized (lock) {
+                    if (segment == activeSegment) {
+                        return;
+                    }
+                }
+                if (segment.liveBytes.get() <= segment.size * COMPACTION_MAX_LIVE_RATIO) {
+                    compact(segment);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot compact the email journal in {}.", directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        compactionExecutor.shutdownNow();
+        final long sequence;
+        synchronized (lock) {
+            sequence = enqueuedSequence;
+        }
+        awaitDurable(sequence);
+        for (final Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private void compact(final Segment segment) throws IOException {
+        final Set<String> removedIds = segments.firstKey() == segment.id ? Collections.emptySet() : removedIds(segment);
+        if (isNull(removedIds)) {
+            return;
+        }
+        final List<Location> liveLocations = locations.values().stream()
+                .filter(location -> location.segmentId == segment.id)
+                .collect(Collectors.toList());
+
+        long sequence = 0;
+        for (final Location location : liveLocations) {
+            final byte[] body = readBody(segment, location);
+            synchronized (lock) {
+                //The email may have been changed or removed while reading it
+                if (locations.get(location.key.getId()) == location) {
+                    final Location moved = enqueue(body).withKey(location.key);
+                    index(moved);
+                    sequence = moved.sequence;
+                }
+            }
+        }
+        int keptRemovals = 0;
+        synchronized (lock) {
+            for (final String id : removedIds) {
+                //A removal of an email added again later must not be replayed after the new record
+                if (!locations.containsKey(id)) {
+                    sequence = enqueue(deleteBody(id)).sequence;
+                    keptRemovals++;
+                }
+            }
+        }
+        awaitDurable(sequence);
+
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+        log.debug("Compacted email journal segment {}, moving {} live records and {} removals.",
+                segment.path, liveLocations.size(), keptRemovals);
+    }
+
+    /**
+     * Read the ids removed by the segment, or {@code null} if the segment clears the journal.
+     */
+    private Set<String> removedIds(final Segment segment) throws IOException {
+        final Set<String> removedIds = new HashSet<>();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH + 1);
+        long position = 0;
+        while (position < segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            final int bodyLength = header.getInt(0);
+            final byte type = header.get(RECORD_HEADER_LENGTH);
+            if (type == CLEAR) {
+                return null;
+            }
+            if (type == DELETE) {
+                final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+                readFully(segment.channel, body, position + RECORD_HEADER_LENGTH);
+                body.flip();
+                body.get();
+                removedIds.add(readId(body));
+            }
+            position += RECORD_HEADER_LENGTH + bodyLength;
+        }
+        return removedIds;
+    }
+
+    private List<EmailSchedulingData> readFirst(final NavigableSet<IndexKey> keys, final int batchMaxSize) {
+        return keys.stream()
+                .limit(batchMaxSize)
+                .map(key -> read(key.getId()))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+    }
+
+    private Optional<EmailSchedulingData> read(final String id) {
+        while (true) {
+            final Location location = locations.get(id);
+            if (isNull(location)) {
+                return Optional.empty();
+            }
+            awaitDurable(location.sequence);
+            final Segment segment = segments.get(location.segmentId);
+            if (nonNull(segment)) {
+                try {
+                    final ByteBuffer body = ByteBuffer.wrap(readBody(segment, location));
+                    skipPutHeader(body);
+                    final byte[] data = new byte[body.remaining()];
+                    body.get(data);
+                    return Optional.of((EmailSchedulingData) deserializingConverter.convert(data));
+                } catch (ClosedChannelException e) {
+                    //The segment was compacted in the meanwhile, hence the email has a new location
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read email " + id + " from the journal", e);
+                }
+            }
+        }
+    }
+
+    private Location enqueue(final byte[] body) {
+        final int length = RECORD_HEADER_LENGTH + body.length;
+        if (activeSegment.size > 0 && activeSegment.size + length > segmentSize) {
+            try {
+                activeSegment = createSegment(activeSegment.id + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot roll the email journal in " + directory, e);
+            }
+        }
+        final ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(body.length).putInt(crc(body)).put(body).flip();
+
+        final long position = activeSegment.size;
+        activeSegment.size += length;
+        pendingWrites.add(new PendingWrite(activeSegment, position, record));
+        return new Location(activeSegment.id, position, length, ++enqueuedSequence, null);
+    }
+
+    private void awaitDurable(final long sequence) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                final List<PendingWrite> batch;
+                final long batchSequence;
+                synchronized (lock) {
+                    while (flushing && durableSequence < sequence && isNull(failure)) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (nonNull(failure)) {
+                        throw new UncheckedIOException("The email journal in " + directory + " cannot be written", failure);
+                    }
+                    if (durableSequence >= sequence) {
+                        return;
+                    }
+                    //This writer becomes the leader, flushing the records of all the waiting writers
+                    flushing = true;
+                    batch = pendingWrites;
+                    batchSequence = enqueuedSequence;
+                    pendingWrites = new ArrayList<>();
+                }
+
+                IOException batchFailure = null;
+                try {
+                    write(batch);
+                } catch (IOException e) {
+                    batchFailure = e;
+                }
+                synchronized (lock) {
+                    flushing = false;
+                    if (isNull(batchFailure)) {
+                        durableSequence = batchSequence;
+                    } else {
+                        log.error("Cannot write the email journal in {}.", directory, batchFailure);
+                        failure = batchFailure;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void write(final List<PendingWrite> batch) throws IOException {
+        //An interrupt would close the channels of the journal
+        final boolean interrupted = Thread.interrupted();
+        try {
+            final Set<Segment> written = new LinkedHashSet<>();
+            for (final PendingWrite pendingWrite : batch) {
+                long position = pendingWrite.position;
+                while (pendingWrite.record.hasRemaining()) {
+                    position += pendingWrite.segment.channel.write(pendingWrite.record, position);
+                }
+                written.add(pendingWrite.segment);
+            }
+            for (final Segment segment : written) {
+                segment.channel.force(false);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private byte[] readBody(final Segment segment, final Location location) throws IOException {
+        final boolean interrupted = Thread.interrupted();
+        try {
+            final ByteBuffer body = ByteBuffer.allocate(location.length - RECORD_HEADER_LENGTH);
+            readFully(segment.channel, body, location.position + RECORD_HEADER_LENGTH);
+            return body.array();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> SEGMENT_FILE_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            final Matcher matcher = SEGMENT_FILE_NAME.matcher(file.getFileName().toString());
+            Preconditions.checkState(matcher.matches());
+            final Segment segment = new Segment(Long.parseLong(matcher.group(1)), file);
+            segments.put(segment.id, segment);
+            recover(segment);
+        }
+    }
+
+    private void recover(final Segment segment) throws IOException {
+        final long fileSize = segment.channel.size();
+        long position = 0;
+        while (position + RECORD_HEADER_LENGTH <= fileSize) {
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            readFully(segment.channel, header, position);
+            header.flip();
+            final int bodyLength = header.getInt();
+            final int checksum = header.getInt();
+            if (bodyLength <= 0 || position + RECORD_HEADER_LENGTH + bodyLength > fileSize) {
+                break;
+            }
+            final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(segment.channel, body, position + RECORD_HEADER_LENGTH);
+            if (crc(body.array()) != checksum) {
+                break;
+            }
+            body.flip();
+            apply(new Location(segment.id, position, RECORD_HEADER_LENGTH + bodyLength, 0, null), body);
+            position += RECORD_HEADER_LENGTH + bodyLength;
+        }
+        if (position < fileSize) {
+            log.warn("Truncating email journal segment {} from {} to {} bytes, since its tail is incomplete or corrupted.",
+                    segment.path, fileSize, position);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private void apply(final Location location, final ByteBuffer body) {
+        switch (body.get(0)) {
+            case PUT:
+                index(location.withKey(skipPutHeader(body)));
+                break;
+            case DELETE:
+                body.get();
+                unindex(readId(body));
+                break;
+            case CLEAR:
+                locations.clear();
+                ordering.clear();
+                orderingByPriority.clear();
+                segments.values().forEach(segment -> segment.liveBytes.set(0));
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + body.get(0) + " in the email journal");
+        }
+    }
+
+    private void index(final Location location) {
+        final Location previous = locations.put(location.key.getId(), location);
+        if (nonNull(previous)) {
+            unindex(previous);
+        }
+        ordering.add(location.key);
+        orderingByPriority.computeIfAbsent(location.key.getPriority(), priority -> new ConcurrentSkipListSet<>()).add(location.key);
+        segments.get(location.segmentId).liveBytes.addAndGet(location.length);
+    }
+
+    private void unindex(final String id) {
+        final Location previous = locations.remove(id);
+        if (nonNull(previous)) {
+            unindex(previous);
+        }
+    }
+
+    private void unindex(final Location location) {
+        ordering.remove(location.key);
+        Optional.ofNullable(orderingByPriority.get(location.key.getPriority())).ifPresent(keys -> keys.remove(location.key));
+        Optional.ofNullable(segments.get(location.segmentId)).ifPresent(segment -> segment.liveBytes.addAndGet(-location.length));
+    }
+
+    private Segment createSegment(final long id) throws IOException {
+        final Segment segment = new Segment(id, directory.resolve(String.format("journal-%020d.log", id)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static byte[] putBody(final IndexKey key, final byte[] data) {
+        final byte[] id = key.getId().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + Integer.BYTES + Long.BYTES + Integer.BYTES + Short.BYTES + id.length + data.length)
+                .put(PUT)
+                .putInt(key.getPriority())
+                .putLong(key.getScheduledInstant().getEpochSecond())
+                .putInt(key.getScheduledInstant().getNano())
+                .putShort((short) id.length)
+                .put(id)
+                .put(data)
+                .array();
+    }
+
+    private static IndexKey skipPutHeader(final ByteBuffer body) {
+        body.get();
+        final int priority = body.getInt();
+        final Instant scheduledInstant = Instant.ofEpochSecond(body.getLong(), body.getInt());
+        return new IndexKey(scheduledInstant, priority, readId(body));
+    }
+
+    private static byte[] deleteBody(final String id) {
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + Short.BYTES + idBytes.length)
+                .put(DELETE)
+                .putShort((short) idBytes.length)
+                .put(idBytes)
+                .array();
+    }
+
+    private static String readId(final ByteBuffer body) {
+        final byte[] id = new byte[body.getShort() & 0xFFFF];
+        body.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(final byte[] bytes) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return (int) crc32.getValue();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the email journal segment");
+            }
+            current += read;
+        }
+    }
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile long size;
+
+        private Segment(final long id, final Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+    }
+
+    private static final class Location {
+
+        private final long segmentId;
+        private final long position;
+        private final int length;
+        private final long sequence;
+        private final IndexKey key;
+
+        private Location(final long segmentId, final long position, final int length, final long sequence, final IndexKey key) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.length = length;
+            this.sequence = sequence;
+            this.key = key;
+        }
+
+        private Location withKey(final IndexKey key) {
+            return new Location(segmentId, position, length, sequence, key);
+        }
+
+    }
+
+    private static final class PendingWrite {
+
+        private final Segment segment;
+        private final long position;
+        private final ByteBuffer record;
+
+        private PendingWrite(final Segment segment, final long position, final ByteBuffer record) {
+            this.segment = segment;
+            this.position = position;
+            this.record = record;
+        }
+
+    }
+
+    @lombok.Value
+    private static class IndexKey implements Comparable<IndexKey> {
+
+        private static final Comparator<IndexKey> COMPARATOR = Comparator.comparing(IndexKey::getScheduledInstant)
+                .thenComparingInt(IndexKey::getPriority)
+                .thenComparing(IndexKey::getId);
+
+        Instant scheduledInstant;
+        int priority;
+        String id;
+
+        @Override
+        public int compareTo(final IndexKey o) {
+            return COMPARATOR.compare(this, o);
+        }
+
+    }
+
+}
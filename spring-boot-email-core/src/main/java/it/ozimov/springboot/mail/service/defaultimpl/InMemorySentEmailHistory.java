@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import it.ozimov.springboot.mail.service.SentEmailHistory;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_SENT_HISTORY_MAX_SIZE;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SENT_HISTORY_IS_ENABLED_IN_MEMORY;
+
+/**
+ * {@linkplain SentEmailHistory} kept in a bounded in-memory cache. Once the maximum size is reached the least recently
+ * written keys are evicted, even before their time to live elapses.
+ */
+@Service("inMemorySentEmailHistory")
+@ConditionalOnExpression(SENT_HISTORY_IS_ENABLED_IN_MEMORY)
+public class InMemorySentEmailHistory implements SentEmailHistory {
+
+    private static final String SENT_HISTORY_TTL_MILLIS = "${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS + ":86400000}";
+
+    private static final String SENT_HISTORY_MAX_SIZE = "${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_MAX_SIZE + ":100000}";
+
+    private final Cache<String, Boolean> sentByKey;
+
+    @Autowired
+    public InMemorySentEmailHistory(@Value(SENT_HISTORY_TTL_MILLIS) final long ttlMillis,
+                                    @Value(SENT_HISTORY_MAX_SIZE) final long maxSize) {
+        this(Duration.ofMillis(ttlMillis), maxSize);
+    }
+
+    public InMemorySentEmailHistory(@NonNull final Duration ttl, final long maxSize) {
+        Preconditions.checkArgument(!ttl.isNegative() && !ttl.isZero(), "Time to live should be positive, while %s was given", ttl);
+        Preconditions.checkArgument(maxSize > 0, "Maximum size should be a positive number, while %s was given", maxSize);
+        sentByKey = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    @Override
+    public boolean admit(@NonNull final String key) {
+        return sentByKey.asMap().putIfAbsent(key, Boolean.FALSE) == null;
+    }
+
+    @Override
+    public boolean isSent(@NonNull final String key) {
+        return Boolean.TRUE.equals(sentByKey.getIfPresent(key));
+    }
+
+    @Override
+    public void markSent(@NonNull final String key) {
+        sentByKey.put(key, Boolean.TRUE);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_INLINE_PICTURE_CACHE_MAX_BYTES;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.INLINE_PICTURE_CACHE_IS_ENABLED;
+
+/**
+ * Cache of the content of the inline pictures, so that the same picture is not read from disk for every email sent.
+ * <p>
+ * The content is keyed by the path of the file and checked against its modification time and length, hence a picture
+ * changed on disk is read again. The least recently used pictures are evicted once the cached content exceeds the
+ * maximum number of bytes, while the pictures larger than that are never cached.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression(INLINE_PICTURE_CACHE_IS_ENABLED)
+public class InlinePictureCache {
+
+    private static final String MAX_BYTES = "${" + SPRING_MAIL_INLINE_PICTURE_CACHE_MAX_BYTES + ":16777216}";
+
+    private final long maxBytes;
+
+    private final Cache<String, CachedPicture> pictures;
+
+    @Autowired
+    public InlinePictureCache(@Value(MAX_BYTES) final long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "Maximum bytes should be a positive number, while %s was given", maxBytes);
+        this.maxBytes = maxBytes;
+        pictures = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String path, CachedPicture picture) -> picture.content.length)
+                .build();
+    }
+
+    /**
+     * Return the content of the given file, read from disk only if not cached yet or changed since cached.
+     *
+     * @param file the file of the inline picture.
+     * @return the content of the file, not to be modified.
+     * @throws IOException if the file cannot be read.
+     */
+    public byte[] getContent(@NonNull final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+
+        final CachedPicture cached = pictures.getIfPresent(path);
+        if (cached != null && cached.lastModified == lastModified && cached.content.length == length) {
+            return cached.content;
+        }
+
+        final byte[] content = Files.readAllBytes(file.toPath());
+        //A file being written may not match the length read before, so it is cached only once stable
+        if (content.length == length && length <= maxBytes) {
+            pictures.put(path, new CachedPicture(lastModified, content));
+        }
+        return content;
+    }
+
+    public long size() {
+        return pictures.size();
+    }
+
+    @RequiredArgsConstructor
+    private static class CachedPicture {
+
+        private final long lastModified;
+
+        private final byte[] content;
+
+    }
+
+}
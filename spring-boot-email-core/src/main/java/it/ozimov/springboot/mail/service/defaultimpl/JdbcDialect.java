@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * SQL dialects known by {@linkplain JdbcPersistenceService}. A dialect defines the type of the column storing the
+ * serialized {@linkplain it.ozimov.springboot.mail.model.EmailSchedulingData}, whether the size of a query result can be
+ * limited in the query itself and whether the rows being claimed can be locked skipping the ones already locked by a
+ * concurrent claim.
+ * <p>
+ * Dialects not supporting {@code SKIP LOCKED}, i.e. MySQL before version 8 and MariaDB, still claim the rows safely,
+ * since a claim only succeeds when the row is not claimed at update time, but concurrent claims may contend on the same
+ * rows.
+ * </p>
+ */
+@Getter
+public enum JdbcDialect {
+
+    H2("BLOB", true, ""),
+    POSTGRESQL("BYTEA", true, " FOR UPDATE SKIP LOCKED"),
+    MYSQL("LONGBLOB", true, " FOR UPDATE SKIP LOCKED"),
+    MYSQL_LEGACY("LONGBLOB", true, ""),
+    GENERIC("BLOB", false, "");
+
+    private final String binaryType;
+    private final boolean limitSupported;
+    private final String lockingClause;
+
+    JdbcDialect(final String binaryType, final boolean limitSupported, final String lockingClause) {
+        this.binaryType = binaryType;
+        this.limitSupported = limitSupported;
+        this.lockingClause = lockingClause;
+    }
+
+    public static JdbcDialect fromDatabaseProductName(@NonNull final String databaseProductName) {
+        return fromDatabaseProductName(databaseProductName, 0);
+    }
+
+    /**
+     * Return the dialect of the given database. MySQL supports {@code SKIP LOCKED} since version 8, hence older or unknown
+     * versions get the dialect without the locking clause.
+     *
+     * @param databaseProductName  the product name of the database, as returned by the JDBC driver.
+     * @param databaseMajorVersion the major version of the database, as returned by the JDBC driver.
+     * @return the dialect of the database.
+     */
+    public static JdbcDialect fromDatabaseProductName(@NonNull final String databaseProductName, final int databaseMajorVersion) {
+        switch (databaseProductName.toLowerCase()) {
+            case "h2":
+                return H2;
+            case "postgresql":
+                return POSTGRESQL;
+            case "mysql":
+                return databaseMajorVersion >= 8 ? MYSQL : MYSQL_LEGACY;
+            case "mariadb":
+                return MYSQL_LEGACY;
+            default:
+                return GENERIC;
+        }
+    }
+
+}
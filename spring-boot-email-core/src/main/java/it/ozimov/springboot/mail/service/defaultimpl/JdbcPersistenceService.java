@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.ClaimingPersistenceService;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_INITIALIZE_SCHEMA;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_TABLE_NAME;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_JDBC;
+
+/**
+ * {@linkplain ClaimingPersistenceService} storing the {@linkplain EmailSchedulingData} in a single table of a relational
+ * database, one row per email. The rows are indexed on priority and scheduled time, the order in which the due emails
+ * are claimed, so that they are polled without scanning the table, and the emails are inserted in JDBC batches.
+ */
+@Service("jdbcEmailPersistenceService")
+@ConditionalOnExpression(PERSISTENCE_IS_ENABLED_WITH_JDBC)
+@Slf4j
+public class JdbcPersistenceService implements ClaimingPersistenceService {
+
+    private static final String TABLE_NAME = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_TABLE_NAME + ":email_scheduling_data}";
+
+    private static final String INITIALIZE_SCHEMA = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_INITIALIZE_SCHEMA + ":true}";
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*\\.)?[A-Za-z_][A-Za-z0-9_]*");
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final long NOT_CLAIMED = 0L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcDialect dialect;
+    private final String tableName;
+
+    private final SerializingConverter serializingConverter = new SerializingConverter();
+    private final DeserializingConverter deserializingConverter = new DeserializingConverter();
+    private final RowMapper<EmailSchedulingData> payloadRowMapper =
+            (resultSet, rowNum) -> (EmailSchedulingData) deserializingConverter.convert(resultSet.getBytes("payload"));
+
+    public JdbcPersistenceService(@NonNull final DataSource dataSource) {
+        this(dataSource, "email_scheduling_data", true);
+    }
+
+    @Autowired
+    public JdbcPersistenceService(@NonNull final DataSource dataSource,
+                                  @Value(TABLE_NAME) @NonNull final String tableName,
+                                  @Value(INITIALIZE_SCHEMA) final boolean initializeSchema) {
+        this(dataSource, tableName, initializeSchema, new JdbcTemplate(dataSource).execute((ConnectionCallback<JdbcDialect>) connection ->
+                JdbcDialect.fromDatabaseProductName(connection.getMetaData().getDatabaseProductName(),
+                        connection.getMetaData().getDatabaseMajorVersion())));
+    }
+
+    JdbcPersistenceService(@NonNull final DataSource dataSource,
+                           @NonNull final String tableName,
+                           final boolean initializeSchema,
+                           @NonNull final JdbcDialect dialect) {
+        Preconditions.checkArgument(TABLE_NAME_PATTERN.matcher(tableName).matches(),
+                "Table name should be a plain SQL identifier, optionally qualified by the schema, while %s was given", tableName);
+        this.tableName = tableName;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.dialect = dialect;
+
+        if (initializeSchema && !tableExists()) {
+            createSchema();
+        }
+    }
+
+    @Override
+    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        addAll(Collections.singletonList(emailSchedulingData));
+    }
+
+    @Override
+    public Optional<EmailSchedulingData> get(@NonNull final String id) {
+        return jdbcTemplate.query("SELECT payload FROM " + tableName + " WHERE id = ?", payloadRowMapper, id).stream()
+                .findFirst();
+    }
+
+    @Override
+    public boolean remove(@NonNull final String id) {
+        return jdbcTemplate.update("DELETE FROM " + tableName + " WHERE id = ?", id) > 0;
+    }
+
+    @Override
+    public void addAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataList) {
+        if (emailSchedulingDataList.isEmpty()) {
+            return;
+        }
+        //The last instance for an id overrides the previous ones, as it would do in a sequence of adds
+        final Map<String, EmailSchedulingData> emailSchedulingDataById = new LinkedHashMap<>();
+        emailSchedulingDataList.forEach(emailSchedulingData -> emailSchedulingDataById.put(emailSchedulingData.getId(), emailSchedulingData));
+        final List<EmailSchedulingData> rows = new ArrayList<>(emailSchedulingDataById.values());
+
+        transactionTemplate.execute(status -> {
+            deleteByIds(rows.stream().map(EmailSchedulingData::getId).collect(Collectors.toList()));
+            jdbcTemplate.batchUpdate("INSERT INTO " + tableName + " (id, priority, scheduled_time, claimed_until, payload) VALUES (?, ?, ?, ?, ?)",
+                    rows, BATCH_SIZE, (preparedStatement, emailSchedulingData) -> {
+                        preparedStatement.setString(1, emailSchedulingData.getId());
+                        preparedStatement.setInt(2, emailSchedulingData.getAssignedPriority());
+                        preparedStatement.setLong(3, epochMillis(emailSchedulingData.getScheduledDateTime()));
+                        preparedStatement.setLong(4, NOT_CLAIMED);
+                        preparedStatement.setBytes(5, serializingConverter.convert(emailSchedulingData));
+                    });
+            return null;
+        });
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer.");
+
+        return query("SELECT payload FROM " + tableName + " WHERE priority = ? AND claimed_until <= ? ORDER BY scheduled_time",
+                batchMaxSize, false, payloadRowMapper, priorityLevel, Instant.now().toEpochMilli());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+
+        return query("SELECT payload FROM " + tableName + " WHERE claimed_until <= ? ORDER BY scheduled_time, priority",
+                batchMaxSize, false, payloadRowMapper, Instant.now().toEpochMilli());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> claimNextBatch(@NonNull final OffsetDateTime dueBefore, final int batchMaxSize,
+                                                          @NonNull final Duration claimTimeout) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+        Preconditions.checkArgument(!claimTimeout.isNegative() && !claimTimeout.isZero(), "Claim timeout should be positive, while %s given.", claimTimeout);
+
+        final long now = Instant.now().toEpochMilli();
+        final long claimedUntil = now + claimTimeout.toMillis();
+        return transactionTemplate.execute(status -> {
+            final List<EmailSchedulingData> candidates = query("SELECT payload FROM " + tableName +
+                            " WHERE scheduled_time <= ? AND claimed_until <= ? ORDER BY priority, scheduled_time",
+                    batchMaxSize, true, payloadRowMapper, epochMillis(dueBefore), now);
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+
+            //A row is claimed only if no concurrent claim took it in the meanwhile
+            final int[][] updateCounts = jdbcTemplate.batchUpdate("UPDATE " + tableName +
+                            " SET claimed_until = ? WHERE id = ? AND claimed_until <= ?",
+                    candidates, BATCH_SIZE, (preparedStatement, emailSchedulingData) -> {
+                        preparedStatement.setLong(1, claimedUntil);
+                        preparedStatement.setString(2, emailSchedulingData.getId());
+                        preparedStatement.setLong(3, now);
+                    });
+            final int[] flatUpdateCounts = Arrays.stream(updateCounts).flatMapToInt(Arrays::stream).toArray();
+            return IntStream.range(0, candidates.size())
+                    .filter(i -> flatUpdateCounts[i] > 0 || flatUpdateCounts[i] == Statement.SUCCESS_NO_INFO)
+                    .mapToObj(candidates::get)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    @Override
+    public void ack(@NonNull final Collection<String> ids) {
+        deleteByIds(ids);
+    }
+
+    @Override
+    public void removeAll() {
+        jdbcTemplate.update("DELETE FROM " + tableName);
+    }
+
+    @Override
+    public void removeAll(final int priorityLevel) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+
+        jdbcTemplate.update("DELETE FROM " + tableName + " WHERE priority = ?", priorityLevel);
+    }
+
+    @Override
+    public void removeAll(@NonNull final Collection<String> ids) {
+        deleteByIds(ids);
+    }
+
+    private void deleteByIds(final Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("DELETE FROM " + tableName + " WHERE id = ?", new ArrayList<>(ids), BATCH_SIZE,
+                (preparedStatement, id) -> preparedStatement.setString(1, id));
+    }
+
+    //Rows are locked only by the claims, which run in a transaction: the plain reads must not skip the rows being claimed
+    private <T> List<T> query(final String sql, final int maxRows, final boolean lockRows, final RowMapper<T> rowMapper,
+                              final Object... args) {
+        final String limitedSql = sql + (dialect.isLimitSupported() ? " LIMIT " + maxRows : "") +
+                (lockRows ? dialect.getLockingClause() : "");
+        return jdbcTemplate.query(connection -> {
+            final PreparedStatement preparedStatement = connection.prepareStatement(limitedSql);
+            preparedStatement.setMaxRows(maxRows);
+            for (int i = 0; i < args.length; i++) {
+                preparedStatement.setObject(i + 1, args[i]);
+            }
+            return preparedStatement;
+        }, rowMapper);
+    }
+
+    private boolean tableExists() {
+        final int separator = tableName.indexOf('.');
+        final String schema = separator < 0 ? null : tableName.substring(0, separator);
+        final String table = tableName.substring(separator + 1);
+        return jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            //Unquoted identifiers may be stored in upper or lower case, depending on the database
+            for (final UnaryOperator<String> identifierCase : Arrays.<UnaryOperator<String>>asList(String::toString, String::toUpperCase, String::toLowerCase)) {
+                try (ResultSet tables = metaData.getTables(null, Optional.ofNullable(schema).map(identifierCase).orElse(null),
+                        identifierCase.apply(table), new String[]{"TABLE"})) {
+                    if (tables.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    private void createSchema() {
+        log.info("Creating table {} for the persisted emails.", tableName);
+        final String indexName = tableName.substring(tableName.lastIndexOf('.') + 1) + "_priority_scheduled_time_idx";
+        jdbcTemplate.execute("CREATE TABLE " + tableName + " (" +
+                "id VARCHAR(255) NOT NULL PRIMARY KEY, " +
+                "priority INTEGER NOT NULL, " +
+                "scheduled_time BIGINT NOT NULL, " +
+                "claimed_until BIGINT NOT NULL, " +
+                "payload " + dialect.getBinaryType() + " NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX " + indexName + " ON " + tableName + " (priority, scheduled_time)");
+    }
+
+    private static long epochMillis(final OffsetDateTime dateTime) {
+        return dateTime.toInstant().toEpochMilli();
+    }
+
+}
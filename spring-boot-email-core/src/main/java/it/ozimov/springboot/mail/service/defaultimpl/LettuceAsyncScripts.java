@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lambdaworks.redis.ScriptOutputType;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import lombok.NonNull;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConverters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Scripts of {@linkplain DefaultPersistenceService} evaluated through the asynchronous commands of a Lettuce
+ * connection, so that the calling thread does not wait for the reply.
+ * <p>
+ * The connection is opened on the first evaluation and kept until closed: with a factory sharing its native
+ * connection, all the scripts are multiplexed on it, in the order they are evaluated. The replies are handed over to
+ * a dedicated executor, so that no continuation runs on the event loop of the connection, and the failures are
+ * translated into {@linkplain DataAccessException}.
+ * </p>
+ */
+class LettuceAsyncScripts {
+
+    private static final int REPLY_THREADS = 2;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(REPLY_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("email-persistence-async-%d").setDaemon(true).build());
+
+    //Guarded by this
+    private LettuceConnection connection;
+
+    LettuceAsyncScripts(@NonNull final LettuceConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    <T> CompletableFuture<T> eval(final byte[] script, final ReturnType returnType, final List<byte[]> keys,
+                                  final List<byte[]> args) {
+        final CompletableFuture<T> reply = commands().<T>eval(new String(script, StandardCharsets.UTF_8),
+                outputType(returnType), keys.toArray(new byte[keys.size()][]), args.toArray(new byte[args.size()][]))
+                .toCompletableFuture();
+        return reply.handleAsync((result, throwable) -> {
+            if (isNull(throwable)) {
+                return result;
+            }
+            final Throwable cause = throwable instanceof CompletionException && !isNull(throwable.getCause()) ?
+                    throwable.getCause() : throwable;
+            final DataAccessException translated = cause instanceof Exception ?
+                    LettuceConverters.exceptionConverter().convert((Exception) cause) : null;
+            throw new CompletionException(isNull(translated) ? cause : translated);
+        }, executor);
+    }
+
+    synchronized void close() {
+        executor.shutdown();
+        if (!isNull(connection)) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    private synchronized RedisClusterAsyncCommands<byte[], byte[]> commands() {
+        if (isNull(connection)) {
+            connection = (LettuceConnection) connectionFactory.getConnection();
+        }
+        return connection.getNativeConnection();
+    }
+
+    private static ScriptOutputType outputType(final ReturnType returnType) {
+        switch (returnType) {
+            case INTEGER:
+                return ScriptOutputType.INTEGER;
+            case MULTI:
+                return ScriptOutputType.MULTI;
+            case BOOLEAN:
+                return ScriptOutputType.BOOLEAN;
+            case STATUS:
+                return ScriptOutputType.STATUS;
+            default:
+                return ScriptOutputType.VALUE;
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Codecs available to compress the {@linkplain it.ozimov.springboot.mail.model.EmailSchedulingData} payloads
+ * stored by the persistence layer. Every codec is backed by the JDK {@linkplain Deflater}, so no extra
+ * dependency is required; the codecs only differ in the trade-off between speed and compression ratio.
+ */
+@Getter
+public enum PayloadCompression {
+
+    NONE((byte) 0, Deflater.NO_COMPRESSION),
+    DEFLATE((byte) 1, Deflater.DEFAULT_COMPRESSION),
+    DEFLATE_FAST((byte) 2, Deflater.BEST_SPEED);
+
+    private final byte id;
+    private final int level;
+
+    PayloadCompression(final byte id, final int level) {
+        this.id = id;
+        this.level = level;
+    }
+
+    public static PayloadCompression fromId(final byte id) {
+        return Arrays.stream(values())
+                .filter(compression -> compression.id == id)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown payload compression with id " + id));
+    }
+
+}
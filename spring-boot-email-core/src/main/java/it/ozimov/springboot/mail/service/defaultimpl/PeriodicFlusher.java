@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Background flusher of a buffer, running the given flush once the buffer holds a full batch or the flush interval
+ * elapsed.
+ * <p>
+ * The state of the buffer is guarded by the given monitor, which the buffer notifies once it holds a full batch. At
+ * most one flush runs at a time, either from the background thread or from the buffer.
+ * </p>
+ */
+public class PeriodicFlusher {
+
+    private final Object monitor;
+    private final IntSupplier pendingSize;
+    private final Runnable flush;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+
+    //Held while a batch is flushed, so that at most one batch is in flush
+    private final Lock flushLock = new ReentrantLock();
+
+    //Guarded by monitor
+    private boolean closed;
+
+    private final Thread thread;
+
+    /**
+     * Start the flusher of a buffer.
+     *
+     * @param name          the name of the buffer, used to name the flusher thread.
+     * @param monitor       the monitor guarding the state of the buffer.
+     * @param pendingSize   the number of pending elements, read while holding the monitor.
+     * @param flush         the flush of all the pending elements.
+     * @param batchSize     the number of pending elements triggering a flush.
+     * @param flushInterval the maximum time between two flushes.
+     */
+    public PeriodicFlusher(@NonNull final String name, @NonNull final Object monitor,
+                           @NonNull final IntSupplier pendingSize, @NonNull final Runnable flush,
+                           final int batchSize, @NonNull final Duration flushInterval) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size should be a positive number, while %s was given", batchSize);
+        Preconditions.checkArgument(!flushInterval.isNegative() && !flushInterval.isZero(), "Flush interval should be positive, while %s was given", flushInterval);
+        this.monitor = monitor;
+        this.pendingSize = pendingSize;
+        this.flush = flush;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushInterval.toMillis();
+
+        thread = new Thread(this::run, name + " -- Flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Return whether the flusher is closed. To be called while holding the monitor.
+     *
+     * @return {@code true} if the flusher is closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Flush the buffer, waiting for the running flush to complete.
+     */
+    public void flush() {
+        runExclusively(flush);
+    }
+
+    /**
+     * Run the given action while no flush is running.
+     *
+     * @param action the action to run.
+     */
+    public void runExclusively(@NonNull final Runnable action) {
+        flushLock.lock();
+        try {
+            action.run();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the background thread, then flush the buffer.
+     */
+    public void close() {
+        synchronized (monitor) {
+            closed = true;
+            monitor.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (monitor) {
+                final long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                long remaining = flushIntervalMillis;
+                while (!closed && pendingSize.getAsInt() < batchSize && remaining > 0) {
+                    try {
+                        monitor.wait(remaining);
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (closed) {
+                    //The remaining elements are flushed by close()
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Buffer of the ids of the emails to be deleted from the persistence layer once sent.
+ * <p>
+ * Deletions are coalesced and run in bulk by a background flusher, once the buffer holds a full batch or the flush
+ * interval elapsed, rather than with one round trip per sent email.
+ * </p>
+ * <p>
+ * Until deleted, a sent email is still returned by the persistence layer, so the ids still to be deleted are reported
+ * as pending. The ids of the last flushed batch are reported as pending as well until the next flush, so that a batch
+ * loaded from the persistence layer right before a flush does not bring sent emails back.
+ * </p>
+ */
+@Slf4j
+public class PersistenceDeletionBuffer {
+
+    private final Consumer<Collection<String>> bulkDeletion;
+    private final int batchSize;
+
+    //Guarded by this
+    private Set<String> pending = new LinkedHashSet<>();
+    private Set<String> flushing = Collections.emptySet();
+    private Set<String> lastFlushed = Collections.emptySet();
+
+    private final PeriodicFlusher flusher;
+
+    public PersistenceDeletionBuffer(@NonNull final Consumer<Collection<String>> bulkDeletion, final int batchSize,
+                                     @NonNull final Duration flushInterval) {
+        this.bulkDeletion = bulkDeletion;
+        this.batchSize = batchSize;
+        flusher = new PeriodicFlusher(PersistenceDeletionBuffer.class.getSimpleName(), this, () -> pending.size(),
+                this::deletePending, batchSize, flushInterval);
+    }
+
+    /**
+     * Buffer the deletion of the email with the given id.
+     *
+     * @param id the id of the email to be deleted.
+     */
+    public void add(@NonNull final String id) {
+        synchronized (this) {
+            if (!flusher.isClosed()) {
+                pending.add(id);
+                if (pending.size() >= batchSize) {
+                    notifyAll();
+                }
+                return;
+            }
+        }
+        //Once closed, the buffer deletes through
+        bulkDeletion.accept(Collections.singletonList(id));
+    }
+
+    /**
+     * Return whether the email with the given id is sent but may still be returned by the persistence layer.
+     *
+     * @param id the id of the email.
+     * @return {@code true} if the deletion of the email is pending.
+     */
+    public synchronized boolean isPending(@NonNull final String id) {
+        return pending.contains(id) || flushing.contains(id) || lastFlushed.contains(id);
+    }
+
+    /**
+     * Delete all the buffered ids from the persistence layer.
+     */
+    public void flush() {
+        flusher.flush();
+    }
+
+    /**
+     * Stop the flusher, after deleting all the buffered ids. Later deletions are run straight away.
+     */
+    public void close() {
+        flusher.close();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private void deletePending() {
+        final Set<String> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                lastFlushed = Collections.emptySet();
+                return;
+            }
+            batch = pending;
+            flushing = batch;
+            pending = new LinkedHashSet<>();
+        }
+        try {
+            bulkDeletion.accept(new ArrayList<>(batch));
+            log.debug("Deleted {} sent emails from the persistence layer.", batch.size());
+            synchronized (this) {
+                flushing = Collections.emptySet();
+                lastFlushed = batch;
+            }
+        } catch (RuntimeException e) {
+            log.error("Cannot delete {} sent emails from the persistence layer, they will be retried.", batch.size(), e);
+            synchronized (this) {
+                flushing = Collections.emptySet();
+                pending.addAll(batch);
+            }
+        }
+    }
+
+}
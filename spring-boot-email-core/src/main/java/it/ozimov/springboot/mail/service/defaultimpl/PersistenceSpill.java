@@ -0,0 +1,445 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.singletonList;
+import static java.util.Objects.nonNull;
+
+/**
+ * Bounded local file of the changes that could not be applied to the persistence layer, to be replayed in order once
+ * the persistence layer is available again.
+ * <p>
+ * Every change is appended as a record made of the operation, the length of the payload and the payload, i.e. the
+ * serialized {@linkplain EmailSchedulingData} of an addition, the id of a removal or the priority level of a removal
+ * of a whole level. Records are read from the oldest and committed once replayed, and the file is truncated as soon as
+ * all the records are committed. Hence, a restart replays the records not yet committed again, which is safe since
+ * additions and removals are idempotent.
+ * Appending fails once the file would exceed the maximum size.
+ * </p>
+ * <p>
+ * A record that cannot be decoded or that the persistence layer keeps rejecting can be moved to a dead-letter file next
+ * to the spill, with the same format, so that it does not block the records after it.
+ * </p>
+ * <p>
+ * Records are not forced to the storage device, so they survive a crash of the application but not of the host.
+ * </p>
+ */
+@Slf4j
+public class PersistenceSpill implements Closeable {
+
+    public enum Operation {
+        ADD, REMOVE, ACK, REMOVE_PRIORITY_LEVEL
+    }
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Record {
+
+        private final Operation operation;
+
+        private final EmailSchedulingData emailSchedulingData;
+
+        private final String id;
+
+        private final int priorityLevel;
+
+        private final long start;
+
+        private final long end;
+
+        /**
+         * Return whether the record is an addition whose email cannot be deserialized.
+         */
+        public boolean isUndecodable() {
+            return operation == Operation.ADD && emailSchedulingData == null;
+        }
+
+    }
+
+    // Operation followed by the length of the payload
+    private static final int RECORD_HEADER_LENGTH = Byte.BYTES + Integer.BYTES;
+
+    @Getter
+    private final Path path;
+    @Getter
+    private final Path deadLetterPath;
+    private final long maxBytes;
+
+    private final SerializingConverter serializingConverter = new SerializingConverter();
+    private final DeserializingConverter deserializingConverter = new DeserializingConverter();
+
+    //Ids removed by the records not yet committed, read without holding the monitor
+    private final Multiset<String> pendingRemovals = ConcurrentHashMultiset.create();
+
+    //Priority levels removed by the records not yet committed, read without holding the monitor
+    private final Multiset<Integer> pendingPriorityLevelRemovals = ConcurrentHashMultiset.create();
+
+    //Sequence of the latest removal not yet committed of every priority level, read without holding the monitor
+    private final Map<Integer, Long> latestPriorityLevelRemovals = new ConcurrentHashMap<>();
+
+    //Sequence of the latest addition of the emails spilled after a pending removal of their priority level
+    private final Map<String, Long> additionsAfterPriorityLevelRemovals = new ConcurrentHashMap<>();
+
+    //Guarded by this
+    private final FileChannel channel;
+    private long readPosition;
+    private long writePosition;
+    private int pendingRecords;
+    private long sequence;
+
+    public PersistenceSpill(@NonNull final Path path, final long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "Maximum size should be a positive number, while %s was given", maxBytes);
+        this.path = path;
+        this.deadLetterPath = Paths.get(path + ".dead-letter");
+        this.maxBytes = maxBytes;
+        try {
+            if (nonNull(path.getParent())) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the persistence spill " + path, e);
+        }
+    }
+
+    /**
+     * Append the additions of the given emails, unless the spill would exceed its maximum size.
+     *
+     * @param emailSchedulingDataCollection the emails to be added.
+     * @return {@code true} if all the additions were appended; {@code false} if none was appended.
+     */
+    public synchronized boolean add(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
+        final List<byte[]> payloads = new ArrayList<>(emailSchedulingDataCollection.size());
+        emailSchedulingDataCollection.forEach(emailSchedulingData -> payloads.add(serializingConverter.convert(emailSchedulingData)));
+        final long firstSequence = sequence;
+        if (!append(Operation.ADD, payloads)) {
+            return false;
+        }
+        long addition = firstSequence;
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataCollection) {
+            trackAddition(emailSchedulingData, addition++);
+        }
+        return true;
+    }
+
+    /**
+     * Append the removals of the emails with the given ids, unless the spill would exceed its maximum size.
+     *
+     * @param operation the removal operation, either {@linkplain Operation#REMOVE} or {@linkplain Operation#ACK}.
+     * @param ids       the ids of the emails to be removed.
+     * @return {@code true} if all the removals were appended; {@code false} if none was appended.
+     */
+    public synchronized boolean remove(@NonNull final Operation operation, @NonNull final Collection<String> ids) {
+        Preconditions.checkArgument(operation == Operation.REMOVE || operation == Operation.ACK, "Expected a removal by id, while %s was given", operation);
+        final List<byte[]> payloads = new ArrayList<>(ids.size());
+        ids.forEach(id -> payloads.add(id.getBytes(StandardCharsets.UTF_8)));
+        if (!append(operation, payloads)) {
+            return false;
+        }
+        pendingRemovals.addAll(ids);
+        return true;
+    }
+
+    /**
+     * Append the removal of all the emails with the given priority level, unless the spill would exceed its maximum
+     * size.
+     *
+     * @param priorityLevel the priority level of the emails to be removed.
+     * @return {@code true} if the removal was appended; {@code false} otherwise.
+     */
+    public synchronized boolean removePriorityLevel(final int priorityLevel) {
+        final long removal = sequence;
+        if (!append(Operation.REMOVE_PRIORITY_LEVEL, singletonList(ByteBuffer.allocate(Integer.BYTES).putInt(priorityLevel).array()))) {
+            return false;
+        }
+        trackPriorityLevelRemoval(priorityLevel, removal);
+        return true;
+    }
+
+    /**
+     * Return whether the removal of the given email is in the spill, i.e. whether the persistence layer may still hold
+     * an email that is already removed, either by id or together with its priority level. The removal of a priority
+     * level only applies to the emails not spilled after it.
+     *
+     * @param emailSchedulingData an email.
+     * @return {@code true} if the removal of the email is not yet replayed; {@code false} otherwise.
+     */
+    public boolean isPendingRemoval(@NonNull final EmailSchedulingData emailSchedulingData) {
+        if (isPendingRemoval(emailSchedulingData.getId())) {
+            return true;
+        }
+        final Long removal = latestPriorityLevelRemovals.get(emailSchedulingData.getAssignedPriority());
+        if (removal == null) {
+            return false;
+        }
+        final Long addition = additionsAfterPriorityLevelRemovals.get(emailSchedulingData.getId());
+        return addition == null || addition < removal;
+    }
+
+    /**
+     * Return whether the removal of the email with the given id is in the spill, i.e. whether the persistence layer
+     * may still hold an email that is already removed.
+     *
+     * @param id the id of an email.
+     * @return {@code true} if the removal of the email is not yet replayed; {@code false} otherwise.
+     */
+    public boolean isPendingRemoval(@NonNull final String id) {
+        return pendingRemovals.contains(id);
+    }
+
+    /**
+     * Read the oldest records not yet committed, without committing them. An addition whose email cannot be
+     * deserialized is returned as an {@linkplain Record#isUndecodable() undecodable} record.
+     *
+     * @param maxRecords the maximum number of records to be read.
+     * @return the records read, in order.
+     */
+    public synchronized List<Record> read(final int maxRecords) {
+        Preconditions.checkArgument(maxRecords > 0, "Number of records should be a positive number, while %s was given", maxRecords);
+        final List<Record> records = new ArrayList<>();
+        long position = readPosition;
+        try {
+            while (records.size() < maxRecords && position < writePosition) {
+                final long start = position;
+                final ByteBuffer header = readFully(position, RECORD_HEADER_LENGTH);
+                final Operation operation = Operation.values()[header.get()];
+                final ByteBuffer payload = readFully(position + RECORD_HEADER_LENGTH, header.getInt());
+                position += RECORD_HEADER_LENGTH + payload.capacity();
+                if (operation == Operation.ADD) {
+                    records.add(new Record(operation, deserialize(payload.array()), null, 0, start, position));
+                } else if (operation == Operation.REMOVE_PRIORITY_LEVEL) {
+                    records.add(new Record(operation, null, null, payload.getInt(), start, position));
+                } else {
+                    records.add(new Record(operation, null, new String(payload.array(), StandardCharsets.UTF_8), 0, start, position));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the persistence spill " + path, e);
+        }
+        return records;
+    }
+
+    /**
+     * Commit the given records, previously returned by {@linkplain #read(int)}, and all the records before them.
+     *
+     * @param records the replayed records.
+     */
+    public synchronized void commit(@NonNull final List<Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final long end = records.get(records.size() - 1).getEnd();
+        Preconditions.checkArgument(end > readPosition && end <= writePosition, "Records already committed or not read from this spill");
+        readPosition = end;
+        pendingRecords -= records.size();
+        for (final Record record : records) {
+            if (record.getOperation() == Operation.REMOVE_PRIORITY_LEVEL) {
+                //Records are committed in order, so the latest removal of the level is the last one committed
+                if (pendingPriorityLevelRemovals.remove(record.getPriorityLevel(), 1) == 1) {
+                    latestPriorityLevelRemovals.remove(record.getPriorityLevel());
+                }
+            } else if (record.getOperation() != Operation.ADD) {
+                pendingRemovals.remove(record.getId());
+            }
+        }
+        if (latestPriorityLevelRemovals.isEmpty()) {
+            additionsAfterPriorityLevelRemovals.clear();
+        }
+        if (readPosition == writePosition) {
+            truncate();
+        }
+    }
+
+    /**
+     * Move the given record, previously returned by {@linkplain #read(int)}, to the dead-letter file and commit it
+     * together with all the records before it.
+     *
+     * @param record a record that cannot be replayed.
+     */
+    public synchronized void quarantine(@NonNull final Record record) {
+        Preconditions.checkArgument(record.getStart() >= readPosition && record.getEnd() <= writePosition, "Record already committed or not read from this spill");
+        try {
+            final ByteBuffer bytes = readFully(record.getStart(), (int) (record.getEnd() - record.getStart()));
+            Files.write(deadLetterPath, bytes.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to the dead-letter file " + deadLetterPath, e);
+        }
+        commit(singletonList(record));
+    }
+
+    /**
+     * Drop all the records.
+     */
+    public synchronized void clear() {
+        readPosition = writePosition;
+        pendingRecords = 0;
+        pendingRemovals.clear();
+        pendingPriorityLevelRemovals.clear();
+        latestPriorityLevelRemovals.clear();
+        additionsAfterPriorityLevelRemovals.clear();
+        truncate();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public synchronized int size() {
+        return pendingRecords;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close the persistence spill " + path, e);
+        }
+    }
+
+    private boolean append(final Operation operation, final List<byte[]> payloads) {
+        final long length = payloads.stream().mapToLong(payload -> RECORD_HEADER_LENGTH + payload.length).sum();
+        if (writePosition + length > maxBytes) {
+            return false;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        payloads.forEach(payload -> buffer.put((byte) operation.ordinal()).putInt(payload.length).put(payload));
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                writePosition += channel.write(buffer, writePosition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to the persistence spill " + path, e);
+        }
+        pendingRecords += payloads.size();
+        sequence += payloads.size();
+        return true;
+    }
+
+    private void trackPriorityLevelRemoval(final int priorityLevel, final long removal) {
+        pendingPriorityLevelRemovals.add(priorityLevel);
+        latestPriorityLevelRemovals.put(priorityLevel, removal);
+    }
+
+    private void trackAddition(final EmailSchedulingData emailSchedulingData, final long addition) {
+        //Only the additions after a pending removal of their priority level escape the removal
+        if (latestPriorityLevelRemovals.containsKey(emailSchedulingData.getAssignedPriority())) {
+            additionsAfterPriorityLevelRemovals.put(emailSchedulingData.getId(), addition);
+        }
+    }
+
+    private EmailSchedulingData deserialize(final byte[] payload) {
+        try {
+            return (EmailSchedulingData) deserializingConverter.convert(payload);
+        } catch (RuntimeException e) {
+            log.warn("Cannot deserialize an email in the persistence spill {}.", path, e);
+            return null;
+        }
+    }
+
+    private void truncate() {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot truncate the persistence spill " + path, e);
+        }
+        readPosition = 0;
+        writePosition = 0;
+    }
+
+    // Scans the records left by a previous run, dropping an incomplete record at the end of the file
+    private void recover() throws IOException {
+        final long size = channel.size();
+        long position = 0;
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            final ByteBuffer header = readFully(position, RECORD_HEADER_LENGTH);
+            final int operation = header.get();
+            final int length = header.getInt();
+            if (operation < 0 || operation >= Operation.values().length || length < 0
+                    || (operation == Operation.REMOVE_PRIORITY_LEVEL.ordinal() && length != Integer.BYTES)
+                    || position + RECORD_HEADER_LENGTH + length > size) {
+                break;
+            }
+            if (operation == Operation.REMOVE_PRIORITY_LEVEL.ordinal()) {
+                trackPriorityLevelRemoval(readFully(position + RECORD_HEADER_LENGTH, length).getInt(), sequence);
+            } else if (operation == Operation.ADD.ordinal()) {
+                if (!latestPriorityLevelRemovals.isEmpty()) {
+                    final EmailSchedulingData emailSchedulingData = deserialize(readFully(position + RECORD_HEADER_LENGTH, length).array());
+                    if (nonNull(emailSchedulingData)) {
+                        trackAddition(emailSchedulingData, sequence);
+                    }
+                }
+            } else {
+                pendingRemovals.add(new String(readFully(position + RECORD_HEADER_LENGTH, length).array(), StandardCharsets.UTF_8));
+            }
+            position += RECORD_HEADER_LENGTH + length;
+            pendingRecords++;
+            sequence++;
+        }
+        if (position < size) {
+            log.warn("The persistence spill {} ends with an incomplete record, truncated at {} of {} bytes.", path, position, size);
+            channel.truncate(position);
+        }
+        writePosition = position;
+        if (pendingRecords > 0) {
+            log.info("Found {} changes in the persistence spill {} to be replayed.", pendingRecords, path);
+        }
+    }
+
+    private ByteBuffer readFully(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the persistence spill " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
@@ -16,6 +16,8 @@
 
 package it.ozimov.springboot.mail.service.defaultimpl;
 
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
@@ -23,9 +25,13 @@ import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.InlinePicture;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.AsyncPersistenceService;
+import it.ozimov.springboot.mail.service.ClaimingPersistenceService;
+import it.ozimov.springboot.mail.service.EmailSendResult;
 import it.ozimov.springboot.mail.service.EmailService;
 import it.ozimov.springboot.mail.service.PersistenceService;
 import it.ozimov.springboot.mail.service.EmailSchedulerService;
+import it.ozimov.springboot.mail.service.SentEmailHistory;
 import it.ozimov.springboot.mail.service.ServiceStatus;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
 import it.ozimov.springboot.mail.utils.TimeUtils;
@@ -37,25 +43,43 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SCHEDULER_IS_ENABLED;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.Comparator.comparing;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
 /**
@@ -78,9 +102,38 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
      */
     protected static final Duration RESUMER_CYCLE_LENGTH = Duration.of(5, ChronoUnit.SECONDS);
 
+    /**
+     * time after which an email claimed from the persistence layer and not yet sent can be claimed again
+     */
+    protected static final Duration CLAIM_TIMEOUT = Duration.of(10, ChronoUnit.MINUTES);
+
+    /**
+     * time given on close to the emails already handed over to the sender threads
+     */
+    protected static final Duration SENDER_TERMINATION_TIMEOUT = Duration.of(10, ChronoUnit.SECONDS);
+
+    /**
+     * number of sendings of an email, abandoned since exceeding the send timeout, before giving the email up
+     */
+    protected static final int DEFAULT_SEND_MAX_ATTEMPTS = 5;
+
+    /**
+     * delay before sending again an email whose sending was abandoned for the first time
+     */
+    protected static final Duration DEFAULT_SEND_RETRY_BACKOFF = Duration.of(1, ChronoUnit.SECONDS);
+
+    /**
+     * maximum number of doublings of the delay before sending again an email whose sending was abandoned
+     */
+    private static final int MAX_RETRY_BACKOFF_DOUBLINGS = 10;
+
     private final int batchSize;
     private final int minInMemory;
     private final int maxInMemory;
+    private final boolean claimBatches;
+    private final int sendBatchSize;
+    private final int sendMaxAttempts;
+    private final long sendRetryBackoffMillis;
 
     private volatile ServiceStatus serviceStatus = ServiceStatus.RUNNING;
 
@@ -100,19 +153,88 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
 
     private EmailLogRenderer emailLogRenderer;
 
+    private final WriteBehindPersistenceBuffer writeBehindBuffer;
+
+    private final boolean awaitWriteBehindFlush;
+
+    private final PersistenceDeletionBuffer deletionBuffer;
+
+    //Persistence service issuing its calls without blocking, null if the persistence layer is accessed in a blocking way
+    private final AsyncPersistenceService asyncPersistenceService;
+
+    //Whether a batch claimed without blocking is still awaited, so that no other claim is issued meanwhile
+    private final AtomicBoolean claiming = new AtomicBoolean();
+
+    private final CircuitBreakingPersistenceService circuitBreakingPersistenceService;
+
+    private final QueueSnapshotFile snapshotFile;
+
+    private final Optional<SentEmailHistory> sentEmailHistoryOptional;
+
+    private final AdaptiveSendConcurrency sendConcurrency;
+
+    private final ExecutorService senderExecutor;
+
+    private final SendWatchdog sendWatchdog;
+
+    //Emails handed over to the sender threads, not to be enqueued again from the persistence layer
+    private final Set<String> sendingIds = ConcurrentHashMap.newKeySet();
+
+    //Number of abandoned sendings of the emails not yet sent
+    private final Map<String, Integer> abandonedSendings = new ConcurrentHashMap<>();
+
+    //Emails waiting to be sent again after an abandoned sending, not to be enqueued again from the persistence layer
+    private final Map<String, EmailSchedulingData> awaitingRetry = new ConcurrentHashMap<>();
+
+    //Emails whose abandoned sending completed afterwards, not to be sent again
+    private final Set<String> sentAfterAbandon = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- Retry-%d")
+            .setDaemon(true)
+            .build());
+
     private final Lock schedulerLock = new ReentrantLock();
 
+    public PriorityQueueEmailSchedulerService(
+            final EmailService emailService,
+            final EmailSchedulerProperties emailSchedulerProperties,
+            final Optional<PersistenceService> persistenceServiceOptional,
+            final EmailLogRenderer emailLogRenderer) throws InterruptedException {
+        this(emailService, emailSchedulerProperties, persistenceServiceOptional, Optional.empty(), emailLogRenderer);
+    }
+
+    public PriorityQueueEmailSchedulerService(
+            final EmailService emailService,
+            final EmailSchedulerProperties emailSchedulerProperties,
+            final Optional<PersistenceService> persistenceServiceOptional,
+            final Optional<SentEmailHistory> sentEmailHistoryOptional,
+            final EmailLogRenderer emailLogRenderer) throws InterruptedException {
+        this(emailService, emailSchedulerProperties, persistenceServiceOptional, sentEmailHistoryOptional,
+                Optional.empty(), emailLogRenderer);
+    }
+
     @Autowired
     public PriorityQueueEmailSchedulerService(
             final EmailService emailService,
             final EmailSchedulerProperties emailSchedulerProperties,
             final Optional<PersistenceService> persistenceServiceOptional,
+            final Optional<SentEmailHistory> sentEmailHistoryOptional,
+            final Optional<AdaptiveSendConcurrency> sendConcurrencyOptional,
             final EmailLogRenderer emailLogRenderer) throws InterruptedException {
 
         this.emailService = emailService;
         this.persistenceServiceOptional = persistenceServiceOptional;
+        this.sentEmailHistoryOptional = sentEmailHistoryOptional;
         this.emailLogRenderer = emailLogRenderer.registerLogger(log);
 
+        sendConcurrency = sendConcurrencyOptional.orElse(null);
+        senderExecutor = sendConcurrencyOptional.isPresent() ?
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- Sender-%d")
+                        .setDaemon(true)
+                        .build()) : null;
+
         timeOfNextScheduledMessage = new AtomicLong();
 
         batchSize = nonNull(emailSchedulerProperties.getPersistence()) ?
@@ -121,6 +243,83 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
                 emailSchedulerProperties.getPersistence().getMinKeptInMemory() : 1;
         maxInMemory = nonNull(emailSchedulerProperties.getPersistence()) ?
                 emailSchedulerProperties.getPersistence().getMaxKeptInMemory() : Integer.MAX_VALUE;
+        claimBatches = nonNull(emailSchedulerProperties.getPersistence())
+                && emailSchedulerProperties.getPersistence().isClaimBatches()
+                && persistenceServiceOptional.filter(ClaimingPersistenceService.class::isInstance).isPresent();
+
+        sendBatchSize = nonNull(emailSchedulerProperties.getSendBatchSize()) ?
+                max(1, emailSchedulerProperties.getSendBatchSize()) : 1;
+
+        //A hung SMTP conversation must not block the consumer, or the sender threads, forever
+        sendWatchdog = nonNull(emailSchedulerProperties.getSendTimeoutMillis()) && emailSchedulerProperties.getSendTimeoutMillis() > 0 ?
+                new SendWatchdog(Duration.ofMillis(emailSchedulerProperties.getSendTimeoutMillis()),
+                        nonNull(emailSchedulerProperties.getSendMaxThreads()) && emailSchedulerProperties.getSendMaxThreads() > 0 ?
+                                emailSchedulerProperties.getSendMaxThreads() : SendWatchdog.DEFAULT_MAX_THREADS) : null;
+        //An email whose sending is abandoned is sent again after a growing delay, up to a maximum number of attempts
+        sendMaxAttempts = nonNull(emailSchedulerProperties.getSendMaxAttempts()) && emailSchedulerProperties.getSendMaxAttempts() > 0 ?
+                emailSchedulerProperties.getSendMaxAttempts() : DEFAULT_SEND_MAX_ATTEMPTS;
+        sendRetryBackoffMillis = nonNull(emailSchedulerProperties.getSendRetryBackoffMillis()) && emailSchedulerProperties.getSendRetryBackoffMillis() > 0 ?
+                emailSchedulerProperties.getSendRetryBackoffMillis() : DEFAULT_SEND_RETRY_BACKOFF.toMillis();
+
+        //The circuit breaker decorates the persistence service, so that the buffers below are protected as well
+        final EmailSchedulerProperties.CircuitBreaker circuitBreaker = nonNull(emailSchedulerProperties.getPersistence()) ?
+                emailSchedulerProperties.getPersistence().getCircuitBreaker() : null;
+        if (persistenceServiceOptional.isPresent() && nonNull(circuitBreaker) && circuitBreaker.isEnabled()) {
+            circuitBreakingPersistenceService = new CircuitBreakingPersistenceService(persistenceServiceOptional.get(),
+                    new CircuitBreaker(circuitBreaker.getFailureThreshold(), Duration.ofMillis(circuitBreaker.getOpenDurationMillis())),
+                    new PersistenceSpill(Paths.get(circuitBreaker.getSpillFile()), circuitBreaker.getSpillMaxBytes()),
+                    Duration.ofMillis(circuitBreaker.getCallTimeoutMillis()), circuitBreaker.getReplayBatchSize());
+            this.persistenceServiceOptional = Optional.of(circuitBreakingPersistenceService);
+        } else {
+            circuitBreakingPersistenceService = null;
+        }
+
+        final EmailSchedulerProperties.WriteBehind writeBehind = nonNull(emailSchedulerProperties.getPersistence()) ?
+                emailSchedulerProperties.getPersistence().getWriteBehind() : null;
+        if (persistenceServiceOptional.isPresent() && nonNull(writeBehind) && writeBehind.isEnabled()) {
+            writeBehindBuffer = new WriteBehindPersistenceBuffer(this.persistenceServiceOptional.get(), writeBehind.getBatchSize(),
+                    Duration.ofMillis(writeBehind.getFlushIntervalMillis()), writeBehind.getBufferCapacity());
+            awaitWriteBehindFlush = writeBehind.getDurability() == EmailSchedulerProperties.WriteBehind.Durability.FLUSHED;
+        } else {
+            writeBehindBuffer = null;
+            awaitWriteBehindFlush = false;
+        }
+
+        final EmailSchedulerProperties.DeletionBuffer deletionBufferProperties = nonNull(emailSchedulerProperties.getPersistence()) ?
+                emailSchedulerProperties.getPersistence().getDeletionBuffer() : null;
+        if (persistenceServiceOptional.isPresent() && nonNull(deletionBufferProperties) && deletionBufferProperties.isEnabled()) {
+            final PersistenceService persistenceService = this.persistenceServiceOptional.get();
+            deletionBuffer = new PersistenceDeletionBuffer(
+                    claimBatches ? ((ClaimingPersistenceService) persistenceService)::ack : persistenceService::removeAll,
+                    deletionBufferProperties.getBatchSize(), Duration.ofMillis(deletionBufferProperties.getFlushIntervalMillis()));
+        } else {
+            deletionBuffer = null;
+        }
+
+        //Decorated persistence services are called in a blocking way, as they are not asynchronous
+        asyncPersistenceService = this.persistenceServiceOptional
+                .filter(AsyncPersistenceService.class::isInstance)
+                .map(AsyncPersistenceService.class::cast)
+                .filter(AsyncPersistenceService::isNonBlocking)
+                .orElse(null);
+
+        final EmailSchedulerProperties.Snapshot snapshot = emailSchedulerProperties.getSnapshot();
+        if (nonNull(snapshot) && snapshot.isEnabled()) {
+            if (persistenceServiceOptional.isPresent()) {
+                log.warn("The snapshot of the queued emails is disabled, since the emails are reloaded from the persistence layer.");
+                snapshotFile = null;
+            } else {
+                snapshotFile = new QueueSnapshotFile(Paths.get(snapshot.getFile()));
+            }
+        } else {
+            snapshotFile = null;
+        }
+
+        final EmailSchedulerProperties.SentHistory sentHistory = emailSchedulerProperties.getSentHistory();
+        if (nonNull(sentHistory) && sentHistory.isEnabled() && !sentEmailHistoryOptional.isPresent()) {
+            log.warn("The sent-history is enabled, but no store is available for '{}'. Duplicate emails will not be discarded.",
+                    sentHistory.getStore());
+        }
 
         final int numberOfPriorityLevels = emailSchedulerProperties.getPriorityLevels();
         priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, persistenceServiceOptional.isPresent(),
@@ -130,6 +329,15 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         consumer = new Consumer();
         startConsumer();
 
+        //RESTORING EMAILS QUEUED BEFORE THE LAST SHUTDOWN
+        if (nonNull(snapshotFile)) {
+            try {
+                restoreSnapshot();
+            } catch (RuntimeException e) {
+                log.error("Cannot restore the snapshot of the queued emails {}, starting without it.", snapshotFile.getPath(), e);
+            }
+        }
+
         //CREATING EMAIL RESUMER
         if (this.persistenceServiceOptional.isPresent()) {
             resumer = new Resumer();
@@ -142,46 +350,73 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
     @Override
     @Async
     public void schedule(@NonNull final Email mimeEmail, final int desiredPriorityLevel) {
-        scheduleEmail(mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel);
+        scheduleEmail(null, mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel);
     }
 
     @Override
     @Async
     public void schedule(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel) {
-        scheduleEmail(mimeEmail, scheduledDateTime, desiredPriorityLevel);
+        scheduleEmail(null, mimeEmail, scheduledDateTime, desiredPriorityLevel);
     }
 
     @Override
     @Async
     public void schedule(@NonNull final Email mimeEmail, final int desiredPriorityLevel, @NonNull final String template,
                          @NonNull final Map<String, Object> modelObject, final InlinePicture... inlinePictures) throws CannotSendEmailException {
-        scheduleTemplateEmail(mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel, template, modelObject, inlinePictures);
+        scheduleTemplateEmail(null, mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel, template, modelObject, inlinePictures);
     }
 
     @Override
     @Async
     public void schedule(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel,
                          @NonNull final String template, @NonNull final Map<String, Object> modelObject, final InlinePicture... inlinePictures) throws CannotSendEmailException {
-        scheduleTemplateEmail(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, inlinePictures);
+        scheduleTemplateEmail(null, mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, inlinePictures);
     }
 
-    private void scheduleEmail(final Email mimeEmail, final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel) {
+    @Override
+    @Async
+    public void schedule(final String idempotencyKey, @NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime,
+                         final int desiredPriorityLevel) {
+        scheduleEmail(idempotencyKey, mimeEmail, scheduledDateTime, desiredPriorityLevel);
+    }
+
+    @Override
+    @Async
+    public void schedule(final String idempotencyKey, @NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime,
+                         final int desiredPriorityLevel, @NonNull final String template, @NonNull final Map<String, Object> modelObject,
+                         final InlinePicture... inlinePictures) throws CannotSendEmailException {
+        scheduleTemplateEmail(idempotencyKey, mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, inlinePictures);
+    }
+
+    private void scheduleEmail(final String idempotencyKey, final Email mimeEmail, final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel) {
         checkPriorityLevel(desiredPriorityLevel);
+        if (isDuplicate(idempotencyKey)) {
+            emailLogRenderer.info("Discarded email {} with idempotency key {} already scheduled or sent", mimeEmail, idempotencyKey);
+            return;
+        }
 
         final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
-        final EmailSchedulingData emailSchedulingData = buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel);
+        final EmailSchedulingData emailSchedulingData = isNull(idempotencyKey) ?
+                buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel) :
+                buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel, idempotencyKey);
         schedule(emailSchedulingData);
 
         emailLogRenderer.info("Scheduled email {} at UTC time {} with priority {}", mimeEmail, scheduledDateTime, desiredPriorityLevel);
         notifyConsumerIfCouldFire(scheduledDateTime);
     }
 
-    private void scheduleTemplateEmail(final Email mimeEmail, final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel,
+    private void scheduleTemplateEmail(final String idempotencyKey, final Email mimeEmail, final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel,
                          final String template, final Map<String, Object> modelObject, final InlinePicture... inlinePictures) throws CannotSendEmailException {
         checkPriorityLevel(desiredPriorityLevel);
+        if (isDuplicate(idempotencyKey)) {
+            emailLogRenderer.info("Discarded email {} with idempotency key {} already scheduled or sent", mimeEmail, idempotencyKey);
+            return;
+        }
 
         final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
-        final EmailSchedulingData emailTemplateSchedulingData = buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, assignedPriorityLevel, inlinePictures);
+        final EmailSchedulingData emailTemplateSchedulingData = isNull(idempotencyKey) ?
+                buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, assignedPriorityLevel, inlinePictures) :
+                buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, assignedPriorityLevel, inlinePictures, idempotencyKey);
         schedule(emailTemplateSchedulingData);
 
         emailLogRenderer.info("Scheduled email {} at UTC time {} with priority {} with template", mimeEmail, scheduledDateTime, desiredPriorityLevel);
@@ -189,15 +424,24 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
     }
 
     protected EmailSchedulingData buildEmailSchedulingData(@NonNull Email mimeEmail, @NonNull OffsetDateTime scheduledDateTime, int desiredPriorityLevel, int assignedPriorityLevel) {
+        return buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel, null);
+    }
+
+    protected EmailSchedulingData buildEmailSchedulingData(@NonNull Email mimeEmail, @NonNull OffsetDateTime scheduledDateTime, int desiredPriorityLevel, int assignedPriorityLevel, String idempotencyKey) {
         return DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
                 .email(mimeEmail)
                 .scheduledDateTime(scheduledDateTime)
                 .assignedPriority(assignedPriorityLevel)
                 .desiredPriority(desiredPriorityLevel)
+                .idempotencyKey(idempotencyKey)
                 .build();
     }
 
     protected EmailSchedulingData buildEmailSchedulingData(@NonNull Email mimeEmail, @NonNull OffsetDateTime scheduledDateTime, int desiredPriorityLevel, @NonNull String template, @NonNull Map<String, Object> modelObject, int assignedPriorityLevel, InlinePicture[] inlinePictures) {
+        return buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, assignedPriorityLevel, inlinePictures, null);
+    }
+
+    protected EmailSchedulingData buildEmailSchedulingData(@NonNull Email mimeEmail, @NonNull OffsetDateTime scheduledDateTime, int desiredPriorityLevel, @NonNull String template, @NonNull Map<String, Object> modelObject, int assignedPriorityLevel, InlinePicture[] inlinePictures, String idempotencyKey) {
         return TemplateEmailSchedulingData.templateEmailSchedulingDataBuilder()
                 .email(mimeEmail)
                 .scheduledDateTime(scheduledDateTime)
@@ -206,13 +450,64 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
                 .template(template)
                 .modelObject(modelObject)
                 .inlinePictures(inlinePictures)
+                .idempotencyKey(idempotencyKey)
                 .build();
     }
 
-    protected synchronized void schedule(final EmailSchedulingData emailSchedulingData) {
-        enqueueFromScheduler(emailSchedulingData);
-        addToPersistenceLayer(emailSchedulingData);
-        completeEnqueue();
+    // Returns true if an email with the same idempotency key was already admitted or sent
+    private boolean isDuplicate(final String idempotencyKey) {
+        return nonNull(idempotencyKey) && sentEmailHistoryOptional.isPresent() && !sentEmailHistoryOptional.get().admit(idempotencyKey);
+    }
+
+    // Returns the key recorded in the sent-history once the email is sent, if any. Emails with no idempotency key
+    // are recorded by id only when persisted, since only the persistence layer can load them again after a crash
+    private Optional<String> sentHistoryKey(final EmailSchedulingData emailSchedulingData) {
+        if (!sentEmailHistoryOptional.isPresent()) {
+            return Optional.empty();
+        }
+        if (nonNull(emailSchedulingData.getIdempotencyKey())) {
+            return Optional.of(emailSchedulingData.getIdempotencyKey());
+        }
+        return persistenceServiceOptional.isPresent() ? Optional.of(emailSchedulingData.getId()) : Optional.empty();
+    }
+
+    protected void schedule(final EmailSchedulingData emailSchedulingData) {
+        final CompletableFuture<Void> persisted;
+        synchronized (this) {
+            enqueueFromScheduler(emailSchedulingData);
+            persisted = addToPersistenceLayer(emailSchedulingData);
+            completeEnqueue();
+        }
+        //Waiting outside the monitor lets other emails join the same batch
+        if (awaitWriteBehindFlush) {
+            persisted.join();
+        }
+    }
+
+    protected void restoreSnapshot() {
+        final AtomicLong earliest = new AtomicLong(Long.MAX_VALUE);
+        final int restored = snapshotFile.restore(emailSchedulingData -> {
+            if (emailSchedulingData.getAssignedPriority() > priorityQueueManager.numberOfLevels()) {
+                log.warn("Email scheduling data {} not restored, since its priority level is not available anymore.", emailSchedulingData);
+                return;
+            }
+            synchronized (this) {
+                enqueueFromScheduler(emailSchedulingData);
+                completeEnqueue();
+            }
+            earliest.accumulateAndGet(emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli(), Math::min);
+        });
+        log.info("Restored {} emails from the snapshot {}.", restored, snapshotFile.getPath());
+        if (earliest.get() < Long.MAX_VALUE) {
+            notifyConsumerIfCouldFire(OffsetDateTime.ofInstant(Instant.ofEpochMilli(earliest.get()), ZoneOffset.UTC));
+        }
+    }
+
+    protected void writeSnapshot() {
+        //The emails waiting to be sent again are not in the queues anymore
+        final int written = snapshotFile.write(Iterators.concat(priorityQueueManager.queuedIterator(),
+                awaitingRetry.values().iterator()));
+        log.info("Written {} queued emails to the snapshot {}.", written, snapshotFile.getPath());
     }
 
     protected synchronized void startResumer() throws InterruptedException {
@@ -265,38 +560,92 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         }
     }
 
-    protected void addToPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
-        if (serviceStatus == ServiceStatus.RUNNING) {
+    // Returns a future completed once the email is written to the persistence layer
+    protected CompletableFuture<Void> addToPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
+        if (serviceStatus == ServiceStatus.RUNNING && persistenceServiceOptional.isPresent()) {
             log.debug("Adding to persistence layer");
-            persistenceServiceOptional.ifPresent(
-                    persistenceService ->
-                            persistenceService.add(emailSchedulingData)
-            );
+            if (nonNull(writeBehindBuffer)) {
+                return writeBehindBuffer.add(emailSchedulingData);
+            }
+            if (nonNull(asyncPersistenceService)) {
+                //The email is already in memory, so the scheduling does not wait for the persistence layer
+                return asyncPersistenceService.addAsync(emailSchedulingData)
+                        .whenComplete((ignored, throwable) -> logPersistenceFailure(throwable, "add", emailSchedulingData.getId()));
+            }
+            persistenceServiceOptional.get().add(emailSchedulingData);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     protected void deleteFromPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
+        deleteFromPersistenceLayer(singletonList(emailSchedulingData));
+    }
+
+    protected void deleteFromPersistenceLayer(final List<EmailSchedulingData> emailSchedulingDataList) {
         //This part is disabled for now, I'm not sure that this could not provide overhead to the persistence layer
         if (serviceStatus == ServiceStatus.RUNNING) {
             persistenceServiceOptional.ifPresent(
                     persistenceService -> {
-                        persistenceService.remove(emailSchedulingData.getId());
+                        removeFromPersistenceLayer(persistenceService, emailSchedulingDataList);
                         priorityQueueManager.completeDequeue();
                     }
             );
         }
     }
 
+    private void removeFromPersistenceLayer(final PersistenceService persistenceService,
+                                            final List<EmailSchedulingData> emailSchedulingDataList) {
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+            final Runnable removal = () -> {
+                if (nonNull(deletionBuffer)) {
+                    deletionBuffer.add(emailSchedulingData.getId());
+                } else if (nonNull(asyncPersistenceService)) {
+                    (claimBatches ? asyncPersistenceService.ackAsync(singletonList(emailSchedulingData.getId())) :
+                            asyncPersistenceService.removeAsync(emailSchedulingData.getId()))
+                            .whenComplete((ignored, throwable) -> logPersistenceFailure(throwable, "remove", emailSchedulingData.getId()));
+                } else if (claimBatches) {
+                    ((ClaimingPersistenceService) persistenceService).ack(singletonList(emailSchedulingData.getId()));
+                } else {
+                    persistenceService.remove(emailSchedulingData.getId());
+                }
+            };
+            if (nonNull(writeBehindBuffer)) {
+                writeBehindBuffer.remove(emailSchedulingData.getId(), removal);
+            } else {
+                removal.run();
+            }
+        }
+    }
+
+    private void logPersistenceFailure(final Throwable throwable, final String operation, final String id) {
+        if (nonNull(throwable)) {
+            log.error("Cannot {} email scheduling data with id {} in the persistence layer.", operation, id, throwable);
+        }
+    }
+
     protected void loadNextBatch() {
         if (serviceStatus == ServiceStatus.RUNNING) {
             persistenceServiceOptional.ifPresent(
                     persistenceService -> {
                         final int currentlyInMemory = currentlyInMemory();
-                        if (currentlyInMemory < minInMemory) {
+                        if (claimBatches) {
+                            if (currentlyInMemory < minInMemory && nonNull(asyncPersistenceService)) {
+                                claimNextBatchAsync(currentlyInMemory);
+                            } else if (currentlyInMemory < minInMemory) {
+                                //Claimed emails are not returned again, so only the room left in memory is requested
+                                final Collection<EmailSchedulingData> emailSchedulingDataList =
+                                        ((ClaimingPersistenceService) persistenceService).claimNextBatch(
+                                                TimeUtils.offsetDateTimeNow().plus(RESUMER_CYCLE_LENGTH.multipliedBy(2)),
+                                                max(1, min(batchSize, maxInMemory - currentlyInMemory)), CLAIM_TIMEOUT);
+                                if (!emailSchedulingDataList.isEmpty()) {
+                                    enqueueBatch(emailSchedulingDataList);
+                                }
+                            }
+                        } else if (currentlyInMemory < minInMemory) {
                             //Currently REDIS loads all from the beginning so we need to count also those currentlyInMemory. This must be improved.
                             final int expectedFromPersistenceLayer = Math.min(currentlyInMemory + batchSize, maxInMemory);
                             final Collection<EmailSchedulingData> emailSchedulingDataList =
-                                    persistenceService.getNextBatch(expectedFromPersistenceLayer);
+                                    withoutPendingDeletions(persistenceService.getNextBatch(expectedFromPersistenceLayer));
                             if (!emailSchedulingDataList.isEmpty()) {
                                 enqueueBatch(emailSchedulingDataList);
                             }
@@ -306,6 +655,38 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         }
     }
 
+    //The resumer does not wait for the claimed batch, which is enqueued once returned
+    private void claimNextBatchAsync(final int currentlyInMemory) {
+        if (!claiming.compareAndSet(false, true)) {
+            return;
+        }
+        asyncPersistenceService.claimNextBatchAsync(TimeUtils.offsetDateTimeNow().plus(RESUMER_CYCLE_LENGTH.multipliedBy(2)),
+                max(1, min(batchSize, maxInMemory - currentlyInMemory)), CLAIM_TIMEOUT)
+                .whenComplete((emailSchedulingDataList, throwable) -> {
+                    try {
+                        if (nonNull(throwable)) {
+                            log.error("Cannot claim the next batch of emails from the persistence layer.", throwable);
+                        } else if (!emailSchedulingDataList.isEmpty()) {
+                            enqueueBatch(emailSchedulingDataList);
+                        }
+                    } finally {
+                        claiming.set(false);
+                    }
+                });
+    }
+
+    //Sent emails whose deletion is still buffered, as well as the ones being sent or waiting to be sent again, must not be enqueued again
+    private Collection<EmailSchedulingData> withoutPendingDeletions(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
+        if (isNull(deletionBuffer) && sendingIds.isEmpty() && awaitingRetry.isEmpty()) {
+            return emailSchedulingDataCollection;
+        }
+        return emailSchedulingDataCollection.stream()
+                .filter(emailSchedulingData -> !sendingIds.contains(emailSchedulingData.getId()))
+                .filter(emailSchedulingData -> !awaitingRetry.containsKey(emailSchedulingData.getId()))
+                .filter(emailSchedulingData -> isNull(deletionBuffer) || !deletionBuffer.isPending(emailSchedulingData.getId()))
+                .collect(Collectors.toList());
+    }
+
     protected void enqueueBatch(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
         if (!emailSchedulingDataCollection.isEmpty()) {
             EmailSchedulingData lastEmailSchedulingData = emailSchedulingDataCollection.stream()
@@ -341,17 +722,17 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         return max(1, min(priorityLevel, maxLevel));
     }
 
-    private Optional<EmailSchedulingData> dequeue() throws InterruptedException {
-        Optional<EmailSchedulingData> emailSchedulingDataOptional = Optional.empty();
+    private List<EmailSchedulingData> dequeue() throws InterruptedException {
+        List<EmailSchedulingData> emailSchedulingDataList = emptyList();
         timeOfNextScheduledMessage.set(0);
         boolean consumerEnabled = consumer.enabled();
-        while (consumerEnabled && !emailSchedulingDataOptional.isPresent()) {
+        while (consumerEnabled && emailSchedulingDataList.isEmpty()) {
             if (consumer.enabled()) {
                 //try to find a message in queue
                 if (priorityQueueManager.hasElements()) {
-                    emailSchedulingDataOptional = priorityQueueManager.dequeueNext(CONSUMER_CYCLE_LENGTH);
+                    emailSchedulingDataList = priorityQueueManager.dequeueNext(CONSUMER_CYCLE_LENGTH, sendBatchSize);
                 }
-                if (!emailSchedulingDataOptional.isPresent()) {
+                if (emailSchedulingDataList.isEmpty()) {
                     //no message was found, let's sleep, some message may arrive in the meanwhile
                     timeOfNextScheduledMessage.set(priorityQueueManager.millisToNextEmail());
                     if (consumer.enabled()) {
@@ -369,8 +750,8 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
                 consumerEnabled = false;
             }
         }
-        //here emailSchedulingData is the message to send
-        return emailSchedulingDataOptional;
+        //here emailSchedulingDataList contains the messages to send
+        return emailSchedulingDataList;
     }
 
     private boolean isTimeOfNextSchedulerMessageNotSet() {
@@ -414,6 +795,31 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
             }
             log.debug("EMAIL SCHEDULER -- Closing Consumer");
             consumer.close();
+            if (nonNull(senderExecutor)) {
+                log.debug("EMAIL SCHEDULER -- Waiting for the emails being sent");
+                senderExecutor.shutdown();
+                senderExecutor.awaitTermination(SENDER_TERMINATION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            if (nonNull(sendWatchdog)) {
+                sendWatchdog.close();
+            }
+            retryExecutor.shutdownNow();
+            if (nonNull(snapshotFile)) {
+                log.debug("EMAIL SCHEDULER -- Writing snapshot of queued emails");
+                writeSnapshot();
+            }
+            if (nonNull(writeBehindBuffer)) {
+                log.debug("EMAIL SCHEDULER -- Flushing write-behind buffer");
+                writeBehindBuffer.close();
+            }
+            if (nonNull(deletionBuffer)) {
+                log.debug("EMAIL SCHEDULER -- Flushing deletion buffer");
+                deletionBuffer.close();
+            }
+            if (nonNull(circuitBreakingPersistenceService)) {
+                log.debug("EMAIL SCHEDULER -- Replaying persistence spill");
+                circuitBreakingPersistenceService.close();
+            }
 
         } catch (Exception e) {
             log.warn("An issue occurred while stopping EmailScheduler, it should be due to a thread interruption.", e);
@@ -434,36 +840,281 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
             log.info("Email scheduler consumer started");
             while (enabled()) {
                 try {
-                    final Optional<EmailSchedulingData> emailSchedulingDataOptional = dequeue();
-                    if (enabled() && emailSchedulingDataOptional.isPresent()) {
-                        final EmailSchedulingData emailSchedulingData = emailSchedulingDataOptional.get();
-                        if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
-                            final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
-                            try {
-                                emailService.send(emailTemplateSchedulingData.getEmail(),
-                                        emailTemplateSchedulingData.getTemplate(),
-                                        emailTemplateSchedulingData.getModelObject(),
-                                        emailTemplateSchedulingData.getInlinePictures());
-                            } catch (final CannotSendEmailException e) {
-                                log.error("An error occurred while sending the email", e);
-                            }
-                        } else {
-                            emailService.send(emailSchedulingData.getEmail());
-                        }
-                        if (enabled() && !persistenceServiceOptional.isPresent()) {
-                            priorityQueueManager.completeDequeue();
-                        }
-
-                        if (enabled()) deleteFromPersistenceLayer(emailSchedulingData);
+                    if (nonNull(sendConcurrency)) {
+                        sendNextConcurrently();
+                    } else {
+                        sendNext();
                     }
                 } catch (final InterruptedException e) {
                     log.error("Email scheduler consumer interrupted", e);
+                    //Restoring the flag makes the consumer stop, even when notified while being interrupted
+                    interrupt();
                 }
             }
             log.info("Email scheduler consumer stopped");
 
         }
 
+        private void sendNext() throws InterruptedException {
+            final List<EmailSchedulingData> emailSchedulingDataList = dequeue();
+            if (enabled() && !emailSchedulingDataList.isEmpty()) {
+                final List<EmailSchedulingData> toBeSent = notSentYet(emailSchedulingDataList);
+                try {
+                    sendWithinTimeout(toBeSent);
+                } catch (final TimeoutException e) {
+                    final List<EmailSchedulingData> retried = toBeRetried(toBeSent);
+                    completeSending(without(emailSchedulingDataList, retried));
+                    retry(retried);
+                    return;
+                }
+                forgetAbandonedSendings(toBeSent);
+                completeSending(emailSchedulingDataList);
+            }
+        }
+
+        //The emails are handed over to the sender threads, as long as the adaptive limit allows it
+        private void sendNextConcurrently() throws InterruptedException {
+            sendConcurrency.awaitCapacity();
+            final List<EmailSchedulingData> emailSchedulingDataList = dequeue();
+            if (enabled() && !emailSchedulingDataList.isEmpty()) {
+                final List<EmailSchedulingData> toBeSent = notSentYet(emailSchedulingDataList);
+                if (toBeSent.isEmpty()) {
+                    completeSending(emailSchedulingDataList);
+                    return;
+                }
+                emailSchedulingDataList.forEach(emailSchedulingData -> sendingIds.add(emailSchedulingData.getId()));
+                final AdaptiveSendConcurrency.Permit permit = sendConcurrency.acquire();
+                //Only the consumer can release the lock of the queues
+                priorityQueueManager.completeDequeue();
+                senderExecutor.execute(() -> sendHandedOver(permit, toBeSent, emailSchedulingDataList));
+            }
+        }
+
+        private void sendHandedOver(final AdaptiveSendConcurrency.Permit permit,
+                                    final List<EmailSchedulingData> toBeSent,
+                                    final List<EmailSchedulingData> emailSchedulingDataList) {
+            final long start = System.nanoTime();
+            List<Exception> failures = emptyList();
+            boolean abandoned = false;
+            try {
+                failures = sendWithinTimeout(toBeSent);
+            } catch (final TimeoutException e) {
+                abandoned = true;
+                failures = singletonList(e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandoned = true;
+                failures = singletonList(e);
+            } catch (final RuntimeException e) {
+                log.error("An error occurred while sending the email", e);
+                failures = singletonList(e);
+            } finally {
+                sendConcurrency.release(permit, AdaptiveSendConcurrency.outcomeOf(failures),
+                        (System.nanoTime() - start) / toBeSent.size());
+                final List<EmailSchedulingData> retried = abandoned ? toBeRetried(toBeSent) : emptyList();
+                if (!abandoned) {
+                    forgetAbandonedSendings(toBeSent);
+                }
+                final List<EmailSchedulingData> completed = without(emailSchedulingDataList, retried);
+                if (serviceStatus == ServiceStatus.RUNNING) {
+                    persistenceServiceOptional.ifPresent(
+                            persistenceService -> removeFromPersistenceLayer(persistenceService, completed));
+                }
+                retry(retried);
+                emailSchedulingDataList.forEach(emailSchedulingData -> sendingIds.remove(emailSchedulingData.getId()));
+            }
+        }
+
+        // Returns the failures of the emails not sent, if any
+        private List<Exception> sendWithinTimeout(final List<EmailSchedulingData> toBeSent) throws TimeoutException, InterruptedException {
+            if (toBeSent.isEmpty()) {
+                return emptyList();
+            }
+            final SendAttempt attempt = new SendAttempt(toBeSent);
+            if (isNull(sendWatchdog)) {
+                return attempt.send();
+            }
+            try {
+                return sendWatchdog.call(attempt::send);
+            } catch (final TimeoutException | InterruptedException e) {
+                attempt.abandon();
+                throw e;
+            }
+        }
+
+        //Counts the abandoned sending of the given emails, returning the ones to be sent again, while the others are given up
+        private List<EmailSchedulingData> toBeRetried(final List<EmailSchedulingData> abandoned) {
+            final List<EmailSchedulingData> retried = new ArrayList<>(abandoned.size());
+            for (final EmailSchedulingData emailSchedulingData : abandoned) {
+                final int attempts = abandonedSendings.merge(emailSchedulingData.getId(), 1, Integer::sum);
+                if (attempts < sendMaxAttempts) {
+                    retried.add(emailSchedulingData);
+                } else {
+                    abandonedSendings.remove(emailSchedulingData.getId());
+                    sentAfterAbandon.remove(emailSchedulingData.getId());
+                    log.error("Email scheduling data {} not sent, since its sending was abandoned {} times.", emailSchedulingData, attempts);
+                }
+            }
+            return retried;
+        }
+
+        //The abandoned emails are kept in the persistence layer, if any, and queued again after a delay doubling at every attempt
+        private void retry(final List<EmailSchedulingData> retried) {
+            if (retried.isEmpty()) {
+                return;
+            }
+            log.warn("The sending of {} emails did not complete in time, they are scheduled again.", retried.size());
+            for (final EmailSchedulingData emailSchedulingData : retried) {
+                if (sentAfterAbandon.remove(emailSchedulingData.getId())) {
+                    completeAbandonedSending(emailSchedulingData);
+                    continue;
+                }
+                final int attempts = abandonedSendings.getOrDefault(emailSchedulingData.getId(), 1);
+                final long delayMillis = sendRetryBackoffMillis << min(attempts - 1, MAX_RETRY_BACKOFF_DOUBLINGS);
+                awaitingRetry.put(emailSchedulingData.getId(), emailSchedulingData);
+                try {
+                    retryExecutor.schedule(() -> enqueueRetry(emailSchedulingData), delayMillis, TimeUnit.MILLISECONDS);
+                } catch (final RejectedExecutionException e) {
+                    //Closing, the email is kept in the persistence layer or written to the snapshot
+                }
+            }
+        }
+
+        private void enqueueRetry(final EmailSchedulingData emailSchedulingData) {
+            if (serviceStatus != ServiceStatus.RUNNING || isNull(awaitingRetry.get(emailSchedulingData.getId()))) {
+                return;
+            }
+            //The abandoned sending may have completed meanwhile, as told by itself or by the sent-history
+            if (sentAfterAbandon.remove(emailSchedulingData.getId()) || isSent(emailSchedulingData)) {
+                if (nonNull(awaitingRetry.remove(emailSchedulingData.getId()))) {
+                    completeAbandonedSending(emailSchedulingData);
+                }
+                return;
+            }
+            synchronized (PriorityQueueEmailSchedulerService.this) {
+                enqueueFromPersistenceLayer(emailSchedulingData);
+                completeEnqueue();
+            }
+            awaitingRetry.remove(emailSchedulingData.getId());
+            notifyConsumerIfCouldFire(TimeUtils.offsetDateTimeNow());
+        }
+
+        //Called by the abandoned sending once completed, which may be before or after its emails are scheduled again
+        private void onSentAfterAbandon(final List<EmailSchedulingData> sent) {
+            for (final EmailSchedulingData emailSchedulingData : sent) {
+                sentAfterAbandon.add(emailSchedulingData.getId());
+                if (nonNull(awaitingRetry.remove(emailSchedulingData.getId()))) {
+                    sentAfterAbandon.remove(emailSchedulingData.getId());
+                    completeAbandonedSending(emailSchedulingData);
+                }
+            }
+        }
+
+        private void completeAbandonedSending(final EmailSchedulingData emailSchedulingData) {
+            log.info("Email scheduling data {} not sent again, since its abandoned sending completed.", emailSchedulingData);
+            abandonedSendings.remove(emailSchedulingData.getId());
+            if (serviceStatus == ServiceStatus.RUNNING) {
+                persistenceServiceOptional.ifPresent(
+                        persistenceService -> removeFromPersistenceLayer(persistenceService, singletonList(emailSchedulingData)));
+            }
+        }
+
+        private void forgetAbandonedSendings(final List<EmailSchedulingData> sent) {
+            if (!abandonedSendings.isEmpty()) {
+                sent.forEach(emailSchedulingData -> abandonedSendings.remove(emailSchedulingData.getId()));
+            }
+        }
+
+        private List<EmailSchedulingData> without(final List<EmailSchedulingData> emailSchedulingDataList,
+                                                  final List<EmailSchedulingData> excluded) {
+            return emailSchedulingDataList.stream()
+                    .filter(emailSchedulingData -> !excluded.contains(emailSchedulingData))
+                    .collect(Collectors.toList());
+        }
+
+        private void completeSending(final List<EmailSchedulingData> emailSchedulingDataList) {
+            if (enabled() && !persistenceServiceOptional.isPresent()) {
+                priorityQueueManager.completeDequeue();
+            }
+
+            if (enabled()) deleteFromPersistenceLayer(emailSchedulingDataList);
+        }
+
+        private List<EmailSchedulingData> notSentYet(final List<EmailSchedulingData> emailSchedulingDataList) {
+            final List<EmailSchedulingData> toBeSent = new ArrayList<>(emailSchedulingDataList.size());
+            for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+                if (isSent(emailSchedulingData)) {
+                    log.info("Email scheduling data {} not sent, since it was already sent.", emailSchedulingData);
+                } else {
+                    toBeSent.add(emailSchedulingData);
+                }
+            }
+            return toBeSent;
+        }
+
+        private List<Exception> send(final EmailSchedulingData emailSchedulingData) {
+            final Optional<String> sentHistoryKey = sentHistoryKey(emailSchedulingData);
+            if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+                final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+                try {
+                    emailService.send(emailTemplateSchedulingData.getEmail(),
+                            emailTemplateSchedulingData.getTemplate(),
+                            emailTemplateSchedulingData.getModelObject(),
+                            emailTemplateSchedulingData.getInlinePictures());
+                    sentHistoryKey.ifPresent(key -> sentEmailHistoryOptional.get().markSent(key));
+                } catch (final CannotSendEmailException e) {
+                    log.error("An error occurred while sending the email", e);
+                    return singletonList(e);
+                }
+            } else {
+                emailService.send(emailSchedulingData.getEmail());
+                sentHistoryKey.ifPresent(key -> sentEmailHistoryOptional.get().markSent(key));
+            }
+            return emptyList();
+        }
+
+        private List<Exception> sendAll(final List<EmailSchedulingData> emailSchedulingDataList) {
+            final List<Exception> failures = new ArrayList<>();
+            //Emails sharing the same template, model object and inline pictures go through the same call
+            final Map<List<Object>, List<EmailSchedulingData>> groups = emailSchedulingDataList.stream()
+                    .collect(Collectors.groupingBy(this::sendingGroup, LinkedHashMap::new, Collectors.toList()));
+            for (final List<EmailSchedulingData> group : groups.values()) {
+                final List<Email> emails = group.stream()
+                        .map(EmailSchedulingData::getEmail)
+                        .collect(Collectors.toList());
+                final List<EmailSendResult> results;
+                if (group.get(0) instanceof TemplateEmailSchedulingData) {
+                    final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) group.get(0);
+                    results = emailService.sendAll(emails,
+                            emailTemplateSchedulingData.getTemplate(),
+                            emailTemplateSchedulingData.getModelObject(),
+                            emailTemplateSchedulingData.getInlinePictures());
+                } else {
+                    results = emailService.sendAll(emails);
+                }
+                for (int i = 0; i < results.size(); i++) {
+                    final EmailSendResult result = results.get(i);
+                    if (result.isSent()) {
+                        sentHistoryKey(group.get(i)).ifPresent(key -> sentEmailHistoryOptional.get().markSent(key));
+                    } else {
+                        log.error("An error occurred while sending the email", result.getException());
+                        failures.add(result.getException());
+                    }
+                }
+            }
+            return failures;
+        }
+
+        private List<Object> sendingGroup(final EmailSchedulingData emailSchedulingData) {
+            if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+                final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+                return Arrays.asList(emailTemplateSchedulingData.getTemplate(),
+                        emailTemplateSchedulingData.getModelObject(),
+                        Arrays.asList(emailTemplateSchedulingData.getInlinePictures()));
+            }
+            return emptyList();
+        }
+
         public boolean enabled() {
             return serviceStatus == ServiceStatus.RUNNING && !isInterrupted();
         }
@@ -498,6 +1149,49 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
             }
         }
 
+        private boolean isSent(final EmailSchedulingData emailSchedulingData) {
+            final Optional<String> sentHistoryKey = sentHistoryKey(emailSchedulingData);
+            return sentHistoryKey.isPresent() && sentEmailHistoryOptional.get().isSent(sentHistoryKey.get());
+        }
+
+        //Sending of emails that may complete after being abandoned, in which case it is reported to the consumer
+        private final class SendAttempt {
+
+            private final List<EmailSchedulingData> toBeSent;
+
+            //Guarded by this
+            private boolean abandoned;
+            private boolean sent;
+
+            private SendAttempt(final List<EmailSchedulingData> toBeSent) {
+                this.toBeSent = toBeSent;
+            }
+
+            private List<Exception> send() {
+                final List<Exception> failures = toBeSent.size() == 1 ? Consumer.this.send(toBeSent.get(0)) : sendAll(toBeSent);
+                synchronized (this) {
+                    sent = failures.isEmpty();
+                    if (!abandoned || !sent) {
+                        return failures;
+                    }
+                }
+                onSentAfterAbandon(toBeSent);
+                return failures;
+            }
+
+            //The sending may have completed right after the deadline, before being abandoned
+            private void abandon() {
+                synchronized (this) {
+                    abandoned = true;
+                    if (!sent) {
+                        return;
+                    }
+                }
+                onSentAfterAbandon(toBeSent);
+            }
+
+        }
+
     }
 
     private class Resumer extends Thread {
@@ -523,6 +1217,7 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
                         }
                     } catch (final InterruptedException e) {
                         log.error("Email scheduler consumer interrupted", e);
+                        interrupt();
                     }
                 }
                 log.info("Email scheduler resumer stopped");
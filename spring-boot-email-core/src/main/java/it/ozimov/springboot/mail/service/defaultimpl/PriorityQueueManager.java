@@ -27,7 +27,10 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeSet;
@@ -37,6 +40,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
 
+import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparing;
 
 @Slf4j
@@ -163,6 +167,15 @@ public class PriorityQueueManager implements Closeable {
     }
 
     public Optional<EmailSchedulingData> dequeueNext(final Duration consumerCycle) {
+        return dequeueNext(consumerCycle, 1).stream().findFirst();
+    }
+
+    /**
+     * Dequeue up to the given number of emails due within the given consumer cycle, highest priority first.
+     * When the returned list is not empty, the lock is kept and {@link #completeDequeue()} must be called once
+     * all of them have been handled.
+     */
+    public List<EmailSchedulingData> dequeueNext(final Duration consumerCycle, final int maxSize) {
         log.debug("Called Dequeue [currently queued = {}]", currentlyInQueue());
         queueLock.lock();
         try {
@@ -177,15 +190,13 @@ public class PriorityQueueManager implements Closeable {
             }
             if (isCurrentOperationDequeuing() && !isCurrentOperationClosing()) {
                 final long now = TimeUtils.now();
-                for (final TreeSet<EmailSchedulingData> queue : queues) {
-                    if (!queue.isEmpty()) {
-                        final long time = queue.first().getScheduledDateTime().toInstant().toEpochMilli();
-                        if (time - now <= consumerCycle.toMillis()) {
-                            //message found!
-                            currentlyQueued--;
-                            return Optional.of(queue.pollFirst());
-                        }
-                    }
+                final List<EmailSchedulingData> dequeued = new ArrayList<>();
+                Optional<EmailSchedulingData> next;
+                while (dequeued.size() < maxSize && (next = pollDue(now, consumerCycle)).isPresent()) {
+                    dequeued.add(next.get());
+                }
+                if (!dequeued.isEmpty()) {
+                    return dequeued;
                 }
             }
         } catch (InterruptedException e) {
@@ -196,12 +207,26 @@ public class PriorityQueueManager implements Closeable {
         }
 
         try {
-            return Optional.empty();
+            return emptyList();
         } finally {
             completeDequeue();
         }
     }
 
+    private Optional<EmailSchedulingData> pollDue(final long now, final Duration consumerCycle) {
+        for (final TreeSet<EmailSchedulingData> queue : queues) {
+            if (!queue.isEmpty()) {
+                final long time = queue.first().getScheduledDateTime().toInstant().toEpochMilli();
+                if (time - now <= consumerCycle.toMillis()) {
+                    //message found!
+                    currentlyQueued--;
+                    return Optional.of(queue.pollFirst());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
     public void completeDequeue() {
         try {
             if (!isCurrentOperationClosing()) {
@@ -314,6 +339,18 @@ public class PriorityQueueManager implements Closeable {
                 .filter(Objects::nonNull);
     }
 
+    /**
+     * Return an iterator over the emails still queued, from the highest priority level. Meant to be used once the
+     * manager is closed, since the queues are not locked while iterating.
+     *
+     * @return the iterator over the queued emails.
+     */
+    public Iterator<EmailSchedulingData> queuedIterator() {
+        return Arrays.stream(queues)
+                .flatMap(TreeSet::stream)
+                .iterator();
+    }
+
     @Override
     public void close() throws IOException {
         if (currentOperationLock.isWriteLocked()) {
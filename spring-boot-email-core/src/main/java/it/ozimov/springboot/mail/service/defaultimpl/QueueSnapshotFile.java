@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.io.ByteStreams;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Snapshot file of the emails queued in memory by the scheduler, used to carry them over a restart when there is no
+ * persistence layer.
+ * <p>
+ * The snapshot is a GZIP compressed sequence of length-prefixed serialized {@linkplain EmailSchedulingData}, closed by
+ * an end marker. It is written to a temporary file that replaces the snapshot only once complete, and read one email
+ * at a time, so that neither writing nor reading holds a copy of the queues in memory. A snapshot is deleted once
+ * restored, so that the same emails are not restored twice.
+ * </p>
+ */
+@Slf4j
+public class QueueSnapshotFile {
+
+    private static final int MAGIC = 0x454D5153;
+
+    private static final int VERSION = 1;
+
+    private static final int END_OF_SNAPSHOT = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Getter
+    private final Path path;
+
+    private final SerializingConverter serializingConverter = new SerializingConverter();
+
+    private final DeserializingConverter deserializingConverter = new DeserializingConverter();
+
+    public QueueSnapshotFile(@NonNull final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Write the given emails to the snapshot, replacing the previous one.
+     *
+     * @param emailSchedulingDataIterator the emails to be written.
+     * @return the number of emails written.
+     */
+    public int write(@NonNull final Iterator<EmailSchedulingData> emailSchedulingDataIterator) {
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        int written = 0;
+        try {
+            if (nonNull(path.getParent())) {
+                Files.createDirectories(path.getParent());
+            }
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temporaryPath), BUFFER_SIZE), BUFFER_SIZE))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                while (emailSchedulingDataIterator.hasNext()) {
+                    final byte[] payload = serializingConverter.convert(emailSchedulingDataIterator.next());
+                    output.writeInt(payload.length);
+                    output.write(payload);
+                    written++;
+                }
+                output.writeInt(END_OF_SNAPSHOT);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the snapshot of the queued emails to " + path, e);
+        }
+        return written;
+    }
+
+    /**
+     * Read the emails in the snapshot, if any, and delete it.
+     * <p>
+     * If the snapshot is truncated, the emails read before the truncation are still restored. If the snapshot is
+     * corrupt, the emails read before the corruption are restored as well, while the snapshot is moved aside, so that
+     * it can be inspected, and skipped.
+     * </p>
+     *
+     * @param restorer the consumer of every email read.
+     * @return the number of emails read.
+     */
+    public int restore(@NonNull final Consumer<EmailSchedulingData> restorer) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int read = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a snapshot of the queued emails");
+            }
+            int length;
+            while ((length = input.readInt()) != END_OF_SNAPSHOT) {
+                restorer.accept(readEmailSchedulingData(input, length));
+                read++;
+            }
+        } catch (EOFException e) {
+            log.warn("The snapshot of the queued emails {} is truncated, restored {} emails.", path, read);
+        } catch (IOException e) {
+            moveAside(read, e);
+            return read;
+        }
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete the restored snapshot of the queued emails " + path, e);
+        }
+        return read;
+    }
+
+    private EmailSchedulingData readEmailSchedulingData(final DataInputStream input, final int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length " + length + " of a queued email");
+        }
+        //Read without trusting the length to allocate, since a corrupt length may be huge
+        final byte[] payload = ByteStreams.toByteArray(ByteStreams.limit(input, length));
+        if (payload.length < length) {
+            throw new EOFException();
+        }
+        try {
+            return (EmailSchedulingData) deserializingConverter.convert(payload);
+        } catch (SerializationFailedException | ClassCastException e) {
+            throw new IOException("Cannot deserialize a queued email", e);
+        }
+    }
+
+    private void moveAside(final int read, final IOException cause) {
+        final Path corruptPath = path.resolveSibling(path.getFileName() + ".corrupt");
+        try {
+            Files.move(path, corruptPath, StandardCopyOption.REPLACE_EXISTING);
+            log.error("The snapshot of the queued emails {} is corrupt, restored {} emails and moved it to {}.",
+                    path, read, corruptPath, cause);
+        } catch (IOException e) {
+            log.error("The snapshot of the queued emails {} is corrupt, restored {} emails but cannot move it to {}.",
+                    path, read, corruptPath, cause);
+            //The restored emails must not be restored again on the next start
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException deletionException) {
+                throw new UncheckedIOException("Cannot delete the corrupt snapshot of the queued emails " + path, deletionException);
+            }
+        }
+    }
+
+}
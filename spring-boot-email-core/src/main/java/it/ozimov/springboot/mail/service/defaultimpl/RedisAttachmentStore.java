@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.StreamingEmailAttachment;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Content-addressed store for the attachments of the persisted emails.
+ * <p>
+ * The content of each attachment is stored once under the SHA-256 hash of its bytes, together with the set of
+ * the ids of the emails referencing it. Using a set rather than a counter keeps retaining and releasing idempotent
+ * when the same email is persisted or removed more than once. The content is deleted when the last reference is
+ * released.
+ * </p>
+ * <p>
+ * The streamed attachments read from a file are persisted with the path of the file, hence they are neither read nor
+ * stored. The other streamed attachments are read once, since their content is persisted anyway.
+ * </p>
+ */
+@Slf4j
+public class RedisAttachmentStore {
+
+    private static final byte[] RETAIN_SCRIPT = ("" +
+            "if redis.call('EXISTS', KEYS[1]) == 0 then " +
+            "  if #ARGV < 2 then return 0 end " +
+            "  redis.call('SET', KEYS[1], ARGV[2]) " +
+            "end " +
+            "redis.call('SADD', KEYS[2], ARGV[1]) " +
+            "return 1").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] RELEASE_SCRIPT = ("" +
+            "redis.call('SREM', KEYS[2], ARGV[1]) " +
+            "if redis.call('SCARD', KEYS[2]) == 0 then " +
+            "  redis.call('DEL', KEYS[1]) " +
+            "  return 1 " +
+            "end " +
+            "return 0").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, ?> template;
+
+    private final RedisKeyLayout keyLayout;
+
+    //Attachments shared by many emails are usually the same array, so the hash is computed once
+    private final Cache<byte[], String> contentHashes = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(1_000)
+            .build();
+
+    public RedisAttachmentStore(@NonNull final RedisTemplate<String, ?> template) {
+        this(template, RedisKeyLayout.defaultLayout());
+    }
+
+    public RedisAttachmentStore(@NonNull final RedisTemplate<String, ?> template, @NonNull final RedisKeyLayout keyLayout) {
+        this.template = template;
+        this.keyLayout = keyLayout;
+    }
+
+    public String contentHash(@NonNull final byte[] content) {
+        try {
+            return contentHashes.get(content, () -> Hashing.sha256().hashBytes(content).toString());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot compute the hash of the attachment content", e.getCause());
+        }
+    }
+
+    /**
+     * Store the content of the attachments of the given email, if not yet stored, and add the email to the
+     * references of each content.
+     *
+     * @param emailSchedulingData the email whose attachments are retained
+     */
+    public void retain(@NonNull final EmailSchedulingData emailSchedulingData) {
+        final byte[] emailId = bytes(emailSchedulingData.getId());
+        for (final EmailAttachment attachment : attachments(emailSchedulingData)) {
+            if (isPersistedByPath(attachment)) {
+                continue;
+            }
+            final boolean isReference = attachment instanceof ReferencedEmailAttachment;
+            final String contentHash = isReference ?
+                    ((ReferencedEmailAttachment) attachment).getContentHash() : contentHash(attachment.getAttachmentData());
+            final byte[] blobKey = bytes(keyLayout.attachmentKey(contentHash));
+            final byte[] referencesKey = bytes(keyLayout.attachmentReferencesKey(contentHash));
+
+            //The content is sent only when missing, so that a shared attachment travels once
+            Long retained = template.execute((RedisCallback<Long>) connection ->
+                    connection.eval(RETAIN_SCRIPT, ReturnType.INTEGER, 2, blobKey, referencesKey, emailId));
+            if (isNull(retained) || retained == 0) {
+                final byte[] content = attachment.getAttachmentData();
+                template.execute((RedisCallback<Long>) connection ->
+                        connection.eval(RETAIN_SCRIPT, ReturnType.INTEGER, 2, blobKey, referencesKey, emailId, content));
+            }
+        }
+    }
+
+    /**
+     * Remove the given email from the references of the content of its attachments, deleting the contents
+     * no longer referenced.
+     *
+     * @param emailSchedulingData the email whose attachments are released
+     */
+    public void release(@NonNull final EmailSchedulingData emailSchedulingData) {
+        final byte[] emailId = bytes(emailSchedulingData.getId());
+        for (final EmailAttachment attachment : attachments(emailSchedulingData)) {
+            if (isPersistedByPath(attachment)) {
+                continue;
+            }
+            if (!(attachment instanceof ReferencedEmailAttachment)) {
+                log.warn("Attachment {} of email with id {} was not persisted in the attachment store.",
+                        attachment.getAttachmentName(), emailSchedulingData.getId());
+                continue;
+            }
+            final String contentHash = ((ReferencedEmailAttachment) attachment).getContentHash();
+            final byte[] blobKey = bytes(keyLayout.attachmentKey(contentHash));
+            final byte[] referencesKey = bytes(keyLayout.attachmentReferencesKey(contentHash));
+
+            template.execute((RedisCallback<Long>) connection ->
+                    connection.eval(RELEASE_SCRIPT, ReturnType.INTEGER, 2, blobKey, referencesKey, emailId));
+        }
+    }
+
+    public byte[] load(@NonNull final String contentHash) {
+        final byte[] blobKey = bytes(keyLayout.attachmentKey(contentHash));
+        return template.execute((RedisCallback<byte[]>) connection -> connection.get(blobKey));
+    }
+
+    public void releaseAll() {
+        final Set<byte[]> keys = template.execute((RedisCallback<Set<byte[]>>) connection -> {
+            final Set<byte[]> allKeys = connection.keys(bytes(keyLayout.attachmentKeyPattern()));
+            allKeys.addAll(connection.keys(bytes(keyLayout.attachmentReferencesKeyPattern())));
+            return allKeys;
+        });
+        if (!keys.isEmpty()) {
+            template.execute((RedisCallback<Long>) connection -> connection.del(keys.toArray(new byte[keys.size()][])));
+        }
+    }
+
+    /**
+     * Return whether the given attachment is persisted with the path of its file rather than with its content, so that
+     * it is left out of the store.
+     *
+     * @param attachment the attachment.
+     * @return {@code true} if the attachment is streamed from a file.
+     */
+    static boolean isPersistedByPath(final EmailAttachment attachment) {
+        return attachment.isStreamed() && attachment instanceof StreamingEmailAttachment
+                && nonNull(((StreamingEmailAttachment) attachment).getFile());
+    }
+
+    private static Collection<EmailAttachment> attachments(final EmailSchedulingData emailSchedulingData) {
+        final Collection<EmailAttachment> attachments = emailSchedulingData.getEmail().getAttachments();
+        return isNull(attachments) ? Collections.emptyList() : attachments;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
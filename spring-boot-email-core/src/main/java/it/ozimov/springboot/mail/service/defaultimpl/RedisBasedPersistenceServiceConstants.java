@@ -19,11 +19,29 @@ package it.ozimov.springboot.mail.service.defaultimpl;
 import com.google.common.base.Preconditions;
 import lombok.experimental.UtilityClass;
 
+import static com.google.common.base.Strings.isNullOrEmpty;
+
 @UtilityClass
 public class RedisBasedPersistenceServiceConstants {
 
     public static final String ORDERING_KEY_PREFIX = "priority-level:";
 
+    public static final String IN_FLIGHT_KEY = "in-flight";
+
+    public static final String IN_FLIGHT_ORIGIN_KEY = "in-flight-origin";
+
+    public static final String ATTACHMENT_KEY_PREFIX = "attachment:";
+
+    public static final String ATTACHMENT_REFERENCES_KEY_PREFIX = "attachment-references:";
+
+    public static final String SENT_HISTORY_KEY_PREFIX = "sent-history:";
+
+    public static final String STREAM_KEY_PREFIX = "stream:priority-level:";
+
+    public static final String DELAYED_KEY_PREFIX = "delayed:priority-level:";
+
+    public static final String STREAM_ENTRIES_KEY = "stream-entries";
+
     public static final String orderingKey(final int priorityLevel) {
         Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
         return orderingKeyPrefix() + priorityLevel;
@@ -33,4 +51,29 @@ public class RedisBasedPersistenceServiceConstants {
         return ORDERING_KEY_PREFIX;
     }
 
+    public static final String streamKey(final int priorityLevel) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+        return STREAM_KEY_PREFIX + priorityLevel;
+    }
+
+    public static final String delayedKey(final int priorityLevel) {
+        Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
+        return DELAYED_KEY_PREFIX + priorityLevel;
+    }
+
+    public static final String attachmentKey(final String contentHash) {
+        Preconditions.checkArgument(!isNullOrEmpty(contentHash), "Content hash must be a non empty string");
+        return ATTACHMENT_KEY_PREFIX + contentHash;
+    }
+
+    public static final String attachmentReferencesKey(final String contentHash) {
+        Preconditions.checkArgument(!isNullOrEmpty(contentHash), "Content hash must be a non empty string");
+        return ATTACHMENT_REFERENCES_KEY_PREFIX + contentHash;
+    }
+
+    public static final String sentHistoryKey(final String key) {
+        Preconditions.checkArgument(!isNullOrEmpty(key), "Sent-history key must be a non empty string");
+        return SENT_HISTORY_KEY_PREFIX + key;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Layout of the REDIS keys used by {@linkplain DefaultPersistenceService}, {@linkplain RedisStreamsPersistenceService},
+ * {@linkplain RedisAttachmentStore} and {@linkplain RedisSentEmailHistory}.
+ * <p>
+ * All the keys can be prefixed by a namespace, so that the same REDIS instance can be shared with other applications.
+ * When a positive number of partitions is given, each email is assigned to a partition by hashing its id and every
+ * key of a partition carries the same hash tag, e.g. {@code namespace:{3}:priority-level:1}. Hence, on REDIS Cluster
+ * the ordering sets, the in-flight sets and the values of a partition are in the same slot, where the scripted and
+ * multi-key operations can run, while different partitions can be placed on different nodes. The attachment keys
+ * are tagged with the content hash instead.
+ * </p>
+ * <p>
+ * With no namespace and no partitions the layout produces the keys used by the previous versions.
+ * </p>
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class RedisKeyLayout {
+
+    private static final String SEPARATOR = ":";
+
+    private final String namespace;
+
+    private final int partitions;
+
+    public RedisKeyLayout(final String namespace, final int partitions) {
+        Preconditions.checkArgument(partitions >= 0, "Number of partitions should be a non negative number, while %s was given", partitions);
+        Preconditions.checkArgument(isNullOrEmpty(namespace) || !(namespace.contains("{") || namespace.contains("}")),
+                "Namespace should not contain hash tags, while %s was given", namespace);
+        this.namespace = isNullOrEmpty(namespace) ? "" : namespace;
+        this.partitions = partitions;
+    }
+
+    public static RedisKeyLayout defaultLayout() {
+        return new RedisKeyLayout("", 0);
+    }
+
+    public boolean isHashTagged() {
+        return partitions > 0;
+    }
+
+    /**
+     * Return the indexes of all the partitions, i.e. the single partition {@code 0} if the layout is not hash tagged.
+     *
+     * @return the indexes of the partitions.
+     */
+    public IntStream partitionIndexes() {
+        return IntStream.range(0, Math.max(1, partitions));
+    }
+
+    public int partition(@NonNull final String id) {
+        if (!isHashTagged()) {
+            return 0;
+        }
+        return Math.floorMod(Hashing.murmur3_32().hashString(id, StandardCharsets.UTF_8).asInt(), partitions);
+    }
+
+    public String valueKey(@NonNull final String id) {
+        return valueKeyPrefix(partition(id)) + id;
+    }
+
+    /**
+     * Return the prefix of the value keys in the given partition, i.e. the value key of an email is the prefix
+     * of its partition followed by its id.
+     *
+     * @param partition the index of the partition.
+     * @return the prefix of the value keys.
+     */
+    public String valueKeyPrefix(final int partition) {
+        return partitionPrefix(partition);
+    }
+
+    public String orderingKey(final int partition, final int priorityLevel) {
+        return partitionPrefix(partition) + RedisBasedPersistenceServiceConstants.orderingKey(priorityLevel);
+    }
+
+    public String inFlightKey(final int partition) {
+        return partitionPrefix(partition) + RedisBasedPersistenceServiceConstants.IN_FLIGHT_KEY;
+    }
+
+    public String inFlightOriginKey(final int partition) {
+        return partitionPrefix(partition) + RedisBasedPersistenceServiceConstants.IN_FLIGHT_ORIGIN_KEY;
+    }
+
+    public String streamKey(final int priorityLevel) {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.streamKey(priorityLevel);
+    }
+
+    public String delayedKey(final int priorityLevel) {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.delayedKey(priorityLevel);
+    }
+
+    public String streamEntriesKey() {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.STREAM_ENTRIES_KEY;
+    }
+
+    public String attachmentKey(@NonNull final String contentHash) {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.attachmentKey(hashTagged(contentHash));
+    }
+
+    public String attachmentReferencesKey(@NonNull final String contentHash) {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.attachmentReferencesKey(hashTagged(contentHash));
+    }
+
+    public String sentHistoryKey(@NonNull final String key) {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.sentHistoryKey(key);
+    }
+
+    public String attachmentKeyPattern() {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.ATTACHMENT_KEY_PREFIX + "*";
+    }
+
+    public String attachmentReferencesKeyPattern() {
+        return namespacePrefix() + RedisBasedPersistenceServiceConstants.ATTACHMENT_REFERENCES_KEY_PREFIX + "*";
+    }
+
+    private String partitionPrefix(final int partition) {
+        Preconditions.checkArgument(partition >= 0 && partition < Math.max(1, partitions),
+                "Partition should be between 0 and %s, while %s was given", Math.max(1, partitions) - 1, partition);
+        return namespacePrefix() + (isHashTagged() ? "{" + partition + "}" + SEPARATOR : "");
+    }
+
+    private String namespacePrefix() {
+        return namespace.isEmpty() ? "" : namespace + SEPARATOR;
+    }
+
+    private String hashTagged(final String value) {
+        return isHashTagged() ? "{" + value + "}" : value;
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import it.ozimov.springboot.mail.service.SentEmailHistory;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SENT_HISTORY_IS_ENABLED_WITH_REDIS;
+
+/**
+ * {@linkplain SentEmailHistory} kept in REDIS, so that the keys survive a restart and are shared by all the instances
+ * using the same REDIS. Every key is stored under its own REDIS key expiring after the time to live, written with a
+ * single command, hence the history is bounded by the time to live.
+ */
+@Service("redisSentEmailHistory")
+@ConditionalOnExpression(SENT_HISTORY_IS_ENABLED_WITH_REDIS)
+public class RedisSentEmailHistory implements SentEmailHistory {
+
+    private static final String SENT_HISTORY_TTL_MILLIS = "${" + SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS + ":86400000}";
+
+    private static final String REDIS_NAMESPACE = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE + ":}";
+
+    private static final String ADMITTED = "admitted";
+
+    private static final String SENT = "sent";
+
+    // KEYS: sent-history key; ARGV: value, time to live in milliseconds. Returns 1 if the key was not set
+    private static final byte[] ADMIT_SCRIPT = ("" +
+            "if redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2], 'NX') then return 1 end " +
+            "return 0").getBytes(StandardCharsets.UTF_8);
+
+    private final StringRedisTemplate template;
+
+    private final RedisKeyLayout keyLayout;
+
+    private final Duration ttl;
+
+    @Autowired
+    public RedisSentEmailHistory(@Qualifier("orderingTemplate") @NonNull final StringRedisTemplate template,
+                                 @Value(SENT_HISTORY_TTL_MILLIS) final long ttlMillis,
+                                 @Value(REDIS_NAMESPACE) final String namespace) {
+        this(template, Duration.ofMillis(ttlMillis), new RedisKeyLayout(namespace, 0));
+    }
+
+    public RedisSentEmailHistory(@NonNull final StringRedisTemplate template,
+                                 @NonNull final Duration ttl,
+                                 @NonNull final RedisKeyLayout keyLayout) {
+        Preconditions.checkArgument(!ttl.isNegative() && !ttl.isZero(), "Time to live should be positive, while %s was given", ttl);
+        this.template = template;
+        this.keyLayout = keyLayout;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public boolean admit(@NonNull final String key) {
+        final byte[][] keysAndArgs = {bytes(keyLayout.sentHistoryKey(key)), bytes(ADMITTED), bytes(String.valueOf(ttl.toMillis()))};
+        final Long admitted = template.execute((RedisCallback<Long>) connection ->
+                connection.eval(ADMIT_SCRIPT, ReturnType.INTEGER, 1, keysAndArgs));
+        return Long.valueOf(1).equals(admitted);
+    }
+
+    @Override
+    public boolean isSent(@NonNull final String key) {
+        return SENT.equals(template.opsForValue().get(keyLayout.sentHistoryKey(key)));
+    }
+
+    @Override
+    public void markSent(@NonNull final String key) {
+        template.opsForValue().set(keyLayout.sentHistoryKey(key), SENT, ttl.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.ClaimingPersistenceService;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_CONSUMER_GROUP;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED_WITH_REDIS_STREAMS;
+import static java.util.Objects.isNull;
+
+/**
+ * {@linkplain ClaimingPersistenceService} storing the {@linkplain EmailSchedulingData} in REDIS Streams, one stream per
+ * priority level, read through a consumer group.
+ * <p>
+ * An email due when added is appended to the stream of its priority level, while an email scheduled in the future is
+ * kept in a delayed sorted set of its priority level, scored by scheduled time, and promoted into the stream once due
+ * by the claim. The claim reads the new entries with {@code XREADGROUP}, so that every email is delivered to a single
+ * node, and takes over with {@code XAUTOCLAIM} the pending entries not acknowledged within the claim timeout, e.g. the
+ * ones delivered to a node that crashed: the emails are delivered at least once. Acknowledging an email acknowledges
+ * and deletes its stream entry. The payload of every email is kept in its own value key, so that it can be read and
+ * removed by id.
+ * </p>
+ * <p>
+ * Every command is issued by a script, since the REDIS clients in use do not support the commands of the streams,
+ * hence adding or acknowledging a chunk of emails and claiming a batch cost a single round trip each. Both
+ * {@code XAUTOCLAIM} and {@code XREADGROUP} within scripts require REDIS 6.2 or later, which is checked on creation.
+ * All the keys are accessed by the same scripts, so on REDIS Cluster they must be in the same slot: the keys are
+ * prefixed by the namespace, but not partitioned.
+ * </p>
+ */
+@Service("redisStreamsEmailPersistenceService")
+@ConditionalOnExpression(PERSISTENCE_IS_ENABLED_WITH_REDIS_STREAMS)
+public class RedisStreamsPersistenceService implements ClaimingPersistenceService {
+
+    private static final String REDIS_COMPRESSION = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION + ":NONE}";
+
+    private static final String REDIS_COMPRESSION_THRESHOLD = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD + ":1024}";
+
+    private static final String REDIS_NAMESPACE = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE + ":}";
+
+    private static final String CONSUMER_GROUP = "${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_CONSUMER_GROUP + ":email-scheduler}";
+
+    private static final String PRIORITY_LEVELS = "${" + SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS + ":10}";
+
+    private static final int DEFAULT_PRIORITY_LEVELS = 10;
+
+    private static final int CHUNK_SIZE = 500;
+
+    //XAUTOCLAIM is available since REDIS 6.2, as well as XREADGROUP within scripts
+    private static final int MIN_MAJOR_VERSION = 6;
+
+    private static final int MIN_MINOR_VERSION = 2;
+
+    //The keys of the scripts below are the streams by priority level, then the delayed sets by priority level, then
+    //the hash of the stream entries, i.e. the priority level and the stream entry id of every id, then the value keys
+
+    // KEYS: streams by priority; ARGV: consumer group
+    private static final byte[] CREATE_GROUPS_SCRIPT = ("" +
+            "for i = 1, #KEYS do " +
+            "  local created = redis.pcall('XGROUP', 'CREATE', KEYS[i], ARGV[1], '0', 'MKSTREAM') " +
+            "  if type(created) == 'table' and created.err and not string.find(created.err, 'BUSYGROUP', 1, true) then " +
+            "    return created " +
+            "  end " +
+            "end " +
+            "return #KEYS").getBytes(StandardCharsets.UTF_8);
+
+    // ARGV: number of priority levels, now, then priority level, score, id and payload of every email
+    // Due emails are appended to their stream, the others wait in their delayed set. An email added again is moved
+    private static final byte[] ENQUEUE_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local entries = KEYS[2 * levels + 1] " +
+            "local count = 0 " +
+            "for k = 3, #ARGV, 4 do " +
+            "  count = count + 1 " +
+            "  local level = tonumber(ARGV[k]) " +
+            "  local id = ARGV[k + 2] " +
+            "  local previous = redis.call('HGET', entries, id) " +
+            "  if previous then " +
+            "    local separator = string.find(previous, ' ', 1, true) " +
+            "    redis.call('XDEL', KEYS[tonumber(string.sub(previous, 1, separator - 1))], string.sub(previous, separator + 1)) " +
+            "    redis.call('HDEL', entries, id) " +
+            "  end " +
+            "  for i = 1, levels do " +
+            "    redis.call('ZREM', KEYS[levels + i], id) " +
+            "  end " +
+            "  redis.call('SET', KEYS[2 * levels + 1 + count], ARGV[k + 3]) " +
+            "  if tonumber(ARGV[k + 1]) <= tonumber(ARGV[2]) then " +
+            "    local entryId = redis.call('XADD', KEYS[level], '*', 'id', id) " +
+            "    redis.call('HSET', entries, id, level .. ' ' .. entryId) " +
+            "  else " +
+            "    redis.call('ZADD', KEYS[levels + level], ARGV[k + 1], id) " +
+            "  end " +
+            "end " +
+            "return count").getBytes(StandardCharsets.UTF_8);
+
+    // ARGV: number of priority levels, consumer group, consumer, due before, batch size, claim timeout in milliseconds
+    // The delayed emails due are promoted into their stream, then the expired pending entries are taken over and
+    // the new entries are read, starting from the highest priority level. The ids of the claimed emails are returned
+    private static final byte[] CLAIM_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local entries = KEYS[2 * levels + 1] " +
+            "local remaining = tonumber(ARGV[5]) " +
+            "local ids = {} " +
+            "local function collect(read) " +
+            "  for _, entry in ipairs(read) do " +
+            "    if type(entry) == 'table' and type(entry[2]) == 'table' then " +
+            "      ids[#ids + 1] = entry[2][2] " +
+            "      remaining = remaining - 1 " +
+            "    end " +
+            "  end " +
+            "end " +
+            "for level = 1, levels do " +
+            "  local due = redis.call('ZRANGEBYSCORE', KEYS[levels + level], '-inf', ARGV[4], 'LIMIT', 0, remaining) " +
+            "  for _, id in ipairs(due) do " +
+            "    local entryId = redis.call('XADD', KEYS[level], '*', 'id', id) " +
+            "    redis.call('HSET', entries, id, level .. ' ' .. entryId) " +
+            "    redis.call('ZREM', KEYS[levels + level], id) " +
+            "  end " +
+            "end " +
+            "for level = 1, levels do " +
+            "  if remaining <= 0 then break end " +
+            "  local expired = redis.call('XAUTOCLAIM', KEYS[level], ARGV[2], ARGV[3], ARGV[6], '0-0', 'COUNT', remaining) " +
+            "  collect(expired[2]) " +
+            "  if remaining > 0 then " +
+            "    local read = redis.call('XREADGROUP', 'GROUP', ARGV[2], ARGV[3], 'COUNT', remaining, 'STREAMS', KEYS[level], '>') " +
+            "    if read then " +
+            "      collect(read[1][2]) " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return ids").getBytes(StandardCharsets.UTF_8);
+
+    // ARGV: number of priority levels, consumer group, then ids
+    // The stream entry of every id is acknowledged and deleted, whether delivered or not
+    private static final byte[] ACK_SCRIPT = ("" +
+            "local levels = tonumber(ARGV[1]) " +
+            "local entries = KEYS[2 * levels + 1] " +
+            "local removed = 0 " +
+            "for k = 3, #ARGV do " +
+            "  local id = ARGV[k] " +
+            "  local entry = redis.call('HGET', entries, id) " +
+            "  if entry then " +
+            "    local separator = string.find(entry, ' ', 1, true) " +
+            "    local stream = KEYS[tonumber(string.sub(entry, 1, separator - 1))] " +
+            "    local entryId = string.sub(entry, separator + 1) " +
+            "    redis.call('XACK', stream, ARGV[2], entryId) " +
+            "    redis.call('XDEL', stream, entryId) " +
+            "    redis.call('HDEL', entries, id) " +
+            "  end " +
+            "  for i = 1, levels do " +
+            "    redis.call('ZREM', KEYS[levels + i], id) " +
+            "  end " +
+            "  removed = removed + redis.call('DEL', KEYS[2 * levels + k - 1]) " +
+            "end " +
+            "return removed").getBytes(StandardCharsets.UTF_8);
+
+    // KEYS: stream and delayed set of a priority level; ARGV: maximum number of ids
+    // The ids in the stream come first, since they were due earlier than the delayed ones
+    private static final byte[] RANGE_SCRIPT = ("" +
+            "local ids = {} " +
+            "for _, entry in ipairs(redis.call('XRANGE', KEYS[1], '-', '+', 'COUNT', ARGV[1])) do " +
+            "  ids[#ids + 1] = entry[2][2] " +
+            "end " +
+            "for _, id in ipairs(redis.call('ZRANGE', KEYS[2], 0, tonumber(ARGV[1]) - 1)) do " +
+            "  ids[#ids + 1] = id " +
+            "end " +
+            "return ids").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, EmailSchedulingData> valueTemplate;
+    private final RedisKeyLayout keyLayout;
+    private final int priorityLevels;
+    private final String consumerGroup;
+
+    //Every instance is a distinct consumer, whose pending entries are taken over by the others if it stops
+    private final String consumer = "consumer-" + UUID.randomUUID();
+
+    public RedisStreamsPersistenceService(@NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate) {
+        this(valueTemplate, PayloadCompression.NONE, 0, DEFAULT_PRIORITY_LEVELS, "", "email-scheduler");
+    }
+
+    @Autowired
+    public RedisStreamsPersistenceService(@Qualifier("valueTemplate") @NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate,
+                                          @Value(REDIS_COMPRESSION) @NonNull final PayloadCompression compression,
+                                          @Value(REDIS_COMPRESSION_THRESHOLD) final int compressionThreshold,
+                                          @Value(PRIORITY_LEVELS) final int priorityLevels,
+                                          @Value(REDIS_NAMESPACE) final String namespace,
+                                          @Value(CONSUMER_GROUP) @NonNull final String consumerGroup) {
+        Preconditions.checkArgument(priorityLevels > 0, "Number of priority levels should be a positive number, while %s was given", priorityLevels);
+        Preconditions.checkArgument(!consumerGroup.isEmpty(), "Consumer group should not be empty");
+        this.priorityLevels = priorityLevels;
+        this.keyLayout = new RedisKeyLayout(namespace, 0);
+        this.consumerGroup = consumerGroup;
+
+        this.valueTemplate = valueTemplate;
+        final RedisSerializer<String> stringSerializer = new StringRedisSerializer();
+        this.valueTemplate.setKeySerializer(stringSerializer);
+        this.valueTemplate.setValueSerializer(new CompressingRedisSerializer(compression, compressionThreshold));
+        this.valueTemplate.setHashKeySerializer(stringSerializer);
+        this.valueTemplate.setHashValueSerializer(stringSerializer);
+        this.valueTemplate.afterPropertiesSet();
+
+        final Properties serverInfo = valueTemplate.execute((RedisCallback<Properties>) connection -> connection.info("server"));
+        checkStreamsSupported(isNull(serverInfo) ? null : serverInfo.getProperty("redis_version"));
+        createConsumerGroups();
+    }
+
+    @VisibleForTesting
+    static void checkStreamsSupported(final String redisVersion) {
+        if (!supportsStreams(redisVersion)) {
+            throw new IllegalStateException(String.format("The persistence layer based on REDIS Streams requires REDIS %s.%s " +
+                            "or later, while REDIS %s was found. Disable property %s to use the default REDIS persistence layer.",
+                    MIN_MAJOR_VERSION, MIN_MINOR_VERSION, redisVersion, SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED));
+        }
+    }
+
+    @VisibleForTesting
+    static boolean supportsStreams(final String redisVersion) {
+        if (isNullOrEmpty(redisVersion)) {
+            return false;
+        }
+        final String[] parts = redisVersion.trim().split("\\.");
+        try {
+            final int major = Integer.parseInt(parts[0]);
+            final int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > MIN_MAJOR_VERSION || (major == MIN_MAJOR_VERSION && minor >= MIN_MINOR_VERSION);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void createConsumerGroups() {
+        final List<byte[]> keys = IntStream.rangeClosed(1, priorityLevels)
+                .mapToObj(priorityLevel -> bytes(keyLayout.streamKey(priorityLevel)))
+                .collect(Collectors.toList());
+        eval(CREATE_GROUPS_SCRIPT, ReturnType.INTEGER, keys, Collections.singletonList(bytes(consumerGroup)));
+    }
+
+    @Override
+    public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        addAll(Collections.singletonList(emailSchedulingData));
+    }
+
+    @Override
+    public Optional<EmailSchedulingData> get(@NonNull final String id) {
+        return Optional.ofNullable(valueTemplate.opsForValue().get(keyLayout.valueKey(id)));
+    }
+
+    @Override
+    public boolean remove(@NonNull final String id) {
+        final Long removed = evalAck(Collections.singletonList(id));
+        return !isNull(removed) && removed > 0;
+    }
+
+    @Override
+    public void addAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataList) {
+        emailSchedulingDataList.forEach(emailSchedulingData ->
+                Preconditions.checkArgument(emailSchedulingData.getAssignedPriority() >= 1 && emailSchedulingData.getAssignedPriority() <= priorityLevels,
+                        "Assigned priority should be between 1 and %s, while %s was given", priorityLevels, emailSchedulingData.getAssignedPriority()));
+        @SuppressWarnings("unchecked")
+        final RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) valueTemplate.getValueSerializer();
+        for (final List<EmailSchedulingData> chunk : Lists.partition(new ArrayList<>(emailSchedulingDataList), CHUNK_SIZE)) {
+            final List<byte[]> keys = scriptKeys();
+            final List<byte[]> args = new ArrayList<>();
+            args.add(bytes(String.valueOf(priorityLevels)));
+            args.add(bytes(String.valueOf(score(TimeUtils.offsetDateTimeNow()))));
+            for (final EmailSchedulingData emailSchedulingData : chunk) {
+                keys.add(bytes(keyLayout.valueKey(emailSchedulingData.getId())));
+                args.add(bytes(String.valueOf(emailSchedulingData.getAssignedPriority())));
+                args.add(bytes(String.valueOf(score(emailSchedulingData.getScheduledDateTime()))));
+                args.add(bytes(emailSchedulingData.getId()));
+                args.add(valueSerializer.serialize(emailSchedulingData));
+            }
+            eval(ENQUEUE_SCRIPT, ReturnType.INTEGER, keys, args);
+        }
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer.");
+
+        final Set<EmailSchedulingData> emailSchedulingDataSet = new TreeSet<>(EmailSchedulingData.DEFAULT_COMPARATOR);
+        emailSchedulingDataSet.addAll(values(ids(priorityLevel, batchMaxSize)));
+        return emailSchedulingDataSet.stream()
+                .limit(batchMaxSize)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+
+        final Set<EmailSchedulingData> emailSchedulingDataSet = new TreeSet<>(EmailSchedulingData.DEFAULT_COMPARATOR);
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            emailSchedulingDataSet.addAll(getNextBatch(priorityLevel, batchMaxSize));
+        }
+        return emailSchedulingDataSet.stream()
+                .limit(batchMaxSize)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> claimNextBatch(@NonNull final OffsetDateTime dueBefore, final int batchMaxSize,
+                                                          @NonNull final Duration claimTimeout) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+        Preconditions.checkArgument(!claimTimeout.isNegative() && !claimTimeout.isZero(), "Claim timeout should be positive, while %s given.", claimTimeout);
+
+        final List<byte[]> claimedIds = eval(CLAIM_SCRIPT, ReturnType.MULTI, scriptKeys(), toBytes(
+                String.valueOf(priorityLevels), consumerGroup, consumer, String.valueOf(score(dueBefore)),
+                String.valueOf(batchMaxSize), String.valueOf(claimTimeout.toMillis())));
+        if (isNull(claimedIds) || claimedIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> ids = claimedIds.stream().map(RedisStreamsPersistenceService::string).collect(Collectors.toList());
+        final List<EmailSchedulingData> claimed = values(ids);
+        if (claimed.size() < ids.size()) {
+            //The entries whose value is missing cannot be sent, hence they are not delivered again
+            final Set<String> found = claimed.stream().map(EmailSchedulingData::getId).collect(Collectors.toSet());
+            evalAck(ids.stream().filter(id -> !found.contains(id)).collect(Collectors.toList()));
+        }
+        return claimed;
+    }
+
+    @Override
+    public void ack(@NonNull final Collection<String> ids) {
+        for (final List<String> chunk : Lists.partition(new ArrayList<>(ids), CHUNK_SIZE)) {
+            evalAck(chunk);
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            removeAll(priorityLevel);
+        }
+        //Entries of priority levels no longer configured
+        final Set<Object> remaining = valueTemplate.opsForHash().keys(keyLayout.streamEntriesKey());
+        if (!isNull(remaining) && !remaining.isEmpty()) {
+            removeAll(remaining.stream().map(String::valueOf).collect(Collectors.toList()));
+        }
+    }
+
+    @Override
+    public void removeAll(final int priorityLevel) {
+        removeAll(ids(priorityLevel, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void removeAll(@NonNull final Collection<String> ids) {
+        ack(ids);
+    }
+
+    private List<String> ids(final int priorityLevel, final int maxSize) {
+        final List<byte[]> ids = eval(RANGE_SCRIPT, ReturnType.MULTI,
+                toBytes(keyLayout.streamKey(priorityLevel), keyLayout.delayedKey(priorityLevel)),
+                toBytes(String.valueOf(maxSize)));
+        return isNull(ids) ? Collections.emptyList() :
+                ids.stream().map(RedisStreamsPersistenceService::string).collect(Collectors.toList());
+    }
+
+    private List<EmailSchedulingData> values(final List<String> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<EmailSchedulingData> values = valueTemplate.opsForValue()
+                .multiGet(ids.stream().map(keyLayout::valueKey).collect(Collectors.toList()));
+        return isNull(values) ? Collections.emptyList() :
+                values.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private Long evalAck(final List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0L;
+        }
+        final List<byte[]> keys = scriptKeys();
+        final List<byte[]> args = new ArrayList<>();
+        args.add(bytes(String.valueOf(priorityLevels)));
+        args.add(bytes(consumerGroup));
+        for (final String id : ids) {
+            keys.add(bytes(keyLayout.valueKey(id)));
+            args.add(bytes(id));
+        }
+        return eval(ACK_SCRIPT, ReturnType.INTEGER, keys, args);
+    }
+
+    private List<byte[]> scriptKeys() {
+        final List<byte[]> keys = new ArrayList<>();
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            keys.add(bytes(keyLayout.streamKey(priorityLevel)));
+        }
+        for (int priorityLevel = 1; priorityLevel <= priorityLevels; priorityLevel++) {
+            keys.add(bytes(keyLayout.delayedKey(priorityLevel)));
+        }
+        keys.add(bytes(keyLayout.streamEntriesKey()));
+        return keys;
+    }
+
+    private <T> T eval(final byte[] script, final ReturnType returnType, final List<byte[]> keys, final List<byte[]> args) {
+        final byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i);
+        }
+        for (int i = 0; i < args.size(); i++) {
+            keysAndArgs[keys.size() + i] = args.get(i);
+        }
+        return valueTemplate.execute((RedisCallback<T>) connection ->
+                connection.eval(script, returnType, keys.size(), keysAndArgs));
+    }
+
+    //Milliseconds from epoch, with the fraction keeping emails scheduled within the same millisecond ordered
+    private static double score(final OffsetDateTime dateTime) {
+        final Instant instant = dateTime.toInstant();
+        return instant.getEpochSecond() * 1_000D + instant.getNano() / 1_000_000D;
+    }
+
+    private static List<byte[]> toBytes(final String... values) {
+        final List<byte[]> bytes = new ArrayList<>();
+        for (final String value : values) {
+            bytes.add(bytes(value));
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import it.ozimov.springboot.mail.utils.TikaDetector;
+import lombok.*;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Email attachment persisted by {@linkplain RedisAttachmentStore}: only the hash of the content is part of the
+ * persisted email, while the content is loaded from the store the first time it is requested.
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+@ToString(of = {"contentHash", "attachmentName"})
+@EqualsAndHashCode(of = {"contentHash", "attachmentName", "mediaType"})
+public class ReferencedEmailAttachment implements EmailAttachment {
+
+    private static final long serialVersionUID = 4529712839457380116L;
+
+    @Getter
+    @NonNull
+    private final String contentHash;
+
+    @Getter
+    @NonNull
+    private final String attachmentName;
+
+    private final MediaType mediaType;
+
+    private transient Function<String, byte[]> contentLoader;
+
+    private transient volatile byte[] attachmentData;
+
+    void setContentLoader(@NonNull final Function<String, byte[]> contentLoader) {
+        this.contentLoader = contentLoader;
+    }
+
+    @Override
+    public byte[] getAttachmentData() {
+        if (isNull(attachmentData)) {
+            if (isNull(contentLoader)) {
+                throw new IllegalStateException("Attachment " + attachmentName + " has not been read from an attachment store");
+            }
+            final byte[] loaded = contentLoader.apply(contentHash);
+            if (isNull(loaded)) {
+                throw new IllegalStateException("Attachment " + attachmentName + " with content hash " + contentHash +
+                        " cannot be found in the attachment store");
+            }
+            attachmentData = loaded;
+        }
+        return attachmentData;
+    }
+
+    @Override
+    public MediaType getContentType() throws IOException {
+        if (nonNull(mediaType)) {
+            return mediaType;
+        }
+        return TikaDetector.tikaDetector().detect(new ByteArrayInputStream(getAttachmentData()), attachmentName);
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounds every send by a deadline, so that a hung SMTP conversation cannot block the caller forever.
+ * <p>
+ * The sends run on dedicated threads, while the caller waits for them up to the deadline. A send exceeding the
+ * deadline is interrupted and abandoned: the caller gets a {@linkplain TimeoutException} and can send the emails
+ * again, while the abandoned thread is left to the read timeout of the SMTP connection. Since the abandoned send may
+ * still complete, an email may be delivered twice, unless the caller learns from the send itself that it completed
+ * before sending the emails again.
+ * </p>
+ * <p>
+ * The number of threads is bounded, so that abandoned sends stuck on a hung relay cannot pile up threads. Once all the
+ * threads are busy, a new send is not run at all and the caller gets a {@linkplain TimeoutException} straight away.
+ * </p>
+ */
+@Slf4j
+public class SendWatchdog implements Closeable {
+
+    public static final int DEFAULT_MAX_THREADS = 16;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final long sendTimeoutMillis;
+
+    private final int maxThreads;
+
+    private final ExecutorService sendExecutor;
+
+    private final AtomicLong abandoned = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SendWatchdog(@NonNull final Duration sendTimeout) {
+        this(sendTimeout, DEFAULT_MAX_THREADS);
+    }
+
+    public SendWatchdog(@NonNull final Duration sendTimeout, final int maxThreads) {
+        Preconditions.checkArgument(!sendTimeout.isNegative() && !sendTimeout.isZero(), "Send timeout should be positive, while %s was given", sendTimeout);
+        Preconditions.checkArgument(maxThreads > 0, "Maximum number of threads should be positive, while %s was given", maxThreads);
+        this.sendTimeoutMillis = sendTimeout.toMillis();
+        this.maxThreads = maxThreads;
+
+        //Idle threads are reused, and sends are rejected rather than queued behind the abandoned ones
+        sendExecutor = new ThreadPoolExecutor(0, maxThreads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadFactoryBuilder()
+                .setNameFormat(SendWatchdog.class.getSimpleName() + " -- Send %d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Run the given send, waiting for it up to the send timeout.
+     *
+     * @param send the send to be run.
+     * @param <T>  the type of the result of the send.
+     * @return the result of the send.
+     * @throws TimeoutException     if the send did not complete within the send timeout, hence it was abandoned, or
+     *                              if no thread was available to run it.
+     * @throws InterruptedException if the caller was interrupted while waiting, the send is abandoned as well.
+     */
+    public <T> T call(@NonNull final Supplier<T> send) throws TimeoutException, InterruptedException {
+        final Future<T> future;
+        try {
+            future = sendExecutor.submit(send::get);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("A send was not run, since all the {} send threads are busy.", maxThreads);
+            throw new TimeoutException("All the " + maxThreads + " send threads are busy");
+        }
+        try {
+            return future.get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            abandoned.incrementAndGet();
+            log.warn("A send did not complete within {} ms and was abandoned.", sendTimeoutMillis);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public long getSendTimeoutMillis() {
+        return sendTimeoutMillis;
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void close() {
+        sendExecutor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.ozimov.springboot.mail.configuration.SmtpRelayGroupProperties;
+import it.ozimov.springboot.mail.configuration.SmtpRelayGroupProperties.Balancing;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.RELAY_GROUP_IS_ENABLED;
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparingDouble;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Group of SMTP relays the emails are balanced among, either by weighted round robin or by the fewest messages being
+ * sent.
+ * <p>
+ * Every relay has its own {@linkplain SmtpTransportPool} and, optionally, its own rate limit. A relay that cannot be
+ * connected to is marked as not available and the messages not sent yet fail over to the other relays, while the
+ * messages refused by a relay are not sent again. Relays not available are checked periodically and used again once
+ * a connection can be opened. When no relay is known to be available, all of them are tried anyway.
+ * </p>
+ */
+@Service
+@ConditionalOnExpression(RELAY_GROUP_IS_ENABLED)
+@Slf4j
+public class SmtpRelayGroup implements Closeable {
+
+    private static final String IDLE_TIMEOUT_MILLIS = "${" + SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS + ":30000}";
+
+    private static final String VALIDATION_INTERVAL_MILLIS = "${" + SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS + ":5000}";
+
+    private static final String MAX_MESSAGES_PER_CONNECTION = "${" + SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION + ":100}";
+
+    @Getter(AccessLevel.PACKAGE)
+    private final List<Relay> relays;
+
+    private final Balancing balancing;
+
+    private final ScheduledExecutorService healthChecker;
+
+    public SmtpRelayGroup(@NonNull final SmtpRelayGroupProperties smtpRelayGroupProperties,
+                          final long idleTimeoutMillis,
+                          final long validationIntervalMillis,
+                          final int maxMessagesPerConnection) {
+        this(smtpRelayGroupProperties,
+                new SmtpTimeouts(SmtpTimeouts.DEFAULT_CONNECT_TIMEOUT_MILLIS, SmtpTimeouts.DEFAULT_READ_TIMEOUT_MILLIS),
+                idleTimeoutMillis, validationIntervalMillis, maxMessagesPerConnection);
+    }
+
+    @Autowired
+    public SmtpRelayGroup(@NonNull final SmtpRelayGroupProperties smtpRelayGroupProperties,
+                          @NonNull final SmtpTimeouts smtpTimeouts,
+                          @Value(IDLE_TIMEOUT_MILLIS) final long idleTimeoutMillis,
+                          @Value(VALIDATION_INTERVAL_MILLIS) final long validationIntervalMillis,
+                          @Value(MAX_MESSAGES_PER_CONNECTION) final int maxMessagesPerConnection) {
+        checkIsValid(smtpRelayGroupProperties);
+        this.relays = smtpRelayGroupProperties.getRelays().stream()
+                .map(relay -> new Relay(relay, smtpTimeouts, idleTimeoutMillis, validationIntervalMillis, maxMessagesPerConnection))
+                .collect(toList());
+        this.balancing = smtpRelayGroupProperties.getBalancing();
+
+        final long healthCheckIntervalMillis = smtpRelayGroupProperties.getHealthCheckIntervalMillis();
+        healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(SmtpRelayGroup.class.getSimpleName() + " -- Health Checker")
+                .setDaemon(true)
+                .build());
+        healthChecker.scheduleWithFixedDelay(this::checkUnavailableRelays, healthCheckIntervalMillis, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the given messages through the relays, as {@linkplain org.springframework.mail.javamail.JavaMailSender#send(MimeMessage...)}
+     * would do. The messages not sent since a relay could not be connected to are sent through the next relay.
+     *
+     * @param mimeMessages the messages to be sent.
+     * @throws MailSendException if any message could not be sent by any relay, with the failed messages.
+     */
+    public void send(@NonNull final MimeMessage... mimeMessages) throws MailException {
+        final Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        final Set<Relay> triedRelays = new HashSet<>();
+        List<MimeMessage> pendingMessages = Arrays.asList(mimeMessages);
+        Optional<Relay> relay;
+        while (!pendingMessages.isEmpty() && !Thread.currentThread().isInterrupted()
+                && (relay = nextRelay(triedRelays)).isPresent()) {
+            triedRelays.add(relay.get());
+            pendingMessages.forEach(failedMessages::remove);
+            pendingMessages = relay.get().send(pendingMessages, failedMessages);
+        }
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        healthChecker.shutdownNow();
+        relays.forEach(Relay::close);
+    }
+
+    private synchronized Optional<Relay> nextRelay(final Set<Relay> excludedRelays) {
+        List<Relay> candidates = relays.stream()
+                .filter(relay -> relay.available && !excludedRelays.contains(relay))
+                .collect(toList());
+        if (candidates.isEmpty()) {
+            candidates = relays.stream()
+                    .filter(relay -> !excludedRelays.contains(relay))
+                    .collect(toList());
+        }
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        if (balancing == Balancing.LEAST_IN_FLIGHT) {
+            return candidates.stream()
+                    .min(comparingDouble(relay -> (double) relay.inFlight.get() / relay.weight));
+        }
+
+        //Smooth weighted round robin, so that the relays with a high weight are interleaved with the others
+        int totalWeight = 0;
+        Relay selected = null;
+        for (final Relay relay : candidates) {
+            relay.currentWeight += relay.weight;
+            totalWeight += relay.weight;
+            if (isNull(selected) || relay.currentWeight > selected.currentWeight) {
+                selected = relay;
+            }
+        }
+        selected.currentWeight -= totalWeight;
+        return Optional.of(selected);
+    }
+
+    private void checkUnavailableRelays() {
+        relays.stream()
+                .filter(relay -> !relay.available)
+                .forEach(Relay::checkAvailability);
+    }
+
+    private static void checkIsValid(final SmtpRelayGroupProperties smtpRelayGroupProperties) {
+        Preconditions.checkArgument(nonNull(smtpRelayGroupProperties.getRelays()) && !smtpRelayGroupProperties.getRelays().isEmpty(),
+                "Expected at least one SMTP relay. Review property 'spring.mail.relayGroup.relays'.");
+        Preconditions.checkArgument(nonNull(smtpRelayGroupProperties.getBalancing()),
+                "Expected a balancing strategy. Review property 'spring.mail.relayGroup.balancing'.");
+        Preconditions.checkArgument(smtpRelayGroupProperties.getHealthCheckIntervalMillis() > 0,
+                "Expected a positive health check interval. Review property 'spring.mail.relayGroup.healthCheckIntervalMillis'.");
+        for (final SmtpRelayGroupProperties.Relay relay : smtpRelayGroupProperties.getRelays()) {
+            Preconditions.checkArgument(!isNullOrEmpty(relay.getHost()),
+                    "Expected a host for every SMTP relay. Review property 'spring.mail.relayGroup.relays[*].host'.");
+            Preconditions.checkArgument(relay.getWeight() > 0,
+                    "Expected a positive weight for SMTP relay %s. Review property 'spring.mail.relayGroup.relays[*].weight'.", relay.getHost());
+            Preconditions.checkArgument(relay.getMaxConnections() > 0,
+                    "Expected a positive number of connections for SMTP relay %s. Review property 'spring.mail.relayGroup.relays[*].maxConnections'.", relay.getHost());
+            Preconditions.checkArgument(relay.getMaxMessagesPerSecond() >= 0,
+                    "Expected a non negative rate for SMTP relay %s. Review property 'spring.mail.relayGroup.relays[*].maxMessagesPerSecond'.", relay.getHost());
+        }
+    }
+
+    static final class Relay implements Closeable {
+
+        @Getter(AccessLevel.PACKAGE)
+        private final String name;
+
+        private final JavaMailSenderImpl javaMailSender;
+
+        private final SmtpTransportPool smtpTransportPool;
+
+        //Null when the relay has no rate limit
+        private final RateLimiter rateLimiter;
+
+        private final int weight;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        @Getter(AccessLevel.PACKAGE)
+        private volatile boolean available = true;
+
+        //Guarded by the relay group
+        private int currentWeight;
+
+        private Relay(final SmtpRelayGroupProperties.Relay relay,
+                      final SmtpTimeouts smtpTimeouts,
+                      final long idleTimeoutMillis,
+                      final long validationIntervalMillis,
+                      final int maxMessagesPerConnection) {
+            name = relay.getHost() + ':' + relay.getPort();
+            javaMailSender = new JavaMailSenderImpl();
+            javaMailSender.setHost(relay.getHost());
+            javaMailSender.setPort(relay.getPort());
+            javaMailSender.setUsername(relay.getUsername());
+            javaMailSender.setPassword(relay.getPassword());
+            javaMailSender.setProtocol(relay.getProtocol());
+            if (nonNull(relay.getProperties())) {
+                final Properties javaMailProperties = new Properties();
+                javaMailProperties.putAll(relay.getProperties());
+                javaMailSender.setJavaMailProperties(javaMailProperties);
+            }
+            smtpTimeouts.applyTo(javaMailSender);
+            smtpTransportPool = new SmtpTransportPool(javaMailSender, relay.getMaxConnections(),
+                    idleTimeoutMillis, validationIntervalMillis, maxMessagesPerConnection);
+            rateLimiter = relay.getMaxMessagesPerSecond() > 0 ? RateLimiter.create(relay.getMaxMessagesPerSecond()) : null;
+            weight = relay.getWeight();
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+
+        //The refused messages are added to the failed messages, while the ones to fail over are returned
+        private List<MimeMessage> send(final List<MimeMessage> mimeMessages, final Map<Object, Exception> failedMessages) {
+            if (nonNull(rateLimiter)) {
+                rateLimiter.acquire(mimeMessages.size());
+            }
+            inFlight.addAndGet(mimeMessages.size());
+            try {
+                smtpTransportPool.send(mimeMessages.toArray(new MimeMessage[mimeMessages.size()]));
+                return emptyList();
+            } catch (MailAuthenticationException e) {
+                mimeMessages.forEach(mimeMessage -> failedMessages.put(mimeMessage, e));
+                markUnavailable(e);
+                return mimeMessages;
+            } catch (MailSendException e) {
+                final List<MimeMessage> failedOverMessages = new ArrayList<>();
+                for (final MimeMessage mimeMessage : mimeMessages) {
+                    final Exception failure = e.getFailedMessages().get(mimeMessage);
+                    if (nonNull(failure)) {
+                        failedMessages.put(mimeMessage, failure);
+                        //Only the messages that found no connection are sent again, the others could be duplicated
+                        if (failure instanceof MailException) {
+                            failedOverMessages.add(mimeMessage);
+                        }
+                    }
+                }
+                if (!failedOverMessages.isEmpty()) {
+                    markUnavailable(e);
+                }
+                return failedOverMessages;
+            } finally {
+                inFlight.addAndGet(-mimeMessages.size());
+            }
+        }
+
+        private void markUnavailable(final MailException e) {
+            if (available && !Thread.currentThread().isInterrupted()) {
+                available = false;
+                log.warn("SMTP relay {} is not available, the messages fail over to the other relays.", name, e);
+            }
+        }
+
+        private void checkAvailability() {
+            try {
+                javaMailSender.testConnection();
+                available = true;
+                log.info("SMTP relay {} is available again.", name);
+            } catch (MessagingException e) {
+                log.debug("SMTP relay {} is still not available.", name, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            smtpTransportPool.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import java.util.Properties;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TIMEOUT_CONNECT_MILLIS;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TIMEOUT_READ_MILLIS;
+
+/**
+ * Bounds the SMTP conversations of the {@linkplain JavaMailSenderImpl} beans by a connect and a read timeout, since
+ * JavaMail waits forever by default and a single hung SMTP server would block the thread sending the email.
+ * <p>
+ * The timeouts are set for both the {@code smtp} and the {@code smtps} protocols, unless already given through the
+ * JavaMail properties, e.g. {@code spring.mail.properties.mail.smtp.timeout}. A timeout of zero leaves the JavaMail
+ * default.
+ * </p>
+ */
+@Component
+@Slf4j
+public class SmtpTimeouts implements BeanPostProcessor {
+
+    static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    static final long DEFAULT_READ_TIMEOUT_MILLIS = 60_000;
+
+    private static final String CONNECT_TIMEOUT_MILLIS = "${" + SPRING_MAIL_TIMEOUT_CONNECT_MILLIS + ":" + DEFAULT_CONNECT_TIMEOUT_MILLIS + "}";
+
+    private static final String READ_TIMEOUT_MILLIS = "${" + SPRING_MAIL_TIMEOUT_READ_MILLIS + ":" + DEFAULT_READ_TIMEOUT_MILLIS + "}";
+
+    private static final String[] PROTOCOLS = {"smtp", "smtps"};
+
+    private final long connectTimeoutMillis;
+    private final long readTimeoutMillis;
+
+    @Autowired
+    public SmtpTimeouts(@Value(CONNECT_TIMEOUT_MILLIS) final long connectTimeoutMillis,
+                        @Value(READ_TIMEOUT_MILLIS) final long readTimeoutMillis) {
+        Preconditions.checkArgument(connectTimeoutMillis >= 0, "Connect timeout should not be negative, while %s was given", connectTimeoutMillis);
+        Preconditions.checkArgument(readTimeoutMillis >= 0, "Read timeout should not be negative, while %s was given", readTimeoutMillis);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Set the timeouts not given yet in the JavaMail properties of the given sender.
+     *
+     * @param javaMailSender the sender whose SMTP conversations are bounded.
+     */
+    public void applyTo(@NonNull final JavaMailSenderImpl javaMailSender) {
+        final Properties javaMailProperties = javaMailSender.getJavaMailProperties();
+        for (final String protocol : PROTOCOLS) {
+            if (connectTimeoutMillis > 0) {
+                javaMailProperties.putIfAbsent("mail." + protocol + ".connectiontimeout", String.valueOf(connectTimeoutMillis));
+            }
+            if (readTimeoutMillis > 0) {
+                javaMailProperties.putIfAbsent("mail." + protocol + ".timeout", String.valueOf(readTimeoutMillis));
+            }
+        }
+        //Resets the session, in case it was already created with the previous properties
+        javaMailSender.setJavaMailProperties(javaMailProperties);
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(final Object bean, final String beanName) {
+        if (bean instanceof JavaMailSenderImpl) {
+            log.debug("Applying SMTP timeouts to bean {}", beanName);
+            applyTo((JavaMailSenderImpl) bean);
+        }
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+        return bean;
+    }
+
+}
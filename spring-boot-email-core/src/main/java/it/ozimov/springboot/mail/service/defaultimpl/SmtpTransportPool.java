@@ -0,0 +1,345 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_MAX_SIZE;
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.TRANSPORT_POOL_IS_ENABLED;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Pool of connected SMTP transports, so that the connection, EHLO, STARTTLS and authentication are not repeated for
+ * every email sent.
+ * <p>
+ * The transports are created from the session, host, port and credentials of the given {@linkplain JavaMailSenderImpl}
+ * and are reused until they sent the maximum number of messages per connection or stayed idle longer than the idle
+ * timeout. A transport idle for longer than the validation interval is checked with a {@code NOOP} before being reused.
+ * A transport whose send failed is closed, rather than reused. At most the maximum size of transports are open at the
+ * same time, further sends wait for a transport to be released.
+ * </p>
+ */
+@Service
+@ConditionalOnExpression(TRANSPORT_POOL_IS_ENABLED)
+@Slf4j
+public class SmtpTransportPool implements Closeable {
+
+    private static final String MAX_SIZE = "${" + SPRING_MAIL_TRANSPORT_POOL_MAX_SIZE + ":4}";
+
+    private static final String IDLE_TIMEOUT_MILLIS = "${" + SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS + ":30000}";
+
+    private static final String VALIDATION_INTERVAL_MILLIS = "${" + SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS + ":5000}";
+
+    private static final String MAX_MESSAGES_PER_CONNECTION = "${" + SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION + ":100}";
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private static final String DEFAULT_PROTOCOL = "smtp";
+
+    private final JavaMailSenderImpl javaMailSender;
+    private final long idleTimeoutNanos;
+    private final long validationIntervalNanos;
+    private final int maxMessagesPerConnection;
+
+    private final Semaphore permits;
+
+    private final AtomicLong openedConnections = new AtomicLong();
+
+    //Guarded by this, the most recently used transport first, so that the least used ones time out
+    private final Deque<PooledTransport> idleTransports = new ArrayDeque<>();
+    private boolean closed;
+
+    private final ScheduledExecutorService evictor;
+
+    @Autowired
+    public SmtpTransportPool(@NonNull final JavaMailSender javaMailSender,
+                             @Value(MAX_SIZE) final int maxSize,
+                             @Value(IDLE_TIMEOUT_MILLIS) final long idleTimeoutMillis,
+                             @Value(VALIDATION_INTERVAL_MILLIS) final long validationIntervalMillis,
+                             @Value(MAX_MESSAGES_PER_CONNECTION) final int maxMessagesPerConnection) {
+        Preconditions.checkArgument(javaMailSender instanceof JavaMailSenderImpl,
+                "The pool of SMTP connections requires a %s, while %s was given", JavaMailSenderImpl.class.getName(), javaMailSender.getClass().getName());
+        Preconditions.checkArgument(maxSize > 0, "Maximum size should be a positive number, while %s was given", maxSize);
+        Preconditions.checkArgument(idleTimeoutMillis > 0, "Idle timeout should be a positive number, while %s was given", idleTimeoutMillis);
+        Preconditions.checkArgument(validationIntervalMillis >= 0, "Validation interval should not be negative, while %s was given", validationIntervalMillis);
+        Preconditions.checkArgument(maxMessagesPerConnection > 0, "Maximum messages per connection should be a positive number, while %s was given", maxMessagesPerConnection);
+        this.javaMailSender = (JavaMailSenderImpl) javaMailSender;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.permits = new Semaphore(maxSize, true);
+
+        final long evictionPeriodMillis = Math.max(idleTimeoutMillis / 2, 1);
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(SmtpTransportPool.class.getSimpleName() + " -- Evictor")
+                .setDaemon(true)
+                .build());
+        evictor.scheduleWithFixedDelay(this::evictIdleTransports, evictionPeriodMillis, evictionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the given messages through pooled transports, as {@linkplain JavaMailSender#send(MimeMessage...)} would do.
+     * The messages are sent on the same transport, as long as it does not fail or reach the maximum number of
+     * messages per connection.
+     *
+     * @param mimeMessages the messages to be sent.
+     * @throws MailAuthenticationException if the authentication to the SMTP server failed before any message was sent.
+     * @throws MailSendException           if the connection to the SMTP server or the sending of any message failed,
+     *                                     with the failed messages. The messages that could not be sent since no
+     *                                     connection was available are mapped to a {@linkplain MailException}.
+     */
+    public void send(@NonNull final MimeMessage... mimeMessages) throws MailException {
+        final Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        PooledTransport pooledTransport = null;
+        boolean reusable = false;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (isNull(pooledTransport)) {
+                    try {
+                        pooledTransport = borrow();
+                    } catch (MailException e) {
+                        if (i == 0 && e instanceof MailAuthenticationException) {
+                            throw e;
+                        }
+                        //Effectively, all the remaining messages failed
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            failedMessages.put(mimeMessages[j], e);
+                        }
+                        throw new MailSendException("Mail server connection failed", e, failedMessages);
+                    }
+                }
+                reusable = false;
+                try {
+                    sendMessage(pooledTransport.transport, mimeMessages[i]);
+                    pooledTransport.messagesSent++;
+                    reusable = true;
+                } catch (MessagingException e) {
+                    failedMessages.put(mimeMessages[i], e);
+                }
+                if (!reusable || pooledTransport.messagesSent >= maxMessagesPerConnection) {
+                    release(pooledTransport, reusable);
+                    pooledTransport = null;
+                }
+            }
+        } finally {
+            if (nonNull(pooledTransport)) {
+                release(pooledTransport, reusable);
+            }
+        }
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    public long getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    public synchronized int getIdleConnections() {
+        return idleTransports.size();
+    }
+
+    /**
+     * Close the idle transports. Transports in use are closed once released.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        final List<PooledTransport> toBeClosed;
+        synchronized (this) {
+            closed = true;
+            toBeClosed = new ArrayList<>(idleTransports);
+            idleTransports.clear();
+        }
+        evictor.shutdownNow();
+        toBeClosed.forEach(SmtpTransportPool::closeQuietly);
+    }
+
+    private PooledTransport borrow() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Interrupted while waiting for an SMTP connection", e);
+        }
+        try {
+            PooledTransport pooledTransport;
+            while (nonNull(pooledTransport = pollIdleTransport())) {
+                if (isReusable(pooledTransport)) {
+                    return pooledTransport;
+                }
+                closeQuietly(pooledTransport);
+            }
+            return open();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(final PooledTransport pooledTransport, final boolean reusable) {
+        try {
+            if (reusable && pooledTransport.messagesSent < maxMessagesPerConnection && offerIdleTransport(pooledTransport)) {
+                return;
+            }
+            closeQuietly(pooledTransport);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private synchronized PooledTransport pollIdleTransport() {
+        Preconditions.checkState(!closed, "The pool of SMTP connections is closed");
+        return idleTransports.pollFirst();
+    }
+
+    private synchronized boolean offerIdleTransport(final PooledTransport pooledTransport) {
+        if (closed) {
+            return false;
+        }
+        pooledTransport.lastUsedNanos = System.nanoTime();
+        idleTransports.offerFirst(pooledTransport);
+        return true;
+    }
+
+    private boolean isReusable(final PooledTransport pooledTransport) {
+        final long idleNanos = System.nanoTime() - pooledTransport.lastUsedNanos;
+        if (idleNanos > idleTimeoutNanos) {
+            return false;
+        }
+        //SMTP transports send a NOOP to check the connection
+        return idleNanos <= validationIntervalNanos || pooledTransport.transport.isConnected();
+    }
+
+    private void evictIdleTransports() {
+        final List<PooledTransport> toBeClosed = new ArrayList<>();
+        synchronized (this) {
+            final long now = System.nanoTime();
+            while (!idleTransports.isEmpty() && now - idleTransports.peekLast().lastUsedNanos > idleTimeoutNanos) {
+                toBeClosed.add(idleTransports.pollLast());
+            }
+        }
+        toBeClosed.forEach(SmtpTransportPool::closeQuietly);
+    }
+
+    private PooledTransport open() {
+        final Session session = javaMailSender.getSession();
+        String protocol = javaMailSender.getProtocol();
+        if (isNull(protocol)) {
+            protocol = session.getProperty("mail.transport.protocol");
+        }
+        String username = javaMailSender.getUsername();
+        String password = javaMailSender.getPassword();
+        if ("".equals(username)) {
+            username = null;
+            if ("".equals(password)) {
+                password = null;
+            }
+        }
+
+        Transport transport = null;
+        try {
+            transport = session.getTransport(nonNull(protocol) ? protocol : DEFAULT_PROTOCOL);
+            transport.connect(javaMailSender.getHost(), javaMailSender.getPort(), username, password);
+        } catch (AuthenticationFailedException e) {
+            throw new MailAuthenticationException(e);
+        } catch (MessagingException e) {
+            if (nonNull(transport)) {
+                closeQuietly(new PooledTransport(transport));
+            }
+            throw new MailSendException("Mail server connection failed", e);
+        }
+        openedConnections.incrementAndGet();
+        log.debug("Opened SMTP connection to {}:{}.", javaMailSender.getHost(), javaMailSender.getPort());
+        return new PooledTransport(transport);
+    }
+
+    //Mirrors JavaMailSenderImpl, keeping the Message-ID given by the caller
+    private static void sendMessage(final Transport transport, final MimeMessage mimeMessage) throws MessagingException {
+        if (isNull(mimeMessage.getSentDate())) {
+            mimeMessage.setSentDate(new Date());
+        }
+        final String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (nonNull(messageId)) {
+            mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+        }
+        final Address[] addresses = mimeMessage.getAllRecipients();
+        transport.sendMessage(mimeMessage, nonNull(addresses) ? addresses : new Address[0]);
+    }
+
+    private static void closeQuietly(final PooledTransport pooledTransport) {
+        try {
+            pooledTransport.transport.close();
+        } catch (MessagingException e) {
+            log.debug("Cannot close SMTP connection.", e);
+        }
+    }
+
+    private static final class PooledTransport {
+
+        private final Transport transport;
+
+        private int messagesSent;
+
+        private long lastUsedNanos = System.nanoTime();
+
+        private PooledTransport(final Transport transport) {
+            this.transport = transport;
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Write-behind buffer of the {@linkplain EmailSchedulingData} to be added to a {@linkplain PersistenceService}.
+ * <p>
+ * Additions are appended to a bounded buffer and written by a background flusher with
+ * {@linkplain PersistenceService#addAll(java.util.Collection)}, once the buffer holds a full batch or the flush
+ * interval elapsed. Appending blocks only while the buffer is full.
+ * </p>
+ * <p>
+ * Removals are never applied before the pending additions: an email still in the buffer is simply dropped from it,
+ * since it never reached the persistence layer, otherwise the removal waits for the running flush to complete.
+ * </p>
+ */
+@Slf4j
+public class WriteBehindPersistenceBuffer {
+
+    private final PersistenceService persistenceService;
+    private final int batchSize;
+    private final int capacity;
+
+    //Guarded by this
+    private LinkedHashMap<String, EmailSchedulingData> pending = new LinkedHashMap<>();
+    private CompletableFuture<Void> pendingFlush = new CompletableFuture<>();
+
+    private final PeriodicFlusher flusher;
+
+    public WriteBehindPersistenceBuffer(@NonNull final PersistenceService persistenceService, final int batchSize,
+                                        @NonNull final Duration flushInterval, final int capacity) {
+        Preconditions.checkArgument(capacity >= batchSize, "Capacity should not be smaller than the batch size, while %s was given", capacity);
+        this.persistenceService = persistenceService;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        flusher = new PeriodicFlusher(WriteBehindPersistenceBuffer.class.getSimpleName(), this, () -> pending.size(),
+                this::writePending, batchSize, flushInterval);
+    }
+
+    /**
+     * Append the given {@linkplain EmailSchedulingData} to the buffer, waiting while the buffer is full.
+     *
+     * @param emailSchedulingData the data to be persisted.
+     * @return a future completed once the data is written to the persistence layer.
+     */
+    public CompletableFuture<Void> add(@NonNull final EmailSchedulingData emailSchedulingData) {
+        synchronized (this) {
+            boolean interrupted = false;
+            while (!flusher.isClosed() && pending.size() >= capacity && !pending.containsKey(emailSchedulingData.getId())) {
+                notifyAll();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (!flusher.isClosed()) {
+                pending.put(emailSchedulingData.getId(), emailSchedulingData);
+                if (pending.size() >= batchSize) {
+                    notifyAll();
+                }
+                return pendingFlush;
+            }
+        }
+        //Once closed, the buffer writes through
+        persistenceService.add(emailSchedulingData);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Remove the {@linkplain EmailSchedulingData} with the given id, dropping it from the buffer if not yet written or
+     * running the given removal from the persistence layer otherwise.
+     *
+     * @param id      the id of the data to be removed.
+     * @param removal the removal from the persistence layer.
+     */
+    public void remove(@NonNull final String id, @NonNull final Runnable removal) {
+        //Removals wait for the running flush, so that they do not overtake the additions
+        flusher.runExclusively(() -> {
+            synchronized (this) {
+                if (pending.remove(id) != null) {
+                    notifyAll();
+                    return;
+                }
+            }
+            removal.run();
+        });
+    }
+
+    /**
+     * Write all the buffered data to the persistence layer.
+     */
+    public void flush() {
+        flusher.flush();
+    }
+
+    /**
+     * Stop the flusher, after writing all the buffered data. Later additions are written through.
+     */
+    public void close() {
+        flusher.close();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private void writePending() {
+        final List<EmailSchedulingData> batch;
+        final CompletableFuture<Void> batchFlush;
+        synchronized (this) {
+            batch = new ArrayList<>(pending.values());
+            batchFlush = pendingFlush;
+            pending = new LinkedHashMap<>();
+            pendingFlush = new CompletableFuture<>();
+            notifyAll();
+        }
+        if (batch.isEmpty()) {
+            batchFlush.complete(null);
+            return;
+        }
+        try {
+            persistenceService.addAll(batch);
+            batchFlush.complete(null);
+            log.debug("Flushed {} emails to the persistence layer.", batch.size());
+        } catch (RuntimeException e) {
+            log.error("Cannot flush {} emails to the persistence layer, they will be retried.", batch.size(), e);
+            synchronized (this) {
+                //Data added in the meanwhile is newer than the one of the failed batch
+                batch.forEach(emailSchedulingData -> pending.putIfAbsent(emailSchedulingData.getId(), emailSchedulingData));
+            }
+            batchFlush.completeExceptionally(e);
+        }
+    }
+
+}
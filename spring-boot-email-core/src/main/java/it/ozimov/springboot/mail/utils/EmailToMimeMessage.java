@@ -25,8 +25,11 @@ import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
 import javax.mail.MessagingException;
+import javax.mail.Multipart;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
@@ -41,15 +44,49 @@ public class EmailToMimeMessage implements Function<Email, MimeMessage> {
 
     private JavaMailSender javaMailSender;
 
+    private EncodedPartCache encodedPartCache;
+
     @Autowired
     public EmailToMimeMessage(final JavaMailSender javaMailSender) {
         this.javaMailSender = javaMailSender;
     }
 
+    @Autowired(required = false)
+    public void setEncodedPartCache(final EncodedPartCache encodedPartCache) {
+        this.encodedPartCache = encodedPartCache;
+    }
+
     @Override
     public MimeMessage apply(final Email email) {
-        final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
         final boolean isMultipart = nonNull(email.getAttachments()) && !email.getAttachments().isEmpty();
+        return toMimeMessage(email, isMultipart, messageHelper -> {
+            if (isMultipart) {
+                for (final EmailAttachment attachment : email.getAttachments()) {
+                    if (nonNull(encodedPartCache)) {
+                        messageHelper.getRootMimeMultipart().addBodyPart(encodedAttachmentPart(attachment));
+                    } else {
+                        messageHelper.addAttachment(attachment.getAttachmentName(), attachment.getContentSource());
+                    }
+                }
+            }
+            messageHelper.setText(ofNullable(email.getBody()).orElse(EMPTY));
+        });
+    }
+
+    /**
+     * Convert the given email into a MIME message with the given content, in place of the body and the attachments
+     * of the email. As for {@linkplain #apply(Email)}, the headers are written and the changes are saved once.
+     *
+     * @param email   the email providing the headers.
+     * @param content the content of the MIME message, already built.
+     * @return the MIME message.
+     */
+    public MimeMessage apply(@NonNull final Email email, @NonNull final Multipart content) {
+        return toMimeMessage(email, false, messageHelper -> messageHelper.getMimeMessage().setContent(content));
+    }
+
+    private MimeMessage toMimeMessage(final Email email, final boolean isMultipart, final ContentWriter contentWriter) {
+        final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
 
         try {
             final MimeMessageHelperExt messageHelper = new MimeMessageHelperExt(mimeMessage,
@@ -75,13 +112,8 @@ public class EmailToMimeMessage implements Function<Email, MimeMessage> {
                     messageHelper.addBcc(address);
                 }
             }
-            if (isMultipart) {
-                for (final EmailAttachment attachment : email.getAttachments()) {
-                    messageHelper.addAttachment(attachment.getAttachmentName(), attachment.getInputStream());
-                }
-            }
+            contentWriter.write(messageHelper);
             messageHelper.setSubject(ofNullable(email.getSubject()).orElse(EMPTY));
-            messageHelper.setText(ofNullable(email.getBody()).orElse(EMPTY));
 
             if (nonNull(email.getSentAt())) {
                 messageHelper.setSentDate(email.getSentAt());
@@ -108,6 +140,14 @@ public class EmailToMimeMessage implements Function<Email, MimeMessage> {
         return mimeMessage;
     }
 
+    private MimeBodyPart encodedAttachmentPart(final EmailAttachment attachment) throws MessagingException {
+        try {
+            return encodedPartCache.attachmentPart(attachment);
+        } catch (IOException e) {
+            throw new MessagingException("Cannot encode the attachment " + attachment.getAttachmentName(), e);
+        }
+    }
+
     protected void setCustomHeaders(Email email, MimeMessage mimeMessage) {
         email.getCustomHeaders().entrySet().stream()
                 .forEach(
@@ -124,4 +164,11 @@ public class EmailToMimeMessage implements Function<Email, MimeMessage> {
                 );
     }
 
+    @FunctionalInterface
+    private interface ContentWriter {
+
+        void write(MimeMessageHelperExt messageHelper) throws MessagingException;
+
+    }
+
 }
\ No newline at end of file
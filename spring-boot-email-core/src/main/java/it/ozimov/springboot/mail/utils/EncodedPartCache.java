@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.SPRING_MAIL_ENCODED_PART_CACHE_MAX_BYTES;
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.ENCODED_PART_CACHE_IS_ENABLED;
+
+/**
+ * Cache of the encoded body of the attachments, so that an attachment sent in many emails is encoded once.
+ * <p>
+ * The encoded body is keyed by the SHA-256 hash of the content plus the content type, and it is shared by the parts
+ * of all the emails with the same attachment: every part has its own headers, while the body is written as it is,
+ * without being encoded again. The least recently used bodies are evicted once their size exceeds the maximum number
+ * of bytes, while the bodies larger than that are never cached.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression(ENCODED_PART_CACHE_IS_ENABLED)
+public class EncodedPartCache {
+
+    private static final String MAX_BYTES = "${" + SPRING_MAIL_ENCODED_PART_CACHE_MAX_BYTES + ":33554432}";
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final String HEADER_CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+
+    private final long maxBytes;
+
+    //The same content is usually given by the same array, hence it is hashed once
+    private final Cache<byte[], String> contentHashes = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(1_000)
+            .build();
+
+    private final Cache<PartKey, EncodedBody> encodedBodies;
+
+    @Autowired
+    public EncodedPartCache(@Value(MAX_BYTES) final long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "Maximum bytes should be a positive number, while %s was given", maxBytes);
+        this.maxBytes = maxBytes;
+        encodedBodies = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((PartKey key, EncodedBody body) -> body.content.length)
+                .build();
+    }
+
+    /**
+     * Return a new MIME part for the given attachment, whose body is encoded only if not cached yet. The attachments
+     * streamed from their source are never cached.
+     *
+     * @param attachment the attachment.
+     * @return the MIME part of the attachment, with the encoded body already set.
+     * @throws IOException        if the content type of the attachment cannot be detected or the content cannot be encoded.
+     * @throws MessagingException if the headers of the part cannot be set.
+     */
+    public MimeBodyPart attachmentPart(@NonNull final EmailAttachment attachment) throws IOException, MessagingException {
+        if (attachment.isStreamed()) {
+            //Caching the encoded body would keep in memory the content meant to be streamed
+            return MimeBodyParts.streamedAttachmentPart(attachment);
+        }
+
+        final byte[] data = attachment.getAttachmentData();
+        final String contentType = attachment.getContentType().toString();
+        final EncodedBody body = encodedBody(new PartKey(contentHash(data), contentType), data);
+
+        final MimeBodyPart part = new MimeBodyPart(new InternetHeaders(), body.content);
+        part.setHeader(HEADER_CONTENT_TYPE, contentType);
+        //With the transfer encoding set, the body is neither scanned nor encoded again when the message is written
+        part.setHeader(HEADER_CONTENT_TRANSFER_ENCODING, body.encoding);
+        part.setFileName(MimeUtility.encodeText(attachment.getAttachmentName()));
+        return part;
+    }
+
+    public long size() {
+        return encodedBodies.size();
+    }
+
+    private String contentHash(final byte[] data) {
+        try {
+            return contentHashes.get(data, () -> Hashing.sha256().hashBytes(data).toString());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot compute the hash of the attachment content", e.getCause());
+        }
+    }
+
+    private EncodedBody encodedBody(final PartKey key, final byte[] data) throws IOException, MessagingException {
+        final EncodedBody cached = encodedBodies.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final EncodedBody body = encode(data, key.contentType);
+        if (body.content.length <= maxBytes) {
+            encodedBodies.put(key, body);
+        }
+        return body;
+    }
+
+    private static EncodedBody encode(final byte[] data, final String contentType) throws IOException, MessagingException {
+        final String encoding = MimeUtility.getEncoding(new ByteArrayDataSource(data, contentType));
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length * 4 / 3 + 4);
+        try (final OutputStream encoder = MimeUtility.encode(encoded, encoding)) {
+            encoder.write(data);
+        }
+        return new EncodedBody(encoding, encoded.toByteArray());
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class PartKey {
+
+        private final String contentHash;
+
+        private final String contentType;
+
+    }
+
+    @RequiredArgsConstructor
+    private static class EncodedBody {
+
+        private final String encoding;
+
+        private final byte[] content;
+
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.utils;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.InputStreamSource;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A read-only {@linkplain DataSource} opening a new stream from the given source every time the content is read, so
+ * that the content is streamed into the MIME message when written instead of being kept in memory.
+ */
+@RequiredArgsConstructor
+public class InputStreamSourceDataSource implements DataSource {
+
+    @NonNull
+    private final InputStreamSource inputStreamSource;
+
+    @Getter
+    @NonNull
+    private final String contentType;
+
+    @Getter
+    @NonNull
+    private final String name;
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return inputStreamSource.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        throw new UnsupportedOperationException("Read-only javax.activation.DataSource");
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.utils;
+
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+import java.io.IOException;
+
+@UtilityClass
+public class MimeBodyParts {
+
+    /**
+     * Return a new MIME part for the given attachment, whose content is streamed from its source when the message is
+     * written.
+     *
+     * @param attachment the attachment.
+     * @return the MIME part of the attachment.
+     * @throws IOException        if the content type of the attachment cannot be detected.
+     * @throws MessagingException if the headers of the part cannot be set.
+     */
+    public static MimeBodyPart streamedAttachmentPart(@NonNull final EmailAttachment attachment)
+            throws IOException, MessagingException {
+        final MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(new InputStreamSourceDataSource(attachment.getContentSource(),
+                attachment.getContentType().toString(), attachment.getAttachmentName())));
+        part.setFileName(MimeUtility.encodeText(attachment.getAttachmentName()));
+        return part;
+    }
+
+}
@@ -16,11 +16,82 @@
 
 package it.ozimov.springboot.mail.utils;
 
+import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @UtilityClass
 public class StringUtils {
 
     public static final String EMPTY = "";
 
+    /**
+     * Replace all the occurrences of the keys of the given map with the respective values, in one pass over the text.
+     * <p>
+     * Where more keys match at the same position, the longest one is replaced. The replaced text is not searched again,
+     * hence a value is never replaced in turn.
+     * </p>
+     *
+     * @param text         the text where the keys are searched.
+     * @param replacements the replacement of every key. The empty keys are ignored.
+     * @return the text with the keys replaced.
+     */
+    public static String replaceEach(@NonNull final String text, @NonNull final Map<String, String> replacements) {
+        final TrieNode root = new TrieNode();
+        for (final Map.Entry<String, String> replacement : replacements.entrySet()) {
+            if (!replacement.getKey().isEmpty()) {
+                root.add(replacement.getKey(), replacement.getValue());
+            }
+        }
+        if (root.children.isEmpty()) {
+            return text;
+        }
+
+        final StringBuilder replaced = new StringBuilder(text.length());
+        int copiedUntil = 0;
+        int index = 0;
+        while (index < text.length()) {
+            //Walk down the trie as long as the text matches, remembering the longest key found
+            TrieNode node = root.children.get(text.charAt(index));
+            String replacement = null;
+            int matchEnd = index;
+            for (int end = index + 1; node != null; end++) {
+                if (node.replacement != null) {
+                    replacement = node.replacement;
+                    matchEnd = end;
+                }
+                node = end < text.length() ? node.children.get(text.charAt(end)) : null;
+            }
+
+            if (replacement != null) {
+                replaced.append(text, copiedUntil, index).append(replacement);
+                copiedUntil = index = matchEnd;
+            } else {
+                index++;
+            }
+        }
+        if (copiedUntil == 0) {
+            return text;
+        }
+        return replaced.append(text, copiedUntil, text.length()).toString();
+    }
+
+    private static class TrieNode {
+
+        private final Map<Character, TrieNode> children = new HashMap<>();
+
+        private String replacement;
+
+        private void add(final String key, final String replacement) {
+            TrieNode node = this;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), character -> new TrieNode());
+            }
+            node.replacement = replacement;
+        }
+
+    }
+
 }
@@ -63,17 +63,72 @@ public class ApplicationPropertiesConstantsTest {
         assertions.assertThat(SPRING_MAIL_PROPERTIES_MAIL_SMTP_AUTH).isEqualTo("spring.mail.properties.mail.smtp.auth");
         assertions.assertThat(SPRING_MAIL_PROPERTIES_MAIL_SMTP_STARTTLS_ENABLE).isEqualTo("spring.mail.properties.mail.smtp.starttls.enable");
         assertions.assertThat(SPRING_MAIL_PROPERTIES_MAIL_SMTP_STARTTLS_REQUIRED).isEqualTo("spring.mail.properties.mail.smtp.starttls.required");
+        assertions.assertThat(SPRING_MAIL_TRANSPORT_POOL_ENABLED).isEqualTo("spring.mail.transportPool.enabled");
+        assertions.assertThat(SPRING_MAIL_TRANSPORT_POOL_MAX_SIZE).isEqualTo("spring.mail.transportPool.maxSize");
+        assertions.assertThat(SPRING_MAIL_TRANSPORT_POOL_IDLE_TIMEOUT_MILLIS).isEqualTo("spring.mail.transportPool.idleTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_TRANSPORT_POOL_VALIDATION_INTERVAL_MILLIS).isEqualTo("spring.mail.transportPool.validationIntervalMillis");
+        assertions.assertThat(SPRING_MAIL_TRANSPORT_POOL_MAX_MESSAGES_PER_CONNECTION).isEqualTo("spring.mail.transportPool.maxMessagesPerConnection");
+        assertions.assertThat(SPRING_MAIL_RELAY_GROUP_ENABLED).isEqualTo("spring.mail.relayGroup.enabled");
+        assertions.assertThat(SPRING_MAIL_TIMEOUT_CONNECT_MILLIS).isEqualTo("spring.mail.timeout.connectMillis");
+        assertions.assertThat(SPRING_MAIL_TIMEOUT_READ_MILLIS).isEqualTo("spring.mail.timeout.readMillis");
+        assertions.assertThat(SPRING_MAIL_INLINE_PICTURE_CACHE_ENABLED).isEqualTo("spring.mail.inlinePictureCache.enabled");
+        assertions.assertThat(SPRING_MAIL_INLINE_PICTURE_CACHE_MAX_BYTES).isEqualTo("spring.mail.inlinePictureCache.maxBytes");
+        assertions.assertThat(SPRING_MAIL_ENCODED_PART_CACHE_ENABLED).isEqualTo("spring.mail.encodedPartCache.enabled");
+        assertions.assertThat(SPRING_MAIL_ENCODED_PART_CACHE_MAX_BYTES).isEqualTo("spring.mail.encodedPartCache.maxBytes");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_ENABLED).isEqualTo("spring.mail.scheduler.enabled");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PRIORITY_LEVELS).isEqualTo("spring.mail.scheduler.priorityLevels");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SEND_BATCH_SIZE).isEqualTo("spring.mail.scheduler.sendBatchSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SEND_TIMEOUT_MILLIS).isEqualTo("spring.mail.scheduler.sendTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SEND_MAX_THREADS).isEqualTo("spring.mail.scheduler.sendMaxThreads");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SEND_MAX_ATTEMPTS).isEqualTo("spring.mail.scheduler.sendMaxAttempts");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SEND_RETRY_BACKOFF_MILLIS).isEqualTo("spring.mail.scheduler.sendRetryBackoffMillis");
         assertions.assertThat(SPRING_MAIL_PERSISTENCE_ENABLED).isEqualTo("spring.mail.scheduler.persistence.enabled");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DESIRED_BATCH_SIZE).isEqualTo("spring.mail.scheduler.persistence.desiredBatchSize");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_MIN_KEPT_IN_MEMORY).isEqualTo("spring.mail.scheduler.persistence.minKeptInMemory");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_MAX_KEPT_IN_MEMORY).isEqualTo("spring.mail.scheduler.persistence.maxKeptInMemory");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CLAIM_BATCHES).isEqualTo("spring.mail.scheduler.persistence.claimBatches");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_ENABLED).isEqualTo("spring.mail.scheduler.persistence.writeBehind.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_BATCH_SIZE).isEqualTo("spring.mail.scheduler.persistence.writeBehind.batchSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_FLUSH_INTERVAL_MILLIS).isEqualTo("spring.mail.scheduler.persistence.writeBehind.flushIntervalMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_BUFFER_CAPACITY).isEqualTo("spring.mail.scheduler.persistence.writeBehind.bufferCapacity");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_WRITE_BEHIND_DURABILITY).isEqualTo("spring.mail.scheduler.persistence.writeBehind.durability");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_ENABLED).isEqualTo("spring.mail.scheduler.persistence.deletionBuffer.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_BATCH_SIZE).isEqualTo("spring.mail.scheduler.persistence.deletionBuffer.batchSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DELETION_BUFFER_FLUSH_INTERVAL_MILLIS).isEqualTo("spring.mail.scheduler.persistence.deletionBuffer.flushIntervalMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_ENABLED).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_FAILURE_THRESHOLD).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.failureThreshold");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_CALL_TIMEOUT_MILLIS).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.callTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.openDurationMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_SPILL_FILE).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.spillFile");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_SPILL_MAX_BYTES).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.spillMaxBytes");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_CIRCUIT_BREAKER_REPLAY_BATCH_SIZE).isEqualTo("spring.mail.scheduler.persistence.circuitBreaker.replayBatchSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SNAPSHOT_ENABLED).isEqualTo("spring.mail.scheduler.snapshot.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SNAPSHOT_FILE).isEqualTo("spring.mail.scheduler.snapshot.file");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SENT_HISTORY_ENABLED).isEqualTo("spring.mail.scheduler.sentHistory.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SENT_HISTORY_STORE).isEqualTo("spring.mail.scheduler.sentHistory.store");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SENT_HISTORY_TTL_MILLIS).isEqualTo("spring.mail.scheduler.sentHistory.ttlMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SENT_HISTORY_MAX_SIZE).isEqualTo("spring.mail.scheduler.sentHistory.maxSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_CONCURRENCY_ADAPTIVE).isEqualTo("spring.mail.scheduler.concurrency.adaptive");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED).isEqualTo("spring.mail.scheduler.persistence.redis.enabled");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED).isEqualTo("spring.mail.scheduler.persistence.redis.embedded");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_HOST).isEqualTo("spring.mail.scheduler.persistence.redis.host");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT).isEqualTo("spring.mail.scheduler.persistence.redis.port");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CLIENT).isEqualTo("spring.mail.scheduler.persistence.redis.client");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS).isEqualTo("spring.mail.scheduler.persistence.redis.settings");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION).isEqualTo("spring.mail.scheduler.persistence.redis.compression");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_COMPRESSION_THRESHOLD).isEqualTo("spring.mail.scheduler.persistence.redis.compressionThreshold");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_DEDUPLICATE_ATTACHMENTS).isEqualTo("spring.mail.scheduler.persistence.redis.deduplicateAttachments");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_NAMESPACE).isEqualTo("spring.mail.scheduler.persistence.redis.namespace");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PARTITIONS).isEqualTo("spring.mail.scheduler.persistence.redis.partitions");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_CACHE_MAX_BYTES).isEqualTo("spring.mail.scheduler.persistence.redis.cacheMaxBytes");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_ENABLED).isEqualTo("spring.mail.scheduler.persistence.redis.streams.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_STREAMS_CONSUMER_GROUP).isEqualTo("spring.mail.scheduler.persistence.redis.streams.consumerGroup");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_ENABLED).isEqualTo("spring.mail.scheduler.persistence.jdbc.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_TABLE_NAME).isEqualTo("spring.mail.scheduler.persistence.jdbc.tableName");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JDBC_INITIALIZE_SCHEMA).isEqualTo("spring.mail.scheduler.persistence.jdbc.initializeSchema");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_ENABLED).isEqualTo("spring.mail.scheduler.persistence.journal.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_DIRECTORY).isEqualTo("spring.mail.scheduler.persistence.journal.directory");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_JOURNAL_SEGMENT_SIZE).isEqualTo("spring.mail.scheduler.persistence.journal.segmentSize");
         assertions.assertThat(SPRING_MAIL_LOGGING_ENABLED).isEqualTo("spring.mail.logging.enabled");
         assertions.assertThat(SPRING_MAIL_LOGGING_STRATEGY_FROM).isEqualTo("spring.mail.logging.strategy.from");
         assertions.assertThat(SPRING_MAIL_LOGGING_STRATEGY_REPLY_TO).isEqualTo("spring.mail.logging.strategy.replyTo");
@@ -18,15 +18,29 @@ package it.ozimov.springboot.mail.configuration;
 
 import com.google.common.collect.ImmutableList;
 import it.ozimov.springboot.mail.UnitTest;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.defaultimpl.DefaultPersistenceService;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static it.ozimov.springboot.mail.PortUtils.randomFreePort;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
 
 public class EmailEmbeddedRedisConfigurationTest implements UnitTest {
 
@@ -65,4 +79,80 @@ public class EmailEmbeddedRedisConfigurationTest implements UnitTest {
         exportException.expect(RedisConnectionFailureException.class);
         emailEmbeddedRedisConfiguration.redisConnectionFactory().getConnection();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPersistEmailsThroughSharedLettuceConnection() throws Exception {
+        //Arrange
+        final EmailEmbeddedRedisConfiguration emailEmbeddedRedisConfiguration = new EmailEmbeddedRedisConfiguration(
+                randomFreePort(), ImmutableList.of("appendonly no"), RedisClientType.LETTUCE);
+        final RedisConnectionFactory connectionFactory = emailEmbeddedRedisConfiguration.redisConnectionFactory();
+        ((LettuceConnectionFactory) connectionFactory).afterPropertiesSet();
+        try {
+            final EmailRedisTemplateConfiguration templateConfiguration = new EmailRedisTemplateConfiguration(connectionFactory);
+            final StringRedisTemplate orderingTemplate = templateConfiguration.createOrderingTemplate();
+            orderingTemplate.afterPropertiesSet();
+            final RedisTemplate<String, EmailSchedulingData> valueTemplate = templateConfiguration.createValueTemplate();
+            final DefaultPersistenceService persistenceService = new DefaultPersistenceService(orderingTemplate, valueTemplate);
+
+            final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+            final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+            final EmailSchedulingData third = createDefaultEmailSchedulingDataWithPriority(1);
+
+            //Act
+            persistenceService.addAll(ImmutableList.of(first, second, third));
+            final Collection<EmailSchedulingData> claimed = persistenceService.claimNextBatch(
+                    OffsetDateTime.now().plusDays(1), 2, Duration.ofMinutes(1));
+            persistenceService.ack(claimed.stream().map(EmailSchedulingData::getId).collect(Collectors.toList()));
+            persistenceService.removeAll(ImmutableList.of(second.getId()));
+
+            //Assert
+            assertions.assertThat(connectionFactory).isInstanceOf(LettuceConnectionFactory.class);
+            assertions.assertThat(claimed).containsExactly(first, third);
+            assertions.assertThat(persistenceService.get(first.getId())).isEmpty();
+            assertions.assertThat(persistenceService.get(second.getId())).isEmpty();
+            assertions.assertThat(persistenceService.getNextBatch(10)).isEmpty();
+        } finally {
+            emailEmbeddedRedisConfiguration.preDestroy();
+        }
+    }
+
+    @Test
+    public void shouldPersistEmailsAsynchronouslyThroughLettuceAsyncCommands() throws Exception {
+        //Arrange
+        final EmailEmbeddedRedisConfiguration emailEmbeddedRedisConfiguration = new EmailEmbeddedRedisConfiguration(
+                randomFreePort(), ImmutableList.of("appendonly no"), RedisClientType.LETTUCE);
+        final RedisConnectionFactory connectionFactory = emailEmbeddedRedisConfiguration.redisConnectionFactory();
+        ((LettuceConnectionFactory) connectionFactory).afterPropertiesSet();
+        try {
+            final EmailRedisTemplateConfiguration templateConfiguration = new EmailRedisTemplateConfiguration(connectionFactory);
+            final StringRedisTemplate orderingTemplate = templateConfiguration.createOrderingTemplate();
+            orderingTemplate.afterPropertiesSet();
+            final RedisTemplate<String, EmailSchedulingData> valueTemplate = templateConfiguration.createValueTemplate();
+            final DefaultPersistenceService persistenceService = new DefaultPersistenceService(orderingTemplate, valueTemplate);
+
+            final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+            final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+            final EmailSchedulingData third = createDefaultEmailSchedulingDataWithPriority(1);
+
+            //Act
+            CompletableFuture.allOf(persistenceService.addAsync(first), persistenceService.addAsync(second),
+                    persistenceService.addAsync(third)).get(10, TimeUnit.SECONDS);
+            final Collection<EmailSchedulingData> claimed = persistenceService.claimNextBatchAsync(
+                    OffsetDateTime.now().plusDays(1), 2, Duration.ofMinutes(1)).get(10, TimeUnit.SECONDS);
+            persistenceService.ackAsync(claimed.stream().map(EmailSchedulingData::getId).collect(Collectors.toList()))
+                    .get(10, TimeUnit.SECONDS);
+            final boolean removed = persistenceService.removeAsync(second.getId()).get(10, TimeUnit.SECONDS);
+
+            //Assert
+            assertions.assertThat(persistenceService.isNonBlocking()).isTrue();
+            assertions.assertThat(claimed).containsExactly(first, third);
+            assertions.assertThat(removed).isTrue();
+            assertions.assertThat(persistenceService.get(first.getId())).isEmpty();
+            assertions.assertThat(persistenceService.get(second.getId())).isEmpty();
+            assertions.assertThat(persistenceService.getNextBatch(10)).isEmpty();
+        } finally {
+            emailEmbeddedRedisConfiguration.preDestroy();
+        }
+    }
+
+}
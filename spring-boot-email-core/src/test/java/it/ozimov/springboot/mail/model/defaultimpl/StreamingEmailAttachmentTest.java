@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.model.defaultimpl;
+
+import com.google.common.io.ByteStreams;
+import it.ozimov.springboot.mail.UnitTest;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.util.SerializationUtils;
+import testutils.TestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import static it.ozimov.cirneco.hamcrest.java7.AssertFluently.fail;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.springframework.http.MediaType.APPLICATION_PDF;
+import static org.springframework.http.MediaType.IMAGE_JPEG;
+
+public class StreamingEmailAttachmentTest implements UnitTest {
+
+    private static final String FILE_PATH = "images" + File.separator + "100_percent_free.jpg";
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldHaveAttachmentName() throws Exception {
+        //Arrange
+        expectedException.expect(NullPointerException.class);
+
+        //Act
+        StreamingEmailAttachment.builder()
+                .file(getFile())
+                .build();
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldHaveEitherFileOrContentSource() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        StreamingEmailAttachment.builder()
+                .attachmentName("Attachment.jpg")
+                .file(getFile())
+                .contentSource(new ClassPathResource(FILE_PATH))
+                .build();
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldNotAcceptOpenResource() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        StreamingEmailAttachment.builder()
+                .attachmentName("Attachment.jpg")
+                .contentSource(new InputStreamResource(new ByteArrayInputStream(new byte[]{1})))
+                .build();
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldStreamContentOfFile() throws Exception {
+        //Arrange
+        final EmailAttachment emailAttachment = StreamingEmailAttachment.builder()
+                .attachmentName("Attachment.jpg")
+                .file(getFile())
+                .build();
+
+        //Act
+        final byte[] content;
+        try (final InputStream inputStream = emailAttachment.getContentSource().getInputStream()) {
+            content = ByteStreams.toByteArray(inputStream);
+        }
+
+        //Assert
+        assertThat(content, is(TestUtils.loadFileIntoByte(FILE_PATH)));
+        assertThat(emailAttachment.getAttachmentData(), is(content));
+        assertThat(emailAttachment.getContentType(), is(IMAGE_JPEG));
+        assertThat(emailAttachment.isStreamed(), is(true));
+    }
+
+    @Test
+    public void shouldSerializeOnlyPathOfFile() throws Exception {
+        //Arrange
+        final File file = getFile();
+        final StreamingEmailAttachment emailAttachment = StreamingEmailAttachment.builder()
+                .attachmentName("Attachment.jpg")
+                .file(file)
+                .build();
+
+        //Act
+        final byte[] serialized = SerializationUtils.serialize(emailAttachment);
+        final Object deserialized = SerializationUtils.deserialize(serialized);
+
+        //Assert
+        assertThat((long) serialized.length, lessThan(file.length()));
+        assertThat(deserialized, instanceOf(StreamingEmailAttachment.class));
+        assertThat(((StreamingEmailAttachment) deserialized).getFile(), is(file));
+        assertThat(((StreamingEmailAttachment) deserialized).getAttachmentData(), is(TestUtils.loadFileIntoByte(FILE_PATH)));
+    }
+
+    @Test
+    public void shouldSerializeContentOfOtherSources() throws Exception {
+        //Arrange
+        final byte[] content = {1, 2, 3};
+        final StreamingEmailAttachment emailAttachment = StreamingEmailAttachment.builder()
+                .attachmentName("Attachment.pdf")
+                .contentSource(() -> new ByteArrayInputStream(content))
+                .mediaType(APPLICATION_PDF)
+                .build();
+
+        //Act
+        final Object deserialized = SerializationUtils.deserialize(SerializationUtils.serialize(emailAttachment));
+
+        //Assert
+        assertThat(deserialized, instanceOf(DefaultEmailAttachment.class));
+        assertThat(((EmailAttachment) deserialized).getAttachmentName(), is("Attachment.pdf"));
+        assertThat(((EmailAttachment) deserialized).getAttachmentData(), is(content));
+        assertThat(((EmailAttachment) deserialized).getContentType(), is(APPLICATION_PDF));
+    }
+
+    private File getFile() throws Exception {
+        return new ClassPathResource(FILE_PATH).getFile();
+    }
+
+}
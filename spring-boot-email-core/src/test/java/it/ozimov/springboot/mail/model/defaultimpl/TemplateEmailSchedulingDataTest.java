@@ -39,4 +39,22 @@ public class TemplateEmailSchedulingDataTest {
                 .isBeforeOrEqualTo(timeAfter);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldCreateWithoutIdempotencyKeyThroughConstructorOfPreviousVersions() throws Exception {
+        //Arrange
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow();
+
+        //Act
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                new DefaultEmailSchedulingData(getSimpleMail(), scheduledDateTime, 2, 1);
+        final TemplateEmailSchedulingData templateEmailSchedulingData = new TemplateEmailSchedulingData(getSimpleMail(),
+                scheduledDateTime, 2, 1, "template.html", ImmutableMap.of(), new InlinePicture[]{});
+
+        //Assert
+        assertions.assertThat(defaultEmailSchedulingData.getIdempotencyKey()).isNull();
+        assertions.assertThat(defaultEmailSchedulingData.getAssignedPriority()).isEqualTo(1);
+        assertions.assertThat(templateEmailSchedulingData.getIdempotencyKey()).isNull();
+        assertions.assertThat(templateEmailSchedulingData.getTemplate()).isEqualTo("template.html");
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import it.ozimov.springboot.mail.service.defaultimpl.AdaptiveSendConcurrency.Outcome;
+import it.ozimov.springboot.mail.service.defaultimpl.AdaptiveSendConcurrency.Permit;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.MessagingException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class AdaptiveSendConcurrencyTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(10);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Test
+    public void shouldIncreaseLimitAdditivelyWhenSentWithinLatencyThreshold() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(2, 1, 4, 1_000, 0.5);
+
+        //Act
+        sendConcurrency.release(sendConcurrency.acquire(), Outcome.SENT, FAST);
+        sendConcurrency.release(sendConcurrency.acquire(), Outcome.SENT, FAST);
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(3);
+        assertions.assertThat(sendConcurrency.getInFlight()).isEqualTo(0);
+        assertions.assertThat(sendConcurrency.getSent()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitAboveMaximum() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(1, 1, 2, 1_000, 0.5);
+
+        //Act
+        for (int i = 0; i < 10; i++) {
+            sendConcurrency.release(sendConcurrency.acquire(), Outcome.SENT, FAST);
+        }
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitWhenLatencyIsAboveThreshold() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(1, 1, 4, 1_000, 0.5);
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            sendConcurrency.release(sendConcurrency.acquire(), Outcome.SENT, SLOW);
+        }
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDecreaseLimitMultiplicativelyWhenOverloaded() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(8, 1, 16, 1_000, 0.5);
+
+        //Act
+        sendConcurrency.release(sendConcurrency.acquire(), Outcome.OVERLOADED, FAST);
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(4);
+        assertions.assertThat(sendConcurrency.getOverloaded()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDecreaseLimitOnceForSendsStartedBeforeTheDecrease() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(8, 1, 16, 1_000, 0.5);
+        final Permit first = sendConcurrency.acquire();
+        final Permit second = sendConcurrency.acquire();
+        final Permit third = sendConcurrency.acquire();
+
+        //Act
+        sendConcurrency.release(first, Outcome.OVERLOADED, FAST);
+        sendConcurrency.release(second, Outcome.OVERLOADED, FAST);
+        sendConcurrency.release(third, Outcome.OVERLOADED, FAST);
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(4);
+        assertions.assertThat(sendConcurrency.getOverloaded()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotDecreaseLimitBelowMinimum() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(2, 2, 16, 1_000, 0.5);
+
+        //Act
+        sendConcurrency.release(sendConcurrency.acquire(), Outcome.OVERLOADED, FAST);
+        sendConcurrency.release(sendConcurrency.acquire(), Outcome.OVERLOADED, FAST);
+
+        //Assert
+        assertions.assertThat(sendConcurrency.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldWaitUntilFewerEmailsThanTheLimitAreSent() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(1, 1, 1, 1_000, 0.5);
+        final Permit permit = sendConcurrency.acquire();
+
+        //Act
+        final CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                sendConcurrency.awaitCapacity();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //Assert
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            assertions.fail("Expected to wait for the capacity");
+        } catch (TimeoutException e) {
+            //Expected
+        }
+        sendConcurrency.release(permit, Outcome.FAILED, FAST);
+        waiting.get(1, TimeUnit.SECONDS);
+        assertions.assertThat(sendConcurrency.getFailed()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldClassifyTransientErrorsAndTimeoutsAsOverloaded() throws Exception {
+        //Arrange
+        final MessagingException transientError = new SMTPSendFailedException("DATA", 421, "421 Try again later", null, null, null, null);
+        final MessagingException permanentError = new SMTPSendFailedException("DATA", 554, "554 Rejected", null, null, null, null);
+        final MessagingException timeout = new MessagingException("Exception reading response", new SocketTimeoutException("Read timed out"));
+
+        //Act & Assert
+        assertions.assertThat(AdaptiveSendConcurrency.outcomeOf(emptyList())).isEqualTo(Outcome.SENT);
+        assertions.assertThat(AdaptiveSendConcurrency.outcomeOf(singletonList(new MailSendException("Failed", transientError))))
+                .isEqualTo(Outcome.OVERLOADED);
+        assertions.assertThat(AdaptiveSendConcurrency.outcomeOf(singletonList(timeout))).isEqualTo(Outcome.OVERLOADED);
+        assertions.assertThat(AdaptiveSendConcurrency.outcomeOf(singletonList(new MailSendException("Failed", permanentError))))
+                .isEqualTo(Outcome.FAILED);
+    }
+
+    @Test
+    public void shouldRejectInitialLimitOutsideTheBounds() throws Exception {
+        //Assert
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new AdaptiveSendConcurrency(20, 1, 16, 1_000, 0.5);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, OPEN_DURATION);
+
+        //Act
+        circuitBreaker.tryAcquire();
+        circuitBreaker.onFailure();
+        final CircuitBreaker.State afterFirstFailure = circuitBreaker.getState();
+        circuitBreaker.tryAcquire();
+        circuitBreaker.onFailure();
+
+        //Assert
+        assertions.assertThat(afterFirstFailure).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void shouldResetFailuresOnSuccess() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, OPEN_DURATION);
+
+        //Act
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+
+        //Assert
+        assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void shouldLetSingleTrialThroughOnceOpenDurationElapsed() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, OPEN_DURATION);
+        circuitBreaker.onFailure();
+
+        //Act
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+        final boolean trial = circuitBreaker.tryAcquire();
+        final boolean secondTrial = circuitBreaker.tryAcquire();
+        circuitBreaker.onSuccess();
+
+        //Assert
+        assertions.assertThat(trial).isTrue();
+        assertions.assertThat(secondTrial).isFalse();
+        assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldOpenAgainOnFailedTrial() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, OPEN_DURATION);
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+
+        //Act
+        circuitBreaker.tryAcquire();
+        circuitBreaker.onFailure();
+
+        //Assert
+        assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void shouldLetAnotherTrialThroughOnRelease() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, OPEN_DURATION);
+        circuitBreaker.onFailure();
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+        circuitBreaker.tryAcquire();
+
+        //Act
+        circuitBreaker.release();
+
+        //Assert
+        assertions.assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertions.assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+
+}
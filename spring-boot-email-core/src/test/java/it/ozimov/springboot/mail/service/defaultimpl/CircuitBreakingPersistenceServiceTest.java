@@ -0,0 +1,363 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.mockito.InOrder;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static java.util.Collections.singletonList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CircuitBreakingPersistenceServiceTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+    private static final Duration CALL_TIMEOUT = Duration.ofMillis(200);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private PersistenceService persistenceService;
+
+    private PersistenceSpill spill;
+
+    private CircuitBreakingPersistenceService circuitBreakingPersistenceService;
+
+    @Before
+    public void setUp() throws Exception {
+        persistenceService = mock(PersistenceService.class);
+        spill = new PersistenceSpill(temporaryFolder.getRoot().toPath().resolve("persistence.spill"), 1024 * 1024);
+        circuitBreakingPersistenceService = new CircuitBreakingPersistenceService(persistenceService,
+                new CircuitBreaker(1, OPEN_DURATION), spill, CALL_TIMEOUT, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reset(persistenceService);
+        circuitBreakingPersistenceService.close();
+    }
+
+    @Test
+    public void shouldDelegateWhileAvailable() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        when(persistenceService.get(emailSchedulingData.getId())).thenReturn(Optional.of(emailSchedulingData));
+
+        //Act
+        circuitBreakingPersistenceService.add(emailSchedulingData);
+        final Optional<EmailSchedulingData> read = circuitBreakingPersistenceService.get(emailSchedulingData.getId());
+
+        //Assert
+        verify(persistenceService).add(emailSchedulingData);
+        assertions.assertThat(read).contains(emailSchedulingData);
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(circuitBreakingPersistenceService.circuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldSpillWritesAndOpenCircuitWhenUnavailable() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+
+        //Act
+        circuitBreakingPersistenceService.add(first);
+        circuitBreakingPersistenceService.add(second);
+        final boolean removed = circuitBreakingPersistenceService.remove(first.getId());
+
+        //Assert
+        verify(persistenceService).add(first);
+        verify(persistenceService, never()).add(second);
+        verify(persistenceService, never()).remove(any());
+        assertions.assertThat(removed).isTrue();
+        assertions.assertThat(spill.size()).isEqualTo(3);
+        assertions.assertThat(circuitBreakingPersistenceService.circuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldReplaySpilledWritesInOrderOnceAvailable() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+        circuitBreakingPersistenceService.add(first);
+        circuitBreakingPersistenceService.add(second);
+        circuitBreakingPersistenceService.removeAll(singletonList(first.getId()));
+        reset(persistenceService);
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+
+        //Act
+        final boolean replayed = circuitBreakingPersistenceService.replay();
+
+        //Assert
+        final InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).addAll(ImmutableList.of(first, second));
+        inOrder.verify(persistenceService).removeAll(singletonList(first.getId()));
+        assertions.assertThat(replayed).isTrue();
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(circuitBreakingPersistenceService.circuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldSpillWritesWhileSpillIsNotEmpty() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+        circuitBreakingPersistenceService.add(first);
+        reset(persistenceService);
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+
+        //Act
+        circuitBreakingPersistenceService.add(second);
+
+        //Assert
+        verify(persistenceService, never()).add(any());
+        assertions.assertThat(spill.size()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void shouldCutOffSlowCalls() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        doAnswer(invocation -> {
+            TimeUnit.SECONDS.sleep(5);
+            return null;
+        }).when(persistenceService).add(any());
+
+        //Act
+        final long start = System.nanoTime();
+        circuitBreakingPersistenceService.add(emailSchedulingData);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //Assert
+        assertions.assertThat(elapsedMillis).isLessThan(2_000);
+        assertions.assertThat(spill.size()).isEqualTo(1);
+        assertions.assertThat(circuitBreakingPersistenceService.circuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldReturnEmptyReadsWhileCircuitIsOpen() throws Exception {
+        //Arrange
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+        circuitBreakingPersistenceService.add(createDefaultEmailSchedulingDataWithPriority(1));
+
+        //Act
+        final Optional<EmailSchedulingData> read = circuitBreakingPersistenceService.get("1");
+
+        //Assert
+        verify(persistenceService, never()).get(any());
+        verify(persistenceService, never()).getNextBatch(10);
+        assertions.assertThat(read).isEmpty();
+        assertions.assertThat(circuitBreakingPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldSpillRemovalOfPriorityLevelAfterSpilledAdditions() throws Exception {
+        //Arrange
+        final EmailSchedulingData removed = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+        circuitBreakingPersistenceService.add(removed);
+        circuitBreakingPersistenceService.add(kept);
+        reset(persistenceService);
+        when(persistenceService.getNextBatch(10)).thenReturn(ImmutableList.of(removed, kept));
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+
+        //Act
+        circuitBreakingPersistenceService.removeAll(1);
+
+        //Assert
+        verify(persistenceService, never()).removeAll(1);
+        assertions.assertThat(circuitBreakingPersistenceService.getNextBatch(10)).containsExactly(kept);
+
+        //Act
+        final boolean replayed = circuitBreakingPersistenceService.replay();
+
+        //Assert
+        final InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).addAll(ImmutableList.of(removed, kept));
+        inOrder.verify(persistenceService).removeAll(1);
+        assertions.assertThat(replayed).isTrue();
+        assertions.assertThat(spill.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldMoveRejectedChangesToDeadLetterAndReplayTheOthers() throws Exception {
+        //Arrange
+        final EmailSchedulingData rejected = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData accepted = createDefaultEmailSchedulingDataWithPriority(2);
+        final EmailSchedulingData later = createDefaultEmailSchedulingDataWithPriority(3);
+        doThrow(new RedisConnectionFailureException("down")).when(persistenceService).add(any());
+        circuitBreakingPersistenceService.add(rejected);
+        circuitBreakingPersistenceService.addAll(singletonList(accepted));
+        circuitBreakingPersistenceService.removeAll(singletonList(accepted.getId()));
+        reset(persistenceService);
+        doThrow(new IllegalArgumentException("wrong")).when(persistenceService).addAll(ImmutableList.of(rejected, accepted));
+        doThrow(new IllegalArgumentException("wrong")).when(persistenceService).addAll(singletonList(rejected));
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() * 2);
+
+        //Act
+        final boolean replayed = circuitBreakingPersistenceService.replay();
+        circuitBreakingPersistenceService.add(later);
+
+        //Assert
+        final InOrder inOrder = inOrder(persistenceService);
+        inOrder.verify(persistenceService).addAll(singletonList(accepted));
+        inOrder.verify(persistenceService).removeAll(singletonList(accepted.getId()));
+        inOrder.verify(persistenceService).add(later);
+        assertions.assertThat(replayed).isTrue();
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(spill.getDeadLetterPath()).exists();
+        try (PersistenceSpill deadLetter = new PersistenceSpill(spill.getDeadLetterPath(), 1024 * 1024)) {
+            final List<PersistenceSpill.Record> records = deadLetter.read(10);
+            assertions.assertThat(records).hasSize(1);
+            assertions.assertThat(records.get(0).getEmailSchedulingData()).isEqualTo(rejected);
+        }
+    }
+
+    @Test
+    public void shouldMoveUndecodableChangesToDeadLetterAndReplayTheOthers() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        circuitBreakingPersistenceService.close();
+        final Path path = spill.getPath();
+        final ByteBuffer undecodable = ByteBuffer.allocate(Byte.BYTES + Integer.BYTES + 3)
+                .put((byte) PersistenceSpill.Operation.ADD.ordinal()).putInt(3).put(new byte[]{1, 2, 3});
+        Files.write(path, undecodable.array());
+        spill = new PersistenceSpill(path, 1024 * 1024);
+        spill.add(singletonList(emailSchedulingData));
+        circuitBreakingPersistenceService = new CircuitBreakingPersistenceService(persistenceService,
+                new CircuitBreaker(1, OPEN_DURATION), spill, CALL_TIMEOUT, 10);
+
+        //Act
+        final boolean replayed = circuitBreakingPersistenceService.replay();
+
+        //Assert
+        verify(persistenceService).addAll(singletonList(emailSchedulingData));
+        assertions.assertThat(replayed).isTrue();
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(Files.readAllBytes(spill.getDeadLetterPath())).containsExactly(undecodable.array());
+    }
+
+    @Test
+    public void shouldKeepReplayingAfterErrorsOfTheReplay() throws Exception {
+        //Arrange
+        final PersistenceSpill failingSpill = mock(PersistenceSpill.class);
+        when(failingSpill.isEmpty()).thenReturn(false);
+        when(failingSpill.read(10))
+                .thenThrow(new UncheckedIOException(new IOException("unreadable")))
+                .thenReturn(Collections.emptyList());
+
+        //Act
+        final CircuitBreakingPersistenceService replaying = new CircuitBreakingPersistenceService(persistenceService,
+                new CircuitBreaker(1, OPEN_DURATION), failingSpill, CALL_TIMEOUT, 10);
+
+        //Assert
+        try {
+            verify(failingSpill, timeout(5_000).atLeast(2)).read(10);
+        } finally {
+            replaying.close();
+        }
+    }
+
+    @Test
+    public void shouldFilterEmailsWithPendingRemovals() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+        spill.remove(PersistenceSpill.Operation.REMOVE, singletonList(first.getId()));
+        when(persistenceService.getNextBatch(10)).thenReturn(ImmutableList.of(first, second));
+
+        //Act
+        final Optional<EmailSchedulingData> read = circuitBreakingPersistenceService.get(first.getId());
+
+        //Assert
+        assertions.assertThat(read).isEmpty();
+        assertions.assertThat(circuitBreakingPersistenceService.getNextBatch(10)).containsExactly(second);
+    }
+
+    @Test
+    public void shouldPropagateErrorsOfTheCallWithoutSpilling() throws Exception {
+        //Arrange
+        doThrow(new IllegalArgumentException("wrong")).when(persistenceService).removeAll(anyCollection());
+
+        //Assert
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        try {
+            circuitBreakingPersistenceService.removeAll(singletonList("1"));
+        } finally {
+            assertions.assertThat(spill.isEmpty()).isTrue();
+            assertions.assertThat(circuitBreakingPersistenceService.circuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        }
+    }
+
+    @Test
+    public void shouldRejectClaimingWithoutClaimingService() throws Exception {
+        //Assert
+        expectedException.expect(UnsupportedOperationException.class);
+
+        //Act
+        circuitBreakingPersistenceService.ack(singletonList("1"));
+    }
+
+}
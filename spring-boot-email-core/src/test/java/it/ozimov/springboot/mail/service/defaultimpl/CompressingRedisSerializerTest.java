@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static org.junit.Assert.fail;
+
+public class CompressingRedisSerializerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldThrowExceptionWhenThresholdIsNegative() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new CompressingRedisSerializer(PayloadCompression.DEFLATE, -1);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldNotCompressWhenCompressionIsNone() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.NONE, 0);
+
+        //Act
+        final byte[] serialized = serializer.serialize(emailSchedulingData);
+
+        //Assert
+        assertions.assertThat(serialized).isEqualTo(new JdkSerializationRedisSerializer().serialize(emailSchedulingData));
+        assertions.assertThat(serializer.deserialize(serialized)).isEqualTo(emailSchedulingData);
+    }
+
+    @Test
+    public void shouldNotCompressWhenBelowThreshold() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, Integer.MAX_VALUE);
+
+        //Act
+        final byte[] serialized = serializer.serialize(emailSchedulingData);
+
+        //Assert
+        assertions.assertThat(serialized[0]).isNotEqualTo(CompressingRedisSerializer.HEADER_MARKER);
+        assertions.assertThat(serializer.deserialize(serialized)).isEqualTo(emailSchedulingData);
+    }
+
+    @Test
+    public void shouldCompressAndDecompress() throws Exception {
+        for (PayloadCompression compression : PayloadCompression.values()) {
+            if (compression == PayloadCompression.NONE) {
+                continue;
+            }
+            //Arrange
+            final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+            final CompressingRedisSerializer serializer = new CompressingRedisSerializer(compression, 0);
+            final byte[] uncompressed = new JdkSerializationRedisSerializer().serialize(emailSchedulingData);
+
+            //Act
+            final byte[] serialized = serializer.serialize(emailSchedulingData);
+
+            //Assert
+            assertions.assertThat(serialized[0]).isEqualTo(CompressingRedisSerializer.HEADER_MARKER);
+            assertions.assertThat(serialized[1]).isEqualTo(compression.getId());
+            assertions.assertThat(serialized.length).isLessThan(uncompressed.length);
+            assertions.assertThat(serializer.deserialize(serialized)).isEqualTo(emailSchedulingData);
+        }
+    }
+
+    @Test
+    public void shouldDeserializeLegacyPayloads() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        final byte[] legacy = new JdkSerializationRedisSerializer().serialize(emailSchedulingData);
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+
+        //Act
+        final Object deserialized = serializer.deserialize(legacy);
+
+        //Assert
+        assertions.assertThat(deserialized).isEqualTo(emailSchedulingData);
+    }
+
+    @Test
+    public void shouldDeserializeNullAndEmptyAsNull() throws Exception {
+        //Arrange
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+
+        //Act & Assert
+        assertions.assertThat(serializer.deserialize(null)).isNull();
+        assertions.assertThat(serializer.deserialize(new byte[0])).isNull();
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenCompressedPayloadIsCorrupted() throws Exception {
+        //Arrange
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+        final byte[] serialized = serializer.serialize(createDefaultEmailSchedulingDataWithPriority(1));
+        final byte[] truncated = Arrays.copyOf(serialized, serialized.length / 2);
+
+        expectedException.expect(SerializationException.class);
+
+        //Act
+        serializer.deserialize(truncated);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenCompressedPayloadDeclaresNegativeLength() throws Exception {
+        //Arrange
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+        final byte[] serialized = serializer.serialize(createDefaultEmailSchedulingDataWithPriority(1));
+        ByteBuffer.wrap(serialized, 2, Integer.BYTES).putInt(-1);
+
+        expectedException.expect(SerializationException.class);
+
+        //Act
+        serializer.deserialize(serialized);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenCompressedPayloadDeclaresImplausibleLength() throws Exception {
+        //Arrange
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+        final byte[] serialized = serializer.serialize(createDefaultEmailSchedulingDataWithPriority(1));
+        ByteBuffer.wrap(serialized, 2, Integer.BYTES).putInt(Integer.MAX_VALUE);
+
+        expectedException.expect(SerializationException.class);
+
+        //Act
+        serializer.deserialize(serialized);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldThrowSerializationExceptionWhenCompressionIsUnknown() throws Exception {
+        //Arrange
+        final CompressingRedisSerializer serializer = new CompressingRedisSerializer(PayloadCompression.DEFLATE, 0);
+        final byte[] serialized = serializer.serialize(createDefaultEmailSchedulingDataWithPriority(1));
+        serialized[1] = Byte.MAX_VALUE;
+
+        expectedException.expect(SerializationException.class);
+
+        //Act
+        serializer.deserialize(serialized);
+
+        //Assert
+        fail();
+    }
+
+}
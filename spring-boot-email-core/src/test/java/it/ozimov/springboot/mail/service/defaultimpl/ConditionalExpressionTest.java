@@ -70,12 +70,83 @@ public class ConditionalExpressionTest {
                         " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'");
 
+        assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_JDBC)
+                .as("The condition for enabling the persistence layer using JDBC should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.jdbc.enabled:false}' == 'true'");
+
+        assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_JOURNAL)
+                .as("The condition for enabling the persistence layer using the file journal should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.journal.enabled:false}' == 'true'");
+
+        assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_DEFAULT_BACKEND)
+                .as("The condition for enabling the persistence layer using the default backend should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.jdbc.enabled:false}' != 'true'" +
+                        " && '${spring.mail.scheduler.persistence.journal.enabled:false}' != 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.streams.enabled:false}' != 'true'");
+
+        assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_REDIS_STREAMS)
+                .as("The condition for enabling the persistence layer using REDIS Streams should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.streams.enabled:false}' == 'true'");
+
         assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_EMBEDDED_REDIS)
                 .as("The condition for enabling the persistence layer using embedded redis should not change")
                 .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.redis.embedded:false}' == 'true'");
+
+        assertions.assertThat(PERSISTENCE_IS_ENABLED_WITH_LETTUCE_REDIS)
+                .as("The condition for enabling the persistence layer using REDIS through Lettuce should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.embedded:false}' != 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.client:JEDIS}' == 'LETTUCE'");
+
+        assertions.assertThat(SENT_HISTORY_IS_ENABLED_IN_MEMORY)
+                .as("The condition for enabling the in-memory sent-history should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.sentHistory.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.sentHistory.store:MEMORY}' == 'MEMORY'");
+
+        assertions.assertThat(SENT_HISTORY_IS_ENABLED_WITH_REDIS)
+                .as("The condition for enabling the sent-history in REDIS should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.sentHistory.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.sentHistory.store:MEMORY}' == 'REDIS'");
+
+        assertions.assertThat(SEND_CONCURRENCY_IS_ADAPTIVE)
+                .as("The condition for enabling the adaptive send concurrency should not change")
+                .isEqualTo("'${spring.mail.scheduler.enabled:false}' == 'true'" +
+                        " && '${spring.mail.scheduler.concurrency.adaptive:false}' == 'true'");
+
+        assertions.assertThat(TRANSPORT_POOL_IS_ENABLED)
+                .as("The condition for enabling the pool of SMTP connections should not change")
+                .isEqualTo("'${spring.mail.transportPool.enabled:false}' == 'true'" +
+                        " && '${spring.mail.relayGroup.enabled:false}' != 'true'");
+
+        assertions.assertThat(RELAY_GROUP_IS_ENABLED)
+                .as("The condition for enabling the group of SMTP relays should not change")
+                .isEqualTo("'${spring.mail.relayGroup.enabled:false}' == 'true'");
+
+        assertions.assertThat(INLINE_PICTURE_CACHE_IS_ENABLED)
+                .as("The condition for enabling the cache of the inline pictures should not change")
+                .isEqualTo("'${spring.mail.inlinePictureCache.enabled:true}' == 'true'");
+
+        assertions.assertThat(ENCODED_PART_CACHE_IS_ENABLED)
+                .as("The condition for enabling the cache of the encoded attachments should not change")
+                .isEqualTo("'${spring.mail.encodedPartCache.enabled:false}' == 'true'");
     }
 
 }
\ No newline at end of file
@@ -17,29 +17,39 @@
 package it.ozimov.springboot.mail.service.defaultimpl;
 
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import it.ozimov.springboot.mail.UnitTest;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailAttachment;
 import it.ozimov.springboot.mail.model.ImageType;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultInlinePicture;
+import it.ozimov.springboot.mail.model.defaultimpl.StreamingEmailAttachment;
+import it.ozimov.springboot.mail.service.EmailSendResult;
 import it.ozimov.springboot.mail.service.TemplateService;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
 import it.ozimov.springboot.mail.service.exception.TemplateException;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessage;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessageValidators;
+import it.ozimov.springboot.mail.utils.EncodedPartCache;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
@@ -47,9 +57,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMailWithAttachments;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.fail;
@@ -138,6 +152,30 @@ public class DefaultEmailServiceTest extends EmailToMimeMessageValidators implem
         verify(javaMailSender, times(1)).send(any(MimeMessage.class));
     }
 
+    @Test
+    public void shouldBuildTemplatedMimeMessageOnce() throws Exception {
+        //Arrange
+        final EmailToMimeMessage emailToMimeMessageSpy = spy(emailToMimeMessage);
+        final DefaultEmailService mailService = new DefaultEmailService(javaMailSender, templateService,
+                emailToMimeMessageSpy, emailLogRenderer);
+        final Email email = getSimpleMailWithAttachments();
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn("Ciao Tito");
+
+        //Act
+        final MimeMessage sentMessage = mailService.send(email, "never_called.ftl", Maps.newHashMap());
+
+        //Assert
+        final MimeMultipart content = (MimeMultipart) sentMessage.getContent();
+        assertThat(content.getCount(), is(3));
+        assertThat(content.getBodyPart(0).getFileName(), is("test1.csv"));
+        assertThat(content.getBodyPart(1).getFileName(), is("test2.csv"));
+        assertThat(content.getBodyPart(2).getContent(), is("Ciao Tito"));
+
+        verify(emailToMimeMessageSpy, never()).apply(email);
+        verify(emailToMimeMessageSpy, times(1)).apply(eq(email), any(MimeMultipart.class));
+        verify(javaMailSender, times(1)).createMimeMessage();
+    }
+
     @Test
     public void sendMailWithTemplateAndInlinePicture() throws MessagingException, IOException, TemplateException, CannotSendEmailException, URISyntaxException {
         //Arrange
@@ -175,6 +213,101 @@ public class DefaultEmailServiceTest extends EmailToMimeMessageValidators implem
         verify(templateService, times(1)).mergeTemplateIntoString(any(String.class), any(Map.class));
     }
 
+    @Test
+    public void shouldSetDistinctCidOfEveryInlinePicture() throws Exception {
+        //Arrange
+        final File inlineImageFile = new File(getClass().getClassLoader()
+                .getResource("images" + File.separator + "100_percent_free.jpg").toURI());
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class)))
+                .thenReturn("<img src=\"images/logo.jpg\" /><img src=\"logo.jpg\" /><img src=\"images/logo.jpg\" />");
+
+        //Act
+        final MimeMessage sentMessage = mailService.send(getSimpleMail(), "never_called.ftl", Maps.newHashMap(),
+                getInlinePicture(inlineImageFile, "logo.jpg"), getInlinePicture(inlineImageFile, "images/logo.jpg"));
+
+        //Assert
+        final MimeMultipart content = (MimeMultipart) sentMessage.getContent();
+        final String firstCid = ((MimeBodyPart) content.getBodyPart(0)).getContentID();
+        final String secondCid = ((MimeBodyPart) content.getBodyPart(1)).getContentID();
+        assertThat(firstCid, not(is(secondCid)));
+        assertThat(content.getBodyPart(2).getContent(),
+                is("<img src=\"cid:" + secondCid.substring(1, secondCid.length() - 1) + "\" />" +
+                        "<img src=\"cid:" + firstCid.substring(1, firstCid.length() - 1) + "\" />" +
+                        "<img src=\"cid:" + secondCid.substring(1, secondCid.length() - 1) + "\" />"));
+    }
+
+    @Test
+    public void shouldReadInlinePictureFromCache() throws Exception {
+        //Arrange
+        final String imageName = "100_percent_free.jpg";
+        final File inlineImageFile = new File(getClass().getClassLoader()
+                .getResource("images" + File.separator + imageName).toURI());
+        final InlinePictureCache inlinePictureCache = spy(new InlinePictureCache(1_048_576));
+        mailService.setInlinePictureCache(inlinePictureCache);
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class)))
+                .thenReturn("<img src=\"100_percent_free.jpg\" />");
+
+        //Act
+        final MimeMessage firstMessage = mailService.send(getSimpleMail(), "never_called.ftl", Maps.newHashMap(),
+                getInlinePicture(inlineImageFile, imageName));
+        final MimeMessage secondMessage = mailService.send(getSimpleMail(), "never_called.ftl", Maps.newHashMap(),
+                getInlinePicture(inlineImageFile, imageName));
+
+        //Assert
+        final MimeBodyPart imagePart = (MimeBodyPart) ((MimeMultipart) secondMessage.getContent()).getBodyPart(0);
+        assertThat(imagePart.getFileName(), is(imageName));
+        assertThat(imagePart.getContentType(), is("image/jpeg"));
+        assertThat(ByteStreams.toByteArray(imagePart.getInputStream()),
+                is(Files.readAllBytes(inlineImageFile.toPath())));
+        assertThat(inlinePictureCache.size(), is(1L));
+        verify(inlinePictureCache, times(2)).getContent(inlineImageFile);
+    }
+
+    @Test
+    public void shouldReuseEncodedAttachmentsFromCache() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = spy(new EncodedPartCache(1_048_576));
+        mailService.setEncodedPartCache(encodedPartCache);
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn("Ciao Tito");
+
+        //Act
+        mailService.send(getSimpleMailWithAttachments(), "never_called.ftl", Maps.newHashMap());
+        final MimeMessage sentMessage = mailService.send(getSimpleMailWithAttachments(), "never_called.ftl",
+                Maps.newHashMap());
+
+        //Assert
+        final MimeMultipart content = (MimeMultipart) sentMessage.getContent();
+        assertThat(content.getCount(), is(3));
+        assertThat(content.getBodyPart(0).getFileName(), is("test1.csv"));
+        assertThat(content.getBodyPart(1).getFileName(), is("test2.csv"));
+        assertThat(content.getBodyPart(2).getContent(), is("Ciao Tito"));
+        //Both the attachments have the same content
+        assertThat(encodedPartCache.size(), is(1L));
+        verify(encodedPartCache, times(4)).attachmentPart(any(EmailAttachment.class));
+    }
+
+    @Test
+    public void shouldStreamContentOfFileAttachment() throws Exception {
+        //Arrange
+        final File file = new File(getClass().getClassLoader()
+                .getResource("images" + File.separator + "100_percent_free.jpg").toURI());
+        final Email email = getSimpleMail(new InternetAddress("cicero@mala-tempora.currunt"),
+                StreamingEmailAttachment.builder()
+                        .attachmentName("picture.jpg")
+                        .file(file)
+                        .build());
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn("Ciao Tito");
+
+        //Act
+        final MimeMessage sentMessage = mailService.send(email, "never_called.ftl", Maps.newHashMap());
+
+        //Assert
+        final MimeBodyPart attachmentPart = (MimeBodyPart) ((MimeMultipart) sentMessage.getContent()).getBodyPart(0);
+        assertThat(attachmentPart.getFileName(), is("picture.jpg"));
+        assertThat(attachmentPart.getContentType(), org.hamcrest.Matchers.startsWith("image/jpeg"));
+        assertThat(ByteStreams.toByteArray(attachmentPart.getInputStream()), is(Files.readAllBytes(file.toPath())));
+    }
+
     @Test
     public void sendMailWithoutTemplateShouldThrowExceptionWhenEmailIsNull() {
         //Arrange
@@ -295,6 +428,104 @@ public class DefaultEmailServiceTest extends EmailToMimeMessageValidators implem
         fail();
     }
 
+    @Test
+    public void shouldSendMailThroughTransportPoolWhenAvailable() throws Exception {
+        //Arrange
+        final SmtpTransportPool smtpTransportPool = mock(SmtpTransportPool.class);
+        final DefaultEmailService pooledMailService = new DefaultEmailService(javaMailSender, templateService,
+                emailToMimeMessage, emailLogRenderer, smtpTransportPool);
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn("Ciao Tito");
+
+        //Act
+        pooledMailService.send(getSimpleMail());
+        pooledMailService.send(getSimpleMail(), "never_called.ftl", Maps.newHashMap());
+
+        //Assert
+        verify(smtpTransportPool, times(2)).send(any(MimeMessage.class));
+        verify(javaMailSender, never()).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void shouldSendMailThroughRelayGroupWhenAvailable() throws Exception {
+        //Arrange
+        final SmtpRelayGroup smtpRelayGroup = mock(SmtpRelayGroup.class);
+        final DefaultEmailService relayedMailService = new DefaultEmailService(javaMailSender, templateService,
+                emailToMimeMessage, emailLogRenderer, smtpRelayGroup);
+
+        //Act
+        relayedMailService.send(getSimpleMail());
+        relayedMailService.sendAll(ImmutableList.of(getSimpleMail(), getSimpleMail()));
+
+        //Assert
+        verify(smtpRelayGroup, times(2)).send(Matchers.<MimeMessage[]>anyVararg());
+        verify(javaMailSender, never()).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void shouldSendAllMailsInSingleCall() throws Exception {
+        //Arrange
+        when(javaMailSender.createMimeMessage()).thenAnswer(invocation -> new MimeMessage((Session) null));
+        final List<Email> emails = ImmutableList.of(getSimpleMail(), getSimpleMail());
+
+        //Act
+        final List<EmailSendResult> results = mailService.sendAll(emails);
+
+        //Assert
+        assertThat(results, hasSize(2));
+        assertThat(results.get(0).isSent(), is(true));
+        assertThat(results.get(0).getEmail(), is(emails.get(0)));
+        assertThat(results.get(1).isSent(), is(true));
+        assertThat(results.get(1).getEmail(), is(emails.get(1)));
+        assertThat(emails.get(0).getSentAt(), not(is(nullValue())));
+        verify(javaMailSender, times(1)).send(Matchers.<MimeMessage[]>anyVararg());
+        verify(javaMailSender, never()).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void shouldReportFailedMessagesWhenSendingAll() throws Exception {
+        //Arrange
+        final List<MimeMessage> mimeMessages = new ArrayList<>();
+        when(javaMailSender.createMimeMessage()).thenAnswer(invocation -> {
+            final MimeMessage mimeMessage = new MimeMessage((Session) null);
+            mimeMessages.add(mimeMessage);
+            return mimeMessage;
+        });
+        final MessagingException failure = new MessagingException("Rejected recipient");
+        doAnswer(invocation -> {
+            throw new MailSendException(ImmutableMap.of(mimeMessages.get(1), failure));
+        }).when(javaMailSender).send(Matchers.<MimeMessage[]>anyVararg());
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn("Ciao Tito");
+
+        //Act
+        final List<EmailSendResult> results = mailService.sendAll(ImmutableList.of(getSimpleMail(), getSimpleMail()),
+                "never_called.ftl", Maps.newHashMap());
+
+        //Assert
+        assertThat(results, hasSize(2));
+        assertThat(results.get(0).isSent(), is(true));
+        assertThat(results.get(0).getMimeMessage(), is(mimeMessages.get(0)));
+        assertThat(results.get(1).isSent(), is(false));
+        assertThat(results.get(1).getException(), is(failure));
+    }
+
+    @Test
+    public void shouldFailAllMailsWhenConnectionFailsWhileSendingAll() throws Exception {
+        //Arrange
+        when(javaMailSender.createMimeMessage()).thenAnswer(invocation -> new MimeMessage((Session) null));
+        final MailSendException failure = new MailSendException("Mail server connection failed");
+        doThrow(failure).when(javaMailSender).send(Matchers.<MimeMessage[]>anyVararg());
+
+        //Act
+        final List<EmailSendResult> results = mailService.sendAll(ImmutableList.of(getSimpleMail(), getSimpleMail()));
+
+        //Assert
+        assertThat(results, hasSize(2));
+        assertThat(results.get(0).isSent(), is(false));
+        assertThat(results.get(0).getException(), is(failure));
+        assertThat(results.get(1).isSent(), is(false));
+        assertThat(results.get(1).getException(), is(failure));
+    }
+
     private it.ozimov.springboot.mail.model.InlinePicture getInlinePicture(final File inlineImageFile, final String imageName) {
         return DefaultInlinePicture.builder()
                 .file(inlineImageFile)
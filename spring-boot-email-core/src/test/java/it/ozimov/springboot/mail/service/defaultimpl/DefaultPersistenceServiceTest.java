@@ -18,7 +18,9 @@ package it.ozimov.springboot.mail.service.defaultimpl;
 
 import com.google.common.collect.ImmutableList;
 import it.ozimov.springboot.mail.BaseRedisTest;
+import it.ozimov.springboot.mail.model.Email;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailAttachment;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
 import it.ozimov.springboot.mail.utils.TimeUtils;
@@ -28,32 +30,49 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
-import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.mail.internet.InternetAddress;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.danhaywood.java.assertjext.Conditions.matchedBy;
 import static it.ozimov.cirneco.hamcrest.java7.javautils.IsUUID.UUID;
 import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
 import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createTemplateEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
 import static org.junit.Assert.fail;
-import static org.mockito.Mockito.inOrder;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes = BaseRedisTest.ContextConfiguration.class)
@@ -81,10 +100,9 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
     @Qualifier("defaultEmailPersistenceService")
     private DefaultPersistenceService defaultPersistenceService;
 
-    @Captor
-    private ArgumentCaptor<String> valueTemplateKeyArgumentCaptor;
-    @Captor
-    private ArgumentCaptor<String> orderingTemplateKeyArgumentCaptor;
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
 
     @Test
     public void shouldAddThrowNullPointerExceptionWhenInputParamIsNull() throws Exception {
@@ -137,15 +155,10 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
         defaultPersistenceService.add(emailSchedulingData);
 
         //Assert
-        InOrder inOrder = inOrder(orderingTemplate, valueTemplate);
-
-        inOrder.verify(orderingTemplate).boundZSetOps(orderingTemplateKeyArgumentCaptor.capture());
-        String orderingKey = orderingTemplateKeyArgumentCaptor.getValue();
-        assertions.assertThat(orderingKey).isEqualTo(expectedOrderingKey);
-
-        inOrder.verify(valueTemplate).boundValueOps(valueTemplateKeyArgumentCaptor.capture());
-        String valueKey = valueTemplateKeyArgumentCaptor.getValue();
-        assertions.assertThat(valueKey).is(matchedBy(UUID()));
+        assertions.assertThat(orderingTemplate.boundZSetOps(expectedOrderingKey).score(expectedValueKey))
+                .isNotNull();
+        assertions.assertThat(defaultPersistenceService.get(expectedValueKey)).contains(emailSchedulingData);
+        assertions.assertThat(expectedValueKey).is(matchedBy(UUID()));
     }
 
 
@@ -331,11 +344,11 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
 
         //Assert
         assertions.assertThat(removed).isTrue();
+        assertions.assertThat(valueTemplate.hasKey(expectedValueKey)).isFalse();
+        assertions.assertThat(orderingTemplate.hasKey(expectedOrderingKey)).isFalse();
 
-        InOrder inOrder = inOrder(orderingTemplate, valueTemplate);
-
-        inOrder.verify(valueTemplate).delete(expectedValueKey);
-        inOrder.verify(orderingTemplate).boundZSetOps(expectedOrderingKey);
+        //The payload is not read back to find the ordering set
+        verify(valueTemplate, never()).boundValueOps(expectedValueKey);
     }
 
     @Test
@@ -420,6 +433,56 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
 
     }
 
+    @Test
+    public void shouldAddAllWriteEmailsWithSingleRoundTrip() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> emailSchedulingDataList = ImmutableList.of(
+                createDefaultEmailSchedulingDataWithPriority(1), createDefaultEmailSchedulingDataWithPriority(2),
+                createTemplateEmailSchedulingDataWithPriority(3));
+
+        //Act
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+
+        //Assert
+        verify(valueTemplate, times(1)).execute(any(RedisCallback.class));
+        verify(valueTemplate, never()).boundValueOps(anyString());
+        verify(orderingTemplate, never()).boundZSetOps(anyString());
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10))
+                .containsOnlyElementsOf(emailSchedulingDataList)
+                .hasSize(emailSchedulingDataList.size());
+    }
+
+    @Test
+    public void shouldAddAllSplitLargePayloadsAcrossRoundTrips() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final byte[] attachmentData = new byte[DefaultPersistenceService.ENQUEUE_CHUNK_MAX_BYTES / 3];
+            ThreadLocalRandom.current().nextBytes(attachmentData);
+            final Email email = getSimpleMail(new InternetAddress("cicero@mala-tempora.currunt"),
+                    DefaultEmailAttachment.builder()
+                            .attachmentName("data.bin")
+                            .attachmentData(attachmentData)
+                            .mediaType(MediaType.APPLICATION_OCTET_STREAM)
+                            .build());
+            emailSchedulingDataList.add(DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                    .email(email)
+                    .scheduledDateTime(TimeUtils.offsetDateTimeNow())
+                    .assignedPriority(1)
+                    .desiredPriority(1)
+                    .build());
+        }
+
+        //Act
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+
+        //Assert
+        verify(valueTemplate, times(2)).execute(any(RedisCallback.class));
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10))
+                .containsOnlyElementsOf(emailSchedulingDataList)
+                .hasSize(emailSchedulingDataList.size());
+    }
+
     @Test
     public void shouldGetNextBatchForOrderingKeyReturnNothingGivenNonPositiveBatchSize() throws Exception {
         //Arrange
@@ -745,4 +808,278 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
         defaultPersistenceService.removeAll(ImmutableList.of(unmappedKey));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldClaimNextBatchReturnDueEmailsOnlyOnce() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData due_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData due_2 = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData notDue = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.HOURS.toNanos(1));
+        defaultPersistenceService.addAll(ImmutableList.of(due_1, due_2, notDue));
+
+        final OffsetDateTime dueBefore = TimeUtils.offsetDateTimeNow().plusMinutes(1);
+
+        //Act
+        final Collection<EmailSchedulingData> firstClaim = defaultPersistenceService.claimNextBatch(dueBefore, 10, Duration.ofMinutes(1));
+        final Collection<EmailSchedulingData> secondClaim = defaultPersistenceService.claimNextBatch(dueBefore, 10, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(firstClaim).containsOnly(due_1, due_2);
+        assertions.assertThat(secondClaim).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(due_1.getId())).isPresent();
+    }
+
+    @Test
+    public void shouldClaimNextBatchStartFromHighestPriority() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData lowPriority = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData highPriority = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.addAll(ImmutableList.of(lowPriority, highPriority));
+
+        //Act
+        final Collection<EmailSchedulingData> claimed = defaultPersistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 1, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(claimed).containsExactly(highPriority);
+    }
+
+    @Test
+    public void shouldClaimNextBatchReturnEmailsWhoseClaimExpired() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        final OffsetDateTime dueBefore = TimeUtils.offsetDateTimeNow().plusMinutes(1);
+        defaultPersistenceService.claimNextBatch(dueBefore, 10, Duration.ofMillis(1));
+        TimeUnit.MILLISECONDS.sleep(10);
+
+        //Act
+        final Collection<EmailSchedulingData> claimed = defaultPersistenceService.claimNextBatch(dueBefore, 10, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(claimed).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldClaimNextBatchPutExpiredClaimBackIntoItsPriorityLevel() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(2);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        final OffsetDateTime dueBefore = TimeUtils.offsetDateTimeNow().plusMinutes(1);
+        defaultPersistenceService.claimNextBatch(dueBefore, 10, Duration.ofMillis(1));
+        TimeUnit.MILLISECONDS.sleep(10);
+
+        //Act
+        final Collection<EmailSchedulingData> claimed = defaultPersistenceService.claimNextBatch(dueBefore.minusHours(1), 10, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(claimed).isEmpty();
+        assertions.assertThat(orderingTemplate.opsForZSet().rank(RedisBasedPersistenceServiceConstants.orderingKey(2),
+                defaultEmailSchedulingData.getId())).isNotNull();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(2, 10)).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldAckRemoveClaimedAndNotClaimedEmails() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData claimed = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData notClaimed = createDefaultEmailSchedulingDataWithPriority(2, TimeUnit.HOURS.toNanos(1));
+        defaultPersistenceService.addAll(ImmutableList.of(claimed, notClaimed));
+        defaultPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(1));
+
+        //Act
+        defaultPersistenceService.ack(ImmutableList.of(claimed.getId(), notClaimed.getId(), UUID.randomUUID().toString()));
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.get(claimed.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(notClaimed.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+        assertions.assertThat(defaultPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusHours(2), 10, Duration.ofMinutes(1)))
+                .isEmpty();
+    }
+
+    @Test
+    public void shouldRemoveAllDeleteWholePriorityLevelAcrossChunks() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 1_500; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(assignedPriority));
+        }
+        final DefaultEmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+        defaultPersistenceService.add(kept);
+
+        //Act
+        defaultPersistenceService.removeAll(assignedPriority);
+
+        //Assert
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.orderingKey(assignedPriority))).isFalse();
+        assertions.assertThat(valueTemplate.opsForValue().multiGet(emailSchedulingDataList.stream()
+                .map(EmailSchedulingData::getId)
+                .collect(Collectors.toList())).stream()
+                .filter(Objects::nonNull))
+                .isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(kept.getId())).isPresent();
+    }
+
+    @Test
+    public void shouldRemoveAllDeleteIdsFromOrderingSets() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData removed_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData removed_2 = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        defaultPersistenceService.addAll(ImmutableList.of(removed_1, removed_2, kept));
+
+        //Act
+        defaultPersistenceService.removeAll(ImmutableList.of(removed_1.getId(), removed_2.getId(), UUID.randomUUID().toString()));
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.get(removed_1.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(removed_2.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).containsExactly(kept);
+    }
+
+    @Test
+    public void shouldUseNamespacedAndPartitionedKeys() throws Exception {
+        //Arrange
+        final RedisKeyLayout keyLayout = new RedisKeyLayout("mail", 4);
+        final DefaultPersistenceService partitionedPersistenceService = createPersistenceService(keyLayout);
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(1 + i % 2));
+        }
+
+        //Act
+        partitionedPersistenceService.addAll(emailSchedulingDataList);
+
+        //Assert
+        assertions.assertThat(orderingTemplate.keys(RedisBasedPersistenceServiceConstants.orderingKeyPrefix() + "*")).isEmpty();
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+            final int partition = keyLayout.partition(emailSchedulingData.getId());
+            assertions.assertThat(orderingTemplate.hasKey(keyLayout.valueKey(emailSchedulingData.getId()))).isTrue();
+            assertions.assertThat(orderingTemplate.opsForZSet()
+                    .rank(keyLayout.orderingKey(partition, emailSchedulingData.getAssignedPriority()), emailSchedulingData.getId()))
+                    .isNotNull();
+        }
+        assertions.assertThat(partitionedPersistenceService.getNextBatch(emailSchedulingDataList.size()))
+                .containsExactlyElementsOf(emailSchedulingDataList.stream()
+                        .sorted(EmailSchedulingData.DEFAULT_COMPARATOR)
+                        .collect(Collectors.toList()));
+        assertions.assertThat(partitionedPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1),
+                emailSchedulingDataList.size(), Duration.ofMinutes(1)))
+                .containsOnlyElementsOf(emailSchedulingDataList)
+                .hasSameSizeAs(emailSchedulingDataList);
+    }
+
+    @Test
+    public void shouldRemoveAllDeletePartitionedKeys() throws Exception {
+        //Arrange
+        final DefaultPersistenceService partitionedPersistenceService = createPersistenceService(new RedisKeyLayout("mail", 4));
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(1 + i % 2));
+        }
+        partitionedPersistenceService.addAll(emailSchedulingDataList);
+        partitionedPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 5, Duration.ofMinutes(1));
+
+        //Act
+        partitionedPersistenceService.removeAll();
+
+        //Assert
+        assertions.assertThat(orderingTemplate.keys("mail:*")).isEmpty();
+    }
+
+    @Test
+    public void shouldGetNextBatchReadOnlyEmailsNotCached() throws Exception {
+        //Arrange
+        final RedisTemplate<String, EmailSchedulingData> cachedValueTemplate = spy(new RedisTemplate<>());
+        cachedValueTemplate.setConnectionFactory(connectionFactory);
+        final DefaultPersistenceService cachedPersistenceService = new DefaultPersistenceService(new StringRedisTemplate(connectionFactory),
+                cachedValueTemplate, PayloadCompression.NONE, 0, false, 2, "", 0, 1_048_576);
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(first);
+        cachedPersistenceService.getNextBatch(10);
+        defaultPersistenceService.add(second);
+        final ValueOperations<String, EmailSchedulingData> valueOperations = spy(cachedValueTemplate.opsForValue());
+        when(cachedValueTemplate.opsForValue()).thenReturn(valueOperations);
+
+        //Act
+        final Collection<EmailSchedulingData> batch = cachedPersistenceService.getNextBatch(10);
+        final Optional<EmailSchedulingData> cached = cachedPersistenceService.get(first.getId());
+
+        //Assert
+        verify(valueOperations).multiGet(Collections.singletonList(new RedisKeyLayout("", 0).valueKey(second.getId())));
+        verify(cachedValueTemplate, never()).boundValueOps(anyString());
+        assertions.assertThat(batch).containsExactly(first, second);
+        assertions.assertThat(cached).contains(first);
+    }
+
+    @Test
+    public void shouldRemoveInvalidateCachedEmail() throws Exception {
+        //Arrange
+        final RedisTemplate<String, EmailSchedulingData> cachedValueTemplate = new RedisTemplate<>();
+        cachedValueTemplate.setConnectionFactory(connectionFactory);
+        final DefaultPersistenceService cachedPersistenceService = new DefaultPersistenceService(new StringRedisTemplate(connectionFactory),
+                cachedValueTemplate, PayloadCompression.NONE, 0, false, 2, "", 0, 1_048_576);
+        final EmailSchedulingData removed = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData acknowledged = createDefaultEmailSchedulingDataWithPriority(2);
+        cachedPersistenceService.addAll(Arrays.asList(removed, acknowledged));
+
+        //Act
+        cachedPersistenceService.remove(removed.getId());
+        cachedPersistenceService.ack(Collections.singletonList(acknowledged.getId()));
+
+        //Assert
+        assertions.assertThat(cachedPersistenceService.get(removed.getId())).isEmpty();
+        assertions.assertThat(cachedPersistenceService.get(acknowledged.getId())).isEmpty();
+        assertions.assertThat(cachedPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldNotGetCachedEmailRemovedByAnotherNode() throws Exception {
+        //Arrange
+        final RedisTemplate<String, EmailSchedulingData> cachedValueTemplate = new RedisTemplate<>();
+        cachedValueTemplate.setConnectionFactory(connectionFactory);
+        final DefaultPersistenceService cachedPersistenceService = new DefaultPersistenceService(new StringRedisTemplate(connectionFactory),
+                cachedValueTemplate, PayloadCompression.NONE, 0, false, 2, "", 0, 1_048_576);
+        final EmailSchedulingData removed = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(1);
+        cachedPersistenceService.addAll(Arrays.asList(removed, kept));
+
+        //Act
+        defaultPersistenceService.remove(removed.getId());
+
+        //Assert
+        assertions.assertThat(cachedPersistenceService.get(removed.getId())).isEmpty();
+        assertions.assertThat(cachedPersistenceService.get(kept.getId())).contains(kept);
+    }
+
+    @Test
+    public void shouldNotCacheEmailsLargerThanCacheMaxBytes() throws Exception {
+        //Arrange
+        final RedisTemplate<String, EmailSchedulingData> cachedValueTemplate = spy(new RedisTemplate<>());
+        cachedValueTemplate.setConnectionFactory(connectionFactory);
+        final DefaultPersistenceService cachedPersistenceService = new DefaultPersistenceService(new StringRedisTemplate(connectionFactory),
+                cachedValueTemplate, PayloadCompression.NONE, 0, false, 2, "", 0, 100);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        cachedPersistenceService.add(emailSchedulingData);
+        final ValueOperations<String, EmailSchedulingData> valueOperations = spy(cachedValueTemplate.opsForValue());
+        when(cachedValueTemplate.opsForValue()).thenReturn(valueOperations);
+
+        //Act
+        final Collection<EmailSchedulingData> batch = cachedPersistenceService.getNextBatch(10);
+
+        //Assert
+        verify(valueOperations).multiGet(Collections.singletonList(new RedisKeyLayout("", 0).valueKey(emailSchedulingData.getId())));
+        assertions.assertThat(batch).containsExactly(emailSchedulingData);
+    }
+
+    private DefaultPersistenceService createPersistenceService(final RedisKeyLayout keyLayout) {
+        final RedisTemplate<String, EmailSchedulingData> partitionedValueTemplate = new RedisTemplate<>();
+        partitionedValueTemplate.setConnectionFactory(connectionFactory);
+        return new DefaultPersistenceService(new StringRedisTemplate(connectionFactory), partitionedValueTemplate,
+                PayloadCompression.NONE, 0, false, 2, keyLayout.getNamespace(), keyLayout.getPartitions(), 0);
+    }
+
+}
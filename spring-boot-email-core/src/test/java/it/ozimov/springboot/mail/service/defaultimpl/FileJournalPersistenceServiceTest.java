@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createTemplateEmailSchedulingDataWithPriority;
+import static org.junit.Assert.fail;
+
+public class FileJournalPersistenceServiceTest {
+
+    private static final long SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(20, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private FileJournalPersistenceService journalPersistenceService;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder();
+        journalPersistenceService = new FileJournalPersistenceService(directory.getPath(), SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journalPersistenceService.close();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnNonPositiveSegmentSize() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new FileJournalPersistenceService(directory.getPath(), 0);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldAddGetAndRemoveEmailSchedulingData() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        journalPersistenceService.add(defaultEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(journalPersistenceService.get(UUID.randomUUID().toString())).isEmpty();
+        assertions.assertThat(journalPersistenceService.remove(defaultEmailSchedulingData.getId())).isTrue();
+        assertions.assertThat(journalPersistenceService.remove(defaultEmailSchedulingData.getId())).isFalse();
+        assertions.assertThat(journalPersistenceService.get(defaultEmailSchedulingData.getId())).isEmpty();
+    }
+
+    @Test
+    public void shouldGetNextBatchInOrder() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData late = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.HOURS.toNanos(1));
+        final DefaultEmailSchedulingData lowPriority = createDefaultEmailSchedulingDataWithPriority(2);
+        final EmailSchedulingData highPriority = createTemplateEmailSchedulingDataWithPriority(1, TimeUnit.MINUTES.toNanos(1));
+        journalPersistenceService.addAll(ImmutableList.of(late, lowPriority, highPriority));
+
+        //Act & Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(2)).containsExactly(lowPriority, highPriority);
+        assertions.assertThat(journalPersistenceService.getNextBatch(1, 10)).containsExactly(highPriority, late);
+        assertions.assertThat(journalPersistenceService.getNextBatch(3, 10)).isEmpty();
+    }
+
+    @Test
+    public void shouldRecoverAfterRestart() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData removed = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData removedByPriority = createDefaultEmailSchedulingDataWithPriority(3);
+        final DefaultEmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        journalPersistenceService.addAll(ImmutableList.of(removed, removedByPriority, kept));
+        journalPersistenceService.remove(removed.getId());
+        journalPersistenceService.removeAll(3);
+
+        //Act
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(10)).containsExactly(kept);
+
+        //Act
+        journalPersistenceService.removeAll();
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldTruncateIncompleteRecordOnRecovery() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        journalPersistenceService.add(defaultEmailSchedulingData);
+        journalPersistenceService.close();
+        final File segment = lastSegment();
+        final long size = segment.length();
+        Files.write(segment.toPath(), new byte[]{0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        //Act
+        journalPersistenceService = new FileJournalPersistenceService(directory.getPath(), SEGMENT_SIZE);
+        final DefaultEmailSchedulingData added = createDefaultEmailSchedulingDataWithPriority(1);
+        journalPersistenceService.add(added);
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData, added);
+        assertions.assertThat(lastSegment().length()).isGreaterThan(size);
+    }
+
+    @Test
+    public void shouldRollSegmentsAndCompactObsoleteOnes() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> removed = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            removed.add(createDefaultEmailSchedulingDataWithPriority(1));
+        }
+        final DefaultEmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        journalPersistenceService.add(kept);
+        journalPersistenceService.addAll(removed);
+        journalPersistenceService.removeAll(1);
+        final int segmentsBeforeCompaction = segments().size();
+
+        //Act
+        journalPersistenceService.compact();
+
+        //Assert
+        assertions.assertThat(segmentsBeforeCompaction).isGreaterThan(2);
+        assertions.assertThat(segments()).hasSize(1);
+        assertions.assertThat(journalPersistenceService.getNextBatch(10)).containsExactly(kept);
+
+        //Act
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(10)).containsExactly(kept);
+    }
+
+    @Test
+    public void shouldCompactObsoleteSegmentsAfterLiveOnesKeepingShadowingRemovals() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData shadowed = createDefaultEmailSchedulingDataWithPriority(1);
+        journalPersistenceService.add(shadowed);
+        final List<EmailSchedulingData> kept = new ArrayList<>();
+        while (segments().size() < 2) {
+            final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+            journalPersistenceService.add(emailSchedulingData);
+            kept.add(emailSchedulingData);
+        }
+        final List<EmailSchedulingData> removed = new ArrayList<>();
+        while (segments().size() < 3) {
+            final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(2);
+            journalPersistenceService.add(emailSchedulingData);
+            removed.add(emailSchedulingData);
+        }
+        journalPersistenceService.remove(shadowed.getId());
+        for (final EmailSchedulingData emailSchedulingData : removed) {
+            journalPersistenceService.remove(emailSchedulingData.getId());
+        }
+        while (segments().size() < 4) {
+            final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(2);
+            journalPersistenceService.add(emailSchedulingData);
+            journalPersistenceService.remove(emailSchedulingData.getId());
+        }
+
+        //Act
+        journalPersistenceService.compact();
+
+        //Assert
+        assertions.assertThat(segments()).hasSize(2);
+        assertions.assertThat(journalPersistenceService.getNextBatch(kept.size() + 1))
+                .hasSameSizeAs(kept)
+                .containsOnlyElementsOf(kept);
+
+        //Act
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.get(shadowed.getId())).isEmpty();
+        assertions.assertThat(journalPersistenceService.getNextBatch(kept.size() + 1))
+                .hasSameSizeAs(kept)
+                .containsOnlyElementsOf(kept);
+    }
+
+    @Test
+    public void shouldGroupCommitConcurrentWriters() throws Exception {
+        //Arrange
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        final List<Callable<EmailSchedulingData>> writers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1 + i % 2);
+            writers.add(() -> {
+                journalPersistenceService.add(emailSchedulingData);
+                return emailSchedulingData;
+            });
+        }
+
+        //Act
+        final List<EmailSchedulingData> added = new ArrayList<>();
+        for (final Future<EmailSchedulingData> future : executorService.invokeAll(writers)) {
+            added.add(future.get());
+        }
+        executorService.shutdown();
+        restart();
+
+        //Assert
+        assertions.assertThat(journalPersistenceService.getNextBatch(added.size()))
+                .containsExactlyElementsOf(added.stream().sorted().collect(Collectors.toList()));
+    }
+
+    private void restart() throws Exception {
+        journalPersistenceService.close();
+        journalPersistenceService = new FileJournalPersistenceService(directory.getPath(), SEGMENT_SIZE);
+    }
+
+    private List<File> segments() {
+        return Arrays.stream(directory.listFiles())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private File lastSegment() {
+        final List<File> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+
+}
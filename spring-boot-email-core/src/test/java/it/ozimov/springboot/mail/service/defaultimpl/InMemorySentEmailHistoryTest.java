@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class InMemorySentEmailHistoryTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldAdmitKeyOnlyOnce() throws Exception {
+        //Arrange
+        final InMemorySentEmailHistory sentEmailHistory = new InMemorySentEmailHistory(Duration.ofMinutes(1), 10);
+
+        //Act
+        final boolean firstAdmitted = sentEmailHistory.admit("order-42");
+        final boolean secondAdmitted = sentEmailHistory.admit("order-42");
+
+        //Assert
+        assertions.assertThat(firstAdmitted).isTrue();
+        assertions.assertThat(secondAdmitted).isFalse();
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isFalse();
+    }
+
+    @Test
+    public void shouldRecordSentKey() throws Exception {
+        //Arrange
+        final InMemorySentEmailHistory sentEmailHistory = new InMemorySentEmailHistory(Duration.ofMinutes(1), 10);
+        sentEmailHistory.admit("order-42");
+
+        //Act
+        sentEmailHistory.markSent("order-42");
+
+        //Assert
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isTrue();
+        assertions.assertThat(sentEmailHistory.admit("order-42")).isFalse();
+        assertions.assertThat(sentEmailHistory.isSent("order-43")).isFalse();
+    }
+
+    @Test
+    public void shouldForgetKeyAfterTimeToLive() throws Exception {
+        //Arrange
+        final InMemorySentEmailHistory sentEmailHistory = new InMemorySentEmailHistory(Duration.ofMillis(50), 10);
+        sentEmailHistory.markSent("order-42");
+
+        //Act
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        //Assert
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isFalse();
+        assertions.assertThat(sentEmailHistory.admit("order-42")).isTrue();
+    }
+
+    @Test
+    public void shouldEvictKeysBeyondMaximumSize() throws Exception {
+        //Arrange
+        final InMemorySentEmailHistory sentEmailHistory = new InMemorySentEmailHistory(Duration.ofMinutes(1), 1);
+
+        //Act
+        sentEmailHistory.markSent("order-42");
+        sentEmailHistory.markSent("order-43");
+
+        //Assert
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isFalse();
+        assertions.assertThat(sentEmailHistory.isSent("order-43")).isTrue();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnNonPositiveMaximumSize() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Maximum size should be a positive number, while 0 was given");
+
+        //Act
+        new InMemorySentEmailHistory(Duration.ofMinutes(1), 0);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class InlinePictureCacheTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnCachedContentOfUnchangedFile() throws Exception {
+        //Arrange
+        final InlinePictureCache inlinePictureCache = new InlinePictureCache(1_024);
+        final File file = temporaryFolder.newFile("logo.png");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+        //Act
+        final byte[] first = inlinePictureCache.getContent(file);
+        final byte[] second = inlinePictureCache.getContent(file);
+
+        //Assert
+        assertions.assertThat(first).containsExactly(1, 2, 3);
+        assertions.assertThat(second).isSameAs(first);
+        assertions.assertThat(inlinePictureCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReadAgainFileChangedOnDisk() throws Exception {
+        //Arrange
+        final InlinePictureCache inlinePictureCache = new InlinePictureCache(1_024);
+        final File file = temporaryFolder.newFile("logo.png");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        inlinePictureCache.getContent(file);
+
+        //Act
+        Files.write(file.toPath(), new byte[]{4, 5, 6, 7});
+        final byte[] content = inlinePictureCache.getContent(file);
+
+        //Assert
+        assertions.assertThat(content).containsExactly(4, 5, 6, 7);
+        assertions.assertThat(inlinePictureCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotCacheFileLargerThanMaxBytes() throws Exception {
+        //Arrange
+        final InlinePictureCache inlinePictureCache = new InlinePictureCache(2);
+        final File file = temporaryFolder.newFile("banner.png");
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+        //Act
+        final byte[] content = inlinePictureCache.getContent(file);
+
+        //Assert
+        assertions.assertThat(content).containsExactly(1, 2, 3);
+        assertions.assertThat(inlinePictureCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldEvictPicturesOnceMaxBytesIsExceeded() throws Exception {
+        //Arrange
+        final InlinePictureCache inlinePictureCache = new InlinePictureCache(4);
+        final File first = temporaryFolder.newFile("first.png");
+        Files.write(first.toPath(), new byte[]{1, 2, 3});
+        final File second = temporaryFolder.newFile("second.png");
+        Files.write(second.toPath(), new byte[]{4, 5, 6});
+
+        //Act
+        inlinePictureCache.getContent(first);
+        inlinePictureCache.getContent(second);
+
+        //Assert
+        assertions.assertThat(inlinePictureCache.size()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JdbcDialectTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldDetectDialectFromDatabaseProductName() throws Exception {
+        //Act & Assert
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("H2")).isEqualTo(JdbcDialect.H2);
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("PostgreSQL")).isEqualTo(JdbcDialect.POSTGRESQL);
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("Oracle")).isEqualTo(JdbcDialect.GENERIC);
+    }
+
+    @Test
+    public void shouldSkipLockedRowsOnlyFromMySql8() throws Exception {
+        //Act & Assert
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("MySQL", 8).getLockingClause()).isEqualTo(" FOR UPDATE SKIP LOCKED");
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("MySQL", 5).getLockingClause()).isEmpty();
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("MySQL").getLockingClause()).isEmpty();
+        assertions.assertThat(JdbcDialect.fromDatabaseProductName("MariaDB", 10).getLockingClause()).isEmpty();
+    }
+
+}
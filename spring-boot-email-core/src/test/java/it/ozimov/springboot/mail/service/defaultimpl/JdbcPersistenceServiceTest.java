@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createTemplateEmailSchedulingDataWithPriority;
+import static org.junit.Assert.fail;
+
+public class JdbcPersistenceServiceTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private EmbeddedDatabase dataSource;
+
+    private JdbcPersistenceService jdbcPersistenceService;
+
+    @Before
+    public void setUp() {
+        dataSource = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcPersistenceService = new JdbcPersistenceService(dataSource);
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnInvalidTableName() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new JdbcPersistenceService(dataSource, "emails; DROP TABLE emails", true);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldNotLockRowsReadOutsideClaims() throws Exception {
+        //Arrange
+        final JdbcPersistenceService lockingPersistenceService = new JdbcPersistenceService(dataSource,
+                "email_scheduling_data", true, JdbcDialect.POSTGRESQL);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        lockingPersistenceService.add(defaultEmailSchedulingData);
+
+        //Act
+        //H2 rejects SKIP LOCKED, so the reads succeed only if the locking clause is not appended
+        final List<EmailSchedulingData> batch = new ArrayList<>(lockingPersistenceService.getNextBatch(10));
+        final List<EmailSchedulingData> priorityBatch = new ArrayList<>(lockingPersistenceService.getNextBatch(1, 10));
+
+        //Assert
+        assertions.assertThat(batch).containsExactly(defaultEmailSchedulingData);
+        assertions.assertThat(priorityBatch).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldCreateSchemaOnlyOnce() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        jdbcPersistenceService.add(defaultEmailSchedulingData);
+
+        //Act
+        final JdbcPersistenceService otherJdbcPersistenceService = new JdbcPersistenceService(dataSource);
+
+        //Assert
+        assertions.assertThat(otherJdbcPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(new JdbcTemplate(dataSource).queryForList("SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.INDEXES " +
+                "WHERE INDEX_NAME = 'EMAIL_SCHEDULING_DATA_PRIORITY_SCHEDULED_TIME_IDX' ORDER BY ORDINAL_POSITION", String.class))
+                .containsExactly("PRIORITY", "SCHEDULED_TIME");
+    }
+
+    @Test
+    public void shouldAddAndGetEmailSchedulingData() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        jdbcPersistenceService.add(defaultEmailSchedulingData);
+        jdbcPersistenceService.add(defaultEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(jdbcPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(jdbcPersistenceService.get(UUID.randomUUID().toString())).isEmpty();
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldAddAllInsertInBatchesAndGetNextBatchInOrder() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 1_200; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(1 + i % 3, TimeUnit.SECONDS.toNanos(1_200 - i)));
+        }
+
+        //Act
+        jdbcPersistenceService.addAll(emailSchedulingDataList);
+
+        //Assert
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(5))
+                .containsExactlyElementsOf(emailSchedulingDataList.stream()
+                        .sorted(EmailSchedulingData.DEFAULT_COMPARATOR)
+                        .limit(5)
+                        .collect(Collectors.toList()));
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(2, 1_000))
+                .hasSize(400)
+                .allMatch(emailSchedulingData -> emailSchedulingData.getAssignedPriority() == 2);
+    }
+
+    @Test
+    public void shouldRemoveEmailSchedulingData() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        jdbcPersistenceService.add(defaultEmailSchedulingData);
+
+        //Act
+        final boolean removed = jdbcPersistenceService.remove(defaultEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(removed).isTrue();
+        assertions.assertThat(jdbcPersistenceService.remove(defaultEmailSchedulingData.getId())).isFalse();
+        assertions.assertThat(jdbcPersistenceService.get(defaultEmailSchedulingData.getId())).isEmpty();
+    }
+
+    @Test
+    public void shouldRemoveAllByPriorityLevelAndByIds() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData removedByPriority = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData removedById = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        jdbcPersistenceService.addAll(ImmutableList.of(removedByPriority, removedById, kept));
+
+        //Act
+        jdbcPersistenceService.removeAll(1);
+        jdbcPersistenceService.removeAll(ImmutableList.of(removedById.getId(), UUID.randomUUID().toString()));
+
+        //Assert
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(10)).containsExactly(kept);
+
+        //Act
+        jdbcPersistenceService.removeAll();
+
+        //Assert
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldClaimNextBatchReturnDueEmailsOnlyOnce() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData lowPriority = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData highPriority = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData notDue = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.HOURS.toNanos(1));
+        jdbcPersistenceService.addAll(ImmutableList.of(lowPriority, highPriority, notDue));
+
+        //Act
+        final List<EmailSchedulingData> claimed = new ArrayList<>(jdbcPersistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMinutes(1)));
+
+        //Assert
+        assertions.assertThat(claimed).containsExactly(highPriority, lowPriority);
+        assertions.assertThat(jdbcPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMinutes(1)))
+                .isEmpty();
+        assertions.assertThat(jdbcPersistenceService.getNextBatch(10)).containsExactly(notDue);
+    }
+
+    @Test
+    public void shouldClaimNextBatchReturnEmailsWhoseClaimExpired() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        jdbcPersistenceService.add(defaultEmailSchedulingData);
+        jdbcPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(1));
+        TimeUnit.MILLISECONDS.sleep(10);
+
+        //Act
+        final List<EmailSchedulingData> claimed = new ArrayList<>(jdbcPersistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMinutes(1)));
+
+        //Assert
+        assertions.assertThat(claimed).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldAckRemoveClaimedAndNotClaimedEmails() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData claimed = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData notClaimed = createTemplateEmailSchedulingDataWithPriority(2, TimeUnit.HOURS.toNanos(1));
+        jdbcPersistenceService.addAll(ImmutableList.of(claimed, notClaimed));
+        jdbcPersistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMinutes(1));
+
+        //Act
+        jdbcPersistenceService.ack(ImmutableList.of(claimed.getId(), notClaimed.getId(), UUID.randomUUID().toString()));
+
+        //Assert
+        assertions.assertThat(jdbcPersistenceService.get(claimed.getId())).isEmpty();
+        assertions.assertThat(jdbcPersistenceService.get(notClaimed.getId())).isEmpty();
+    }
+
+}
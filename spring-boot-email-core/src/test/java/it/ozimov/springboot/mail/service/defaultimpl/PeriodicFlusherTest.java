@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class PeriodicFlusherTest {
+
+    private static final Duration LONG_INTERVAL = Duration.ofMinutes(1);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private final Object monitor = new Object();
+
+    private final AtomicInteger pendingSize = new AtomicInteger();
+
+    private final AtomicInteger flushes = new AtomicInteger();
+
+    private PeriodicFlusher flusher;
+
+    @After
+    public void tearDown() throws Exception {
+        if (flusher != null) {
+            flusher.close();
+        }
+    }
+
+    @Test
+    public void shouldFlushOnceBatchIsFull() throws Exception {
+        //Arrange
+        final CountDownLatch flushed = new CountDownLatch(1);
+        flusher = new PeriodicFlusher("test", monitor, pendingSize::get, () -> {
+            pendingSize.set(0);
+            flushes.incrementAndGet();
+            flushed.countDown();
+        }, 2, LONG_INTERVAL);
+
+        //Act
+        synchronized (monitor) {
+            pendingSize.set(2);
+            monitor.notifyAll();
+        }
+        flushed.await();
+
+        //Assert
+        assertThat(flushes.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldFlushOnceIntervalElapsed() throws Exception {
+        //Arrange
+        final CountDownLatch flushed = new CountDownLatch(2);
+
+        //Act
+        flusher = new PeriodicFlusher("test", monitor, pendingSize::get, flushed::countDown, 100, Duration.ofMillis(20));
+        flushed.await();
+
+        //Assert
+        assertThat(flusher.isClosed()).isFalse();
+    }
+
+    @Test
+    public void shouldFlushOnClose() throws Exception {
+        //Arrange
+        flusher = new PeriodicFlusher("test", monitor, pendingSize::get, flushes::incrementAndGet, 100, LONG_INTERVAL);
+
+        //Act
+        flusher.close();
+
+        //Assert
+        assertThat(flushes.get()).isEqualTo(1);
+        synchronized (monitor) {
+            assertThat(flusher.isClosed()).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnNonPositiveFlushInterval() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new PeriodicFlusher("test", monitor, pendingSize::get, flushes::incrementAndGet, 1, Duration.ZERO);
+
+        //Assert
+        fail();
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistenceDeletionBufferTest {
+
+    private static final Duration LONG_INTERVAL = Duration.ofMinutes(1);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    private final List<Collection<String>> deletedBatches = new CopyOnWriteArrayList<>();
+
+    private PersistenceDeletionBuffer buffer;
+
+    @After
+    public void tearDown() throws Exception {
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void shouldDeleteOnceBatchIsFull() throws Exception {
+        //Arrange
+        final CountDownLatch deleted = new CountDownLatch(1);
+        buffer = new PersistenceDeletionBuffer(ids -> {
+            deletedBatches.add(ids);
+            deleted.countDown();
+        }, 3, LONG_INTERVAL);
+
+        //Act
+        buffer.add("1");
+        buffer.add("2");
+        buffer.add("3");
+        deleted.await();
+
+        //Assert
+        assertThat(deletedBatches).hasSize(1);
+        assertThat(deletedBatches.get(0)).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void shouldDeleteOnceIntervalElapsed() throws Exception {
+        //Arrange
+        final CountDownLatch deleted = new CountDownLatch(1);
+        buffer = new PersistenceDeletionBuffer(ids -> {
+            deletedBatches.add(ids);
+            deleted.countDown();
+        }, 100, Duration.ofMillis(50));
+
+        //Act
+        buffer.add("1");
+        deleted.await();
+
+        //Assert
+        assertThat(deletedBatches.get(0)).containsExactly("1");
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    public void shouldReportPendingUntilNextFlush() throws Exception {
+        //Arrange
+        buffer = new PersistenceDeletionBuffer(deletedBatches::add, 100, LONG_INTERVAL);
+        buffer.add("1");
+
+        //Act
+        final boolean pendingBeforeFlush = buffer.isPending("1");
+        buffer.flush();
+        final boolean pendingAfterFlush = buffer.isPending("1");
+        buffer.flush();
+        final boolean pendingAfterNextFlush = buffer.isPending("1");
+
+        //Assert
+        assertThat(pendingBeforeFlush).isTrue();
+        assertThat(pendingAfterFlush).isTrue();
+        assertThat(pendingAfterNextFlush).isFalse();
+        assertThat(buffer.isPending("2")).isFalse();
+        assertThat(deletedBatches).hasSize(1);
+    }
+
+    @Test
+    public void shouldRetryFailedDeletions() throws Exception {
+        //Arrange
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        buffer = new PersistenceDeletionBuffer(ids -> {
+            if (fail.getAndSet(false)) {
+                throw new IllegalStateException("unavailable");
+            }
+            deletedBatches.add(new ArrayList<>(ids));
+        }, 100, LONG_INTERVAL);
+        buffer.add("1");
+
+        //Act
+        buffer.flush();
+        final int sizeAfterFailure = buffer.size();
+        buffer.flush();
+
+        //Assert
+        assertThat(sizeAfterFailure).isEqualTo(1);
+        assertThat(deletedBatches).hasSize(1);
+        assertThat(deletedBatches.get(0)).containsExactly("1");
+    }
+
+    @Test
+    public void shouldDrainAndDeleteThroughOnceClosed() throws Exception {
+        //Arrange
+        buffer = new PersistenceDeletionBuffer(deletedBatches::add, 100, LONG_INTERVAL);
+        buffer.add("1");
+
+        //Act
+        buffer.close();
+        buffer.add("2");
+
+        //Assert
+        assertThat(deletedBatches).hasSize(2);
+        assertThat(deletedBatches.get(0)).containsExactly("1");
+        assertThat(deletedBatches.get(1)).containsExactly("2");
+    }
+
+    @Test
+    public void shouldRejectNonPositiveBatchSize() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new PersistenceDeletionBuffer(deletedBatches::add, 0, LONG_INTERVAL);
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static java.util.Collections.singletonList;
+
+public class PersistenceSpillTest {
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path path;
+
+    private PersistenceSpill spill;
+
+    @Before
+    public void setUp() throws Exception {
+        path = temporaryFolder.getRoot().toPath().resolve("spill").resolve("persistence.spill");
+        spill = new PersistenceSpill(path, MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        spill.close();
+    }
+
+    @Test
+    public void shouldReadRecordsInOrder() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(2);
+
+        //Act
+        spill.add(ImmutableList.of(first, second));
+        spill.remove(PersistenceSpill.Operation.ACK, singletonList(first.getId()));
+        final List<PersistenceSpill.Record> records = spill.read(10);
+
+        //Assert
+        assertions.assertThat(records.stream().map(PersistenceSpill.Record::getOperation).collect(Collectors.toList()))
+                .containsExactly(PersistenceSpill.Operation.ADD, PersistenceSpill.Operation.ADD, PersistenceSpill.Operation.ACK);
+        assertions.assertThat(records.get(0).getEmailSchedulingData()).isEqualTo(first);
+        assertions.assertThat(records.get(1).getEmailSchedulingData()).isEqualTo(second);
+        assertions.assertThat(records.get(2).getId()).isEqualTo(first.getId());
+        assertions.assertThat(spill.size()).isEqualTo(3);
+        assertions.assertThat(spill.isPendingRemoval(first.getId())).isTrue();
+        assertions.assertThat(spill.isPendingRemoval(second.getId())).isFalse();
+    }
+
+    @Test
+    public void shouldTruncateOnceAllRecordsAreCommitted() throws Exception {
+        //Arrange
+        spill.add(ImmutableList.of(createDefaultEmailSchedulingDataWithPriority(1)));
+        spill.remove(PersistenceSpill.Operation.REMOVE, ImmutableList.of("1", "2"));
+
+        //Act
+        spill.commit(spill.read(2));
+        final int sizeAfterFirstCommit = spill.size();
+        final boolean pendingAfterFirstCommit = spill.isPendingRemoval("1");
+        spill.commit(spill.read(2));
+
+        //Assert
+        assertions.assertThat(sizeAfterFirstCommit).isEqualTo(1);
+        assertions.assertThat(pendingAfterFirstCommit).isFalse();
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(spill.isPendingRemoval("2")).isFalse();
+        assertions.assertThat(Files.size(path)).isZero();
+    }
+
+    @Test
+    public void shouldRejectRecordsBeyondMaximumSize() throws Exception {
+        //Arrange
+        spill.close();
+        spill = new PersistenceSpill(path, 20);
+
+        //Act
+        final boolean appended = spill.remove(PersistenceSpill.Operation.REMOVE, singletonList("1"));
+        final boolean rejected = spill.remove(PersistenceSpill.Operation.REMOVE, ImmutableList.of("2", "3", "4"));
+
+        //Assert
+        assertions.assertThat(appended).isTrue();
+        assertions.assertThat(rejected).isFalse();
+        assertions.assertThat(spill.size()).isEqualTo(1);
+        assertions.assertThat(spill.isPendingRemoval("2")).isFalse();
+    }
+
+    @Test
+    public void shouldRecoverRecordsNotCommitted() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        spill.remove(PersistenceSpill.Operation.REMOVE, singletonList("1"));
+        spill.commit(spill.read(1));
+        spill.add(singletonList(emailSchedulingData));
+        spill.remove(PersistenceSpill.Operation.REMOVE, singletonList("2"));
+        spill.close();
+
+        //Act
+        spill = new PersistenceSpill(path, MAX_BYTES);
+        final List<PersistenceSpill.Record> records = spill.read(10);
+
+        //Assert
+        assertions.assertThat(records).hasSize(2);
+        assertions.assertThat(records.get(0).getEmailSchedulingData()).isEqualTo(emailSchedulingData);
+        assertions.assertThat(records.get(1).getId()).isEqualTo("2");
+        assertions.assertThat(spill.isPendingRemoval("2")).isTrue();
+    }
+
+    @Test
+    public void shouldTrackRemovalsOfPriorityLevelUntilCommitted() throws Exception {
+        //Arrange
+        final EmailSchedulingData removed = createDefaultEmailSchedulingDataWithPriority(3);
+        final EmailSchedulingData kept = createDefaultEmailSchedulingDataWithPriority(2);
+        spill.removePriorityLevel(3);
+        spill.close();
+
+        //Act
+        spill = new PersistenceSpill(path, MAX_BYTES);
+        final List<PersistenceSpill.Record> records = spill.read(10);
+
+        //Assert
+        assertions.assertThat(records).hasSize(1);
+        assertions.assertThat(records.get(0).getOperation()).isEqualTo(PersistenceSpill.Operation.REMOVE_PRIORITY_LEVEL);
+        assertions.assertThat(records.get(0).getPriorityLevel()).isEqualTo(3);
+        assertions.assertThat(spill.isPendingRemoval(removed)).isTrue();
+        assertions.assertThat(spill.isPendingRemoval(kept)).isFalse();
+
+        //Act
+        spill.commit(records);
+
+        //Assert
+        assertions.assertThat(spill.isPendingRemoval(removed)).isFalse();
+    }
+
+    @Test
+    public void shouldNotApplyRemovalOfPriorityLevelToLaterAdditions() throws Exception {
+        //Arrange
+        final EmailSchedulingData before = createDefaultEmailSchedulingDataWithPriority(3);
+        final EmailSchedulingData after = createDefaultEmailSchedulingDataWithPriority(3);
+        final EmailSchedulingData beforeSecondRemoval = createDefaultEmailSchedulingDataWithPriority(3);
+        spill.add(singletonList(before));
+        spill.removePriorityLevel(3);
+        spill.add(singletonList(after));
+
+        //Assert
+        assertions.assertThat(spill.isPendingRemoval(before)).isTrue();
+        assertions.assertThat(spill.isPendingRemoval(after)).isFalse();
+
+        //Act
+        spill.add(singletonList(beforeSecondRemoval));
+        spill.removePriorityLevel(3);
+        spill.close();
+        spill = new PersistenceSpill(path, MAX_BYTES);
+        spill.commit(spill.read(3));
+
+        //Assert
+        assertions.assertThat(spill.isPendingRemoval(after)).isTrue();
+        assertions.assertThat(spill.isPendingRemoval(beforeSecondRemoval)).isTrue();
+
+        //Act
+        spill.add(singletonList(after));
+
+        //Assert
+        assertions.assertThat(spill.isPendingRemoval(after)).isFalse();
+        assertions.assertThat(spill.isPendingRemoval(before)).isTrue();
+    }
+
+    @Test
+    public void shouldReadUndecodableAdditionsAndMoveThemToDeadLetter() throws Exception {
+        //Arrange
+        spill.close();
+        final byte[] undecodable = ByteBuffer.allocate(Byte.BYTES + Integer.BYTES + 3)
+                .put((byte) PersistenceSpill.Operation.ADD.ordinal()).putInt(3).put(new byte[]{1, 2, 3}).array();
+        Files.write(path, undecodable);
+        spill = new PersistenceSpill(path, MAX_BYTES);
+        spill.remove(PersistenceSpill.Operation.REMOVE, singletonList("1"));
+
+        //Act
+        final List<PersistenceSpill.Record> records = spill.read(10);
+        spill.quarantine(records.get(0));
+
+        //Assert
+        assertions.assertThat(records).hasSize(2);
+        assertions.assertThat(records.get(0).isUndecodable()).isTrue();
+        assertions.assertThat(records.get(1).isUndecodable()).isFalse();
+        assertions.assertThat(spill.size()).isEqualTo(1);
+        assertions.assertThat(spill.read(10).get(0).getId()).isEqualTo("1");
+        assertions.assertThat(Files.readAllBytes(spill.getDeadLetterPath())).containsExactly(undecodable);
+    }
+
+    @Test
+    public void shouldDropIncompleteRecordOnRecovery() throws Exception {
+        //Arrange
+        spill.remove(PersistenceSpill.Operation.REMOVE, ImmutableList.of("1", "2"));
+        spill.close();
+        final long size = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+
+        //Act
+        spill = new PersistenceSpill(path, MAX_BYTES);
+
+        //Assert
+        assertions.assertThat(spill.size()).isEqualTo(1);
+        assertions.assertThat(spill.read(10).get(0).getId()).isEqualTo("1");
+        assertions.assertThat(spill.isPendingRemoval("2")).isFalse();
+    }
+
+    @Test
+    public void shouldClearRecords() throws Exception {
+        //Arrange
+        spill.remove(PersistenceSpill.Operation.REMOVE, singletonList("1"));
+
+        //Act
+        spill.clear();
+
+        //Assert
+        assertions.assertThat(spill.isEmpty()).isTrue();
+        assertions.assertThat(spill.read(10)).isEmpty();
+        assertions.assertThat(spill.isPendingRemoval("1")).isFalse();
+    }
+
+}
@@ -610,6 +610,10 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
                 .build();
 
         when(emailSchedulerProperties.getPriorityLevels()).thenReturn(priorityLevels);
+        when(emailSchedulerProperties.getSendBatchSize()).thenReturn(1);
+        when(emailSchedulerProperties.getSendMaxThreads()).thenReturn(16);
+        when(emailSchedulerProperties.getSendMaxAttempts()).thenReturn(5);
+        when(emailSchedulerProperties.getSendRetryBackoffMillis()).thenReturn(1_000L);
         when(emailSchedulerProperties.getPersistence()).thenReturn(persistence);
         EmailSchedulerProperties.checkIsValid(emailSchedulerProperties);
         when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
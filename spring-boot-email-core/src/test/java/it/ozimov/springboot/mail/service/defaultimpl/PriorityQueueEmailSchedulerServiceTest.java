@@ -16,12 +16,16 @@
 
 package it.ozimov.springboot.mail.service.defaultimpl;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import it.ozimov.mockito.helpers.captors.ResultCaptor;
 import it.ozimov.springboot.mail.ContextBasedTest;
 import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.service.AsyncPersistenceService;
+import it.ozimov.springboot.mail.service.EmailSendResult;
 import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.service.SentEmailHistory;
 import it.ozimov.springboot.mail.service.ServiceStatus;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 import org.assertj.core.api.JUnitSoftAssertions;
@@ -30,6 +34,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 import org.mockito.InOrder;
@@ -40,10 +45,21 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static it.ozimov.cirneco.hamcrest.java7.AssertFluently.given;
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
@@ -62,6 +78,9 @@ public class PriorityQueueEmailSchedulerServiceTest implements ContextBasedTest
     @Rule
     public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @MockBean
     private EmailService emailService;
 
@@ -259,6 +278,260 @@ public class PriorityQueueEmailSchedulerServiceTest implements ContextBasedTest
         given(priorityQueueSchedulerService.status()).assertThat(CoreMatchers.is(ServiceStatus.CLOSED));
     }
 
+    @Test
+    public void shouldRestoreQueuedEmailsFromSnapshot() throws Exception {
+        //Arrange
+        final File snapshot = new File(temporaryFolder.getRoot(), "queue.snapshot");
+        when(emailSchedulerProperties.getSnapshot()).thenReturn(
+                EmailSchedulerProperties.Snapshot.builder().enabled(true).file(snapshot.getPath()).build());
+        final Email email = getSimpleMail();
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+
+        PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        priorityQueueSchedulerService.schedule(email, scheduledDateTime, 1);
+
+        //Act
+        priorityQueueSchedulerService.cleanUp();
+        final boolean writtenOnClose = snapshot.exists();
+        priorityQueueSchedulerService = scheduler(1);
+        final boolean deletedOnRestore = !snapshot.exists();
+        priorityQueueSchedulerService.cleanUp();
+
+        //Assert
+        final List<Email> restored = new ArrayList<>();
+        new QueueSnapshotFile(snapshot.toPath()).restore(emailSchedulingData -> restored.add(emailSchedulingData.getEmail()));
+        assertions.assertThat(writtenOnClose).isTrue();
+        assertions.assertThat(deletedOnRestore).isTrue();
+        assertions.assertThat(restored).containsExactly(email);
+        verify(emailService, never()).send(email);
+    }
+
+    @Test
+    public void shouldStartSkippingCorruptSnapshot() throws Exception {
+        //Arrange
+        final File snapshot = new File(temporaryFolder.getRoot(), "queue.snapshot");
+        Files.write(snapshot.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        when(emailSchedulerProperties.getSnapshot()).thenReturn(
+                EmailSchedulerProperties.Snapshot.builder().enabled(true).file(snapshot.getPath()).build());
+
+        //Act
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Assert
+        assertions.assertThat(snapshot).doesNotExist();
+        assertions.assertThat(new File(temporaryFolder.getRoot(), "queue.snapshot.corrupt")).exists();
+        priorityQueueSchedulerService.cleanUp();
+    }
+
+    @Test
+    public void shouldDiscardEmailWithDuplicateIdempotencyKey() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService =
+                scheduler(1, new InMemorySentEmailHistory(Duration.ofMinutes(1), 10));
+        final Email email = getSimpleMail();
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow();
+
+        //Act
+        priorityQueueSchedulerService.schedule("order-42", email, scheduledDateTime, 1);
+        priorityQueueSchedulerService.schedule("order-42", email, scheduledDateTime, 1);
+        Thread.sleep(twoSecondsInMillis());
+        priorityQueueSchedulerService.schedule("order-42", email, TimeUtils.offsetDateTimeNow(), 1);
+        Thread.sleep(twoSecondsInMillis());
+
+        //Assert
+        verify(emailService, times(1)).send(email);
+    }
+
+    @Test
+    public void shouldNotSendEmailAlreadySent() throws Exception {
+        //Arrange
+        final SentEmailHistory sentEmailHistory = mock(SentEmailHistory.class);
+        when(sentEmailHistory.admit("order-42")).thenReturn(true);
+        when(sentEmailHistory.isSent("order-42")).thenReturn(true);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1, sentEmailHistory);
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule("order-42", email, TimeUtils.offsetDateTimeNow(), 1);
+        Thread.sleep(twoSecondsInMillis());
+
+        //Assert
+        verify(sentEmailHistory).isSent("order-42");
+        verify(sentEmailHistory, never()).markSent(anyString());
+        verify(emailService, never()).send(email);
+    }
+
+    @Test
+    public void shouldSendDueEmailsTogetherWhenSendBatchSizeIsSet() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getSendBatchSize()).thenReturn(3);
+        when(emailService.sendAll(anyCollectionOf(Email.class))).thenAnswer(invocation ->
+                ((Collection<Email>) invocation.getArguments()[0]).stream()
+                        .map(email -> EmailSendResult.sent(email, mimeMessage))
+                        .collect(Collectors.toList()));
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(3);
+        final Email emailLowPriority = lowPriority();
+        final Email emailMidPriority = midPriority();
+        final Email emailHighPriority = highPriority();
+
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow();
+
+        //Act
+        priorityQueueSchedulerService.schedule(emailLowPriority, dateTime.plusSeconds(twoSeconds()), 3);
+        priorityQueueSchedulerService.schedule(emailHighPriority, dateTime.plusSeconds(twoSeconds()), 1);
+        priorityQueueSchedulerService.schedule(emailMidPriority, dateTime.plusSeconds(twoSeconds()), 2);
+
+        TimeUnit.SECONDS.sleep(5);
+
+        //Assert
+        verify(emailService).sendAll(Arrays.asList(emailHighPriority, emailMidPriority, emailLowPriority));
+        verify(emailService, never()).send(any(Email.class));
+    }
+
+    @Test
+    public void shouldHandEmailsOverToSenderThreadsWhenConcurrencyIsAdaptive() throws Exception {
+        //Arrange
+        final AdaptiveSendConcurrency sendConcurrency = new AdaptiveSendConcurrency(2, 1, 4, 2_000, 0.5);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1, sendConcurrency);
+        final Email firstEmail = getSimpleMail(new InternetAddress("plinio.il.vecchio@como.roma", "Gaio Plinio Secondo"));
+        final Email secondEmail = getSimpleMail(new InternetAddress("tacito@annales.roma", "Publio Cornelio Tacito"));
+
+        //Act
+        priorityQueueSchedulerService.schedule(firstEmail, 1);
+        priorityQueueSchedulerService.schedule(secondEmail, 1);
+        Thread.sleep(twoSecondsInMillis());
+
+        //Assert
+        verify(emailService).send(firstEmail);
+        verify(emailService).send(secondEmail);
+        assertions.assertThat(sendConcurrency.getSent()).isEqualTo(2);
+        assertions.assertThat(sendConcurrency.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldScheduleAgainEmailWhoseSendingExceedsTheSendTimeout() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getSendTimeoutMillis()).thenReturn(300L);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail(new InternetAddress("svetonio@vite.roma", "Gaio Svetonio Tranquillo"));
+        final AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() == 1) {
+                //The first SMTP conversation hangs
+                TimeUnit.SECONDS.sleep(10);
+            }
+            return null;
+        }).when(emailService).send(email);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+
+        //Assert
+        verify(emailService, timeout(fiveSecondsInMillis()).times(2)).send(email);
+        assertions.assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotScheduleAgainEmailWhoseAbandonedSendingCompletes() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getSendTimeoutMillis()).thenReturn(200L);
+        when(emailSchedulerProperties.getSendRetryBackoffMillis()).thenReturn(1_000L);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail(new InternetAddress("svetonio@vite.roma", "Gaio Svetonio Tranquillo"));
+        doAnswer(invocation -> {
+            //The SMTP conversation is slow, but completes despite being abandoned
+            Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(emailService).send(email);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+        Thread.sleep(twoSecondsInMillis() + 1_000);
+
+        //Assert
+        verify(emailService, times(1)).send(email);
+    }
+
+    @Test
+    public void shouldNotScheduleAgainEmailRecordedAsSentAfterAbandonedSending() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getSendTimeoutMillis()).thenReturn(200L);
+        when(emailSchedulerProperties.getSendRetryBackoffMillis()).thenReturn(1_000L);
+        final SentEmailHistory sentEmailHistory = mock(SentEmailHistory.class);
+        when(sentEmailHistory.admit("order-42")).thenReturn(true);
+        when(sentEmailHistory.isSent("order-42")).thenReturn(false, true);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1, sentEmailHistory);
+        final Email email = getSimpleMail();
+        doAnswer(invocation -> {
+            //The SMTP conversation hangs, while the email is recorded as sent meanwhile
+            Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+            throw new IllegalStateException("Connection reset");
+        }).when(emailService).send(email);
+
+        //Act
+        priorityQueueSchedulerService.schedule("order-42", email, TimeUtils.offsetDateTimeNow(), 1);
+        Thread.sleep(twoSecondsInMillis() + 1_000);
+
+        //Assert
+        verify(emailService, times(1)).send(email);
+        verify(sentEmailHistory, times(2)).isSent("order-42");
+    }
+
+    @Test
+    public void shouldGiveUpEmailWhoseSendingIsAbandonedTooManyTimes() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getSendTimeoutMillis()).thenReturn(200L);
+        when(emailSchedulerProperties.getSendMaxAttempts()).thenReturn(2);
+        when(emailSchedulerProperties.getSendRetryBackoffMillis()).thenReturn(100L);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail(new InternetAddress("svetonio@vite.roma", "Gaio Svetonio Tranquillo"));
+        final AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            attempts.incrementAndGet();
+            //Every SMTP conversation hangs
+            TimeUnit.SECONDS.sleep(10);
+            return null;
+        }).when(emailService).send(email);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+        verify(emailService, timeout(fiveSecondsInMillis()).times(2)).send(email);
+        Thread.sleep(twoSecondsInMillis());
+
+        //Assert
+        assertions.assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldPersistWithoutBlockingWhenPersistenceServiceIsNonBlocking() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getPersistence()).thenReturn(EmailSchedulerProperties.Persistence.builder()
+                .desiredBatchSize(10).minKeptInMemory(1).maxKeptInMemory(Integer.MAX_VALUE).claimBatches(true).build());
+        when(emailSchedulerProperties.getPriorityLevels()).thenReturn(1);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final AsyncPersistenceService persistenceService = mock(AsyncPersistenceService.class);
+        when(persistenceService.isNonBlocking()).thenReturn(true);
+        when(persistenceService.addAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(persistenceService.ackAsync(anyCollectionOf(String.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(persistenceService.claimNextBatchAsync(any(), anyInt(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Collections.emptyList()));
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(
+                emailService, emailSchedulerProperties, Optional.of(persistenceService), emailLogRenderer);
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+
+        //Assert
+        verify(emailService, timeout(fiveSecondsInMillis())).send(email);
+        verify(persistenceService).addAsync(any());
+        verify(persistenceService, timeout(fiveSecondsInMillis())).ackAsync(anyCollectionOf(String.class));
+        verify(persistenceService, atLeastOnce()).claimNextBatchAsync(any(), anyInt(), any());
+        verify(persistenceService, never()).add(any());
+        verify(persistenceService, never()).ack(anyCollectionOf(String.class));
+        verify(persistenceService, never()).claimNextBatch(any(), anyInt(), any());
+    }
+
     private PriorityQueueEmailSchedulerService scheduler(int numPriorityLevels) throws InterruptedException {
         when(emailSchedulerProperties.getPriorityLevels()).thenReturn(numPriorityLevels);
         when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
@@ -270,4 +543,27 @@ public class PriorityQueueEmailSchedulerServiceTest implements ContextBasedTest
         return schedulerService;
     }
 
+    private PriorityQueueEmailSchedulerService scheduler(int numPriorityLevels, SentEmailHistory sentEmailHistory) throws InterruptedException {
+        when(emailSchedulerProperties.getPriorityLevels()).thenReturn(numPriorityLevels);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        return spy(new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties,
+                Optional.empty(),
+                Optional.of(sentEmailHistory),
+                emailLogRenderer));
+    }
+
+    private PriorityQueueEmailSchedulerService scheduler(int numPriorityLevels, AdaptiveSendConcurrency sendConcurrency) throws InterruptedException {
+        when(emailSchedulerProperties.getPriorityLevels()).thenReturn(numPriorityLevels);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        return spy(new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.of(sendConcurrency),
+                emailLogRenderer));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createTemplateEmailSchedulingDataWithPriority;
+
+public class QueueSnapshotFileTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path path;
+
+    private QueueSnapshotFile snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        path = temporaryFolder.getRoot().toPath().resolve("snapshots").resolve("queue.snapshot");
+        snapshotFile = new QueueSnapshotFile(path);
+    }
+
+    @Test
+    public void shouldRestoreWrittenEmailsInOrder() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> emailSchedulingDataList = ImmutableList.of(
+                createDefaultEmailSchedulingDataWithPriority(1),
+                createTemplateEmailSchedulingDataWithPriority(1),
+                createDefaultEmailSchedulingDataWithPriority(2));
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int written = snapshotFile.write(emailSchedulingDataList.iterator());
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(written).isEqualTo(3);
+        assertions.assertThat(read).isEqualTo(3);
+        assertions.assertThat(restored).containsExactlyElementsOf(emailSchedulingDataList);
+        assertions.assertThat(Files.exists(path)).as("A restored snapshot should be deleted").isFalse();
+    }
+
+    @Test
+    public void shouldRestoreNothingWithoutSnapshot() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isZero();
+        assertions.assertThat(restored).isEmpty();
+    }
+
+    @Test
+    public void shouldReplacePreviousSnapshot() throws Exception {
+        //Arrange
+        snapshotFile.write(ImmutableList.<EmailSchedulingData>of(createDefaultEmailSchedulingDataWithPriority(1)).iterator());
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        snapshotFile.write(Collections.emptyIterator());
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isZero();
+        assertions.assertThat(restored).isEmpty();
+    }
+
+    @Test
+    public void shouldRestoreEmailsBeforeTruncation() throws Exception {
+        //Arrange
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(1));
+        }
+        snapshotFile.write(emailSchedulingDataList.iterator());
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isLessThan(emailSchedulingDataList.size());
+        assertions.assertThat(restored).isEqualTo(emailSchedulingDataList.subList(0, read));
+        assertions.assertThat(Files.exists(path)).isFalse();
+    }
+
+    @Test
+    public void shouldMoveAsideSnapshotWithoutMagicNumber() throws Exception {
+        //Arrange
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isZero();
+        assertions.assertThat(restored).isEmpty();
+        assertions.assertThat(Files.exists(path)).isFalse();
+        assertions.assertThat(Files.exists(corruptPath())).isTrue();
+    }
+
+    @Test
+    public void shouldMoveAsideSnapshotWithNegativeLength() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        writeSnapshot(output -> {
+            final byte[] payload = new SerializingConverter().convert(emailSchedulingData);
+            output.writeInt(payload.length);
+            output.write(payload);
+            output.writeInt(-2);
+        });
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isEqualTo(1);
+        assertions.assertThat(restored).containsExactly(emailSchedulingData);
+        assertions.assertThat(Files.exists(path)).isFalse();
+        assertions.assertThat(Files.exists(corruptPath())).isTrue();
+    }
+
+    @Test
+    public void shouldMoveAsideSnapshotWithUndeserializableEmail() throws Exception {
+        //Arrange
+        writeSnapshot(output -> {
+            output.writeInt(3);
+            output.write(new byte[]{1, 2, 3});
+            output.writeInt(-1);
+        });
+        final List<EmailSchedulingData> restored = new ArrayList<>();
+
+        //Act
+        final int read = snapshotFile.restore(restored::add);
+
+        //Assert
+        assertions.assertThat(read).isZero();
+        assertions.assertThat(Files.exists(path)).isFalse();
+        assertions.assertThat(Files.exists(corruptPath())).isTrue();
+    }
+
+    private Path corruptPath() {
+        return path.resolveSibling(path.getFileName() + ".corrupt");
+    }
+
+    private void writeSnapshot(final SnapshotBody body) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(path)))) {
+            output.writeInt(0x454D5153);
+            output.writeInt(1);
+            body.write(output);
+        }
+    }
+
+    private interface SnapshotBody {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.BaseRedisTest;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailAttachment;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.StreamingEmailAttachment;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.mail.internet.InternetAddress;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = BaseRedisTest.ContextConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class RedisAttachmentStoreTest extends BaseRedisTest {
+
+    private static final byte[] CONTENT = "Firmamentum autem stabilitatis constantiaeque eius".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate orderingTemplate;
+
+    private DefaultPersistenceService persistenceService;
+
+    private RedisAttachmentStore attachmentStore;
+
+    @Before
+    public void setUpPersistenceService() {
+        orderingTemplate = new StringRedisTemplate(connectionFactory);
+        final RedisTemplate<String, EmailSchedulingData> valueTemplate = new RedisTemplate<>();
+        valueTemplate.setConnectionFactory(connectionFactory);
+
+        persistenceService = new DefaultPersistenceService(orderingTemplate, valueTemplate, PayloadCompression.NONE, 0, true, 1, "", 0, 0);
+        attachmentStore = new RedisAttachmentStore(valueTemplate);
+    }
+
+    @Test
+    public void shouldStoreSharedAttachmentOnce() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createEmailSchedulingDataWithAttachment();
+        final EmailSchedulingData second = createEmailSchedulingDataWithAttachment();
+        final String contentHash = attachmentStore.contentHash(CONTENT);
+
+        //Act
+        persistenceService.add(first);
+        persistenceService.add(second);
+
+        //Assert
+        assertions.assertThat(orderingTemplate.keys(RedisBasedPersistenceServiceConstants.ATTACHMENT_KEY_PREFIX + "*"))
+                .containsExactly(RedisBasedPersistenceServiceConstants.attachmentKey(contentHash));
+        assertions.assertThat(orderingTemplate.opsForSet().members(RedisBasedPersistenceServiceConstants.attachmentReferencesKey(contentHash)))
+                .containsOnly(first.getId(), second.getId());
+    }
+
+    @Test
+    public void shouldResolveAttachmentLazily() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createEmailSchedulingDataWithAttachment();
+        persistenceService.add(emailSchedulingData);
+
+        //Act
+        final EmailSchedulingData persisted = persistenceService.get(emailSchedulingData.getId()).get();
+
+        //Assert
+        final EmailAttachment attachment = persisted.getEmail().getAttachments().iterator().next();
+        assertions.assertThat(attachment).isInstanceOf(ReferencedEmailAttachment.class);
+        assertions.assertThat(attachment.getAttachmentName()).isEqualTo("test.txt");
+        assertions.assertThat(attachment.getContentType()).isEqualTo(MediaType.TEXT_PLAIN);
+        assertions.assertThat(attachment.getAttachmentData()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void shouldDeleteAttachmentWhenLastReferenceIsRemoved() throws Exception {
+        //Arrange
+        final EmailSchedulingData first = createEmailSchedulingDataWithAttachment();
+        final EmailSchedulingData second = createEmailSchedulingDataWithAttachment();
+        persistenceService.add(first);
+        persistenceService.add(second);
+        final String contentHash = attachmentStore.contentHash(CONTENT);
+
+        //Act
+        persistenceService.remove(first.getId());
+        final byte[] contentAfterFirstRemoval = attachmentStore.load(contentHash);
+        persistenceService.remove(second.getId());
+
+        //Assert
+        assertions.assertThat(contentAfterFirstRemoval).isEqualTo(CONTENT);
+        assertions.assertThat(attachmentStore.load(contentHash)).isNull();
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.attachmentReferencesKey(contentHash))).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveClaimedEmailFromClaims() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createEmailSchedulingDataWithAttachment();
+        persistenceService.add(emailSchedulingData);
+        persistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(1));
+        final String contentHash = attachmentStore.contentHash(CONTENT);
+
+        final RedisKeyLayout keyLayout = new RedisKeyLayout("", 0);
+
+        //Act
+        final boolean removed = persistenceService.remove(emailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(removed).isTrue();
+        assertions.assertThat(orderingTemplate.opsForZSet().size(keyLayout.inFlightKey(0))).isZero();
+        assertions.assertThat(orderingTemplate.opsForHash().size(keyLayout.inFlightOriginKey(0))).isZero();
+        TimeUnit.MILLISECONDS.sleep(10);
+        assertions.assertThat(persistenceService.claimNextBatch(TimeUtils.offsetDateTimeNow().plusMinutes(1), 10,
+                Duration.ofMinutes(1))).isEmpty();
+        assertions.assertThat(orderingTemplate.opsForZSet().size(keyLayout.orderingKey(0, 1))).isZero();
+        assertions.assertThat(attachmentStore.load(contentHash)).isNull();
+    }
+
+    @Test
+    public void shouldKeepReferencesIdempotent() throws Exception {
+        //Arrange
+        final EmailSchedulingData emailSchedulingData = createEmailSchedulingDataWithAttachment();
+        persistenceService.add(emailSchedulingData);
+        final EmailSchedulingData persisted = persistenceService.get(emailSchedulingData.getId()).get();
+        final String contentHash = attachmentStore.contentHash(CONTENT);
+
+        //Act
+        persistenceService.add(persisted);
+        persistenceService.remove(emailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(attachmentStore.load(contentHash)).isNull();
+    }
+
+    @Test
+    public void shouldPersistAttachmentStreamedFromFileByPath() throws Exception {
+        //Arrange
+        //The file does not exist, so that any read of the content fails
+        final File file = new File(temporaryFolder.getRoot(), "missing.txt");
+        final EmailSchedulingData emailSchedulingData = createEmailSchedulingDataWithAttachment(StreamingEmailAttachment.builder()
+                .attachmentName("test.txt")
+                .file(file)
+                .mediaType(MediaType.TEXT_PLAIN)
+                .build());
+
+        //Act
+        persistenceService.add(emailSchedulingData);
+        final EmailSchedulingData persisted = persistenceService.get(emailSchedulingData.getId()).get();
+        final boolean removed = persistenceService.remove(emailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(orderingTemplate.keys(RedisBasedPersistenceServiceConstants.ATTACHMENT_KEY_PREFIX + "*")).isEmpty();
+        final EmailAttachment attachment = persisted.getEmail().getAttachments().iterator().next();
+        assertions.assertThat(attachment).isInstanceOf(StreamingEmailAttachment.class);
+        assertions.assertThat(((StreamingEmailAttachment) attachment).getFile()).isEqualTo(file);
+        assertions.assertThat(removed).isTrue();
+    }
+
+    private static EmailSchedulingData createEmailSchedulingDataWithAttachment() throws Exception {
+        return createEmailSchedulingDataWithAttachment(DefaultEmailAttachment.builder()
+                .attachmentName("test.txt")
+                .attachmentData(CONTENT)
+                .mediaType(MediaType.TEXT_PLAIN)
+                .build());
+    }
+
+    private static EmailSchedulingData createEmailSchedulingDataWithAttachment(final EmailAttachment attachment) throws Exception {
+        return DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                .email(DefaultEmail.builder()
+                        .from(new InternetAddress("cicero@mala-tempora.currunt", "Marco Tullio Cicerone"))
+                        .to(singletonList(new InternetAddress("titus@de-rerum.natura", "Titus Lucretius Carus")))
+                        .subject("Laelius de amicitia")
+                        .body("Firmamentum autem stabilitatis constantiaeque eius, quam in amicitia quaerimus, fides est.")
+                        .attachments(singletonList(attachment))
+                        .encoding(StandardCharsets.UTF_8.name())
+                        .build())
+                .scheduledDateTime(TimeUtils.offsetDateTimeNow())
+                .assignedPriority(1)
+                .desiredPriority(1)
+                .build();
+    }
+
+}
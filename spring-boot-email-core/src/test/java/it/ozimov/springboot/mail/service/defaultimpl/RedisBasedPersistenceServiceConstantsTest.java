@@ -33,6 +33,12 @@ public class RedisBasedPersistenceServiceConstantsTest {
 
     private static final String EXPECTED_ORDERING_KEY_PREFIX = "priority-level:";
 
+    private static final String EXPECTED_ATTACHMENT_KEY_PREFIX = "attachment:";
+
+    private static final String EXPECTED_ATTACHMENT_REFERENCES_KEY_PREFIX = "attachment-references:";
+
+    private static final String EXPECTED_SENT_HISTORY_KEY_PREFIX = "sent-history:";
+
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
@@ -111,4 +117,46 @@ public class RedisBasedPersistenceServiceConstantsTest {
                 .isEqualTo(EXPECTED_ORDERING_KEY_PREFIX);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldThrowExceptionWhenAttachmentKeyIsConstructedFromEmptyHash() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Content hash must be a non empty string");
+
+        //Act
+        RedisBasedPersistenceServiceConstants.attachmentKey("");
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldCreateAttachmentKeys() throws Exception {
+        //Arrange
+        String contentHash = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+        //Act
+        String givenAttachmentKey = RedisBasedPersistenceServiceConstants.attachmentKey(contentHash);
+        String givenAttachmentReferencesKey = RedisBasedPersistenceServiceConstants.attachmentReferencesKey(contentHash);
+
+        //Assert
+        assertions.assertThat(givenAttachmentKey)
+                .describedAs("Changing constants should be worth prison for life")
+                .isEqualTo(EXPECTED_ATTACHMENT_KEY_PREFIX + contentHash);
+        assertions.assertThat(givenAttachmentReferencesKey)
+                .describedAs("Changing constants should be worth prison for life")
+                .isEqualTo(EXPECTED_ATTACHMENT_REFERENCES_KEY_PREFIX + contentHash);
+    }
+
+    @Test
+    public void shouldCreateSentHistoryKey() throws Exception {
+        //Act
+        String givenSentHistoryKey = RedisBasedPersistenceServiceConstants.sentHistoryKey("order-42");
+
+        //Assert
+        assertions.assertThat(givenSentHistoryKey)
+                .describedAs("Changing constants should be worth prison for life")
+                .isEqualTo(EXPECTED_SENT_HISTORY_KEY_PREFIX + "order-42");
+    }
+
+}
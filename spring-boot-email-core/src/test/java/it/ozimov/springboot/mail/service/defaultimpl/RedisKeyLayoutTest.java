@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.fail;
+
+public class RedisKeyLayoutTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldDefaultLayoutUseLegacyKeys() throws Exception {
+        //Arrange
+        final RedisKeyLayout keyLayout = RedisKeyLayout.defaultLayout();
+        final String id = UUID.randomUUID().toString();
+
+        //Act & Assert
+        assertions.assertThat(keyLayout.isHashTagged()).isFalse();
+        assertions.assertThat(keyLayout.partition(id)).isZero();
+        assertions.assertThat(keyLayout.valueKey(id)).isEqualTo(id);
+        assertions.assertThat(keyLayout.orderingKey(0, 3)).isEqualTo(RedisBasedPersistenceServiceConstants.orderingKey(3));
+        assertions.assertThat(keyLayout.inFlightKey(0)).isEqualTo(RedisBasedPersistenceServiceConstants.IN_FLIGHT_KEY);
+        assertions.assertThat(keyLayout.inFlightOriginKey(0)).isEqualTo(RedisBasedPersistenceServiceConstants.IN_FLIGHT_ORIGIN_KEY);
+        assertions.assertThat(keyLayout.attachmentKey("abc")).isEqualTo(RedisBasedPersistenceServiceConstants.attachmentKey("abc"));
+        assertions.assertThat(keyLayout.attachmentReferencesKey("abc"))
+                .isEqualTo(RedisBasedPersistenceServiceConstants.attachmentReferencesKey("abc"));
+    }
+
+    @Test
+    public void shouldPrefixKeysWithNamespace() throws Exception {
+        //Arrange
+        final RedisKeyLayout keyLayout = new RedisKeyLayout("mail", 0);
+
+        //Act & Assert
+        assertions.assertThat(keyLayout.valueKey("id")).isEqualTo("mail:id");
+        assertions.assertThat(keyLayout.orderingKey(0, 1)).isEqualTo("mail:priority-level:1");
+        assertions.assertThat(keyLayout.inFlightKey(0)).isEqualTo("mail:in-flight");
+        assertions.assertThat(keyLayout.attachmentKey("abc")).isEqualTo("mail:attachment:abc");
+        assertions.assertThat(keyLayout.attachmentKeyPattern()).isEqualTo("mail:attachment:*");
+        assertions.assertThat(keyLayout.sentHistoryKey("order-42")).isEqualTo("mail:sent-history:order-42");
+        assertions.assertThat(keyLayout.streamKey(1)).isEqualTo("mail:stream:priority-level:1");
+        assertions.assertThat(keyLayout.delayedKey(1)).isEqualTo("mail:delayed:priority-level:1");
+        assertions.assertThat(keyLayout.streamEntriesKey()).isEqualTo("mail:stream-entries");
+    }
+
+    @Test
+    public void shouldHashTagKeysOfPartitions() throws Exception {
+        //Arrange
+        final RedisKeyLayout keyLayout = new RedisKeyLayout("mail", 8);
+        final String id = UUID.randomUUID().toString();
+        final int partition = keyLayout.partition(id);
+
+        //Act & Assert
+        assertions.assertThat(keyLayout.isHashTagged()).isTrue();
+        assertions.assertThat(keyLayout.partition(id)).isEqualTo(partition).isBetween(0, 7);
+        assertions.assertThat(keyLayout.valueKey(id)).isEqualTo("mail:{" + partition + "}:" + id);
+        assertions.assertThat(keyLayout.orderingKey(partition, 2)).isEqualTo("mail:{" + partition + "}:priority-level:2");
+        assertions.assertThat(keyLayout.inFlightOriginKey(partition)).isEqualTo("mail:{" + partition + "}:in-flight-origin");
+        assertions.assertThat(keyLayout.attachmentReferencesKey("abc")).isEqualTo("mail:attachment-references:{abc}");
+        assertions.assertThat(keyLayout.partitionIndexes().boxed().collect(Collectors.toList()))
+                .containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnPartitionOutOfRange() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new RedisKeyLayout("mail", 4).orderingKey(4, 1);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionOnHashTaggedNamespace() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new RedisKeyLayout("{mail}", 4);
+
+        //Assert
+        fail();
+    }
+
+}
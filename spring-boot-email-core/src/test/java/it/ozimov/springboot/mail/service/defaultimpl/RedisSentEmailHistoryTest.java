@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.BaseRedisTest;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = BaseRedisTest.ContextConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class RedisSentEmailHistoryTest extends BaseRedisTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate template;
+
+    private RedisSentEmailHistory sentEmailHistory;
+
+    @Before
+    public void setUpSentEmailHistory() {
+        template = new StringRedisTemplate(connectionFactory);
+        sentEmailHistory = new RedisSentEmailHistory(template, Duration.ofMinutes(1), new RedisKeyLayout("mail", 0));
+    }
+
+    @Test
+    public void shouldAdmitKeyOnlyOnce() throws Exception {
+        //Act
+        final boolean firstAdmitted = sentEmailHistory.admit("order-42");
+        final boolean secondAdmitted = sentEmailHistory.admit("order-42");
+
+        //Assert
+        assertions.assertThat(firstAdmitted).isTrue();
+        assertions.assertThat(secondAdmitted).isFalse();
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isFalse();
+        assertions.assertThat(template.getExpire("mail:sent-history:order-42", TimeUnit.SECONDS)).isBetween(1L, 60L);
+    }
+
+    @Test
+    public void shouldRecordSentKey() throws Exception {
+        //Arrange
+        sentEmailHistory.admit("order-42");
+
+        //Act
+        sentEmailHistory.markSent("order-42");
+
+        //Assert
+        assertions.assertThat(sentEmailHistory.isSent("order-42")).isTrue();
+        assertions.assertThat(sentEmailHistory.admit("order-42")).isFalse();
+        assertions.assertThat(sentEmailHistory.isSent("order-43")).isFalse();
+        assertions.assertThat(template.getExpire("mail:sent-history:order-42", TimeUnit.SECONDS)).isBetween(1L, 60L);
+    }
+
+}
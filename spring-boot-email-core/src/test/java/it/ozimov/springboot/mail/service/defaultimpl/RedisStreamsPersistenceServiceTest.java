@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.BaseRedisTest;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = BaseRedisTest.ContextConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class RedisStreamsPersistenceServiceTest extends BaseRedisTest {
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Test
+    public void shouldSupportStreamsFromRedis62() throws Exception {
+        //Act & Assert
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("2.8.19")).isFalse();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("5.0.14")).isFalse();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("6.0.20")).isFalse();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("6.2.0")).isTrue();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("7.2.4")).isTrue();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams("unknown")).isFalse();
+        assertions.assertThat(RedisStreamsPersistenceService.supportsStreams(null)).isFalse();
+    }
+
+    @Test
+    public void shouldRejectRedisWithoutStreams() throws Exception {
+        //Arrange
+        Assume.assumeFalse(RedisStreamsPersistenceService.supportsStreams(redisVersion()));
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("requires REDIS 6.2 or later");
+
+        //Act
+        new RedisStreamsPersistenceService(valueTemplate());
+    }
+
+    @Test
+    public void shouldClaimEmailsOnceUntilTheirClaimExpires() throws Exception {
+        //Arrange
+        Assume.assumeTrue(RedisStreamsPersistenceService.supportsStreams(redisVersion()));
+        final RedisStreamsPersistenceService persistenceService = new RedisStreamsPersistenceService(valueTemplate());
+        final EmailSchedulingData low = createDefaultEmailSchedulingDataWithPriority(2);
+        final EmailSchedulingData high = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData delayed = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.DAYS.toNanos(1));
+        persistenceService.addAll(ImmutableList.of(low, high, delayed));
+
+        //Act
+        final Collection<EmailSchedulingData> claimed = persistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(200));
+        final Collection<EmailSchedulingData> claimedAgain = persistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(200));
+        TimeUnit.MILLISECONDS.sleep(400);
+        final Collection<EmailSchedulingData> expired = persistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMillis(200));
+        persistenceService.ack(expired.stream().map(EmailSchedulingData::getId).collect(Collectors.toList()));
+
+        //Assert
+        assertions.assertThat(claimed).containsExactly(high, low);
+        assertions.assertThat(claimedAgain).isEmpty();
+        assertions.assertThat(expired).containsExactly(high, low);
+        assertions.assertThat(persistenceService.get(high.getId())).isEmpty();
+        assertions.assertThat(persistenceService.get(low.getId())).isEmpty();
+        assertions.assertThat(persistenceService.getNextBatch(10)).containsExactly(delayed);
+    }
+
+    @Test
+    public void shouldPromoteDelayedEmailOnceDue() throws Exception {
+        //Arrange
+        Assume.assumeTrue(RedisStreamsPersistenceService.supportsStreams(redisVersion()));
+        final RedisStreamsPersistenceService persistenceService = new RedisStreamsPersistenceService(valueTemplate());
+        final EmailSchedulingData delayed = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.DAYS.toNanos(1));
+        persistenceService.add(delayed);
+
+        //Act
+        final Collection<EmailSchedulingData> notDue = persistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusMinutes(1), 10, Duration.ofMinutes(1));
+        final Collection<EmailSchedulingData> due = persistenceService.claimNextBatch(
+                TimeUtils.offsetDateTimeNow().plusDays(2), 10, Duration.ofMinutes(1));
+        final boolean removed = persistenceService.remove(delayed.getId());
+
+        //Assert
+        assertions.assertThat(notDue).isEmpty();
+        assertions.assertThat(due).containsExactly(delayed);
+        assertions.assertThat(removed).isTrue();
+        assertions.assertThat(persistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    private RedisTemplate<String, EmailSchedulingData> valueTemplate() {
+        final RedisTemplate<String, EmailSchedulingData> valueTemplate = new RedisTemplate<>();
+        valueTemplate.setConnectionFactory(connectionFactory);
+        return valueTemplate;
+    }
+
+    private String redisVersion() {
+        final RedisConnection connection = connectionFactory.getConnection();
+        try {
+            return connection.info("server").getProperty("redis_version");
+        } finally {
+            connection.close();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SendWatchdogTest {
+
+    private static final Duration SEND_TIMEOUT = Duration.ofMillis(200);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SendWatchdog sendWatchdog = new SendWatchdog(SEND_TIMEOUT);
+
+    @After
+    public void tearDown() {
+        sendWatchdog.close();
+    }
+
+    @Test
+    public void shouldReturnResultOfSendCompletedWithinTimeout() throws Exception {
+        //Act
+        final String result = sendWatchdog.call(() -> "sent");
+
+        //Assert
+        assertions.assertThat(result).isEqualTo("sent");
+        assertions.assertThat(sendWatchdog.getAbandoned()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldAbandonSendExceedingTimeout() throws Exception {
+        //Arrange
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        //Act
+        try {
+            sendWatchdog.call(() -> {
+                try {
+                    TimeUnit.SECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "sent";
+            });
+            assertions.fail("Expected the send to be abandoned");
+        } catch (TimeoutException e) {
+            //Expected
+        }
+
+        //Assert
+        assertions.assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+        assertions.assertThat(sendWatchdog.getAbandoned()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSendAgainWhileAbandonedSendIsStuck() throws Exception {
+        //Arrange
+        final CountDownLatch stuck = new CountDownLatch(1);
+        try {
+            sendWatchdog.call(() -> {
+                //Not interruptible, as a blocking socket read
+                while (stuck.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "sent";
+            });
+        } catch (TimeoutException e) {
+            //Expected
+        }
+
+        //Act
+        final String result = sendWatchdog.call(() -> "sent again");
+        stuck.countDown();
+
+        //Assert
+        assertions.assertThat(result).isEqualTo("sent again");
+    }
+
+    @Test
+    public void shouldRejectSendWhileAllThreadsAreStuck() throws Exception {
+        //Arrange
+        final SendWatchdog singleThreadWatchdog = new SendWatchdog(SEND_TIMEOUT, 1);
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final AtomicBoolean run = new AtomicBoolean();
+        try {
+            singleThreadWatchdog.call(() -> {
+                //Not interruptible, as a blocking socket read
+                while (stuck.getCount() > 0) {
+                    Thread.yield();
+                }
+                return "sent";
+            });
+        } catch (TimeoutException e) {
+            //Expected
+        }
+
+        //Act
+        try {
+            singleThreadWatchdog.call(() -> run.getAndSet(true));
+            assertions.fail("Expected the send to be rejected");
+        } catch (TimeoutException e) {
+            //Expected
+        } finally {
+            stuck.countDown();
+            singleThreadWatchdog.close();
+        }
+
+        //Assert
+        assertions.assertThat(run.get()).isFalse();
+        assertions.assertThat(singleThreadWatchdog.getAbandoned()).isEqualTo(1);
+        assertions.assertThat(singleThreadWatchdog.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRethrowExceptionOfSend() throws Exception {
+        //Act
+        try {
+            sendWatchdog.call(() -> {
+                throw new IllegalStateException("Connection refused");
+            });
+            assertions.fail("Expected the exception of the send");
+        } catch (IllegalStateException e) {
+            //Assert
+            assertions.assertThat(e).hasMessage("Connection refused");
+        }
+        assertions.assertThat(sendWatchdog.getAbandoned()).isEqualTo(0);
+    }
+
+}
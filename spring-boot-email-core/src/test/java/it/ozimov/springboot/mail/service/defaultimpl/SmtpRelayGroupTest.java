@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.SmtpRelayGroupProperties;
+import it.ozimov.springboot.mail.configuration.SmtpRelayGroupProperties.Balancing;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+
+public class SmtpRelayGroupTest {
+
+    private static final int FIRST_MAIL_PORT = 3028;
+
+    private static final int SECOND_MAIL_PORT = 3029;
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final Timeout timeout = new Timeout(20, TimeUnit.SECONDS);
+
+    private GreenMail firstSmtp;
+
+    private GreenMail secondSmtp;
+
+    private SmtpRelayGroup smtpRelayGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        firstSmtp = new GreenMail(new ServerSetup(FIRST_MAIL_PORT, null, "smtp"));
+        firstSmtp.start();
+        secondSmtp = new GreenMail(new ServerSetup(SECOND_MAIL_PORT, null, "smtp"));
+        secondSmtp.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (smtpRelayGroup != null) {
+            smtpRelayGroup.close();
+        }
+        firstSmtp.stop();
+        secondSmtp.stop();
+    }
+
+    @Test
+    public void shouldBalanceByWeightedRoundRobin() throws Exception {
+        //Arrange
+        smtpRelayGroup = relayGroup(Balancing.WEIGHTED_ROUND_ROBIN, 2, 1);
+
+        //Act
+        for (int i = 0; i < 6; i++) {
+            smtpRelayGroup.send(mimeMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(firstSmtp.waitForIncomingEmail(5_000, 4)).isTrue();
+        assertions.assertThat(secondSmtp.waitForIncomingEmail(5_000, 2)).isTrue();
+        assertions.assertThat(firstSmtp.getReceivedMessages()).hasSize(4);
+        assertions.assertThat(secondSmtp.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    public void shouldBalanceByLeastInFlight() throws Exception {
+        //Arrange
+        smtpRelayGroup = relayGroup(Balancing.LEAST_IN_FLIGHT, 1, 1);
+
+        //Act
+        smtpRelayGroup.send(mimeMessage(0), mimeMessage(1));
+
+        //Assert
+        assertions.assertThat(firstSmtp.waitForIncomingEmail(5_000, 2)).isTrue();
+        assertions.assertThat(smtpRelayGroup.getRelays().get(0).getInFlight()).isEqualTo(0);
+        assertions.assertThat(smtpRelayGroup.getRelays().get(1).getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldFailOverWhenRelayIsNotAvailable() throws Exception {
+        //Arrange
+        firstSmtp.stop();
+        smtpRelayGroup = relayGroup(Balancing.WEIGHTED_ROUND_ROBIN, 1, 1);
+
+        //Act
+        smtpRelayGroup.send(mimeMessage(0), mimeMessage(1), mimeMessage(2));
+
+        //Assert
+        assertions.assertThat(secondSmtp.waitForIncomingEmail(5_000, 3)).isTrue();
+        assertions.assertThat(smtpRelayGroup.getRelays().get(0).isAvailable()).isFalse();
+        assertions.assertThat(smtpRelayGroup.getRelays().get(1).isAvailable()).isTrue();
+    }
+
+    @Test
+    public void shouldUseRelayAgainOnceAvailable() throws Exception {
+        //Arrange
+        firstSmtp.stop();
+        smtpRelayGroup = relayGroup(Balancing.WEIGHTED_ROUND_ROBIN, 1, 1);
+        smtpRelayGroup.send(mimeMessage(0));
+        assertions.assertThat(smtpRelayGroup.getRelays().get(0).isAvailable()).isFalse();
+
+        //Act
+        firstSmtp = new GreenMail(new ServerSetup(FIRST_MAIL_PORT, null, "smtp"));
+        firstSmtp.start();
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        //Assert
+        assertions.assertThat(smtpRelayGroup.getRelays().get(0).isAvailable()).isTrue();
+    }
+
+    @Test
+    public void shouldThrowMailSendExceptionWhenNoRelayIsAvailable() throws Exception {
+        //Arrange
+        firstSmtp.stop();
+        secondSmtp.stop();
+        smtpRelayGroup = relayGroup(Balancing.WEIGHTED_ROUND_ROBIN, 1, 1);
+        final MimeMessage mimeMessage = mimeMessage(0);
+
+        //Act
+        try {
+            smtpRelayGroup.send(mimeMessage);
+            assertions.fail("Expected a MailSendException");
+        } catch (MailSendException e) {
+            //Assert
+            assertions.assertThat(e.getFailedMessages()).containsOnlyKeys(mimeMessage);
+        }
+    }
+
+    @Test
+    public void shouldRejectRelayWithoutHost() throws Exception {
+        //Arrange
+        final SmtpRelayGroupProperties smtpRelayGroupProperties = new SmtpRelayGroupProperties();
+        smtpRelayGroupProperties.setRelays(ImmutableList.of(new SmtpRelayGroupProperties.Relay()));
+
+        //Assert
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage(containsString("spring.mail.relayGroup.relays[*].host"));
+
+        //Act
+        smtpRelayGroup = new SmtpRelayGroup(smtpRelayGroupProperties, 10_000, 5_000, 100);
+    }
+
+    private static SmtpRelayGroup relayGroup(final Balancing balancing, final int firstWeight, final int secondWeight) {
+        final SmtpRelayGroupProperties smtpRelayGroupProperties = new SmtpRelayGroupProperties();
+        smtpRelayGroupProperties.setBalancing(balancing);
+        smtpRelayGroupProperties.setHealthCheckIntervalMillis(100);
+        smtpRelayGroupProperties.setRelays(ImmutableList.of(relay(FIRST_MAIL_PORT, firstWeight), relay(SECOND_MAIL_PORT, secondWeight)));
+        return new SmtpRelayGroup(smtpRelayGroupProperties, 10_000, 5_000, 100);
+    }
+
+    private static SmtpRelayGroupProperties.Relay relay(final int port, final int weight) {
+        final SmtpRelayGroupProperties.Relay relay = new SmtpRelayGroupProperties.Relay();
+        relay.setHost("localhost");
+        relay.setPort(port);
+        relay.setWeight(weight);
+        return relay;
+    }
+
+    private static MimeMessage mimeMessage(final int index) throws Exception {
+        final MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+        mimeMessage.setFrom(new InternetAddress("sender@localhost"));
+        mimeMessage.setRecipient(Message.RecipientType.TO, new InternetAddress("receiver@localhost"));
+        mimeMessage.setSubject("Message " + index);
+        mimeMessage.setText("Body " + index);
+        return mimeMessage;
+    }
+
+}
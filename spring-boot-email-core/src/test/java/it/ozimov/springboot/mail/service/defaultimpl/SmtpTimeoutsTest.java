@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Properties;
+
+public class SmtpTimeoutsTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldSetTimeoutsOfJavaMailSender() throws Exception {
+        //Arrange
+        final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        final SmtpTimeouts smtpTimeouts = new SmtpTimeouts(5_000, 30_000);
+
+        //Act
+        smtpTimeouts.postProcessBeforeInitialization(javaMailSender, "javaMailSender");
+
+        //Assert
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.connectiontimeout")).isEqualTo("5000");
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.timeout")).isEqualTo("30000");
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtps.connectiontimeout")).isEqualTo("5000");
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtps.timeout")).isEqualTo("30000");
+    }
+
+    @Test
+    public void shouldKeepTimeoutsGivenInJavaMailProperties() throws Exception {
+        //Arrange
+        final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        final Properties javaMailProperties = new Properties();
+        javaMailProperties.setProperty("mail.smtp.timeout", "1000");
+        javaMailSender.setJavaMailProperties(javaMailProperties);
+        final SmtpTimeouts smtpTimeouts = new SmtpTimeouts(5_000, 30_000);
+
+        //Act
+        smtpTimeouts.applyTo(javaMailSender);
+
+        //Assert
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.timeout")).isEqualTo("1000");
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.connectiontimeout")).isEqualTo("5000");
+    }
+
+    @Test
+    public void shouldLeaveJavaMailDefaultWhenTimeoutIsZero() throws Exception {
+        //Arrange
+        final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        final SmtpTimeouts smtpTimeouts = new SmtpTimeouts(0, 0);
+
+        //Act
+        smtpTimeouts.applyTo(javaMailSender);
+
+        //Assert
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.connectiontimeout")).isNull();
+        assertions.assertThat(javaMailSender.getSession().getProperty("mail.smtp.timeout")).isNull();
+    }
+
+    @Test
+    public void shouldIgnoreOtherBeans() throws Exception {
+        //Arrange
+        final Object bean = new Object();
+
+        //Act
+        final Object processed = new SmtpTimeouts(5_000, 30_000).postProcessBeforeInitialization(bean, "bean");
+
+        //Assert
+        assertions.assertThat(processed).isSameAs(bean);
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.Message;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.concurrent.TimeUnit;
+
+public class SmtpTransportPoolTest {
+
+    private static final int MAIL_PORT = 3027;
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final Timeout timeout = new Timeout(20, TimeUnit.SECONDS);
+
+    private GreenMail testSmtp;
+
+    private JavaMailSenderImpl javaMailSender;
+
+    private SmtpTransportPool smtpTransportPool;
+
+    @Before
+    public void setUp() throws Exception {
+        testSmtp = new GreenMail(new ServerSetup(MAIL_PORT, null, "smtp"));
+        testSmtp.start();
+
+        javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(MAIL_PORT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (smtpTransportPool != null) {
+            smtpTransportPool.close();
+        }
+        testSmtp.stop();
+    }
+
+    @Test
+    public void shouldReuseConnection() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 100);
+
+        //Act
+        for (int i = 0; i < 3; i++) {
+            smtpTransportPool.send(mimeMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(5_000, 3)).isTrue();
+        assertions.assertThat(smtpTransportPool.getOpenedConnections()).isEqualTo(1);
+        assertions.assertThat(smtpTransportPool.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOpenNewConnectionOnceMaxMessagesPerConnectionAreSent() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 2);
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            smtpTransportPool.send(mimeMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(5_000, 5)).isTrue();
+        assertions.assertThat(smtpTransportPool.getOpenedConnections()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldSendAllMessagesThroughOneConnection() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 100);
+
+        //Act
+        smtpTransportPool.send(mimeMessage(0), mimeMessage(1), mimeMessage(2));
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(5_000, 3)).isTrue();
+        assertions.assertThat(smtpTransportPool.getOpenedConnections()).isEqualTo(1);
+        assertions.assertThat(smtpTransportPool.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSplitMessagesSentTogetherOnceMaxMessagesPerConnectionAreSent() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 2);
+
+        //Act
+        smtpTransportPool.send(mimeMessage(0), mimeMessage(1), mimeMessage(2), mimeMessage(3), mimeMessage(4));
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(5_000, 5)).isTrue();
+        assertions.assertThat(smtpTransportPool.getOpenedConnections()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldCloseIdleConnections() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 100, 0, 100);
+        smtpTransportPool.send(mimeMessage(0));
+
+        //Act
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        //Assert
+        assertions.assertThat(smtpTransportPool.getIdleConnections()).isZero();
+    }
+
+    @Test
+    public void shouldReplaceConnectionClosedByServer() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 0, 100);
+        smtpTransportPool.send(mimeMessage(0));
+        testSmtp.stop();
+        testSmtp = new GreenMail(new ServerSetup(MAIL_PORT, null, "smtp"));
+        testSmtp.start();
+        TimeUnit.MILLISECONDS.sleep(10);
+
+        //Act
+        smtpTransportPool.send(mimeMessage(1));
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(5_000, 1)).isTrue();
+        assertions.assertThat(smtpTransportPool.getOpenedConnections()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldThrowMailSendExceptionWhenServerIsNotAvailable() throws Exception {
+        //Arrange
+        testSmtp.stop();
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 100);
+
+        //Assert
+        expectedException.expect(MailSendException.class);
+
+        //Act
+        smtpTransportPool.send(mimeMessage(0));
+    }
+
+    @Test
+    public void shouldRejectSendAfterClose() throws Exception {
+        //Arrange
+        smtpTransportPool = new SmtpTransportPool(javaMailSender, 2, 10_000, 5_000, 100);
+        smtpTransportPool.close();
+
+        //Assert
+        expectedException.expect(IllegalStateException.class);
+
+        //Act
+        smtpTransportPool.send(mimeMessage(0));
+    }
+
+    private MimeMessage mimeMessage(final int index) throws Exception {
+        final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        mimeMessage.setFrom(new InternetAddress("sender@localhost"));
+        mimeMessage.setRecipient(Message.RecipientType.TO, new InternetAddress("receiver@localhost"));
+        mimeMessage.setSubject("Message " + index);
+        mimeMessage.setText("Body " + index);
+        return mimeMessage;
+    }
+
+}
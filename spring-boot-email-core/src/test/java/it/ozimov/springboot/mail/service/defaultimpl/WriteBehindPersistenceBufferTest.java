@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteBehindPersistenceBufferTest {
+
+    private static final Duration LONG_INTERVAL = Duration.ofMinutes(1);
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
+
+    @Mock
+    private PersistenceService persistenceService;
+
+    private WriteBehindPersistenceBuffer buffer;
+
+    @After
+    public void tearDown() throws Exception {
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void shouldFlushOnceBatchIsFull() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 2, LONG_INTERVAL, 10);
+        final EmailSchedulingData first = createDefaultEmailSchedulingDataWithPriority(1);
+        final EmailSchedulingData second = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        buffer.add(first);
+        final CompletableFuture<Void> flushed = buffer.add(second);
+        flushed.get();
+
+        //Assert
+        final ArgumentCaptor<Collection> batchCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(persistenceService).addAll(batchCaptor.capture());
+        assertThat(batchCaptor.getValue()).containsExactly(first, second);
+        verify(persistenceService, never()).add(any());
+    }
+
+    @Test
+    public void shouldFlushOnceIntervalElapsed() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 100, Duration.ofMillis(50), 100);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        buffer.add(emailSchedulingData).get();
+
+        //Assert
+        verify(persistenceService).addAll(anyCollection());
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    public void shouldDropPendingDataOnRemove() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 100, LONG_INTERVAL, 100);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        buffer.add(emailSchedulingData);
+        final Runnable removal = () -> persistenceService.remove(emailSchedulingData.getId());
+
+        //Act
+        buffer.remove(emailSchedulingData.getId(), removal);
+        buffer.flush();
+
+        //Assert
+        assertThat(buffer.size()).isZero();
+        verify(persistenceService, never()).remove(any());
+        verify(persistenceService, never()).addAll(anyCollection());
+    }
+
+    @Test
+    public void shouldRunRemovalOfFlushedData() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 100, LONG_INTERVAL, 100);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        buffer.add(emailSchedulingData);
+        buffer.flush();
+
+        //Act
+        buffer.remove(emailSchedulingData.getId(), () -> persistenceService.remove(emailSchedulingData.getId()));
+
+        //Assert
+        verify(persistenceService).remove(emailSchedulingData.getId());
+    }
+
+    @Test
+    public void shouldRequeueBatchOnFailure() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 100, LONG_INTERVAL, 100);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        doThrow(new IllegalStateException("unavailable")).when(persistenceService).addAll(anyCollection());
+        final CompletableFuture<Void> flushed = buffer.add(emailSchedulingData);
+
+        //Act
+        buffer.flush();
+
+        //Assert
+        assertThat(flushed).isCompletedExceptionally();
+        assertThat(buffer.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDrainAndWriteThroughOnceClosed() throws Exception {
+        //Arrange
+        buffer = new WriteBehindPersistenceBuffer(persistenceService, 100, LONG_INTERVAL, 100);
+        final EmailSchedulingData pending = createDefaultEmailSchedulingDataWithPriority(1);
+        final CompletableFuture<Void> flushed = buffer.add(pending);
+
+        //Act
+        buffer.close();
+        final EmailSchedulingData late = createDefaultEmailSchedulingDataWithPriority(1);
+        buffer.add(late);
+
+        //Assert
+        assertThat(flushed).isCompleted();
+        verify(persistenceService, timeout(1_000)).addAll(anyCollection());
+        verify(persistenceService).add(late);
+    }
+
+    @Test
+    public void shouldRejectCapacitySmallerThanBatchSize() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+
+        //Act
+        new WriteBehindPersistenceBuffer(persistenceService, 10, LONG_INTERVAL, 5);
+    }
+
+}
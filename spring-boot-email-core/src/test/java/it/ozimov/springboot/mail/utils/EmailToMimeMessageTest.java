@@ -18,11 +18,13 @@ package it.ozimov.springboot.mail.utils;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import it.ozimov.springboot.mail.UnitTest;
 import it.ozimov.springboot.mail.model.Email;
 import it.ozimov.springboot.mail.model.EmailAttachment;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailAttachment;
+import it.ozimov.springboot.mail.model.defaultimpl.StreamingEmailAttachment;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -38,12 +40,17 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Arrays.asList;
 import static java.util.Objects.nonNull;
@@ -120,6 +127,78 @@ public class EmailToMimeMessageTest extends EmailToMimeMessageValidators impleme
         verify(javaMailSender).createMimeMessage();
     }
 
+    @Test
+    public void shouldSetGivenContentInPlaceOfBodyAndAttachments() throws Exception {
+        //Arrange
+        when(javaMailSender.createMimeMessage()).thenReturn(new MimeMessage((Session) null));
+
+        final Email email = getSimpleMailWithAttachments();
+        final MimeMultipart content = new MimeMultipart("mixed");
+        final MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText("<html><body>Salve</body></html>", StandardCharsets.UTF_8.name(), "html");
+        content.addBodyPart(textPart);
+
+        //Act
+        final MimeMessage message = emailToMimeMessage.apply(email, content);
+
+        //Assert
+        validateFrom(email, message);
+        validateTo(email, message);
+        validateSubject(email, message);
+        validateCustomHeaders(email, message);
+        assertions.assertThat(message.getContent()).isSameAs(content);
+        assertions.assertThat(content.getCount()).isEqualTo(1);
+        assertions.assertThat(message.getContentType()).startsWith("multipart/mixed");
+    }
+
+    @Test
+    public void shouldAddAttachmentsEncodedByCache() throws Exception {
+        //Arrange
+        when(javaMailSender.createMimeMessage()).thenReturn(new MimeMessage((Session) null));
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(1_048_576);
+        emailToMimeMessage.setEncodedPartCache(encodedPartCache);
+
+        final Email email = getSimpleMailWithAttachments();
+
+        //Act
+        final MimeMessage message = emailToMimeMessage.apply(email);
+
+        //Assert
+        final MimeMultipart content = (MimeMultipart) message.getContent();
+        assertions.assertThat(content.getCount()).isEqualTo(3);
+        assertions.assertThat(content.getBodyPart(1).getFileName()).isEqualTo("test1.csv");
+        assertions.assertThat(content.getBodyPart(2).getFileName()).isEqualTo("test2.csv");
+        assertions.assertThat(content.getBodyPart(2).getContent()).isEqualTo("col1,col2\n1,2\n3,4");
+        //Both the attachments have the same content
+        assertions.assertThat(encodedPartCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStreamContentOfStreamingAttachment() throws Exception {
+        //Arrange
+        when(javaMailSender.createMimeMessage()).thenReturn(new MimeMessage((Session) null));
+        final byte[] content = "col1,col2\n1,2\n3,4".getBytes(StandardCharsets.UTF_8);
+        final AtomicInteger openedStreams = new AtomicInteger();
+        final Email email = getSimpleMail(getCiceroMainMailAddress(), StreamingEmailAttachment.builder()
+                .attachmentName("streamed.csv")
+                .contentSource(() -> {
+                    openedStreams.incrementAndGet();
+                    return new ByteArrayInputStream(content);
+                })
+                .build());
+
+        //Act
+        final MimeMessage message = emailToMimeMessage.apply(email);
+        final int openedOnConversion = openedStreams.get();
+        message.writeTo(new ByteArrayOutputStream());
+
+        //Assert
+        final MimeBodyPart attachmentPart = (MimeBodyPart) ((MimeMultipart) message.getContent()).getBodyPart(1);
+        assertions.assertThat(attachmentPart.getFileName()).isEqualTo("streamed.csv");
+        assertions.assertThat(ByteStreams.toByteArray(attachmentPart.getInputStream())).isEqualTo(content);
+        assertions.assertThat(openedStreams.get()).isGreaterThan(openedOnConversion);
+    }
+
     @Test
     public void shouldIgnoreNullReplyTo() throws Exception {
         //Arrange
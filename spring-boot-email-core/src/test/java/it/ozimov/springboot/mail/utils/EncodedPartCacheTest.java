@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.utils;
+
+import com.google.common.io.ByteStreams;
+import it.ozimov.springboot.mail.model.EmailAttachment;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailAttachment;
+import it.ozimov.springboot.mail.model.defaultimpl.StreamingEmailAttachment;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+public class EncodedPartCacheTest {
+
+    private static final byte[] PDF_CONTENT = {'%', 'P', 'D', 'F', '-', 0, -1, 10, -128, 127};
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldEncodeOnceSameContentWithSameContentType() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(1_024);
+
+        //Act
+        final MimeBodyPart first = encodedPartCache.attachmentPart(attachment("first.pdf", PDF_CONTENT.clone(), MediaType.APPLICATION_PDF));
+        final MimeBodyPart second = encodedPartCache.attachmentPart(attachment("second.pdf", PDF_CONTENT.clone(), MediaType.APPLICATION_PDF));
+
+        //Assert
+        assertions.assertThat(encodedPartCache.size()).isEqualTo(1);
+        assertions.assertThat(first.getFileName()).isEqualTo("first.pdf");
+        assertions.assertThat(second.getFileName()).isEqualTo("second.pdf");
+        assertions.assertThat(second.getEncoding()).isEqualTo("base64");
+        assertions.assertThat(ByteStreams.toByteArray(second.getRawInputStream()))
+                .isEqualTo(ByteStreams.toByteArray(first.getRawInputStream()));
+    }
+
+    @Test
+    public void shouldEncodeSeparatelySameContentWithDifferentContentTypes() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(1_024);
+
+        //Act
+        encodedPartCache.attachmentPart(attachment("file.pdf", PDF_CONTENT, MediaType.APPLICATION_PDF));
+        final MimeBodyPart part = encodedPartCache.attachmentPart(attachment("file.bin", PDF_CONTENT, MediaType.APPLICATION_OCTET_STREAM));
+
+        //Assert
+        assertions.assertThat(encodedPartCache.size()).isEqualTo(2);
+        assertions.assertThat(part.getContentType()).startsWith("application/octet-stream");
+    }
+
+    @Test
+    public void shouldNotCacheEncodedBodyLargerThanMaxBytes() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(4);
+
+        //Act
+        final MimeBodyPart part = encodedPartCache.attachmentPart(attachment("file.pdf", PDF_CONTENT, MediaType.APPLICATION_PDF));
+
+        //Assert
+        assertions.assertThat(encodedPartCache.size()).isEqualTo(0);
+        assertions.assertThat(ByteStreams.toByteArray(part.getInputStream())).isEqualTo(PDF_CONTENT);
+    }
+
+    @Test
+    public void shouldWriteEncodedBodyWithoutEncodingItAgain() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(1_024);
+        final Session session = Session.getDefaultInstance(new Properties());
+        final MimeMessage mimeMessage = new MimeMessage(session);
+        final MimeMultipart content = new MimeMultipart();
+        content.addBodyPart(encodedPartCache.attachmentPart(attachment("file.pdf", PDF_CONTENT, MediaType.APPLICATION_PDF)));
+        mimeMessage.setContent(content);
+        mimeMessage.saveChanges();
+
+        //Act
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        mimeMessage.writeTo(written);
+
+        //Assert
+        final MimeMessage readMessage = new MimeMessage(session, new ByteArrayInputStream(written.toByteArray()));
+        final MimeBodyPart readPart = (MimeBodyPart) ((MimeMultipart) readMessage.getContent()).getBodyPart(0);
+        assertions.assertThat(readPart.getFileName()).isEqualTo("file.pdf");
+        assertions.assertThat(readPart.getContentType()).startsWith("application/pdf");
+        assertions.assertThat(ByteStreams.toByteArray(readPart.getInputStream())).isEqualTo(PDF_CONTENT);
+    }
+
+    @Test
+    public void shouldNotCacheStreamedAttachment() throws Exception {
+        //Arrange
+        final EncodedPartCache encodedPartCache = new EncodedPartCache(1_024);
+        final EmailAttachment streamed = StreamingEmailAttachment.builder()
+                .attachmentName("file.pdf")
+                .contentSource(() -> new ByteArrayInputStream(PDF_CONTENT))
+                .mediaType(MediaType.APPLICATION_PDF)
+                .build();
+
+        //Act
+        final MimeBodyPart part = encodedPartCache.attachmentPart(streamed);
+
+        //Assert
+        assertions.assertThat(encodedPartCache.size()).isEqualTo(0);
+        assertions.assertThat(part.getFileName()).isEqualTo("file.pdf");
+        assertions.assertThat(ByteStreams.toByteArray(part.getInputStream())).isEqualTo(PDF_CONTENT);
+    }
+
+    private static EmailAttachment attachment(final String name, final byte[] data, final MediaType mediaType) {
+        return DefaultEmailAttachment.builder()
+                .attachmentName(name)
+                .attachmentData(data)
+                .mediaType(mediaType)
+                .build();
+    }
+
+}
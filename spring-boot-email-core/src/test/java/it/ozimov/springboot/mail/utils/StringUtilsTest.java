@@ -16,6 +16,7 @@
 
 package it.ozimov.springboot.mail.utils;
 
+import com.google.common.collect.ImmutableMap;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Rule;
 import org.junit.Test;
@@ -63,4 +64,49 @@ public class StringUtilsTest {
                 .isEmpty();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldReplaceAllTheKeysInOnePass() throws Exception {
+        //Arrange
+        final String text = "<img src=\"logo.png\" /><img src=\"images/banner.jpg\" /><img src=\"logo.png\" />";
+
+        //Act
+        final String replaced = StringUtils.replaceEach(text,
+                ImmutableMap.of("logo.png", "cid:1", "images/banner.jpg", "cid:2"));
+
+        //Assert
+        assertions.assertThat(replaced)
+                .isEqualTo("<img src=\"cid:1\" /><img src=\"cid:2\" /><img src=\"cid:1\" />");
+    }
+
+    @Test
+    public void shouldReplaceLongestKeyMatchingAtSamePosition() throws Exception {
+        //Act
+        final String replaced = StringUtils.replaceEach("images/logo.png and logo.png",
+                ImmutableMap.of("logo.png", "cid:1", "images/logo.png", "cid:2"));
+
+        //Assert
+        assertions.assertThat(replaced).isEqualTo("cid:2 and cid:1");
+    }
+
+    @Test
+    public void shouldNotReplaceValuesInTurn() throws Exception {
+        //Act
+        final String replaced = StringUtils.replaceEach("a b", ImmutableMap.of("a", "b", "b", "c"));
+
+        //Assert
+        assertions.assertThat(replaced).isEqualTo("b c");
+    }
+
+    @Test
+    public void shouldReturnSameTextWhenNoKeyMatches() throws Exception {
+        //Arrange
+        final String text = "<img src=\"logo.png\" />";
+
+        //Act
+        final String replaced = StringUtils.replaceEach(text, ImmutableMap.of("banner.jpg", "cid:1", "", "cid:2"));
+
+        //Assert
+        assertions.assertThat(replaced).isSameAs(text);
+    }
+
+}